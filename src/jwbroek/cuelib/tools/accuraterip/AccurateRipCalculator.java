@@ -0,0 +1,530 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.accuraterip;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import jwbroek.cuelib.CueParser;
+import jwbroek.cuelib.CueSheet;
+import jwbroek.cuelib.FileData;
+import jwbroek.cuelib.TrackData;
+import jwbroek.flac.FlacDecoder;
+import jwbroek.flac.FlacInputStream;
+
+/**
+ * <p>Computes the AccurateRip v1 and v2 checksums of the tracks in a cue sheet, for matching against a local copy
+ * of the AccurateRip database. Nothing is looked up over the network.</p>
+ * <p>As on the disc, a track runs from its index 1 up to the index 1 of the next track, so the pregap of a track
+ * counts towards the previous track, regardless of any pregap handling used when cutting. The first five sectors of
+ * the first track and the last five sectors of the last track of the cue sheet are left out, as required by the
+ * algorithm. Only audio tracks are reported.</p>
+ * <p>The audio must be CD audio: 44.1 kHz, 16 bit, stereo. Files that javax.sound.sampled can read are processed
+ * in a single streaming pass. FLAC files can be read from any position, so their tracks are processed in
+ * parallel, on threads that are shared by all files. Call {@link #shutdown()} when the calculator is no longer
+ * needed, to stop them.</p>
+ * @author jwbroek
+ */
+public class AccurateRipCalculator
+{
+  /**
+   * Number of samples per channel in a CD sector.
+   */
+  private static final int SAMPLES_PER_SECTOR = 588;
+  /**
+   * Number of samples per channel at the start of the first track and at the end of the last track that are left out
+   * of the checksums.
+   */
+  private static final int SKIPPED_SAMPLES = 5 * AccurateRipCalculator.SAMPLES_PER_SECTOR;
+  /**
+   * Number of bytes in a stereo sample of CD audio.
+   */
+  private static final int BYTES_PER_SAMPLE = 4;
+  /**
+   * Size of the buffer used for reading audio.
+   */
+  private static final int BUFFER_SIZE = 65536;
+  
+  /**
+   * Executor on which the tracks of FLAC files are processed in parallel. Shared by all files, so that the number of
+   * threads stays bounded by the number of processors, however many files are processed concurrently. Its threads
+   * are daemons, and are only started when needed.
+   */
+  private final ExecutorService trackExecutor = Executors.newFixedThreadPool
+    ( Runtime.getRuntime().availableProcessors()
+    , new ThreadFactory()
+      {
+        public Thread newThread(final Runnable runnable)
+        {
+          final Thread thread = new Thread(runnable, "AccurateRipCalculator-track");
+          thread.setDaemon(true);
+          return thread;
+        }
+      }
+    );
+  
+  /**
+   * Create a new AccurateRipCalculator.
+   */
+  public AccurateRipCalculator()
+  {
+    // Intentionally empty.
+  }
+  
+  /**
+   * Stop the threads of this AccurateRipCalculator once the tracks that are being processed are done. No files may
+   * be processed after this.
+   */
+  public void shutdown()
+  {
+    this.trackExecutor.shutdown();
+  }
+  
+  /**
+   * Compute the AccurateRip checksums of all audio tracks in the cue sheet.
+   * @param cueSheet The cue sheet.
+   * @param parentDirectory Parent directory for relative paths in the cue sheet. May be null, in which case relative
+   * paths are relative to the working directory.
+   * @return The checksums of all audio tracks, in the order of the cue sheet.
+   * @throws IOException When an audio file could not be read, or is not CD audio.
+   * @throws UnsupportedAudioFileException When the type of an audio file is not supported.
+   */
+  public List<AccurateRipChecksum> calculate(final CueSheet cueSheet, final File parentDirectory)
+    throws IOException, UnsupportedAudioFileException
+  {
+    final List<AccurateRipChecksum> result = new ArrayList<AccurateRipChecksum>();
+    for (FileData fileData : cueSheet.getFileData())
+    {
+      File audioFile = new File(fileData.getFile());
+      if (audioFile.getParent()==null)
+      {
+        audioFile = new File(parentDirectory, fileData.getFile());
+      }
+      result.addAll(this.calculate(fileData, audioFile));
+    }
+    return result;
+  }
+  
+  /**
+   * Compute the AccurateRip checksums of the audio tracks in the FileData. Whether the first and last five sectors
+   * are left out depends on whether the FileData holds the first and last track of its cue sheet.
+   * @param fileData The FileData.
+   * @param audioFile The audio file that the FileData refers to.
+   * @return The checksums of the audio tracks in the FileData.
+   * @throws IOException When the audio file could not be read, or is not CD audio.
+   * @throws UnsupportedAudioFileException When the type of the audio file is not supported.
+   */
+  public List<AccurateRipChecksum> calculate(final FileData fileData, final File audioFile)
+    throws IOException, UnsupportedAudioFileException
+  {
+    if (FlacDecoder.isFlacFile(audioFile))
+    {
+      return this.calculateFlac(fileData, audioFile);
+    }
+    
+    final AudioInputStream audioInputStream =
+      AudioSystem.getAudioInputStream(new BufferedInputStream(new FileInputStream(audioFile)));
+    try
+    {
+      checkFormat(audioInputStream.getFormat(), audioFile);
+      final List<TrackRange> trackRanges = getTrackRanges(fileData, audioInputStream.getFrameLength(), audioFile);
+      final boolean bigEndian = audioInputStream.getFormat().isBigEndian();
+      
+      // Process all tracks in a single pass, skipping only the audio before the first track.
+      final List<AccurateRipChecksum> result = new ArrayList<AccurateRipChecksum>();
+      if (!trackRanges.isEmpty())
+      {
+        skipFully(audioInputStream, trackRanges.get(0).startSample * AccurateRipCalculator.BYTES_PER_SAMPLE);
+      }
+      for (TrackRange trackRange : trackRanges)
+      {
+        final AccurateRipChecksum checksum = trackRange.accumulate(audioInputStream, bigEndian);
+        if (trackRange.isAudio())
+        {
+          result.add(checksum);
+        }
+      }
+      return result;
+    }
+    finally
+    {
+      audioInputStream.close();
+    }
+  }
+  
+  /**
+   * Compute the AccurateRip checksums of the audio tracks in the FileData, which refers to a FLAC file. Each track is
+   * decoded independently from its own starting frame, so the tracks are processed in parallel on the executor shared
+   * by all files.
+   * @param fileData The FileData.
+   * @param audioFile The FLAC file that the FileData refers to.
+   * @return The checksums of the audio tracks in the FileData.
+   * @throws IOException When the audio file could not be read, or is not CD audio.
+   */
+  private List<AccurateRipChecksum> calculateFlac(final FileData fileData, final File audioFile) throws IOException
+  {
+    final FlacDecoder decoder = new FlacDecoder(audioFile);
+    try
+    {
+      checkFormat(decoder.getAudioFormat(), audioFile);
+      final List<TrackRange> trackRanges = new ArrayList<TrackRange>();
+      for (TrackRange trackRange : getTrackRanges
+        (fileData, decoder.getTotalSamples() > 0 ? decoder.getTotalSamples() : -1, audioFile))
+      {
+        if (trackRange.isAudio())
+        {
+          trackRanges.add(trackRange);
+        }
+      }
+      if (trackRanges.isEmpty())
+      {
+        return new ArrayList<AccurateRipChecksum>();
+      }
+      
+      final List<Future<AccurateRipChecksum>> futures = new ArrayList<Future<AccurateRipChecksum>>();
+      try
+      {
+        for (final TrackRange trackRange : trackRanges)
+        {
+          futures.add(this.trackExecutor.submit(new Callable<AccurateRipChecksum>()
+          {
+            public AccurateRipChecksum call() throws IOException
+            {
+              final FlacInputStream flacInputStream = decoder.openStream
+                (trackRange.startSample, trackRange.startSample + trackRange.sampleCount);
+              try
+              {
+                return trackRange.accumulate(flacInputStream, false);
+              }
+              finally
+              {
+                flacInputStream.close();
+              }
+            }
+          }));
+        }
+        
+        final List<AccurateRipChecksum> result = new ArrayList<AccurateRipChecksum>();
+        for (Future<AccurateRipChecksum> future : futures)
+        {
+          try
+          {
+            result.add(future.get());
+          }
+          catch (ExecutionException e)
+          {
+            if (e.getCause() instanceof IOException)
+            {
+              throw (IOException) e.getCause();
+            }
+            final IOException resultException = new IOException("Could not read track from " + audioFile);
+            resultException.initCause(e.getCause());
+            throw resultException;
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+            final IOException resultException = new IOException("Interrupted while reading " + audioFile);
+            resultException.initCause(e);
+            throw resultException;
+          }
+        }
+        return result;
+      }
+      finally
+      {
+        // Only has an effect on failure, as all tracks are done otherwise.
+        for (Future<AccurateRipChecksum> future : futures)
+        {
+          future.cancel(true);
+        }
+      }
+    }
+    finally
+    {
+      decoder.close();
+    }
+  }
+  
+  /**
+   * Check that the audio format is that of CD audio.
+   * @param audioFormat The audio format.
+   * @param audioFile The audio file, for use in the error message.
+   * @throws IOException When the audio format is not that of CD audio.
+   */
+  private static void checkFormat(final AudioFormat audioFormat, final File audioFile) throws IOException
+  {
+    if  ( !AudioFormat.Encoding.PCM_SIGNED.equals(audioFormat.getEncoding())
+        || audioFormat.getSampleRate() != 44100
+        || audioFormat.getSampleSizeInBits() != 16
+        || audioFormat.getChannels() != 2
+        )
+    {
+      throw new IOException("AccurateRip requires 44.1 kHz, 16 bit, stereo audio, but " + audioFile + " is "
+        + audioFormat + ".");
+    }
+  }
+  
+  /**
+   * Get the ranges of all tracks in the FileData.
+   * @param fileData The FileData.
+   * @param totalSamples The total number of samples per channel in the audio file, or a negative value if unknown.
+   * @param audioFile The audio file, for use in error messages.
+   * @return The ranges of all tracks in the FileData, in order.
+   * @throws IOException When the number of samples is needed, but unknown.
+   */
+  private static List<TrackRange> getTrackRanges
+    ( final FileData fileData
+    , final long totalSamples
+    , final File audioFile
+    ) throws IOException
+  {
+    final List<TrackRange> result = new ArrayList<TrackRange>();
+    final List<TrackData> trackDataList = fileData.getTrackData();
+    final List<FileData> fileDataList = fileData.getParent().getFileData();
+    final boolean isFirstFile = fileDataList.get(0) == fileData;
+    final boolean isLastFile = fileDataList.get(fileDataList.size() - 1) == fileData;
+    
+    for (int trackIndex = 0; trackIndex < trackDataList.size(); trackIndex++)
+    {
+      final TrackData trackData = trackDataList.get(trackIndex);
+      final long startSample = getStartSample(trackData);
+      final long endSample;
+      if (trackIndex + 1 < trackDataList.size())
+      {
+        endSample = getStartSample(trackDataList.get(trackIndex + 1));
+      }
+      else if (totalSamples >= 0)
+      {
+        endSample = totalSamples;
+      }
+      else
+      {
+        throw new IOException("Length of audio in " + audioFile + " is unknown.");
+      }
+      result.add(new TrackRange
+        ( trackData
+        , startSample
+        , Math.max(0, endSample - startSample)
+        , isFirstFile && trackIndex == 0
+        , isLastFile && trackIndex == trackDataList.size() - 1
+        ));
+    }
+    return result;
+  }
+  
+  /**
+   * Get the first sample of the track: the sample at its index 1.
+   * @param trackData The track.
+   * @return The first sample of the track.
+   */
+  private static long getStartSample(final TrackData trackData)
+  {
+    return ((long) trackData.getIndex(1).getPosition().getTotalFrames()) * AccurateRipCalculator.SAMPLES_PER_SECTOR;
+  }
+  
+  /**
+   * Skip exactly the specified number of bytes in the stream.
+   * @param inputStream The stream.
+   * @param byteCount The number of bytes to skip.
+   * @throws IOException When the stream ends before the bytes have been skipped.
+   */
+  private static void skipFully(final InputStream inputStream, final long byteCount) throws IOException
+  {
+    long remaining = byteCount;
+    while (remaining > 0)
+    {
+      final long skipped = inputStream.skip(remaining);
+      if (skipped <= 0)
+      {
+        throw new IOException("Unexpected end of audio.");
+      }
+      remaining -= skipped;
+    }
+  }
+  
+  /**
+   * The range of a single track in the audio file, and the part of it that is covered by the checksums.
+   */
+  private static class TrackRange
+  {
+    /**
+     * The track.
+     */
+    private final TrackData trackData;
+    /**
+     * The first sample of the track in the audio file.
+     */
+    private final long startSample;
+    /**
+     * The number of samples in the track.
+     */
+    private final long sampleCount;
+    /**
+     * The first multiplier, and thus the first sample, covered by the checksums. Multipliers start at 1.
+     */
+    private final long checkStart;
+    /**
+     * The last multiplier, and thus the last sample, covered by the checksums.
+     */
+    private final long checkEnd;
+    
+    /**
+     * Create a new TrackRange.
+     * @param trackData The track.
+     * @param startSample The first sample of the track in the audio file.
+     * @param sampleCount The number of samples in the track.
+     * @param isFirstTrack Whether this is the first track of the disc.
+     * @param isLastTrack Whether this is the last track of the disc.
+     */
+    public TrackRange
+      ( final TrackData trackData
+      , final long startSample
+      , final long sampleCount
+      , final boolean isFirstTrack
+      , final boolean isLastTrack
+      )
+    {
+      this.trackData = trackData;
+      this.startSample = startSample;
+      this.sampleCount = sampleCount;
+      // These bounds are those of the reference implementation, including its off by one at the start.
+      this.checkStart = isFirstTrack ? AccurateRipCalculator.SKIPPED_SAMPLES - 1 : 0;
+      this.checkEnd = isLastTrack ? sampleCount - AccurateRipCalculator.SKIPPED_SAMPLES : sampleCount;
+    }
+    
+    /**
+     * Get whether the track is an audio track.
+     * @return Whether the track is an audio track.
+     */
+    public boolean isAudio()
+    {
+      return this.trackData.getDataType() == null || "AUDIO".equalsIgnoreCase(this.trackData.getDataType());
+    }
+    
+    /**
+     * Read the samples of the track from the stream and compute its checksums. The stream must be positioned at the
+     * first sample of the track, and will be positioned just beyond the last sample afterward.
+     * @param inputStream The stream to read 16 bit stereo samples from.
+     * @param bigEndian Whether the samples are big-endian.
+     * @return The checksums of the track.
+     * @throws IOException When the stream could not be read, or ended before the end of the track.
+     */
+    public AccurateRipChecksum accumulate(final InputStream inputStream, final boolean bigEndian) throws IOException
+    {
+      final byte [] buffer = new byte[AccurateRipCalculator.BUFFER_SIZE];
+      // Both checksums are sums modulo 2^32, so int arithmetic does the job.
+      int checksumLow = 0;
+      int checksumHigh = 0;
+      long multiplier = 1;
+      long remainingBytes = this.sampleCount * AccurateRipCalculator.BYTES_PER_SAMPLE;
+      
+      while (remainingBytes > 0)
+      {
+        final int length = (int) Math.min(buffer.length, remainingBytes);
+        int filled = 0;
+        while (filled < length)
+        {
+          final int bytesRead = inputStream.read(buffer, filled, length - filled);
+          if (bytesRead == -1)
+          {
+            throw new IOException("Unexpected end of audio in track " + this.trackData.getNumber() + ".");
+          }
+          filled += bytesRead;
+        }
+        remainingBytes -= length;
+        
+        for (int offset = 0; offset < length; offset += AccurateRipCalculator.BYTES_PER_SAMPLE)
+        {
+          if (multiplier >= this.checkStart && multiplier <= this.checkEnd)
+          {
+            // A stereo sample as a little-endian 32 bit word: left channel in the low half.
+            final long sample;
+            if (bigEndian)
+            {
+              sample = (buffer[offset + 1] & 0xFF)
+                | (buffer[offset] & 0xFF) << 8
+                | (buffer[offset + 3] & 0xFF) << 16
+                | (buffer[offset + 2] & 0xFFL) << 24;
+            }
+            else
+            {
+              sample = (buffer[offset] & 0xFF)
+                | (buffer[offset + 1] & 0xFF) << 8
+                | (buffer[offset + 2] & 0xFF) << 16
+                | (buffer[offset + 3] & 0xFFL) << 24;
+            }
+            // Both factors are below 2^32, so the product fits in 64 bits when taken as unsigned.
+            final long product = sample * multiplier;
+            checksumLow += (int) product;
+            checksumHigh += (int) (product >>> 32);
+          }
+          multiplier++;
+        }
+      }
+      
+      final AccurateRipChecksum result = new AccurateRipChecksum
+        (this.trackData, this.sampleCount, checksumLow, checksumLow + checksumHigh);
+      return result;
+    }
+  }
+  
+  /**
+   * Print the AccurateRip checksums of all audio tracks in the specified cue sheets to standard out, one line per
+   * track as per {@link AccurateRipChecksum#toString()}.
+   * @param args The cue sheets to process.
+   */
+  public static void main(final String [] args)
+  {
+    final AccurateRipCalculator calculator = new AccurateRipCalculator();
+    for (String arg : args)
+    {
+      try
+      {
+        final File cueFile = new File(arg);
+        System.out.println(cueFile);
+        for (AccurateRipChecksum checksum : calculator.calculate(CueParser.parse(cueFile), cueFile.getParentFile()))
+        {
+          System.out.println(checksum);
+        }
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+    }
+    calculator.shutdown();
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.accuraterip;
+
+import jwbroek.cuelib.TrackData;
+
+/**
+ * The AccurateRip checksums of a single track, as computed by {@link AccurateRipCalculator}.
+ * @author jwbroek
+ */
+public class AccurateRipChecksum
+{
+  /**
+   * The track that the checksums are for.
+   */
+  private final TrackData trackData;
+  /**
+   * The number of samples per channel in the track.
+   */
+  private final long sampleCount;
+  /**
+   * The AccurateRip v1 checksum.
+   */
+  private final int checksumV1;
+  /**
+   * The AccurateRip v2 checksum.
+   */
+  private final int checksumV2;
+  
+  /**
+   * Create a new AccurateRipChecksum.
+   * @param trackData The track that the checksums are for.
+   * @param sampleCount The number of samples per channel in the track.
+   * @param checksumV1 The AccurateRip v1 checksum.
+   * @param checksumV2 The AccurateRip v2 checksum.
+   */
+  public AccurateRipChecksum
+    ( final TrackData trackData
+    , final long sampleCount
+    , final int checksumV1
+    , final int checksumV2
+    )
+  {
+    this.trackData = trackData;
+    this.sampleCount = sampleCount;
+    this.checksumV1 = checksumV1;
+    this.checksumV2 = checksumV2;
+  }
+  
+  /**
+   * Get the track that the checksums are for.
+   * @return The track that the checksums are for.
+   */
+  public TrackData getTrackData()
+  {
+    return this.trackData;
+  }
+  
+  /**
+   * Get the number of samples per channel in the track.
+   * @return The number of samples per channel in the track.
+   */
+  public long getSampleCount()
+  {
+    return this.sampleCount;
+  }
+  
+  /**
+   * Get the AccurateRip v1 checksum.
+   * @return The AccurateRip v1 checksum.
+   */
+  public int getChecksumV1()
+  {
+    return this.checksumV1;
+  }
+  
+  /**
+   * Get the AccurateRip v2 checksum.
+   * @return The AccurateRip v2 checksum.
+   */
+  public int getChecksumV2()
+  {
+    return this.checksumV2;
+  }
+  
+  /**
+   * Get a textual representation of the checksums, of the form "track v1 v2", with the checksums in hexadecimal.
+   * @return A textual representation of the checksums.
+   */
+  @Override
+  public String toString()
+  {
+    return String.format("%02d %08x %08x", this.trackData.getNumber(), this.checksumV1, this.checksumV2);
+  }
+}
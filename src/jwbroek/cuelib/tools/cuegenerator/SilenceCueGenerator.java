@@ -0,0 +1,552 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.cuegenerator;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import jwbroek.cuelib.CueSheet;
+import jwbroek.cuelib.CueSheetSerializer;
+import jwbroek.cuelib.FileData;
+import jwbroek.cuelib.Index;
+import jwbroek.cuelib.Position;
+import jwbroek.cuelib.TrackData;
+import jwbroek.flac.FlacDecoder;
+import jwbroek.util.SimpleOptionsParser;
+
+/**
+ * <p>Generates a cue sheet for a long recording, such as a live set, by splitting it at silences.</p>
+ * <p>The audio is analyzed in windows of one CD frame (1/75 second), so that the indices fall exactly on the
+ * positions that a cue sheet can express. A window is silent if both its RMS level and its peak level are at or
+ * below their thresholds. A run of silent windows that lasts at least the minimum silence length separates two
+ * tracks, provided that the track before it lasts at least the minimum track length. The silence becomes the
+ * pregap of the next track: index 0 is where the silence starts, and index 1 is where the audio resumes. Silence at
+ * the start and the end of the recording is left with the first and last track.</p>
+ * <p>The audio is read in a single streaming pass with a fixed size buffer, so files of any length can be processed
+ * in constant memory. Levels are computed on 16 bit samples; samples with more bits are truncated.</p>
+ * @author jwbroek
+ */
+public class SilenceCueGenerator
+{
+  /**
+   * Number of CD frames per second.
+   */
+  private static final int FRAMES_PER_SECOND = 75;
+  /**
+   * Number of windows to read at once.
+   */
+  private static final int WINDOWS_PER_READ = 75;
+  /**
+   * Full scale of a 16 bit sample.
+   */
+  private static final double FULL_SCALE = 32768.0;
+  
+  /**
+   * Maximum RMS level of a silent window, in dB relative to full scale.
+   */
+  private double rmsThreshold = -50.0;
+  /**
+   * Maximum peak level of a silent window, in dB relative to full scale.
+   */
+  private double peakThreshold = -30.0;
+  /**
+   * Minimum length of a silence that separates two tracks, in CD frames.
+   */
+  private long minimumSilenceFrames = 2 * SilenceCueGenerator.FRAMES_PER_SECOND;
+  /**
+   * Minimum length of a track, in CD frames.
+   */
+  private long minimumTrackFrames = 30 * SilenceCueGenerator.FRAMES_PER_SECOND;
+  
+  /**
+   * Create a new SilenceCueGenerator with default thresholds: -50 dBFS RMS, -30 dBFS peak, silences of at least 2
+   * seconds, and tracks of at least 30 seconds.
+   */
+  public SilenceCueGenerator()
+  {
+    // Intentionally empty.
+  }
+  
+  /**
+   * Generate a cue sheet for the specified audio file. The cue sheet refers to the file by name only, so it should
+   * be stored in the same directory.
+   * @param audioFile The audio file. May be any format supported by javax.sound.sampled, or FLAC.
+   * @return A cue sheet with a track for every part of the recording between silences.
+   * @throws IOException When the audio file could not be read.
+   * @throws UnsupportedAudioFileException When the type of the audio file is not supported.
+   */
+  public CueSheet generate(final File audioFile) throws IOException, UnsupportedAudioFileException
+  {
+    if (FlacDecoder.isFlacFile(audioFile))
+    {
+      final FlacDecoder decoder = new FlacDecoder(audioFile);
+      try
+      {
+        return this.generate(decoder.getAudioInputStream(0, -1), audioFile.getName(), "WAVE");
+      }
+      finally
+      {
+        decoder.close();
+      }
+    }
+    
+    final AudioFileFormat.Type type = AudioSystem.getAudioFileFormat(audioFile).getType();
+    final String fileType = AudioFileFormat.Type.AIFF.equals(type) || AudioFileFormat.Type.AIFC.equals(type)
+      ? "AIFF"
+      : "WAVE";
+    final AudioInputStream audioInputStream =
+      AudioSystem.getAudioInputStream(new BufferedInputStream(new FileInputStream(audioFile)));
+    try
+    {
+      return this.generate(audioInputStream, audioFile.getName(), fileType);
+    }
+    finally
+    {
+      audioInputStream.close();
+    }
+  }
+  
+  /**
+   * Generate a cue sheet for the audio in the specified stream. The stream is read until its end, but not closed.
+   * @param audioInputStream The audio.
+   * @param fileName The name of the audio file, for the FILE command of the cue sheet.
+   * @param fileType The type of the audio file, for the FILE command of the cue sheet, such as "WAVE".
+   * @return A cue sheet with a track for every part of the recording between silences.
+   * @throws IOException When the audio could not be read, or its format is not supported.
+   */
+  public CueSheet generate
+    ( final AudioInputStream audioInputStream
+    , final String fileName
+    , final String fileType
+    ) throws IOException
+  {
+    final AudioInputStream pcmInputStream = SilenceCueGenerator.getPcmInputStream(audioInputStream);
+    final AudioFormat format = pcmInputStream.getFormat();
+    final int frameSize = format.getFrameSize();
+    final int channels = format.getChannels();
+    final double samplesPerWindow = format.getFrameRate() / SilenceCueGenerator.FRAMES_PER_SECOND;
+    
+    // Compare squares and absolute values of samples, so that no logarithms are needed per window.
+    final double rmsLimit = SilenceCueGenerator.FULL_SCALE * Math.pow(10, this.rmsThreshold / 20);
+    final double meanSquareLimit = rmsLimit * rmsLimit;
+    final int peakLimit = (int) (SilenceCueGenerator.FULL_SCALE * Math.pow(10, this.peakThreshold / 20));
+    
+    final int maxSamplesPerRead = (int) Math.ceil(samplesPerWindow * SilenceCueGenerator.WINDOWS_PER_READ) + 1;
+    final byte [] bytes = new byte[maxSamplesPerRead * frameSize];
+    final short [] values = new short[maxSamplesPerRead * channels];
+    
+    final CueSheet result = new CueSheet();
+    final FileData fileData = new FileData(result, fileName, fileType);
+    result.getFileData().add(fileData);
+    SilenceCueGenerator.addTrack(fileData, -1, 0);
+    
+    long window = 0;
+    long silenceStart = -1;
+    long trackStart = 0;
+    boolean endOfStream = false;
+    while (!endOfStream)
+    {
+      // Read the next batch of windows. The window boundaries are rounded to whole samples in the same way as
+      // TrackCutter does, so the tracks can be cut exactly at the indices.
+      final long firstSample = Math.round(samplesPerWindow * window);
+      final int requestedSamples = (int)
+        (Math.round(samplesPerWindow * (window + SilenceCueGenerator.WINDOWS_PER_READ)) - firstSample);
+      final int bytesRead = SilenceCueGenerator.readFully(pcmInputStream, bytes, requestedSamples * frameSize);
+      final int samplesRead = bytesRead / frameSize;
+      endOfStream = samplesRead < requestedSamples;
+      SilenceCueGenerator.toShorts(bytes, samplesRead * frameSize, format, values);
+      
+      for (int batchIndex = 0; batchIndex < SilenceCueGenerator.WINDOWS_PER_READ; batchIndex++)
+      {
+        final int from = (int) (Math.round(samplesPerWindow * window) - firstSample);
+        final int to = (int) Math.min(Math.round(samplesPerWindow * (window + 1)) - firstSample, samplesRead);
+        if (from >= to)
+        {
+          break;
+        }
+        
+        if (SilenceCueGenerator.isSilent(values, from * channels, to * channels, meanSquareLimit, peakLimit))
+        {
+          if (silenceStart == -1)
+          {
+            silenceStart = window;
+          }
+        }
+        else if (silenceStart != -1)
+        {
+          if  ( window - silenceStart >= this.minimumSilenceFrames
+              && silenceStart - trackStart >= this.minimumTrackFrames
+              )
+          {
+            SilenceCueGenerator.addTrack(fileData, silenceStart, window);
+            trackStart = window;
+          }
+          silenceStart = -1;
+        }
+        window++;
+      }
+    }
+    
+    // Merge a last track that is too short into the one before it.
+    if (fileData.getTrackData().size() > 1 && window - trackStart < this.minimumTrackFrames)
+    {
+      fileData.getTrackData().remove(fileData.getTrackData().size() - 1);
+    }
+    return result;
+  }
+  
+  /**
+   * Determine whether the samples form a silent window.
+   * @param values The samples, with the channels interleaved.
+   * @param from Index of the first value of the window.
+   * @param to Index just beyond the last value of the window.
+   * @param meanSquareLimit Maximum mean of the squared values.
+   * @param peakLimit Maximum absolute value.
+   * @return Whether the samples form a silent window.
+   */
+  private static boolean isSilent
+    ( final short [] values
+    , final int from
+    , final int to
+    , final double meanSquareLimit
+    , final int peakLimit
+    )
+  {
+    // A simple counted loop without early exit, so that the JIT compiler can vectorize it.
+    long sumOfSquares = 0;
+    int peak = 0;
+    for (int index = from; index < to; index++)
+    {
+      final int value = values[index];
+      sumOfSquares += value * value;
+      peak = Math.max(peak, Math.abs(value));
+    }
+    final boolean result = peak <= peakLimit && sumOfSquares <= meanSquareLimit * (to - from);
+    return result;
+  }
+  
+  /**
+   * Convert PCM samples to 16 bit values, keeping the most significant bits.
+   * @param bytes The samples.
+   * @param length The number of bytes to convert.
+   * @param format The format of the samples. Must be PCM with 8, 16, 24 or 32 bits per sample.
+   * @param values Array that receives the values.
+   */
+  private static void toShorts(final byte [] bytes, final int length, final AudioFormat format, final short [] values)
+  {
+    final int bytesPerValue = format.getSampleSizeInBits() / 8;
+    if (bytesPerValue == 2)
+    {
+      ByteBuffer.wrap(bytes, 0, length)
+        .order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN)
+        .asShortBuffer()
+        .get(values, 0, length / 2);
+    }
+    else if (bytesPerValue == 1)
+    {
+      final boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+      final int mask = unsigned ? 0xFF : -1;
+      final int offset = unsigned ? 128 : 0;
+      for (int index = 0; index < length; index++)
+      {
+        values[index] = (short) (((bytes[index] & mask) - offset) << 8);
+      }
+    }
+    else
+    {
+      final int highOffset = format.isBigEndian() ? 0 : bytesPerValue - 1;
+      final int lowOffset = format.isBigEndian() ? 1 : bytesPerValue - 2;
+      for (int index = 0, byteIndex = 0; byteIndex < length; index++, byteIndex += bytesPerValue)
+      {
+        values[index] = (short) (bytes[byteIndex + highOffset] << 8 | (bytes[byteIndex + lowOffset] & 0xFF));
+      }
+    }
+  }
+  
+  /**
+   * Get a stream of the audio as signed or unsigned integer PCM, converting it if needed.
+   * @param audioInputStream The audio.
+   * @return A stream of the audio as integer PCM with 8, 16, 24 or 32 bits per sample.
+   * @throws IOException When the audio can not be converted to such PCM.
+   */
+  private static AudioInputStream getPcmInputStream(final AudioInputStream audioInputStream) throws IOException
+  {
+    final AudioFormat format = audioInputStream.getFormat();
+    final boolean isPcm = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+      || AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+    final int bits = format.getSampleSizeInBits();
+    if (isPcm && (bits == 8 || bits == 16 || bits == 24 || bits == 32))
+    {
+      return audioInputStream;
+    }
+    
+    final AudioFormat targetFormat = new AudioFormat
+      (format.getSampleRate(), 16, format.getChannels(), true, false);
+    if (!AudioSystem.isConversionSupported(targetFormat, format))
+    {
+      throw new IOException("Unsupported audio format: " + format + ".");
+    }
+    return AudioSystem.getAudioInputStream(targetFormat, audioInputStream);
+  }
+  
+  /**
+   * Read from the stream until the specified number of bytes have been read, or the stream ends.
+   * @param inputStream The stream.
+   * @param buffer The buffer to read into.
+   * @param length The number of bytes to read.
+   * @return The number of bytes read. Only less than the length if the stream has ended.
+   * @throws IOException When the stream could not be read.
+   */
+  private static int readFully(final AudioInputStream inputStream, final byte [] buffer, final int length)
+    throws IOException
+  {
+    int filled = 0;
+    while (filled < length)
+    {
+      final int bytesRead = inputStream.read(buffer, filled, length - filled);
+      if (bytesRead == -1)
+      {
+        break;
+      }
+      filled += bytesRead;
+    }
+    return filled;
+  }
+  
+  /**
+   * Add a track to the FileData.
+   * @param fileData The FileData.
+   * @param pregapStart The CD frame where the pregap of the track starts, or -1 if the track has no pregap.
+   * @param start The CD frame where the track starts.
+   */
+  private static void addTrack(final FileData fileData, final long pregapStart, final long start)
+  {
+    final TrackData trackData = new TrackData(fileData, fileData.getTrackData().size() + 1, "AUDIO");
+    if (pregapStart >= 0)
+    {
+      trackData.getIndices().add(new Index(0, SilenceCueGenerator.toPosition(pregapStart)));
+    }
+    trackData.getIndices().add(new Index(1, SilenceCueGenerator.toPosition(start)));
+    fileData.getTrackData().add(trackData);
+  }
+  
+  /**
+   * Convert a number of CD frames to a Position.
+   * @param frames The number of CD frames.
+   * @return The Position.
+   */
+  private static Position toPosition(final long frames)
+  {
+    final int framesPerMinute = 60 * SilenceCueGenerator.FRAMES_PER_SECOND;
+    final Position result = new Position
+      ( (int) (frames / framesPerMinute)
+      , (int) (frames % framesPerMinute / SilenceCueGenerator.FRAMES_PER_SECOND)
+      , (int) (frames % SilenceCueGenerator.FRAMES_PER_SECOND)
+      );
+    return result;
+  }
+  
+  /**
+   * Get the maximum RMS level of a silent window, in dB relative to full scale.
+   * @return The maximum RMS level of a silent window, in dB relative to full scale.
+   */
+  public double getRmsThreshold()
+  {
+    return this.rmsThreshold;
+  }
+  
+  /**
+   * Set the maximum RMS level of a silent window, in dB relative to full scale.
+   * @param rmsThreshold The maximum RMS level of a silent window, in dB relative to full scale.
+   */
+  public void setRmsThreshold(final double rmsThreshold)
+  {
+    this.rmsThreshold = rmsThreshold;
+  }
+  
+  /**
+   * Get the maximum peak level of a silent window, in dB relative to full scale.
+   * @return The maximum peak level of a silent window, in dB relative to full scale.
+   */
+  public double getPeakThreshold()
+  {
+    return this.peakThreshold;
+  }
+  
+  /**
+   * Set the maximum peak level of a silent window, in dB relative to full scale.
+   * @param peakThreshold The maximum peak level of a silent window, in dB relative to full scale.
+   */
+  public void setPeakThreshold(final double peakThreshold)
+  {
+    this.peakThreshold = peakThreshold;
+  }
+  
+  /**
+   * Get the minimum length of a silence that separates two tracks, in CD frames.
+   * @return The minimum length of a silence that separates two tracks, in CD frames.
+   */
+  public long getMinimumSilenceFrames()
+  {
+    return this.minimumSilenceFrames;
+  }
+  
+  /**
+   * Set the minimum length of a silence that separates two tracks, in CD frames.
+   * @param minimumSilenceFrames The minimum length of a silence that separates two tracks, in CD frames.
+   */
+  public void setMinimumSilenceFrames(final long minimumSilenceFrames)
+  {
+    this.minimumSilenceFrames = minimumSilenceFrames;
+  }
+  
+  /**
+   * Get the minimum length of a track, in CD frames.
+   * @return The minimum length of a track, in CD frames.
+   */
+  public long getMinimumTrackFrames()
+  {
+    return this.minimumTrackFrames;
+  }
+  
+  /**
+   * Set the minimum length of a track, in CD frames.
+   * @param minimumTrackFrames The minimum length of a track, in CD frames.
+   */
+  public void setMinimumTrackFrames(final long minimumTrackFrames)
+  {
+    this.minimumTrackFrames = minimumTrackFrames;
+  }
+  
+  /**
+   * Generate cue sheets for the specified audio files. Each cue sheet is written next to its audio file, with the
+   * extension replaced by ".cue". Existing cue sheets are not overwritten.
+   * @param args Options, followed by the audio files to process.
+   */
+  public static void main(final String [] args)
+  {
+    final SilenceCueGenerator generator = new SilenceCueGenerator();
+    final SimpleOptionsParser argumentsParser = new SimpleOptionsParser();
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            generator.setRmsThreshold(Double.parseDouble(options[offset+1]));
+            return offset+2;
+          }
+        }
+      , "-rms"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            generator.setPeakThreshold(Double.parseDouble(options[offset+1]));
+            return offset+2;
+          }
+        }
+      , "-peak"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            generator.setMinimumSilenceFrames
+              (Math.round(Double.parseDouble(options[offset+1]) * SilenceCueGenerator.FRAMES_PER_SECOND));
+            return offset+2;
+          }
+        }
+      , "-gap"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            generator.setMinimumTrackFrames
+              (Math.round(Double.parseDouble(options[offset+1]) * SilenceCueGenerator.FRAMES_PER_SECOND));
+            return offset+2;
+          }
+        }
+      , "-track"
+      );
+    
+    final int firstFileIndex = argumentsParser.parseOptions(args);
+    if (firstFileIndex == -1 || firstFileIndex == args.length)
+    {
+      System.out.println("Syntax: [options] audiofiles");
+      System.out.println("Options:");
+      System.out.println(" -rms dB             Maximum RMS level of silence in dBFS. Default is -50.");
+      System.out.println(" -peak dB            Maximum peak level of silence in dBFS. Default is -30.");
+      System.out.println(" -gap seconds        Minimum length of a silence between tracks. Default is 2.");
+      System.out.println(" -track seconds      Minimum length of a track. Default is 30.");
+      return;
+    }
+    
+    final CueSheetSerializer serializer = new CueSheetSerializer();
+    for (int fileIndex = firstFileIndex; fileIndex < args.length; fileIndex++)
+    {
+      final File audioFile = new File(args[fileIndex]);
+      final String name = audioFile.getName();
+      final int extensionStart = name.lastIndexOf('.');
+      final File cueFile = new File
+        ( audioFile.getParentFile()
+        , (extensionStart > 0 ? name.substring(0, extensionStart) : name) + ".cue"
+        );
+      if (cueFile.exists())
+      {
+        System.err.println("Not overwriting existing cue sheet " + cueFile + ".");
+        continue;
+      }
+      try
+      {
+        final CueSheet cueSheet = generator.generate(audioFile);
+        final Writer writer = new FileWriter(cueFile);
+        try
+        {
+          writer.write(serializer.serializeCueSheet(cueSheet));
+        }
+        finally
+        {
+          writer.close();
+        }
+        System.out.println(cueFile + ": " + cueSheet.getAllTrackData().size() + " tracks.");
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -18,13 +18,34 @@
  */
 package jwbroek.cuelib.tools.trackcutter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
@@ -32,9 +53,15 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 
 import jwbroek.cuelib.CueParser;
 import jwbroek.cuelib.CueSheet;
+import jwbroek.cuelib.CueSheet.MetaDataField;
 import jwbroek.cuelib.FileData;
 import jwbroek.cuelib.Position;
 import jwbroek.cuelib.TrackData;
+import jwbroek.flac.FlacDecoder;
+import jwbroek.flac.FlacEncoder;
+import jwbroek.flac.FlacInputStream;
+import jwbroek.io.ByteCountInputStream;
+import jwbroek.io.ByteCountOutputStream;
 import jwbroek.io.StreamPiper;
 
 /**
@@ -42,6 +69,17 @@ import jwbroek.io.StreamPiper;
  * <p>It can do some audio type conversions, file naming based on information in the cue sheet, and
  * offers the option of having the tracks post-processed by a another application based on information
  * in the cue sheet.</p>
+ * <p>Every cue sheet is processed with its own {@link TrackCutterContext}, which is created from the configuration
+ * when processing of the cue sheet starts. A single TrackCutter can therefore process several cue sheets
+ * concurrently, as long as the configuration is not modified while it does so.</p>
+ * <p>If requested in the configuration, a {@link TrackCutterManifest} is kept for every cue sheet file. Tracks
+ * that are up to date according to the manifest of a previous run are skipped.</p>
+ * <p>If requested in the configuration, digests of the output are computed while it is written, and stored as
+ * {@link TrackCutterDigests} next to the output.</p>
+ * <p>Work can also be planned before it is done, through {@link #planCueSheet(File)}. This does not read any
+ * audio data, and results in a {@link TrackCutterPlan} that can later be executed.</p>
+ * <p>Progress can be followed by adding a {@link TrackCutterListener}, such as {@link TrackCutterMetrics}.</p>
+ * <p>Call {@link #shutdown()} when the TrackCutter is no longer needed, to stop its threads.</p>
  * @author jwbroek
  */
 public class TrackCutter
@@ -50,6 +88,31 @@ public class TrackCutter
    * Configuation for the TrackCutter.
    */
   private TrackCutterConfiguration configuration;
+  /**
+   * Listeners for the progress of this TrackCutter.
+   */
+  private final List<TrackCutterListener> listeners = new CopyOnWriteArrayList<TrackCutterListener>();
+  /**
+   * Encoder used when the target type is {@link FlacEncoder#FLAC}. Shared by all cue sheets, as it is stateless.
+   */
+  private final FlacEncoder flacEncoder = new FlacEncoder();
+  /**
+   * Executor on which the tracks of FLAC files are cut in parallel. Shared by all cue sheets, so that the number of
+   * threads decoding FLAC stays bounded by the number of processors, however many cue sheets are processed
+   * concurrently. Its threads are daemons, and are only started when needed.
+   */
+  private final ExecutorService trackExecutor = Executors.newFixedThreadPool
+    ( Runtime.getRuntime().availableProcessors()
+    , new ThreadFactory()
+      {
+        public Thread newThread(final Runnable runnable)
+        {
+          final Thread thread = new Thread(runnable, "TrackCutter-track");
+          thread.setDaemon(true);
+          return thread;
+        }
+      }
+    );
   
   /**
    * Create a new TrackCutter instance, based on the configuration provided.
@@ -60,6 +123,33 @@ public class TrackCutter
     this.configuration = configuration;
   }
   
+  /**
+   * Stop the threads of this TrackCutter once the tracks that are being cut are done. No cue sheets may be processed
+   * after this.
+   */
+  public void shutdown()
+  {
+    this.trackExecutor.shutdown();
+  }
+  
+  /**
+   * Add a listener for the progress of this TrackCutter.
+   * @param listener The listener to add.
+   */
+  public void addListener(final TrackCutterListener listener)
+  {
+    this.listeners.add(listener);
+  }
+  
+  /**
+   * Remove a listener for the progress of this TrackCutter.
+   * @param listener The listener to remove.
+   */
+  public void removeListener(final TrackCutterListener listener)
+  {
+    this.listeners.remove(listener);
+  }
+  
   /**
    * Cut the the files specified in the cue sheet into tracks.
    * @param cueFile
@@ -69,11 +159,8 @@ public class TrackCutter
   {
     CueSheet cueSheet = null;
     
-    // If no parent directory specified, then set the parent directory of the cue file.
-    if (getConfiguration().getParentDirectory()==null)
-    {
-      getConfiguration().setParentDirectory(cueFile.getParentFile());
-    }
+    // If no parent directory specified, then the context will use the parent directory of the cue file.
+    final TrackCutterContext context = new TrackCutterContext(getConfiguration(), cueFile);
     
     try
     {
@@ -87,7 +174,7 @@ public class TrackCutter
       throw resultException;
     }
     
-    cutTracksInCueSheet(cueSheet);
+    cutTracksInCueSheet(cueSheet, context);
   }
   
   /**
@@ -121,20 +208,364 @@ public class TrackCutter
    */
   public void cutTracksInCueSheet(final CueSheet cueSheet) throws IOException
   {
-    // We can process each file in the cue sheet independently.
+    cutTracksInCueSheet(cueSheet, new TrackCutterContext(getConfiguration(), null));
+  }
+  
+  /**
+   * Cut the files in the specified job of a plan into tracks.
+   * @param job The job to execute.
+   * @throws IOException
+   */
+  public void cutTracksInCueSheet(final TrackCutterPlan.Job job) throws IOException
+  {
+    cutTracksInCueSheet(job.getCueSheet(), job.getContext());
+  }
+  
+  /**
+   * Plan the cutting of the files specified in the cue sheet, without reading or writing any audio data. Only the
+   * headers of the audio files are read, to determine the byte ranges to read.
+   * @param cueFile
+   * @return A job describing the work to be done for the cue sheet.
+   * @throws IOException If the cue sheet could not be parsed.
+   */
+  public TrackCutterPlan.Job planCueSheet(final File cueFile) throws IOException
+  {
+    return planCueSheet(cueFile, getConfiguration());
+  }
+  
+  /**
+   * Plan the cutting of the files specified in the cue sheet with the specified configuration, rather than the
+   * configuration of this TrackCutter. This allows a single TrackCutter, and its listeners, to serve jobs with
+   * different configurations.
+   * @param cueFile
+   * @param configuration The configuration to use for the job.
+   * @return A job describing the work to be done for the cue sheet.
+   * @throws IOException If the cue sheet could not be parsed.
+   */
+  public TrackCutterPlan.Job planCueSheet(final File cueFile, final TrackCutterConfiguration configuration)
+    throws IOException
+  {
+    CueSheet cueSheet = null;
+    final TrackCutterContext context = new TrackCutterContext(configuration, cueFile);
+    
+    try
+    {
+      cueSheet = CueParser.parse(cueFile);
+    }
+    catch (IOException e)
+    {
+      IOException resultException = new IOException("Problem parsing cue file.");
+      resultException.initCause(e);
+      throw resultException;
+    }
+    
+    final TrackCutterPlan.Job result = new TrackCutterPlan.Job(cueFile, cueSheet, context);
     for (FileData fileData : cueSheet.getFileData())
     {
+      planFileData(fileData, context, result);
+    }
+    return result;
+  }
+  
+  /**
+   * Plan the cutting of the file specified in the FileData. If the audio file cannot be read, the steps are still
+   * added, but without byte ranges.
+   * @param fileData
+   * @param context The context for processing the cue sheet.
+   * @param job The job to add the steps to.
+   */
+  private void planFileData
+    ( final FileData fileData
+    , final TrackCutterContext context
+    , final TrackCutterPlan.Job job
+    )
+  {
+    final File audioFile = context.getAudioFile(fileData);
+    AudioFileFormat audioFileFormat = null;
+    
+    if (FlacDecoder.isFlacFile(audioFile))
+    {
+      planFlacFileData(audioFile, fileData, context, job);
+      return;
+    }
+    if (TrackCutterRawImage.isRawImage(fileData, audioFile))
+    {
+      planRawImageFileData(audioFile, fileData, context, job);
+      return;
+    }
+    
+    try
+    {
+      audioFileFormat = AudioSystem.getAudioFileFormat(audioFile);
+    }
+    catch (UnsupportedAudioFileException e)
+    {
+      e.printStackTrace();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+    
+    // Byte ranges are only known for audio with fixed size frames and a known length.
+    final boolean rangesKnown = audioFileFormat != null
+      && audioFileFormat.getFormat().getFrameSize() > 0
+      && audioFileFormat.getFrameLength() != AudioSystem.NOT_SPECIFIED;
+    long frameSize = 0;
+    long frameLength = 0;
+    long headerLength = 0;
+    if (rangesKnown)
+    {
+      frameSize = audioFileFormat.getFormat().getFrameSize();
+      frameLength = audioFileFormat.getFrameLength();
+      // Assume that everything in front of the audio data is header.
+      headerLength = Math.max(0, audioFile.length() - frameLength * frameSize);
+    }
+    
+    for (TrackCutterProcessingAction processAction : getProcessActionList(fileData, context))
+    {
+      long startByte = -1;
+      long endByte = -1;
+      long bytesToWrite = -1;
+      if (rangesKnown)
+      {
+        final long startFrame = Math.min
+          (frameLength, getAudioFormatFrames(processAction.getStartPosition(), audioFileFormat.getFormat()));
+        long endFrame = frameLength;
+        if (processAction.getEndPosition() != null)
+        {
+          endFrame = Math.min
+            (frameLength, getAudioFormatFrames(processAction.getEndPosition(), audioFileFormat.getFormat()));
+        }
+        startByte = headerLength + startFrame * frameSize;
+        endByte = headerLength + Math.max(startFrame, endFrame) * frameSize;
+        bytesToWrite = endByte - startByte;
+      }
+      job.addStep(new TrackCutterPlan.Step(processAction, audioFile, startByte, endByte, bytesToWrite));
+    }
+  }
+  
+  /**
+   * Plan the cutting of the FLAC file specified in the FileData. Byte ranges are estimated by assuming that the
+   * compression ratio is the same throughout the file. If the file cannot be read, the steps are still added, but
+   * without byte ranges.
+   * @param audioFile The FLAC file.
+   * @param fileData
+   * @param context The context for processing the cue sheet.
+   * @param job The job to add the steps to.
+   */
+  private void planFlacFileData
+    ( final File audioFile
+    , final FileData fileData
+    , final TrackCutterContext context
+    , final TrackCutterPlan.Job job
+    )
+  {
+    AudioFormat audioFormat = null;
+    long totalSamples = 0;
+    long audioOffset = 0;
+    
+    try
+    {
+      final FlacDecoder decoder = new FlacDecoder(audioFile);
       try
       {
-        cutTracksInFileData(fileData);
+        audioFormat = decoder.getAudioFormat();
+        totalSamples = decoder.getTotalSamples();
+        audioOffset = decoder.getAudioOffset();
       }
-      catch (UnsupportedAudioFileException e)
+      finally
       {
-        e.printStackTrace();
+        decoder.close();
       }
-      catch (IOException e)
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+    
+    // Byte ranges can only be estimated if the length of the audio is known.
+    final boolean rangesKnown = audioFormat != null && totalSamples > 0;
+    final long audioLength = audioFile.length() - audioOffset;
+    
+    for (TrackCutterProcessingAction processAction : getProcessActionList(fileData, context))
+    {
+      long startByte = -1;
+      long endByte = -1;
+      long bytesToWrite = -1;
+      if (rangesKnown)
       {
-        e.printStackTrace();
+        final long startFrame =
+          Math.min(totalSamples, getAudioFormatFrames(processAction.getStartPosition(), audioFormat));
+        long endFrame = totalSamples;
+        if (processAction.getEndPosition() != null)
+        {
+          endFrame = Math.min(totalSamples, getAudioFormatFrames(processAction.getEndPosition(), audioFormat));
+        }
+        endFrame = Math.max(startFrame, endFrame);
+        startByte = audioOffset + (long) (((double) audioLength) * startFrame / totalSamples);
+        endByte = audioOffset + (long) (((double) audioLength) * endFrame / totalSamples);
+        bytesToWrite = (endFrame - startFrame) * audioFormat.getFrameSize();
+      }
+      job.addStep(new TrackCutterPlan.Step(processAction, audioFile, startByte, endByte, bytesToWrite));
+    }
+  }
+  
+  /**
+   * Plan the cutting of the raw image specified in the FileData. Byte ranges follow directly from the positions and
+   * the sector sizes. If the image cannot be read, the steps are still added, but without byte ranges.
+   * @param imageFile The raw image.
+   * @param fileData
+   * @param context The context for processing the cue sheet.
+   * @param job The job to add the steps to.
+   */
+  private void planRawImageFileData
+    ( final File imageFile
+    , final FileData fileData
+    , final TrackCutterContext context
+    , final TrackCutterPlan.Job job
+    )
+  {
+    TrackCutterRawImage image = null;
+    
+    try
+    {
+      image = new TrackCutterRawImage(fileData, imageFile);
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+    
+    try
+    {
+      for (TrackCutterProcessingAction processAction : getProcessActionList(fileData, context))
+      {
+        long startByte = -1;
+        long endByte = -1;
+        long bytesToWrite = -1;
+        if (image != null)
+        {
+          try
+          {
+            startByte = image.getByteOffset(processAction.getStartPosition());
+            endByte = Math.max(startByte, image.getByteOffset(processAction.getEndPosition()));
+            bytesToWrite = image.getPayloadLength
+              ( processAction.getTrackData()
+              , processAction.getStartPosition()
+              , processAction.getEndPosition()
+              );
+          }
+          catch (IOException e)
+          {
+            e.printStackTrace();
+          }
+        }
+        job.addStep(new TrackCutterPlan.Step(processAction, imageFile, startByte, endByte, bytesToWrite));
+      }
+    }
+    finally
+    {
+      if (image != null)
+      {
+        try
+        {
+          image.close();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Cut the the files specified in the cue sheet into tracks.
+   * @param cueSheet
+   * @param context The context for processing this cue sheet.
+   * @throws IOException
+   */
+  private void cutTracksInCueSheet(final CueSheet cueSheet, final TrackCutterContext context) throws IOException
+  {
+    // Post-processing steps that have been started, and that must be finished before we are done.
+    // Tracks of a FLAC image are cut concurrently, so this list must be synchronized.
+    final List<PostProcessingHandle> postProcessingHandles =
+      Collections.synchronizedList(new ArrayList<PostProcessingHandle>());
+    // Manifest of the output, if we should keep one.
+    TrackCutterManifest manifest = null;
+    // Digests of the output, if we should compute them.
+    TrackCutterDigests digests = null;
+    
+    if (context.getManifestFile() != null)
+    {
+      manifest = new TrackCutterManifest(context.getManifestFile());
+    }
+    if (!context.getDigestAlgorithms().isEmpty())
+    {
+      digests = new TrackCutterDigests(context.getDigestFileName());
+    }
+    
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.cueSheetStarted(cueSheet);
+    }
+    
+    try
+    {
+      // We can process each file in the cue sheet independently.
+      for (FileData fileData : cueSheet.getFileData())
+      {
+        try
+        {
+          cutTracksInFileData(fileData, context, manifest, digests, postProcessingHandles);
+        }
+        catch (UnsupportedAudioFileException e)
+        {
+          e.printStackTrace();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+        }
+      }
+      
+      // Wait for post-processing to finish, so that all output has been flushed once we return. Listeners have
+      // already been told about each process as it ended.
+      for (PostProcessingHandle postProcessingHandle : postProcessingHandles)
+      {
+        try
+        {
+          final int exitValue = postProcessingHandle.waitFor();
+          if (exitValue == 0 && postProcessingHandle.getManifestEntry() != null)
+          {
+            postProcessingHandle.getManifestEntry().record();
+          }
+        }
+        catch (InterruptedException e)
+        {
+          // Restore the interrupt and stop waiting. The remaining processes will finish on their own.
+          Thread.currentThread().interrupt();
+          IOException resultException = new IOException("Interrupted while waiting for post-processing.");
+          resultException.initCause(e);
+          throw resultException;
+        }
+      }
+    }
+    finally
+    {
+      // Store whatever progress we made, so that a next run can continue from there.
+      if (manifest != null)
+      {
+        manifest.store();
+      }
+      if (digests != null)
+      {
+        digests.store();
+      }
+      for (TrackCutterListener listener : this.listeners)
+      {
+        listener.cueSheetFinished(cueSheet);
       }
     }
   }
@@ -142,36 +573,109 @@ public class TrackCutter
   /**
    * Cut the the files specified in the FileData into tracks.
    * @param fileData
+   * @param context The context for processing the cue sheet.
+   * @param manifest The manifest of the output. Actions that are up to date according to it are skipped. May be
+   * null, in which case all actions are performed.
+   * @param digests The digests of the output, to which the digests of all output produced will be added. May be
+   * null, in which case no digests are computed.
+   * @param postProcessingHandles List to which handles for any post-processing steps that are started will be added.
    * @throws IOException
    * @throws UnsupportedAudioFileException
    */
-  private void cutTracksInFileData(final FileData fileData)
-    throws IOException, UnsupportedAudioFileException
+  private void cutTracksInFileData
+    ( final FileData fileData
+    , final TrackCutterContext context
+    , final TrackCutterManifest manifest
+    , final TrackCutterDigests digests
+    , final List<PostProcessingHandle> postProcessingHandles
+    ) throws IOException, UnsupportedAudioFileException
   {
     AudioInputStream audioInputStream = null;
+    ByteCountInputStream audioFileInputStream = null;
+    
+    // Determine the complete path to the audio file.
+    final File audioFile = context.getAudioFile(fileData);
+    
+    final boolean rawImage = TrackCutterRawImage.isRawImage(fileData, audioFile);
+    
+    // Determine what needs to be done, and what is still up to date since a previous run.
+    final List<TrackCutterProcessingAction> processActions = new ArrayList<TrackCutterProcessingAction>();
+    final List<TrackCutterManifest.Entry> manifestEntries = new ArrayList<TrackCutterManifest.Entry>();
+    for (TrackCutterProcessingAction processAction : getProcessActionList(fileData, context))
+    {
+      TrackCutterManifest.Entry manifestEntry = null;
+      if (manifest != null && rawImage && !TrackCutterRawImage.isAudioTrack(processAction.getTrackData()))
+      {
+        // Data tracks are extracted to a file of their own, without post-processing.
+        manifestEntry = manifest.createDataEntry
+          (processAction, TrackCutterRawImage.getDataFile(processAction), audioFile);
+      }
+      else if (manifest != null)
+      {
+        manifestEntry = manifest.createEntry(processAction, audioFile, context);
+      }
+      if (manifestEntry != null)
+      {
+        if (manifestEntry.isUpToDate())
+        {
+          manifestEntry.keep();
+          for (TrackCutterListener listener : this.listeners)
+          {
+            listener.actionSkipped(processAction);
+          }
+          continue;
+        }
+      }
+      processActions.add(processAction);
+      manifestEntries.add(manifestEntry);
+    }
+    
+    if (processActions.isEmpty())
+    {
+      // Nothing to do, so don't even open the audio file.
+      return;
+    }
+    
+    if (rawImage)
+    {
+      // Headerless image, which javax.sound.sampled can't read. We can read each track directly from its offset.
+      cutTracksInRawImage
+        (fileData, audioFile, processActions, manifestEntries, context, digests, postProcessingHandles);
+      return;
+    }
+    if (FlacDecoder.isFlacFile(audioFile))
+    {
+      // javax.sound.sampled can't read FLAC, but we can. And faster, as we can seek to each track.
+      cutTracksInFlacFile(audioFile, processActions, manifestEntries, context, digests, postProcessingHandles);
+      return;
+    }
     
     try
     {
-      // Determine the complete path to the audio file.
-      File audioFile = getConfiguration().getAudioFile(fileData);
-      
       // Open the audio file.
       // Sadly, we can't do much with the file type information from the cue sheet, as javax.sound.sampled
       // needs more information before it can process a specific type of sound file. Best then to let it
       // determine all aspects of the audio type by itself.
-      audioInputStream = AudioSystem.getAudioInputStream(audioFile);
+      // The bytes are counted below the buffer, so that we count what is actually read from the file.
+      audioFileInputStream = new ByteCountInputStream(new FileInputStream(audioFile));
+      audioInputStream = AudioSystem.getAudioInputStream(new BufferedInputStream(audioFileInputStream));
       
       // Current position in terms of the frames as per audioInputStream.getFrameLength().
       // Note that these frames need not be equal to cue sheet frames.
       long currentAudioFramePos = 0;
       
       // Process tracks.
-      for (TrackCutterProcessingAction processAction : getProcessActionList(fileData))
+      for (int actionIndex = 0; actionIndex < processActions.size(); actionIndex++)
       {
         currentAudioFramePos = performProcessAction
-          ( processAction
+          ( processActions.get(actionIndex)
           , audioInputStream
           , currentAudioFramePos
+          , audioFileInputStream
+          , context
+          , manifestEntries.get(actionIndex)
+          , digests
+          , postProcessingHandles
           );
       }
     }
@@ -182,15 +686,279 @@ public class TrackCutter
         // Don't handle exceptions, as there's really nothing we can do about them.
         audioInputStream.close();
       }
+      else if (audioFileInputStream!=null)
+      {
+        // The audio file could not be opened as audio, so close it directly.
+        audioFileInputStream.close();
+      }
+    }
+  }
+  
+  /**
+   * Cut the specified FLAC file into tracks. Each track is decoded independently from its own starting frame, so
+   * the tracks are cut in parallel on the executor shared by all cue sheets.
+   * @param audioFile The FLAC file.
+   * @param processActions The actions to perform.
+   * @param manifestEntries The manifest entries for the actions. Entries may be null.
+   * @param context The context for processing the cue sheet.
+   * @param digests The digests of the output, to which the digests of all output produced will be added. May be
+   * null.
+   * @param postProcessingHandles List to which handles for any post-processing steps that are started will be added.
+   * Must be synchronized.
+   * @throws IOException
+   */
+  private void cutTracksInFlacFile
+    ( final File audioFile
+    , final List<TrackCutterProcessingAction> processActions
+    , final List<TrackCutterManifest.Entry> manifestEntries
+    , final TrackCutterContext context
+    , final TrackCutterDigests digests
+    , final List<PostProcessingHandle> postProcessingHandles
+    ) throws IOException
+  {
+    final FlacDecoder decoder = new FlacDecoder(audioFile);
+    final List<Future<Object>> results = new ArrayList<Future<Object>>();
+    
+    try
+    {
+      for (int actionIndex = 0; actionIndex < processActions.size(); actionIndex++)
+      {
+        final TrackCutterProcessingAction processAction = processActions.get(actionIndex);
+        final TrackCutterManifest.Entry manifestEntry = manifestEntries.get(actionIndex);
+        results.add(this.trackExecutor.submit(new Callable<Object>()
+        {
+          public Object call() throws IOException
+          {
+            performFlacProcessAction
+              (processAction, decoder, context, manifestEntry, digests, postProcessingHandles);
+            return null;
+          }
+        }));
+      }
+      
+      // Wait for all tracks, even if one fails, so that the decoder is no longer in use when we close it.
+      IOException firstException = null;
+      for (Future<Object> result : results)
+      {
+        try
+        {
+          result.get();
+        }
+        catch (ExecutionException e)
+        {
+          if (firstException == null)
+          {
+            if (e.getCause() instanceof IOException)
+            {
+              firstException = (IOException) e.getCause();
+            }
+            else
+            {
+              firstException = new IOException("Could not cut track from " + audioFile);
+              firstException.initCause(e.getCause());
+            }
+          }
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          IOException resultException = new IOException("Interrupted while cutting tracks from " + audioFile);
+          resultException.initCause(e);
+          throw resultException;
+        }
+      }
+      if (firstException != null)
+      {
+        throw firstException;
+      }
+    }
+    finally
+    {
+      // Only has an effect when interrupted, as all tracks are done otherwise.
+      for (Future<Object> result : results)
+      {
+        result.cancel(true);
+      }
+      decoder.close();
+    }
+  }
+  
+  /**
+   * Perform the specified ProcessAction on a FLAC file, decoding only the audio of the action.
+   * @param processAction
+   * @param decoder The decoder for the FLAC file.
+   * @param context The context for processing the cue sheet.
+   * @param manifestEntry The manifest entry to record the action in once it has been performed. May be null.
+   * @param digests The digests of the output, to which the digests of the action will be added. May be null.
+   * @param postProcessingHandles List to which handles for any post-processing steps that are started will be added.
+   * @throws IOException
+   */
+  private void performFlacProcessAction
+    ( final TrackCutterProcessingAction processAction
+    , final FlacDecoder decoder
+    , final TrackCutterContext context
+    , final TrackCutterManifest.Entry manifestEntry
+    , final TrackCutterDigests digests
+    , final List<PostProcessingHandle> postProcessingHandles
+    ) throws IOException
+  {
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.actionStarted(processAction);
+    }
+    
+    final AudioFormat audioFormat = decoder.getAudioFormat();
+    final long fromAudioFramePos = getAudioFormatFrames(processAction.getStartPosition(), audioFormat);
+    long toAudioFramePos = decoder.getTotalSamples() > 0 ? decoder.getTotalSamples() : -1;
+    if (processAction.getEndPosition() != null)
+    {
+      toAudioFramePos = getAudioFormatFrames(processAction.getEndPosition(), audioFormat);
+    }
+    final long frameLength =
+      toAudioFramePos < 0 ? AudioSystem.NOT_SPECIFIED : Math.max(0, toAudioFramePos - fromAudioFramePos);
+    
+    final FlacInputStream flacInputStream = decoder.openStream(fromAudioFramePos, toAudioFramePos);
+    final long bytesWritten = performProcessAction
+      ( processAction
+      , new AudioInputStream(flacInputStream, audioFormat, frameLength)
+      , context
+      , manifestEntry
+      , digests
+      , postProcessingHandles
+      );
+    
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.actionFinished
+        (processAction, Math.max(0, frameLength), flacInputStream.getBytesRead(), bytesWritten);
+    }
+  }
+  
+  /**
+   * Cut the specified raw image into tracks. Audio tracks are cut like any other audio. Data tracks are extracted
+   * as plain 2048 byte sectors to a file named as the cut file, but with extension ".iso". Data tracks are not
+   * post-processed or digested, and their pregaps are left out.
+   * @param fileData
+   * @param imageFile The raw image.
+   * @param processActions The actions to perform.
+   * @param manifestEntries The manifest entries for the actions. Entries may be null.
+   * @param context The context for processing the cue sheet.
+   * @param digests The digests of the output, to which the digests of all output produced will be added. May be
+   * null.
+   * @param postProcessingHandles List to which handles for any post-processing steps that are started will be added.
+   * @throws IOException
+   */
+  private void cutTracksInRawImage
+    ( final FileData fileData
+    , final File imageFile
+    , final List<TrackCutterProcessingAction> processActions
+    , final List<TrackCutterManifest.Entry> manifestEntries
+    , final TrackCutterContext context
+    , final TrackCutterDigests digests
+    , final List<PostProcessingHandle> postProcessingHandles
+    ) throws IOException
+  {
+    final TrackCutterRawImage image = new TrackCutterRawImage(fileData, imageFile);
+    
+    try
+    {
+      for (int actionIndex = 0; actionIndex < processActions.size(); actionIndex++)
+      {
+        final TrackCutterProcessingAction processAction = processActions.get(actionIndex);
+        if (TrackCutterRawImage.isAudioTrack(processAction.getTrackData()))
+        {
+          for (TrackCutterListener listener : this.listeners)
+          {
+            listener.actionStarted(processAction);
+          }
+          final AudioInputStream audioInputStream = image.getAudioInputStream
+            (processAction.getTrackData(), processAction.getStartPosition(), processAction.getEndPosition());
+          final long bytesRead = image.getByteOffset(processAction.getEndPosition())
+            - image.getByteOffset(processAction.getStartPosition());
+          final long bytesWritten = performProcessAction
+            ( processAction
+            , audioInputStream
+            , context
+            , manifestEntries.get(actionIndex)
+            , digests
+            , postProcessingHandles
+            );
+          for (TrackCutterListener listener : this.listeners)
+          {
+            listener.actionFinished(processAction, audioInputStream.getFrameLength(), bytesRead, bytesWritten);
+          }
+        }
+        else
+        {
+          performDataTrackProcessAction(processAction, image, manifestEntries.get(actionIndex));
+        }
+      }
+    }
+    finally
+    {
+      image.close();
+    }
+  }
+  
+  /**
+   * Extract the data track of the specified ProcessAction from a raw image. Only the part from index 1 is
+   * extracted, so actions for the pregap alone are skipped.
+   * @param processAction
+   * @param image The raw image.
+   * @param manifestEntry The manifest entry to record the action in once it has been performed. May be null.
+   * @throws IOException
+   */
+  private void performDataTrackProcessAction
+    ( final TrackCutterProcessingAction processAction
+    , final TrackCutterRawImage image
+    , final TrackCutterManifest.Entry manifestEntry
+    ) throws IOException
+  {
+    if (processAction.getIsPregap() && processAction.getEndPosition() != null
+      && processAction.getEndPosition().getTotalFrames()
+        <= processAction.getTrackData().getIndex(1).getPosition().getTotalFrames()
+      )
+    {
+      for (TrackCutterListener listener : this.listeners)
+      {
+        listener.actionSkipped(processAction);
+      }
+      return;
+    }
+    
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.actionStarted(processAction);
+    }
+    
+    final Position startPosition = processAction.getTrackData().getIndex(1).getPosition();
+    final File dataFile = TrackCutterRawImage.getDataFile(processAction);
+    dataFile.getParentFile().mkdirs();
+    final long bytesWritten =
+      image.extractData(processAction.getTrackData(), startPosition, processAction.getEndPosition(), dataFile);
+    if (manifestEntry != null)
+    {
+      manifestEntry.record();
+    }
+    final long bytesRead =
+      image.getByteOffset(processAction.getEndPosition()) - image.getByteOffset(startPosition);
+    
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.actionFinished(processAction, 0, bytesRead, bytesWritten);
     }
   }
   
   /**
    * Get a list of ProcessActions based on the specified FileData.
    * @param fileData
+   * @param context The context for processing the cue sheet.
    * @return A list of ProcessActions based on the specified FileData.
    */
-  private List<TrackCutterProcessingAction> getProcessActionList(final FileData fileData)
+  private List<TrackCutterProcessingAction> getProcessActionList
+    ( final FileData fileData
+    , final TrackCutterContext context
+    )
   {
     List<TrackCutterProcessingAction> result = new ArrayList<TrackCutterProcessingAction>();
     TrackData previousTrackData = null;
@@ -202,11 +970,11 @@ public class TrackCutter
       {
         if (currentTrackData.getIndex(0) != null)
         {
-          addProcessActions(previousTrackData, currentTrackData.getIndex(0).getPosition(), result);
+          addProcessActions(previousTrackData, currentTrackData.getIndex(0).getPosition(), context, result);
         }
         else
         {
-          addProcessActions(previousTrackData, currentTrackData.getIndex(1).getPosition(), result);
+          addProcessActions(previousTrackData, currentTrackData.getIndex(1).getPosition(), context, result);
         }
       }
       previousTrackData = currentTrackData;
@@ -215,7 +983,7 @@ public class TrackCutter
     // Handle last track, if any.
     if (previousTrackData != null)
     {
-      addProcessActions(previousTrackData, null, result);
+      addProcessActions(previousTrackData, null, context, result);
     }
     
     return result;
@@ -226,12 +994,14 @@ public class TrackCutter
    * @param trackData
    * @param nextPosition The first position after the current track, or null if there is no next position.
    * (Track continues until the end of data.) 
+   * @param context The context for processing the cue sheet.
    * @param processActions A list of ProcessAction instances to which the actions for this TrackData
    * will be added.
    */
   private void addProcessActions
     ( final TrackData trackData
     , final Position nextPosition
+    , final TrackCutterContext context
     , final List<TrackCutterProcessingAction> processActions
     )
   {
@@ -244,13 +1014,13 @@ public class TrackCutter
           , nextPosition
           , trackData
           , false
-          , getConfiguration()
+          , context
           )
         );
     }
     else
     {
-      switch (configuration.getPregapHandling())
+      switch (context.getPregapHandling())
       {
         case DISCARD:
           // Discard the pregap, process the track.
@@ -260,7 +1030,7 @@ public class TrackCutter
               , nextPosition
               , trackData
               , false
-              , getConfiguration()
+              , context
               )
             );
           break;
@@ -268,7 +1038,7 @@ public class TrackCutter
           // Prepend the pregap, if long enough.
           if  ( trackData.getIndex(1).getPosition().getTotalFrames()
               - trackData.getIndex(0).getPosition().getTotalFrames()
-              >= this.getConfiguration().getPregapFrameLengthThreshold()
+              >= context.getPregapFrameLengthThreshold()
               )
           {
             processActions.add
@@ -277,7 +1047,7 @@ public class TrackCutter
                 , nextPosition
                 , trackData
                 , true
-                , getConfiguration()
+                , context
                 )
               );
           }
@@ -289,7 +1059,7 @@ public class TrackCutter
                 , nextPosition
                 , trackData
                 , false
-                , getConfiguration()
+                , context
                 )
               );
           }
@@ -299,7 +1069,7 @@ public class TrackCutter
           // Prepend the pregap, if long enough.
           if  ( trackData.getIndex(1).getPosition().getTotalFrames()
               - trackData.getIndex(0).getPosition().getTotalFrames()
-              >= this.getConfiguration().getPregapFrameLengthThreshold()
+              >= context.getPregapFrameLengthThreshold()
               )
           {
             processActions.add
@@ -308,7 +1078,7 @@ public class TrackCutter
                 , trackData.getIndex(1).getPosition()
                 , trackData
                 , true
-                , getConfiguration()
+                , context
                 )
               );
           }
@@ -318,7 +1088,7 @@ public class TrackCutter
               , nextPosition
               , trackData
               , false
-              , getConfiguration()
+              , context
               )
             );
           break;
@@ -331,14 +1101,31 @@ public class TrackCutter
    * @param processAction
    * @param audioInputStream The audio stream from which to read.
    * @param currentAudioFramePos The current frame position in the audio stream.
+   * @param audioFileInputStream The stream from which the audio stream reads the audio file. Used for counting the
+   * bytes read.
+   * @param context The context for processing the cue sheet.
+   * @param manifestEntry The manifest entry to record the action in once it has been performed. May be null.
+   * @param digests The digests of the output, to which the digests of the action will be added. May be null.
+   * @param postProcessingHandles List to which handles for any post-processing steps that are started will be added.
    * @return The current frame position after processing.
    * @throws IOException
    */
   private long performProcessAction ( final TrackCutterProcessingAction processAction
                                     , final AudioInputStream audioInputStream
                                     , final long currentAudioFramePos
+                                    , final ByteCountInputStream audioFileInputStream
+                                    , final TrackCutterContext context
+                                    , final TrackCutterManifest.Entry manifestEntry
+                                    , final TrackCutterDigests digests
+                                    , final List<PostProcessingHandle> postProcessingHandles
                                     ) throws IOException
   {
+    final long bytesReadBefore = audioFileInputStream.getBytesRead();
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.actionStarted(processAction);
+    }
+    
     // Skip positions in the audioInputStream until we are at our starting position.
     long fromAudioFramePos = skipToPosition (processAction.getStartPosition(), audioInputStream, currentAudioFramePos);
     
@@ -349,10 +1136,24 @@ public class TrackCutter
       toAudioFramePos = getAudioFormatFrames(processAction.getEndPosition(), audioInputStream.getFormat());
     }
     
-    performProcessAction
+    final long bytesWritten = performProcessAction
       ( processAction
       , new AudioInputStream(audioInputStream, audioInputStream.getFormat(), toAudioFramePos - fromAudioFramePos)
+      , context
+      , manifestEntry
+      , digests
+      , postProcessingHandles
       );
+    
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.actionFinished
+        ( processAction
+        , toAudioFramePos - fromAudioFramePos
+        , audioFileInputStream.getBytesRead() - bytesReadBefore
+        , bytesWritten
+        );
+    }
     return toAudioFramePos;
   }
   
@@ -360,26 +1161,58 @@ public class TrackCutter
    * Perform the specified ProcessAction.
    * @param processAction
    * @param audioInputStream The audio stream from which to read. This stream will be closed afterward.
+   * @param context The context for processing the cue sheet.
+   * @param manifestEntry The manifest entry to record the action in once it has been performed. May be null.
+   * @param digests The digests of the output, to which the digests of the action will be added. May be null. The
+   * digests are computed while the audio is written, so that the output need not be read again. Output that is
+   * redirected to post-processing is only digested over its audio data.
+   * @param postProcessingHandles List to which handles for any post-processing steps that are started will be added.
+   * @return The number of bytes written to the cut file or to post-processing.
    * @throws IOException
    */
-  private void performProcessAction ( final TrackCutterProcessingAction processAction
+  private long performProcessAction ( final TrackCutterProcessingAction processAction
                                     , final AudioInputStream audioInputStream
+                                    , final TrackCutterContext context
+                                    , final TrackCutterManifest.Entry manifestEntry
+                                    , final TrackCutterDigests digests
+                                    , final List<PostProcessingHandle> postProcessingHandles
                                     ) throws IOException
   {
-    if (!getConfiguration().getRedirectToPostprocessing())
+    if (!context.getRedirectToPostprocessing())
     {
       // We're going to create target files, so make sure there's a directory for them.
       processAction.getCutFile().getParentFile().mkdirs();
     }
     
-    if (configuration.getDoPostProcessing() && configuration.getRedirectToPostprocessing())
+    long result = 0;
+    // Computes digests as the audio flows through, if requested.
+    final TrackCutterDigester digester =
+      digests == null ? null : new TrackCutterDigester(context.getDigestAlgorithms());
+    final AudioInputStream digestedAudioInputStream =
+      digester == null ? audioInputStream : digester.wrapAudio(audioInputStream);
+    
+    if (context.getDoPostProcessing() && context.getRedirectToPostprocessing())
     {
-      OutputStream audioOutputStream = null;
+      ByteCountOutputStream audioOutputStream = null;
       
       try
       {
-        audioOutputStream = this.createPostProcessingProcess(processAction).getOutputStream();
-        AudioSystem.write(audioInputStream, configuration.getTargetType(), audioOutputStream);
+        final PostProcessingHandle postProcessingHandle =
+          this.createPostProcessingProcess(processAction, manifestEntry);
+        postProcessingHandles.add(postProcessingHandle);
+        audioOutputStream = new ByteCountOutputStream(postProcessingHandle.getProcess().getOutputStream());
+        if (FlacEncoder.FLAC.equals(context.getTargetType()))
+        {
+          this.flacEncoder.encode
+            ( digestedAudioInputStream
+            , audioOutputStream
+            , TrackCutter.getVorbisComments(processAction.getTrackData())
+            );
+        }
+        else
+        {
+          AudioSystem.write(digestedAudioInputStream, context.getTargetType(), audioOutputStream);
+        }
       }
       finally
       {
@@ -387,37 +1220,151 @@ public class TrackCutter
         {
           // We can't do anything about any exceptions here, so we don't catch them.
           audioOutputStream.close();
+          result = audioOutputStream.getBytesWritten();
         }
       }
+      if (digester != null)
+      {
+        // The output itself is never seen by us, so only the audio data can be digested.
+        digests.put(processAction.getPostProcessFile(), digester.getValues(false));
+      }
     }
     else
     {
-      AudioSystem.write(audioInputStream, configuration.getTargetType(), processAction.getCutFile());
+      if (FlacEncoder.FLAC.equals(context.getTargetType()))
+      {
+        result = this.flacEncoder.encode
+          ( digestedAudioInputStream
+          , processAction.getCutFile()
+          , TrackCutter.getVorbisComments(processAction.getTrackData())
+          );
+      }
+      else if ( digester != null
+              && digester.hasOutputDigests()
+              && digestedAudioInputStream.getFrameLength() != AudioSystem.NOT_SPECIFIED
+              )
+      {
+        // Digest the output as it is written. This requires the length to be known in advance, as the header can
+        // not be completed afterward when writing to a stream.
+        final OutputStream cutFileOutputStream =
+          digester.wrapOutput(new BufferedOutputStream(new FileOutputStream(processAction.getCutFile())));
+        try
+        {
+          result = AudioSystem.write(digestedAudioInputStream, context.getTargetType(), cutFileOutputStream);
+        }
+        finally
+        {
+          cutFileOutputStream.close();
+        }
+      }
+      else
+      {
+        result = AudioSystem.write(digestedAudioInputStream, context.getTargetType(), processAction.getCutFile());
+      }
+      
+      Map<String, String> outputDigests = null;
+      if (digester != null)
+      {
+        if  ( digester.hasOutputDigests()
+              && ( FlacEncoder.FLAC.equals(context.getTargetType())
+                || digestedAudioInputStream.getFrameLength() == AudioSystem.NOT_SPECIFIED
+                 )
+            )
+        {
+          // The header was completed after the audio had been written, so we have to read the output back.
+          digester.updateOutputFromFile(processAction.getCutFile());
+        }
+        outputDigests = digester.getValues(true);
+        digests.put(processAction.getCutFile(), outputDigests);
+      }
       
-      if (configuration.getDoPostProcessing())
+      if (context.getDoPostProcessing())
+      {
+        postProcessingHandles.add(this.createPostProcessingProcess(processAction, manifestEntry));
+      }
+      else if (manifestEntry != null)
       {
-        this.createPostProcessingProcess(processAction);
+        // The output is the cut file, so any CRC-32 computed while writing it saves reading it back.
+        manifestEntry.record(outputDigests);
       }
     }
+    
+    return result;
+  }
+  
+  /**
+   * Get the Vorbis comments for a FLAC encoding of the specified track, filled from its meta data.
+   * @param trackData
+   * @return The Vorbis comments for the specified track, in the form "NAME=value".
+   */
+  private static List<String> getVorbisComments(final TrackData trackData)
+  {
+    final List<String> result = new ArrayList<String>();
+    TrackCutter.addVorbisComment(result, "TITLE", trackData, MetaDataField.TITLE);
+    TrackCutter.addVorbisComment(result, "ARTIST", trackData, MetaDataField.PERFORMER);
+    TrackCutter.addVorbisComment(result, "COMPOSER", trackData, MetaDataField.SONGWRITER);
+    TrackCutter.addVorbisComment(result, "ALBUM", trackData, MetaDataField.ALBUMTITLE);
+    TrackCutter.addVorbisComment(result, "ALBUMARTIST", trackData, MetaDataField.ALBUMPERFORMER);
+    TrackCutter.addVorbisComment(result, "TRACKNUMBER", trackData, MetaDataField.TRACKNUMBER);
+    TrackCutter.addVorbisComment(result, "DISCNUMBER", trackData, MetaDataField.DISCNUMBER);
+    TrackCutter.addVorbisComment(result, "TOTALDISCS", trackData, MetaDataField.TOTALDISCS);
+    TrackCutter.addVorbisComment(result, "DATE", trackData, MetaDataField.YEAR);
+    TrackCutter.addVorbisComment(result, "GENRE", trackData, MetaDataField.GENRE);
+    TrackCutter.addVorbisComment(result, "ISRC", trackData, MetaDataField.ISRCCODE);
+    TrackCutter.addVorbisComment(result, "CATALOG", trackData, MetaDataField.CATALOG);
+    TrackCutter.addVorbisComment(result, "COMMENT", trackData, MetaDataField.COMMENT);
+    return result;
+  }
+  
+  /**
+   * Add a Vorbis comment for the specified meta data field of the track, if it has a value.
+   * @param comments The list of comments to add to.
+   * @param name The name of the Vorbis comment.
+   * @param trackData
+   * @param metaDataField The meta data field holding the value of the comment.
+   */
+  private static void addVorbisComment
+    ( final List<String> comments
+    , final String name
+    , final TrackData trackData
+    , final MetaDataField metaDataField
+    )
+  {
+    final String value = trackData.getMetaData(metaDataField);
+    if (value != null && value.length() > 0)
+    {
+      comments.add(name + "=" + value);
+    }
   }
   
   /**
    * Create the specified post-processing process.
    * @param processAction
-   * @return The specified post-processing process.
+   * @param manifestEntry The manifest entry to record the action in once post-processing has succeeded. May be null.
+   * @return A handle for the specified post-processing process.
    * @throws IOException
    */
-  private Process createPostProcessingProcess
+  private PostProcessingHandle createPostProcessingProcess
     ( final TrackCutterProcessingAction processAction
+    , final TrackCutterManifest.Entry manifestEntry
     ) throws IOException
   {
     processAction.getPostProcessFile().getParentFile().mkdirs();
+    final long startTime = System.nanoTime();
     Process process = Runtime.getRuntime().exec(processAction.getPostProcessCommand());
     
-    StreamPiper.pipeStream(process.getInputStream(), processAction.getStdOutRedirectFile());
-    StreamPiper.pipeStream(process.getErrorStream(), processAction.getErrRedirectFile());
+    final StreamPiper stdOutPiper =
+      StreamPiper.pipeStream(process.getInputStream(), processAction.getStdOutRedirectFile());
+    final StreamPiper errPiper =
+      StreamPiper.pipeStream(process.getErrorStream(), processAction.getErrRedirectFile());
+    
+    for (TrackCutterListener listener : this.listeners)
+    {
+      listener.postProcessingStarted(processAction);
+    }
     
-    return process;
+    return new PostProcessingHandle
+      (processAction, process, stdOutPiper, errPiper, manifestEntry, startTime, this.listeners);
   }
   
   /**
@@ -462,4 +1409,221 @@ public class TrackCutter
   {
     return this.configuration;
   }
+  
+  /**
+   * Handle for a running post-processing step: the process itself, and the pipes for its output.
+   */
+  private static class PostProcessingHandle
+  {
+    /**
+     * Interval in milliseconds at which the CPU time of the process is sampled while it runs.
+     */
+    private static final long CPU_SAMPLE_INTERVAL = 50;
+    /**
+     * Samples the CPU time of all running post-processing processes. Its thread is a daemon, so it does not keep the
+     * JVM alive.
+     */
+    private static final ScheduledExecutorService cpuSampler = Executors.newSingleThreadScheduledExecutor
+      ( new ThreadFactory()
+        {
+          public Thread newThread(final Runnable runnable)
+          {
+            final Thread thread = new Thread(runnable, "TrackCutter CPU time sampler");
+            thread.setDaemon(true);
+            return thread;
+          }
+        }
+      );
+    
+    /**
+     * The processing action that is being post-processed.
+     */
+    private final TrackCutterProcessingAction processAction;
+    /**
+     * The post-processing process.
+     */
+    private final Process process;
+    /**
+     * Pipe for the standard output of the process.
+     */
+    private final StreamPiper stdOutPiper;
+    /**
+     * Pipe for the error output of the process.
+     */
+    private final StreamPiper errPiper;
+    /**
+     * The manifest entry to record once the process has succeeded. May be null.
+     */
+    private final TrackCutterManifest.Entry manifestEntry;
+    /**
+     * Value of {@link System#nanoTime()} when the process was started.
+     */
+    private final long startTime;
+    /**
+     * Value of {@link System#nanoTime()} when the process was seen to have ended, or -1 if not yet.
+     */
+    private volatile long endTime = -1;
+    /**
+     * Last known CPU time of the process in nanoseconds, or -1 if unknown.
+     */
+    private volatile long cpuTimeNanos = -1;
+    /**
+     * The periodic sampling of the CPU time, which is cancelled when the process ends.
+     */
+    private final ScheduledFuture<?> cpuSampling;
+    /**
+     * Completes with the exit value of the process once it has ended and the listeners have been told.
+     */
+    private final CompletableFuture<Integer> finished;
+    
+    /**
+     * Create a new PostProcessingHandle.
+     * @param processAction The processing action that is being post-processed.
+     * @param process The post-processing process.
+     * @param stdOutPiper Pipe for the standard output of the process.
+     * @param errPiper Pipe for the error output of the process.
+     * @param manifestEntry The manifest entry to record once the process has succeeded. May be null.
+     * @param startTime Value of {@link System#nanoTime()} when the process was started.
+     * @param listeners Listeners to tell when the process has ended.
+     */
+    public PostProcessingHandle
+      ( final TrackCutterProcessingAction processAction
+      , final Process process
+      , final StreamPiper stdOutPiper
+      , final StreamPiper errPiper
+      , final TrackCutterManifest.Entry manifestEntry
+      , final long startTime
+      , final List<TrackCutterListener> listeners
+      )
+    {
+      this.processAction = processAction;
+      this.process = process;
+      this.stdOutPiper = stdOutPiper;
+      this.errPiper = errPiper;
+      this.manifestEntry = manifestEntry;
+      this.startTime = startTime;
+      // The CPU time can only be determined while the process exists, so sample it from the start. This
+      // underestimates the CPU time by at most one sampling interval.
+      this.sampleCpuTime();
+      this.cpuSampling = PostProcessingHandle.cpuSampler.scheduleAtFixedRate
+        ( new Runnable()
+          {
+            public void run()
+            {
+              PostProcessingHandle.this.sampleCpuTime();
+            }
+          }
+        , PostProcessingHandle.CPU_SAMPLE_INTERVAL
+        , PostProcessingHandle.CPU_SAMPLE_INTERVAL
+        , TimeUnit.MILLISECONDS
+        );
+      // Tell the listeners as soon as the process ends, rather than when we get around to waiting for it.
+      this.finished = process.onExit().thenApply
+        ( new Function<Process, Integer>()
+          {
+            public Integer apply(final Process endedProcess)
+            {
+              PostProcessingHandle.this.endTime = System.nanoTime();
+              PostProcessingHandle.this.cpuSampling.cancel(false);
+              final int exitValue = endedProcess.exitValue();
+              for (TrackCutterListener listener : listeners)
+              {
+                listener.postProcessingFinished
+                  ( processAction
+                  , exitValue
+                  , PostProcessingHandle.this.getWallTimeNanos()
+                  , PostProcessingHandle.this.getCpuTimeNanos()
+                  );
+              }
+              return exitValue;
+            }
+          }
+        );
+    }
+    
+    /**
+     * Wait for the process to end, for the listeners to have been told, and for all of its output to have been
+     * piped.
+     * @return The exit value of the process.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public int waitFor() throws InterruptedException
+    {
+      final int result;
+      try
+      {
+        result = this.finished.get();
+      }
+      catch (ExecutionException e)
+      {
+        // Only a listener can fail here, so pass on what it threw.
+        if (e.getCause() instanceof Error)
+        {
+          throw (Error) e.getCause();
+        }
+        throw (RuntimeException) e.getCause();
+      }
+      this.stdOutPiper.join();
+      this.errPiper.join();
+      return result;
+    }
+    
+    /**
+     * Take a sample of the CPU time of the process, if it is available.
+     */
+    private void sampleCpuTime()
+    {
+      final Optional<Duration> cpuTime = this.process.info().totalCpuDuration();
+      if (cpuTime.isPresent())
+      {
+        this.cpuTimeNanos = cpuTime.get().toNanos();
+      }
+    }
+    
+    /**
+     * Get the time that the process ran. Only final once the process has ended.
+     * @return The time in nanoseconds that the process ran.
+     */
+    public long getWallTimeNanos()
+    {
+      final long end = this.endTime == -1 ? System.nanoTime() : this.endTime;
+      return end - this.startTime;
+    }
+    
+    /**
+     * Get the CPU time used by the process, as far as could be determined.
+     * @return The CPU time in nanoseconds used by the process, or -1 if unknown.
+     */
+    public long getCpuTimeNanos()
+    {
+      return this.cpuTimeNanos;
+    }
+    
+    /**
+     * Get the processing action that is being post-processed.
+     * @return The processing action that is being post-processed.
+     */
+    public TrackCutterProcessingAction getProcessAction()
+    {
+      return this.processAction;
+    }
+    
+    /**
+     * Get the post-processing process.
+     * @return The post-processing process.
+     */
+    public Process getProcess()
+    {
+      return this.process;
+    }
+    
+    /**
+     * Get the manifest entry to record once the process has succeeded.
+     * @return The manifest entry to record once the process has succeeded. May be null.
+     */
+    public TrackCutterManifest.Entry getManifestEntry()
+    {
+      return this.manifestEntry;
+    }
+  }
 }
@@ -18,24 +18,30 @@
  */
 package jwbroek.cuelib.tools.trackcutter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
+import javax.management.JMException;
 import javax.sound.sampled.AudioFileFormat;
 
 import jwbroek.cuelib.Position;
 import jwbroek.cuelib.tools.trackcutter.TrackCutterConfiguration.PregapHandling;
+import jwbroek.flac.FlacEncoder;
 import jwbroek.io.FileSelector;
 import jwbroek.util.SimpleOptionsParser;
 import jwbroek.util.properties.EnhancedProperties;
@@ -83,6 +89,30 @@ public class TrackCutterCommand
    * File to write the XML configuration to. If null, no configuration will be written.
    */
   private File writeXmlConfigurationTo = null;
+  /**
+   * Number of cue sheets to process concurrently.
+   */
+  private int jobs = 1;
+  /**
+   * Maximum number of cue sheets to process concurrently per device. Values smaller than 1 mean no limit.
+   */
+  private int maxJobsPerDevice = 0;
+  /**
+   * File to write the plan to, instead of processing. "-" means standard output. If null, processing is done.
+   */
+  private String planTo = null;
+  /**
+   * Interval in seconds at which to log statistics. Values smaller than 1 mean no logging.
+   */
+  private long statisticsInterval = 0;
+  /**
+   * Whether or not to expose statistics through JMX.
+   */
+  private boolean exposeStatisticsThroughJmx = false;
+  /**
+   * Unix domain socket to accept jobs on as a daemon. If null, no daemon.
+   */
+  private File daemonSocket = null;
   /**
    * Create a new TrackCutterCommand instance. 
    */
@@ -115,8 +145,8 @@ public class TrackCutterCommand
     System.out.println("                     used.");
     System.out.println(" -i                  Read cue sheet from standard input.");
     System.out.println(" -f file             Template for file name. Implies no redirect to post-processing.");
-    System.out.println(" -t type             Audio type to convert to. Valid types are AIFC, AIFF, AU, SND, WAVE.");
-    System.out.println("                     Not all conversions may be supported.");
+    System.out.println(" -t type             Audio type to convert to. Valid types are AIFC, AIFF, AU, SND, WAVE,");
+    System.out.println("                     FLAC. Not all conversions may be supported.");
     System.out.println(" -p file command     Template for post-processing file name and command.");
     System.out.println(" -g type [templates] Pregap handling. Choose from \"prepend\", \"discard\", \"separate\"");
     System.out.println("                     If \"separate\" is chosen, you must also specify templates for file");
@@ -132,6 +162,24 @@ public class TrackCutterCommand
     System.out.println(" -wp file            Write configuration to properties file.");
     System.out.println(" -rx file            Read configuration from xml properties file.");
     System.out.println(" -wx file            Write configuration to xml properties file.");
+    System.out.println(" -j jobs             Number of cue sheets to process concurrently. Default is 1.");
+    System.out.println(" -jd jobs            Maximum number of cue sheets to process concurrently on a single device.");
+    System.out.println("                     Default is no limit apart from -j.");
+    System.out.println(" -n file             Dry run. Do not process any audio, but write a plan of the work as CSV to");
+    System.out.println("                     the specified file, or to standard output if the file is \"-\". Does not");
+    System.out.println("                     apply to a cue sheet read from standard input.");
+    System.out.println(" -st seconds         Log statistics on progress and throughput to standard error at the");
+    System.out.println("                     specified interval.");
+    System.out.println(" -jmx                Expose statistics on progress and throughput as a JMX MBean.");
+    System.out.println(" -m                  Keep a manifest next to each cue sheet, and skip tracks whose output is");
+    System.out.println("                     still up to date according to the manifest of a previous run.");
+    System.out.println(" -d algorithms       Comma separated digest algorithms to compute while cutting, such as");
+    System.out.println("                     CRC32C,MD5,SHA-256. Prefix with PCM- to ignore file headers. Digests are");
+    System.out.println("                     written to a .digests file next to the output.");
+    System.out.println(" -daemon socket      Run as a daemon that accepts jobs on a Unix domain socket at the specified");
+    System.out.println("                     path. Its directory is created if needed, and must be accessible to the");
+    System.out.println("                     owner only. Other options act as defaults for the jobs. See");
+    System.out.println("                     TrackCutterDaemon for the protocol. Requires Java 16 or later.");
     System.out.println(" -? | --help         Displays this help message and exits.");
     System.out.println("Templates:");
     System.out.println(" <title>             Title of the track.");
@@ -308,6 +356,10 @@ public class TrackCutterCommand
             {
               audioType = AudioFileFormat.Type.WAVE;
             }
+            else if ("FLAC".equalsIgnoreCase(type))
+            {
+              audioType = FlacEncoder.FLAC;
+            }
             else
             {
               throw new IllegalArgumentException("Unsupported audio type: " + type);
@@ -514,6 +566,107 @@ public class TrackCutterCommand
         }
       , "-wx"
       );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Number of concurrent jobs.
+            final int jobs = Integer.parseInt(options[offset+1]);
+            if (jobs < 1)
+            {
+              throw new IllegalArgumentException("Number of jobs must be at least 1: " + jobs);
+            }
+            TrackCutterCommand.this.setJobs(jobs);
+            return offset+2;
+          }
+        }
+      , "-j"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Maximum number of concurrent jobs per device.
+            TrackCutterCommand.this.setMaxJobsPerDevice(Integer.parseInt(options[offset+1]));
+            return offset+2;
+          }
+        }
+      , "-jd"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Keep a manifest and skip tracks that are up to date.
+            TrackCutterCommand.this.getConfiguration().setUseManifest(true);
+            return offset+1;
+          }
+        }
+      , "-m"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Compute digests while cutting.
+            TrackCutterCommand.this.getConfiguration().setDigests(options[offset+1]);
+            return offset+2;
+          }
+        }
+      , "-d"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Write a plan instead of processing.
+            TrackCutterCommand.this.setPlanTo(options[offset+1]);
+            return offset+2;
+          }
+        }
+      , "-n"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Log statistics periodically.
+            TrackCutterCommand.this.setStatisticsInterval(Long.parseLong(options[offset+1]));
+            return offset+2;
+          }
+        }
+      , "-st"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Expose statistics through JMX.
+            TrackCutterCommand.this.setExposeStatisticsThroughJmx(true);
+            return offset+1;
+          }
+        }
+      , "-jmx"
+      );
+    argumentsParser.registerOption
+      ( new SimpleOptionsParser.OptionHandler()
+        {
+          public int handleOption(String [] options, int offset)
+          {
+            // Run as a daemon.
+            TrackCutterCommand.this.setDaemonSocket(new File(options[offset+1]));
+            return offset+2;
+          }
+        }
+      , "-daemon"
+      );
     argumentsParser.registerOption
       ( new SimpleOptionsParser.OptionHandler()
         {
@@ -548,6 +701,7 @@ public class TrackCutterCommand
            && this.getFileNameSelectionPattern() == null  // No files are to be selected based on file name.
            && this.getPathSelectionPattern() == null      // No files are to be selected based on path.
            && ! this.getReadCueSheetFromStdIn()           // No cue sheet will be read from standard input.
+           && this.getDaemonSocket() == null              // No jobs will be accepted as a daemon.
            )
         )
     {
@@ -590,7 +744,12 @@ public class TrackCutterCommand
     }
     
     // Only do processing if this is not disabled. (I.e. by the "-?" command.)
-    if (this.getDoProcessing())
+    if (this.getDoProcessing() && this.getDaemonSocket() != null)
+    {
+      // Accept jobs until the process is terminated.
+      runDaemon(cutter);
+    }
+    else if (this.getDoProcessing())
     {
       Set<File> fileSet = new HashSet<File>();
       
@@ -629,21 +788,48 @@ public class TrackCutterCommand
         fileSet.addAll(fileList);
       }
       
-      // Process all specified files.
-      for (File cueFile : fileSet)
+      if (this.getPlanTo()!=null)
+      {
+        // Dry run, so just write the plan.
+        writePlan(this.planCueSheets(cutter, fileSet));
+      }
+      else
       {
+        // Process all specified files.
+        final TrackCutterScheduler scheduler =
+          new TrackCutterScheduler(cutter, this.getJobs(), this.getMaxJobsPerDevice());
+        final TrackCutterMetrics metrics = this.createMetrics(cutter, scheduler);
+        if (this.getJobs() > 1)
+        {
+          // The scheduler starts the largest jobs first, so it needs to know their sizes in advance.
+          scheduler.schedule(this.planCueSheets(cutter, fileSet));
+        }
+        else
+        {
+          // Jobs run one at a time, so their order makes no difference. Just process the files as they come.
+          for (File cueFile : fileSet)
+          {
+            scheduler.schedule(cueFile);
+          }
+        }
         try
         {
-          cutter.cutTracksInCueSheet(cueFile);
+          scheduler.shutdown();
         }
-        catch (Exception e)
+        catch (InterruptedException e)
         {
           e.printStackTrace();
+          Thread.currentThread().interrupt();
+        }
+        if (metrics != null && this.getStatisticsInterval() > 0)
+        {
+          metrics.stopLogging();
+          System.err.println(metrics.toString());
         }
       }
       
       // Process cue sheet from standard input, if specified.
-      if (this.readCueSheetFromStdIn)
+      if (this.readCueSheetFromStdIn && this.getPlanTo()==null)
       {
         try
         {
@@ -656,9 +842,134 @@ public class TrackCutterCommand
       }
     }
     
+    cutter.shutdown();
+    
     // Set doProcessing to true, as someone may want to reuse this instance.
     this.setDoProcessing(true);
   }
+  
+  /**
+   * Plan the work for the specified cue sheets. This only reads the cue sheets and the audio file headers. A cue
+   * sheet that cannot be planned is reported and left out of the plan, so that the other cue sheets are still done.
+   * @param cutter The cutter to plan the work with.
+   * @param cueFiles The cue sheets to plan the work for.
+   * @return A plan for the work on all cue sheets that could be planned.
+   */
+  private TrackCutterPlan planCueSheets(final TrackCutter cutter, final Set<File> cueFiles)
+  {
+    final TrackCutterPlan plan = new TrackCutterPlan();
+    for (File cueFile : cueFiles)
+    {
+      try
+      {
+        plan.addJob(cutter.planCueSheet(cueFile));
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+    }
+    return plan;
+  }
+  
+  /**
+   * Accept jobs on a Unix domain socket, using the configuration from the command line as default.
+   * @param cutter The cutter to process the jobs with.
+   */
+  private void runDaemon(final TrackCutter cutter)
+  {
+    final TrackCutterScheduler scheduler =
+      new TrackCutterScheduler(cutter, this.getJobs(), this.getMaxJobsPerDevice());
+    final TrackCutterMetrics metrics = this.createMetrics(cutter, scheduler);
+    try
+    {
+      final TrackCutterDaemon daemon =
+        new TrackCutterDaemon(cutter, this.getConfiguration(), scheduler, this.getDaemonSocket());
+      System.out.println("Listening on " + daemon.getSocketFile() + ".");
+      System.out.flush();
+      daemon.run();
+      scheduler.shutdown();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+    catch (InterruptedException e)
+    {
+      e.printStackTrace();
+      Thread.currentThread().interrupt();
+    }
+    if (metrics != null)
+    {
+      metrics.stopLogging();
+    }
+  }
+  
+  /**
+   * Create metrics for the specified cutter and scheduler, and start logging or expose them as requested.
+   * @param cutter The cutter to collect metrics for.
+   * @param scheduler The scheduler to report the queue depths of.
+   * @return The metrics, or null if no statistics were requested.
+   */
+  private TrackCutterMetrics createMetrics(final TrackCutter cutter, final TrackCutterScheduler scheduler)
+  {
+    if (this.getStatisticsInterval() < 1 && !this.getExposeStatisticsThroughJmx())
+    {
+      return null;
+    }
+    
+    final TrackCutterMetrics metrics = new TrackCutterMetrics();
+    metrics.setScheduler(scheduler);
+    cutter.addListener(metrics);
+    if (this.getStatisticsInterval() > 0)
+    {
+      metrics.startLogging(System.err, this.getStatisticsInterval(), TimeUnit.SECONDS);
+    }
+    if (this.getExposeStatisticsThroughJmx())
+    {
+      try
+      {
+        metrics.register();
+      }
+      catch (JMException e)
+      {
+        e.printStackTrace();
+      }
+    }
+    return metrics;
+  }
+  
+  /**
+   * Write the specified plan as CSV to the file specified by the -n option.
+   * @param plan The plan to write.
+   */
+  private void writePlan(final TrackCutterPlan plan)
+  {
+    try
+    {
+      if ("-".equals(this.getPlanTo()))
+      {
+        plan.writeCsv(System.out);
+        System.out.flush();
+      }
+      else
+      {
+        final Writer writer = new BufferedWriter(new FileWriter(this.getPlanTo()));
+        try
+        {
+          plan.writeCsv(writer);
+        }
+        finally
+        {
+          writer.close();
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+  }
 
   /**
    * Entry-point.
@@ -794,6 +1105,114 @@ public class TrackCutterCommand
     this.readCueSheetFromStdIn = readCueSheetFromStdIn;
   }
 
+  /**
+   * Get the number of cue sheets to process concurrently.
+   * @return The number of cue sheets to process concurrently.
+   */
+  private int getJobs()
+  {
+    return this.jobs;
+  }
+  
+  /**
+   * Set the number of cue sheets to process concurrently.
+   * @param jobs The number of cue sheets to process concurrently. Must be at least 1.
+   */
+  private void setJobs(final int jobs)
+  {
+    this.jobs = jobs;
+  }
+  
+  /**
+   * Get the maximum number of cue sheets to process concurrently per device. Values smaller than 1 mean no limit.
+   * @return The maximum number of cue sheets to process concurrently per device.
+   */
+  private int getMaxJobsPerDevice()
+  {
+    return this.maxJobsPerDevice;
+  }
+  
+  /**
+   * Set the maximum number of cue sheets to process concurrently per device. Values smaller than 1 mean no limit.
+   * @param maxJobsPerDevice The maximum number of cue sheets to process concurrently per device.
+   */
+  private void setMaxJobsPerDevice(final int maxJobsPerDevice)
+  {
+    this.maxJobsPerDevice = maxJobsPerDevice;
+  }
+  
+  /**
+   * Get the file to write the plan to, instead of processing. "-" means standard output.
+   * @return The file to write the plan to, instead of processing. If null, processing is done.
+   */
+  private String getPlanTo()
+  {
+    return this.planTo;
+  }
+  
+  /**
+   * Set the file to write the plan to, instead of processing. "-" means standard output.
+   * @param planTo The file to write the plan to, instead of processing. If null, processing is done.
+   */
+  private void setPlanTo(final String planTo)
+  {
+    this.planTo = planTo;
+  }
+  
+  /**
+   * Get the interval in seconds at which to log statistics. Values smaller than 1 mean no logging.
+   * @return The interval in seconds at which to log statistics.
+   */
+  private long getStatisticsInterval()
+  {
+    return this.statisticsInterval;
+  }
+  
+  /**
+   * Set the interval in seconds at which to log statistics. Values smaller than 1 mean no logging.
+   * @param statisticsInterval The interval in seconds at which to log statistics.
+   */
+  private void setStatisticsInterval(final long statisticsInterval)
+  {
+    this.statisticsInterval = statisticsInterval;
+  }
+  
+  /**
+   * Get whether or not to expose statistics through JMX.
+   * @return Whether or not to expose statistics through JMX.
+   */
+  private boolean getExposeStatisticsThroughJmx()
+  {
+    return this.exposeStatisticsThroughJmx;
+  }
+  
+  /**
+   * Set whether or not to expose statistics through JMX.
+   * @param exposeStatisticsThroughJmx Whether or not to expose statistics through JMX.
+   */
+  private void setExposeStatisticsThroughJmx(final boolean exposeStatisticsThroughJmx)
+  {
+    this.exposeStatisticsThroughJmx = exposeStatisticsThroughJmx;
+  }
+  
+  /**
+   * Get the Unix domain socket to accept jobs on as a daemon. If null, no daemon.
+   * @return The Unix domain socket to accept jobs on as a daemon.
+   */
+  private File getDaemonSocket()
+  {
+    return this.daemonSocket;
+  }
+  
+  /**
+   * Set the Unix domain socket to accept jobs on as a daemon. If null, no daemon.
+   * @param daemonSocket The Unix domain socket to accept jobs on as a daemon.
+   */
+  private void setDaemonSocket(final File daemonSocket)
+  {
+    this.daemonSocket = daemonSocket;
+  }
+  
   /**
    * Get the File to write the properties configuration to. If null, no configuration will be written.
    * @return The File to write the properties configuration to. If null, no configuration will be written.
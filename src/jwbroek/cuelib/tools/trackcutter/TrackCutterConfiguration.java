@@ -19,16 +19,11 @@
 package jwbroek.cuelib.tools.trackcutter;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.sound.sampled.AudioFileFormat;
 
-import jwbroek.cuelib.CueSheet;
 import jwbroek.cuelib.FileData;
 import jwbroek.cuelib.TrackData;
-import jwbroek.cuelib.tools.genrenormalizer.GenreNormalizer;
-import jwbroek.util.StringReplacer;
 import jwbroek.util.properties.AudioFileFormatTypePropertyHandler;
 import jwbroek.util.properties.EnhancedProperties;
 import jwbroek.util.properties.FilePropertyHandler;
@@ -82,6 +77,15 @@ public class TrackCutterConfiguration
    * Whether or not we should redirect output directly to post-processing.
    */
   private boolean redirectToPostprocessing = false;
+  /**
+   * Whether or not to keep a manifest per cue sheet, and skip tracks that are up to date according to it.
+   */
+  private boolean useManifest = false;
+  /**
+   * Comma separated list of digest algorithms to compute over the output while cutting. Empty if no digests should
+   * be computed.
+   */
+  private String digests = "";
   /**
    * Template for the file name of the cut tracks.
    */
@@ -110,12 +114,6 @@ public class TrackCutterConfiguration
   private String pregapPostProcessCommandTemplate =
     "C:\\lame\\lame.exe --vbr-new -V 0 -t --tt \"Pregap of <title>\" --ta \"<artist>\" --tl \"<album>\" --ty \"<year>\""
     + " --tc \"Pregap of <title>\" --tn \"<track>\" --tg \"<genre>\" \"<targetFile>\" \"<postProcessFile>\"";
-  /**
-   * Replacer for the template values.
-   */
-  private static final StringReplacer templateReplacer =
-    new StringReplacer(getHumanReadableToFormatStringReplacements());
-  
   /**
    * Create a new TrackCutterConfiguration instance, with default values.
    */
@@ -123,28 +121,6 @@ public class TrackCutterConfiguration
   {
   }
   
-  /**
-   * Get a replacements map for human readable fields to formatting string fields.
-   * @return A replacements map for human readable fields to formatting string fields.
-   */
-  private static Map<String, String> getHumanReadableToFormatStringReplacements()
-  {
-    HashMap<String, String> replacements = new HashMap<String, String>();
-    replacements.put("<title>", "%1$s");
-    replacements.put("<artist>", "%2$s");
-    replacements.put("<album>", "%3$s");
-    replacements.put("<year>", "%4$s");
-    replacements.put("<comment>", "%5$s");
-    replacements.put("<track>", "%6$s");
-    replacements.put("<genre>", "%7$s");
-    replacements.put("<id3genre>", "%8$s");
-    replacements.put("<id31genre>", "%9$s");
-    replacements.put("<lamegenre>", "%10$s");
-    replacements.put("<cutFile>", "%11$s");
-    replacements.put("<postProcessFile>", "%12$s");
-    return replacements;
-  }
-  
   /**
    * <p>Load configuration data from the specified Properties.</p>
    * <p>The following properties are supported. If a value is not specified in the properties file, the
@@ -159,6 +135,8 @@ public class TrackCutterConfiguration
    * <tr><td>redirectStdOut</td><td>Whether or not standard output from post-processing should be redirected.</td><td>{@link Boolean}.</td></tr>
    * <tr><td>doPostProcessing</td><td>Whether or not we should do post-processing.</td><td>{@link Boolean}.</td></tr>
    * <tr><td>redirectToPostprocessing</td><td>Whether or not we should redirect output directly to post-processing.</td><td>{@link Boolean}.</td></tr>
+   * <tr><td>useManifest</td><td>Whether or not to keep a manifest per cue sheet, and skip tracks that are up to date according to it.</td><td>{@link Boolean}.</td></tr>
+   * <tr><td>digests</td><td>Comma separated list of digest algorithms to compute over the output while cutting.</td><td>{@link String}.</td></tr>
    * <tr><td>cutFileNameTemplate</td><td>Template for the file name of the cut tracks.</td><td>{@link String}.</td></tr>
    * <tr><td>postProcessFileNameTemplate</td><td>Template for the file name of the post-processed tracks.</td><td>{@link String}.</td></tr>
    * <tr><td>postProcessCommandTemplate</td><td>Template for the post-processing command.</td><td>{@link String}.</td></tr>
@@ -182,6 +160,8 @@ public class TrackCutterConfiguration
     this.doPostProcessing = properties.getPropertyAsBoolean("doPostProcessing", this.doPostProcessing);
     this.redirectToPostprocessing = properties.getPropertyAsBoolean
       ("redirectToPostprocessing", this.redirectToPostprocessing);
+    this.useManifest = properties.getPropertyAsBoolean("useManifest", this.useManifest);
+    this.digests = properties.getProperty("digests", this.digests);
     this.cutFileNameTemplate = properties.getProperty("cutFileNameTemplate", this.cutFileNameTemplate);
     this.postProcessFileNameTemplate = properties.getProperty
       ("postProcessFileNameTemplate", this.postProcessFileNameTemplate);
@@ -212,6 +192,8 @@ public class TrackCutterConfiguration
     properties.setProperty("redirectStdOut", this.redirectStdOut);
     properties.setProperty("doPostProcessing", this.doPostProcessing);
     properties.setProperty("redirectToPostprocessing", this.redirectToPostprocessing);
+    properties.setProperty("useManifest", this.useManifest);
+    properties.setProperty("digests", this.digests);
     properties.setProperty("cutFileNameTemplate", this.cutFileNameTemplate);
     properties.setProperty("postProcessFileNameTemplate", this.postProcessFileNameTemplate);
     properties.setProperty("postProcessCommandTemplate", this.postProcessCommandTemplate);
@@ -236,49 +218,6 @@ public class TrackCutterConfiguration
     return audioFile;
   }
   
-  /**
-   * Normalize the specified file name (without path component) so that it will likely be valid on modern
-   * file and operating systems.
-   * @param fileName The file name to normalize. Must not contain a path component.
-   * @return The input file name, normalized to be likely to be valid on modern file and operating systems.
-   */
-  private static String normalizeFileName(final String fileName)
-  {
-    final StringBuilder builder = new StringBuilder(fileName.length());
-    final int length = fileName.length();
-    for (int index = 0; index < length; index++)
-    {
-      char currentChar = fileName.charAt(index);
-      if (currentChar < 32)
-      {
-        // No control characters in file name.
-        builder.append('_');
-      }
-      else
-      {
-        switch (currentChar)
-        {
-          // These characters are likely to be troublesome in file names.
-          case '/':
-          case '\\':
-          case ':':
-          case '*':
-          case '?':
-          case '"':
-          case '|':
-            builder.append('_');
-            break;
-          // Everything else should be okay on modern file system.
-          default:
-            builder.append(currentChar);
-            break;
-        }
-      }
-    }
-    final String result = builder.toString();
-    return result;
-  }
-  
   /**
    * Get the expanded file from a template and track data.
    * @param trackData TrackData to use for expanding the file name template.
@@ -287,72 +226,8 @@ public class TrackCutterConfiguration
    */
   public File getFileFromTemplate(final TrackData trackData, final String fileNameTemplate)
   {
-    String targetFileName = getExpandedFileName(trackData, fileNameTemplate);
-    
-    File targetFile = new File(targetFileName);
-    if (!targetFile.isAbsolute())
-    {
-      targetFile = new File(this.getParentDirectory(), targetFileName);
-    }
-    return targetFile;
-  }
-  
-  /**
-   * Get the expanded file name from a template and track data.
-   * @param trackData TrackData to use for expanding the file name template.
-   * @param fileNameTemplate The template for the file name.
-   * @return The expanded file name.
-   */
-  private String getExpandedFileName(final TrackData trackData, final String fileNameTemplate)
-  {
-    final String genre = trackData.getMetaData(CueSheet.MetaDataField.GENRE);
-    final String result = String.format
-      ( this.getTemplateReplacer().replace(fileNameTemplate)
-      , normalizeFileName(""+trackData.getMetaData(CueSheet.MetaDataField.TITLE))
-      , normalizeFileName(""+trackData.getMetaData(CueSheet.MetaDataField.PERFORMER))
-      , normalizeFileName(""+trackData.getMetaData(CueSheet.MetaDataField.ALBUMTITLE))
-      , normalizeFileName(""+trackData.getMetaData(CueSheet.MetaDataField.YEAR))
-      , normalizeFileName(""+trackData.getMetaData(CueSheet.MetaDataField.COMMENT))
-      , normalizeFileName(""+trackData.getMetaData(CueSheet.MetaDataField.TRACKNUMBER))
-      , normalizeFileName(""+genre)
-      , normalizeFileName(""+GenreNormalizer.normalizeGenreDescription(genre, false, false))
-      , normalizeFileName(""+GenreNormalizer.normalizeGenreDescription(genre, true, false))
-      , normalizeFileName(""+GenreNormalizer.normalizeGenreDescription(genre, true, true))
-      );
-    return result;
-  }
-
-  /**
-   * Get the expanded post-processing command.
-   * @param trackData TrackData to use in expanding the template.
-   * @param processCommandTemplate Template for the post-processing command
-   * @param cutFileName The name of the file of the track that was cut.
-   * @param processFileName The file name for after the post-processing step.
-   * @return The expanded post-processing command.
-   */
-  private String getExpandedProcessCommand
-    ( final TrackData trackData
-    , final String processCommandTemplate
-    , final String cutFileName
-    , final String processFileName
-    )
-  {
-    final String genre = trackData.getMetaData(CueSheet.MetaDataField.GENRE);
-    final String result = String.format
-      ( this.getTemplateReplacer().replace(processCommandTemplate)
-      , trackData.getMetaData(CueSheet.MetaDataField.TITLE)
-      , trackData.getMetaData(CueSheet.MetaDataField.PERFORMER)
-      , trackData.getMetaData(CueSheet.MetaDataField.ALBUMTITLE)
-      , trackData.getMetaData(CueSheet.MetaDataField.YEAR)
-      , trackData.getMetaData(CueSheet.MetaDataField.COMMENT)
-      , trackData.getMetaData(CueSheet.MetaDataField.TRACKNUMBER)
-      , genre
-      , GenreNormalizer.normalizeGenreDescription(genre, false, false)
-      , GenreNormalizer.normalizeGenreDescription(genre, true, false)
-      , GenreNormalizer.normalizeGenreDescription(genre, true, true)
-      , cutFileName
-      , processFileName
-      );
+    final File result = TrackCutterTemplate.compile(fileNameTemplate)
+      .renderFile(new TrackCutterTemplate.FieldValues(trackData), this.getParentDirectory());
     return result;
   }
   
@@ -398,23 +273,14 @@ public class TrackCutterConfiguration
     TrackData trackData = processAction.getTrackData();
     String commandTemplate =
       processAction.getIsPregap()?this.getPregapPostProcessCommandTemplate():this.getPostProcessCommandTemplate();
-    String processCommand = getExpandedProcessCommand
-      ( trackData
-      , commandTemplate
+    String processCommand = TrackCutterTemplate.compile(commandTemplate).render
+      ( new TrackCutterTemplate.FieldValues(trackData)
+      , false
       , processAction.getCutFile().getPath()
       , processAction.getPostProcessFile().getPath()
       );
     return processCommand;
   }
-  
-  /**
-   * Get the replacer for the template values.
-   * @return The replacer for the template values.
-   */
-  private StringReplacer getTemplateReplacer()
-  {
-    return TrackCutterConfiguration.templateReplacer;
-  }
 
   /**
    * Get the parent directory for relative paths.
@@ -667,4 +533,47 @@ public class TrackCutterConfiguration
   {
     this.pregapFrameLengthThreshold = pregapFrameLengthThreshold;
   }
+  
+  /**
+   * Get whether or not to keep a manifest per cue sheet, and skip tracks that are up to date according to it.
+   * @return Whether or not to keep a manifest per cue sheet.
+   */
+  public boolean getUseManifest()
+  {
+    return this.useManifest;
+  }
+  
+  /**
+   * Set whether or not to keep a manifest per cue sheet, and skip tracks that are up to date according to it.
+   * The manifest is stored next to the cue sheet. It is not used for cue sheets that are not read from a file.
+   * @param useManifest Whether or not to keep a manifest per cue sheet.
+   */
+  public void setUseManifest(final boolean useManifest)
+  {
+    this.useManifest = useManifest;
+  }
+  
+  /**
+   * Get the comma separated list of digest algorithms to compute over the output while cutting.
+   * @return The comma separated list of digest algorithms to compute over the output while cutting. Empty if no
+   * digests should be computed.
+   */
+  public String getDigests()
+  {
+    return this.digests;
+  }
+  
+  /**
+   * Set the comma separated list of digest algorithms to compute over the output while cutting. Supported are
+   * "CRC32", "CRC32C" and all {@link java.security.MessageDigest} algorithms, such as "MD5" and "SHA-256". Prefix an
+   * algorithm with "PCM-" to compute it over the audio data only, ignoring file headers. The digests are written to a
+   * sidecar file in every directory that output is written to.
+   * @param digests The comma separated list of digest algorithms to compute. Empty if no digests should be computed.
+   * @throws IllegalArgumentException When an algorithm is not supported.
+   */
+  public void setDigests(final String digests) throws IllegalArgumentException
+  {
+    TrackCutterDigester.parseAlgorithms(digests);
+    this.digests = digests;
+  }
 }
@@ -0,0 +1,352 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sound.sampled.AudioFileFormat;
+
+import jwbroek.cuelib.FileData;
+import jwbroek.cuelib.TrackData;
+import jwbroek.cuelib.tools.trackcutter.TrackCutterConfiguration.PregapHandling;
+
+/**
+ * <p>Immutable snapshot of a {@link TrackCutterConfiguration}, resolved for a single job (typically a single cue
+ * sheet).</p>
+ * <p>The parent directory for relative paths is resolved when the context is created, and the templates are
+ * compiled only once. The values of the template fields are computed only once per track. Apart from that cache,
+ * a context is never modified, so a single TrackCutter can run many jobs concurrently, each with its own context,
+ * without any locking.</p>
+ * @author jwbroek
+ */
+public final class TrackCutterContext
+{
+  /**
+   * Parent directory for relative paths. May be null, in which case relative paths are relative to the working
+   * directory.
+   */
+  private final File parentDirectory;
+  /**
+   * How to handle pregaps.
+   */
+  private final PregapHandling pregapHandling;
+  /**
+   * Only process pregaps with a frame length greater than this.
+   */
+  private final long pregapFrameLengthThreshold;
+  /**
+   * Audio type to convert to.
+   */
+  private final AudioFileFormat.Type targetType;
+  /**
+   * Whether or not error output from post-processing should be redirected.
+   */
+  private final boolean redirectErr;
+  /**
+   * Whether or not standard output from post-processing should be redirected.
+   */
+  private final boolean redirectStdOut;
+  /**
+   * Whether or not we should do post-processing.
+   */
+  private final boolean doPostProcessing;
+  /**
+   * Whether or not we should redirect output directly to post-processing.
+   */
+  private final boolean redirectToPostprocessing;
+  /**
+   * The file to keep the manifest of this job in. Null if no manifest should be kept.
+   */
+  private final File manifestFile;
+  /**
+   * The digest algorithms to compute over the output while cutting. Empty if no digests should be computed.
+   */
+  private final List<String> digestAlgorithms;
+  /**
+   * The name of the file to store the digests of the output in, in every directory that output is written to.
+   */
+  private final String digestFileName;
+  /**
+   * Template for the file name of the cut tracks.
+   */
+  private final TrackCutterTemplate cutFileNameTemplate;
+  /**
+   * Template for the file name of the post-processed tracks.
+   */
+  private final TrackCutterTemplate postProcessFileNameTemplate;
+  /**
+   * Template for the post-processing command.
+   */
+  private final TrackCutterTemplate postProcessCommandTemplate;
+  /**
+   * Template for the file name of the cut pregaps.
+   */
+  private final TrackCutterTemplate pregapCutFileNameTemplate;
+  /**
+   * Template for the file name of the post-processed pregaps.
+   */
+  private final TrackCutterTemplate pregapPostProcessFileNameTemplate;
+  /**
+   * Template for the post-processing command for the pregaps.
+   */
+  private final TrackCutterTemplate pregapPostProcessCommandTemplate;
+  /**
+   * Values of the template fields, by track.
+   */
+  private final ConcurrentMap<TrackData, TrackCutterTemplate.FieldValues> fieldValues =
+    new ConcurrentHashMap<TrackData, TrackCutterTemplate.FieldValues>();
+  
+  /**
+   * Create a new TrackCutterContext from the current state of the specified configuration.
+   * @param configuration The configuration to take a snapshot of.
+   * @param cueFile The cue sheet that the job is for. If the configuration does not specify a parent directory,
+   * then the directory of this file will be used. May be null.
+   */
+  public TrackCutterContext(final TrackCutterConfiguration configuration, final File cueFile)
+  {
+    if (configuration.getParentDirectory() == null && cueFile != null)
+    {
+      this.parentDirectory = cueFile.getParentFile();
+    }
+    else
+    {
+      this.parentDirectory = configuration.getParentDirectory();
+    }
+    this.pregapHandling = configuration.getPregapHandling();
+    this.pregapFrameLengthThreshold = configuration.getPregapFrameLengthThreshold();
+    this.targetType = configuration.getTargetType();
+    this.redirectErr = configuration.getRedirectErr();
+    this.redirectStdOut = configuration.getRedirectStdOut();
+    this.doPostProcessing = configuration.getDoPostProcessing();
+    this.redirectToPostprocessing = configuration.getRedirectToPostprocessing();
+    if (configuration.getUseManifest() && cueFile != null)
+    {
+      this.manifestFile = new File(cueFile.getPath() + ".manifest");
+    }
+    else
+    {
+      this.manifestFile = null;
+    }
+    this.digestAlgorithms = TrackCutterDigester.parseAlgorithms(configuration.getDigests());
+    if (cueFile != null)
+    {
+      final String cueFileName = cueFile.getName();
+      final int extensionStart = cueFileName.lastIndexOf('.');
+      this.digestFileName =
+        (extensionStart > 0 ? cueFileName.substring(0, extensionStart) : cueFileName) + ".digests";
+    }
+    else
+    {
+      this.digestFileName = "trackcutter.digests";
+    }
+    this.cutFileNameTemplate = TrackCutterTemplate.compile(configuration.getCutFileNameTemplate());
+    this.postProcessFileNameTemplate = TrackCutterTemplate.compile(configuration.getPostProcessFileNameTemplate());
+    this.postProcessCommandTemplate = TrackCutterTemplate.compile(configuration.getPostProcessCommandTemplate());
+    this.pregapCutFileNameTemplate = TrackCutterTemplate.compile(configuration.getPregapCutFileNameTemplate());
+    this.pregapPostProcessFileNameTemplate = TrackCutterTemplate.compile
+      (configuration.getPregapPostProcessFileNameTemplate());
+    this.pregapPostProcessCommandTemplate = TrackCutterTemplate.compile
+      (configuration.getPregapPostProcessCommandTemplate());
+  }
+  
+  /**
+   * Get a file instance representing the audio file specified in the FileData.
+   * @param fileData
+   * @return A file instance representing the audio file specified in the FileData.
+   */
+  public File getAudioFile(final FileData fileData)
+  {
+    File audioFile = new File(fileData.getFile());
+    if (audioFile.getParent()==null)
+    {
+      audioFile = new File(this.getParentDirectory(), fileData.getFile());
+    }
+    return audioFile;
+  }
+  
+  /**
+   * Get a File instance representing the file after cutting the track.
+   * @param processAction The associated processing action.
+   * @return A File instance representing the file after cutting the track.
+   */
+  public File getCutFile(final TrackCutterProcessingAction processAction)
+  {
+    final TrackCutterTemplate fileNameTemplate =
+      processAction.getIsPregap()?this.pregapCutFileNameTemplate:this.cutFileNameTemplate;
+    final File result = fileNameTemplate.renderFile
+      (this.getFieldValues(processAction.getTrackData()), this.getParentDirectory());
+    return result;
+  }
+  
+  /**
+   * Get a File instance representing the file after post-processing.
+   * @param processAction The associated processing action.
+   * @return A File instance representing the file after post-processing.
+   */
+  public File getPostProcessFile(final TrackCutterProcessingAction processAction)
+  {
+    final TrackCutterTemplate fileNameTemplate =
+      processAction.getIsPregap()?this.pregapPostProcessFileNameTemplate:this.postProcessFileNameTemplate;
+    final File result = fileNameTemplate.renderFile
+      (this.getFieldValues(processAction.getTrackData()), this.getParentDirectory());
+    return result;
+  }
+  
+  /**
+   * Get the command to use for post-processing.
+   * @param processAction The associated processing action.
+   * @return The command to use for post-processing.
+   */
+  public String getPostProcessCommand(final TrackCutterProcessingAction processAction)
+  {
+    final TrackCutterTemplate commandTemplate =
+      processAction.getIsPregap()?this.pregapPostProcessCommandTemplate:this.postProcessCommandTemplate;
+    final String result = commandTemplate.render
+      ( this.getFieldValues(processAction.getTrackData())
+      , false
+      , processAction.getCutFile().getPath()
+      , processAction.getPostProcessFile().getPath()
+      );
+    return result;
+  }
+  
+  /**
+   * Get the values of the template fields for the specified track. The values are shared by all templates and
+   * processing actions of the track.
+   * @param trackData The track.
+   * @return The values of the template fields for the specified track.
+   */
+  private TrackCutterTemplate.FieldValues getFieldValues(final TrackData trackData)
+  {
+    TrackCutterTemplate.FieldValues result = this.fieldValues.get(trackData);
+    if (result == null)
+    {
+      final TrackCutterTemplate.FieldValues newValues = new TrackCutterTemplate.FieldValues(trackData);
+      result = this.fieldValues.putIfAbsent(trackData, newValues);
+      if (result == null)
+      {
+        result = newValues;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Get the parent directory for relative paths.
+   * @return The parent directory for relative paths. May be null, in which case relative paths are relative to the
+   * working directory.
+   */
+  public File getParentDirectory()
+  {
+    return this.parentDirectory;
+  }
+  
+  /**
+   * Get the mode for pregap handling.
+   * @return The mode for pregap handling.
+   */
+  public PregapHandling getPregapHandling()
+  {
+    return this.pregapHandling;
+  }
+  
+  /**
+   * Get the threshold on pregaps in frame length. Pregaps shorter than this will not be processed.
+   * @return The threshold on pregaps in frame length.
+   */
+  public long getPregapFrameLengthThreshold()
+  {
+    return this.pregapFrameLengthThreshold;
+  }
+  
+  /**
+   * Get the audio type to convert to.
+   * @return The audio type to convert to.
+   */
+  public AudioFileFormat.Type getTargetType()
+  {
+    return this.targetType;
+  }
+  
+  /**
+   * Get whether or not error output from post-processing should be redirected.
+   * @return Whether or not error output from post-processing should be redirected.
+   */
+  public boolean getRedirectErr()
+  {
+    return this.redirectErr;
+  }
+  
+  /**
+   * Get whether or not standard output from post-processing should be redirected.
+   * @return Whether or not standard output from post-processing should be redirected.
+   */
+  public boolean getRedirectStdOut()
+  {
+    return this.redirectStdOut;
+  }
+  
+  /**
+   * Get whether or not to do post-processing.
+   * @return Whether or not to do post-processing.
+   */
+  public boolean getDoPostProcessing()
+  {
+    return this.doPostProcessing;
+  }
+  
+  /**
+   * Get whether or not to redirect the cut track directly to post-processing.
+   * @return Whether or not to redirect the cut track directly to post-processing.
+   */
+  public boolean getRedirectToPostprocessing()
+  {
+    return this.redirectToPostprocessing;
+  }
+  
+  /**
+   * Get the file to keep the manifest of this job in.
+   * @return The file to keep the manifest of this job in, or null if no manifest should be kept.
+   */
+  public File getManifestFile()
+  {
+    return this.manifestFile;
+  }
+  
+  /**
+   * Get the digest algorithms to compute over the output while cutting.
+   * @return The digest algorithms to compute over the output while cutting. Empty if no digests should be computed.
+   */
+  public List<String> getDigestAlgorithms()
+  {
+    return this.digestAlgorithms;
+  }
+  
+  /**
+   * Get the name of the file to store the digests of the output in, in every directory that output is written to.
+   * @return The name of the file to store the digests of the output in.
+   */
+  public String getDigestFileName()
+  {
+    return this.digestFileName;
+  }
+}
@@ -0,0 +1,600 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import jwbroek.cuelib.CueParser;
+import jwbroek.cuelib.CueSheet;
+import jwbroek.cuelib.tools.genrenormalizer.GenreNormalizer;
+import jwbroek.util.properties.EnhancedProperties;
+
+/**
+ * <p>Long-running server that accepts TrackCutter jobs on a Unix domain socket, so that a batch system does not have
+ * to start a new JVM for every cue sheet. All jobs run on a single {@link TrackCutter} and {@link TrackCutterScheduler},
+ * so the threads, loaded classes and compiled code are shared and warm.</p>
+ * <p>The socket is created in a directory that only the owner of the daemon can access, so only the owner can submit
+ * jobs. The daemon refuses to use a directory that others can access. Unix domain sockets require Java 16 or
+ * later.</p>
+ * <p>Each connection carries a single job. The client sends, in UTF-8:</p>
+ * <ol>
+ *   <li>A line with the path of the cue sheet. Relative paths are resolved against the working directory of the
+ *   daemon, so absolute paths are recommended.</li>
+ *   <li>Optionally, configuration in the format of a properties file, as per
+ *   {@link TrackCutterConfiguration#loadProperties(EnhancedProperties)}. These properties override the configuration
+ *   of the daemon for this job only. Only the properties in {@link #CLIENT_PROPERTIES} may be set. The post-processing
+ *   commands and whether and how they are run are fixed by the daemon's own configuration.</li>
+ *   <li>A line containing only ".", or the end of the stream.</li>
+ * </ol>
+ * <p>The daemon then streams progress back, one line per event, and closes the connection when the job is done:</p>
+ * <pre>
+ * ACCEPTED estimatedBytesToRead
+ * STARTED
+ * SKIPPED track kind
+ * CUTTING track kind
+ * CUT track kind framesCut bytesRead bytesWritten
+ * POSTPROCESSING track kind
+ * POSTPROCESSED track kind exitValue wallTimeMillis
+ * FINISHED elapsedMillis
+ * FAILED message
+ * </pre>
+ * <p>Here, kind is either "track" or "pregap". The last line is always either FINISHED or FAILED.</p>
+ * @author jwbroek
+ */
+public class TrackCutterDaemon implements TrackCutterListener, Closeable
+{
+  /**
+   * Line that ends the properties in a request.
+   */
+  private static final String END_OF_REQUEST = ".";
+  /**
+   * Time in milliseconds that a client may take to send its request.
+   */
+  private static final int REQUEST_TIMEOUT = 30000;
+  /**
+   * The configuration properties that a client may set for its job. The post-processing command templates and the
+   * options that control whether post-processing runs and where its output goes are left out, as they determine
+   * which commands the daemon runs.
+   */
+  public static final Set<String> CLIENT_PROPERTIES = Collections.unmodifiableSet
+    ( new HashSet<String>
+        ( Arrays.asList
+            ( "parentDirectory"
+            , "pregapHandling"
+            , "pregapFrameLengthThreshold"
+            , "targetType"
+            , "useManifest"
+            , "digests"
+            , "cutFileNameTemplate"
+            , "postProcessFileNameTemplate"
+            , "pregapCutFileNameTemplate"
+            , "pregapPostProcessFileNameTemplate"
+            )
+        )
+    );
+  /**
+   * The only permissions that the directory of the socket may have.
+   */
+  private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+  /**
+   * Cue sheet that is parsed at startup, so that the parser is initialized before the first job arrives.
+   */
+  private static final String WARM_UP_CUE_SHEET =
+    "PERFORMER \"Artist\"\nTITLE \"Album\"\nFILE \"album.wav\" WAVE\n  TRACK 01 AUDIO\n    INDEX 01 00:00:00\n";
+  
+  /**
+   * The TrackCutter that processes all jobs.
+   */
+  private final TrackCutter trackCutter;
+  /**
+   * The configuration that the configuration of every job is based on.
+   */
+  private final TrackCutterConfiguration configuration;
+  /**
+   * The scheduler that all jobs run on.
+   */
+  private final TrackCutterScheduler scheduler;
+  /**
+   * The path of the socket that jobs are accepted on.
+   */
+  private final Path socketPath;
+  /**
+   * The socket that jobs are accepted on.
+   */
+  private final ServerSocketChannel serverChannel;
+  /**
+   * Executor that reads the requests and plans the jobs, so that slow clients do not hold up the scheduler.
+   */
+  private final ExecutorService connectionExecutor;
+  /**
+   * Closes connections whose request takes too long, as channels have no read timeout.
+   */
+  private final ScheduledExecutorService requestTimer;
+  /**
+   * The connections of the jobs that have been scheduled, by cue sheet.
+   */
+  private final ConcurrentMap<CueSheet, Connection> connections = new ConcurrentHashMap<CueSheet, Connection>();
+  
+  /**
+   * Create a new TrackCutterDaemon, listening on a Unix domain socket at the specified path. The directory of the
+   * socket is created if needed. Jobs are not accepted until {@link #run()} is called.
+   * @param trackCutter The TrackCutter that will process all jobs.
+   * @param configuration The configuration that the configuration of every job is based on.
+   * @param scheduler The scheduler that all jobs will run on.
+   * @param socketFile The path of the socket. Its directory must be owned by the current user, and be accessible to
+   * the owner only.
+   * @throws IOException If the socket could not be opened, or if its directory is accessible to others.
+   */
+  public TrackCutterDaemon
+    ( final TrackCutter trackCutter
+    , final TrackCutterConfiguration configuration
+    , final TrackCutterScheduler scheduler
+    , final File socketFile
+    ) throws IOException
+  {
+    this.trackCutter = trackCutter;
+    this.configuration = configuration;
+    this.scheduler = scheduler;
+    this.socketPath = socketFile.getAbsoluteFile().toPath();
+    TrackCutterDaemon.prepareDirectory(this.socketPath.getParent());
+    // Remove a socket left behind by a daemon that did not shut down cleanly. Anything else is left alone, so
+    // binding will fail.
+    if  ( Files.exists(this.socketPath, LinkOption.NOFOLLOW_LINKS)
+        && !Files.isRegularFile(this.socketPath, LinkOption.NOFOLLOW_LINKS)
+        && !Files.isDirectory(this.socketPath, LinkOption.NOFOLLOW_LINKS)
+        && !Files.isSymbolicLink(this.socketPath)
+        )
+    {
+      Files.delete(this.socketPath);
+    }
+    this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    this.serverChannel.bind(UnixDomainSocketAddress.of(this.socketPath));
+    this.connectionExecutor = Executors.newCachedThreadPool
+      (TrackCutterDaemon.createThreadFactory("TrackCutterDaemon-connection"));
+    this.requestTimer = Executors.newSingleThreadScheduledExecutor
+      (TrackCutterDaemon.createThreadFactory("TrackCutterDaemon-timeout"));
+    TrackCutterDaemon.warmUp();
+    this.trackCutter.addListener(this);
+  }
+  
+  /**
+   * Get the socket that jobs are accepted on.
+   * @return The socket that jobs are accepted on.
+   */
+  public File getSocketFile()
+  {
+    return this.socketPath.toFile();
+  }
+  
+  /**
+   * Accept jobs until {@link #close()} is called. Jobs that have been accepted will still be processed by the
+   * scheduler after this method returns.
+   * @throws IOException If the socket failed.
+   */
+  public void run() throws IOException
+  {
+    while (true)
+    {
+      final SocketChannel socket;
+      try
+      {
+        socket = this.serverChannel.accept();
+      }
+      catch (ClosedChannelException e)
+      {
+        return;
+      }
+      this.connectionExecutor.execute
+        ( new Runnable()
+          {
+            public void run()
+            {
+              TrackCutterDaemon.this.handleConnection(socket);
+            }
+          }
+        );
+    }
+  }
+  
+  /**
+   * Stop accepting jobs, and remove the socket.
+   * @throws IOException If the socket could not be closed.
+   */
+  public void close() throws IOException
+  {
+    this.serverChannel.close();
+    this.connectionExecutor.shutdown();
+    this.requestTimer.shutdown();
+    Files.deleteIfExists(this.socketPath);
+  }
+  
+  /**
+   * Read the request from the connection, and schedule the job.
+   * @param socket The socket of the connection.
+   */
+  private void handleConnection(final SocketChannel socket)
+  {
+    final long startTime = System.nanoTime();
+    final Connection connection;
+    try
+    {
+      connection = new Connection(socket);
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+      TrackCutterDaemon.closeQuietly(socket);
+      return;
+    }
+    
+    final TrackCutterPlan.Job job;
+    final ScheduledFuture<?> requestTimeout = this.requestTimer.schedule
+      ( new Runnable()
+        {
+          public void run()
+          {
+            connection.close();
+          }
+        }
+      , TrackCutterDaemon.REQUEST_TIMEOUT
+      , TimeUnit.MILLISECONDS
+      );
+    try
+    {
+      final BufferedReader reader = new BufferedReader
+        (new InputStreamReader(Channels.newInputStream(socket), StandardCharsets.UTF_8));
+      final String cuePath = reader.readLine();
+      if (cuePath == null || cuePath.length() == 0)
+      {
+        throw new IOException("No cue sheet specified.");
+      }
+      final StringBuilder propertiesText = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null && !TrackCutterDaemon.END_OF_REQUEST.equals(line))
+      {
+        propertiesText.append(line).append('\n');
+      }
+      requestTimeout.cancel(false);
+      
+      final TrackCutterConfiguration jobConfiguration = new TrackCutterConfiguration();
+      jobConfiguration.loadProperties(this.configuration.getPropertiesSnapshot());
+      final EnhancedProperties properties = new EnhancedProperties();
+      properties.load(new StringReader(propertiesText.toString()));
+      for (String key : properties.stringPropertyNames())
+      {
+        if (!TrackCutterDaemon.CLIENT_PROPERTIES.contains(key))
+        {
+          throw new IOException("Property may not be set by a client: " + key);
+        }
+      }
+      jobConfiguration.loadProperties(properties);
+      
+      job = this.trackCutter.planCueSheet(new File(cuePath), jobConfiguration);
+    }
+    catch (Exception e)
+    {
+      requestTimeout.cancel(false);
+      connection.fail(e);
+      return;
+    }
+    
+    connection.send("ACCEPTED " + job.getEstimatedBytesToRead());
+    this.connections.put(job.getCueSheet(), connection);
+    this.scheduler.schedule
+      ( TrackCutterScheduler.getDeviceKey(job)
+      , new Runnable()
+        {
+          public void run()
+          {
+            try
+            {
+              TrackCutterDaemon.this.trackCutter.cutTracksInCueSheet(job);
+              connection.send
+                ("FINISHED " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+              connection.close();
+            }
+            catch (Exception e)
+            {
+              connection.fail(e);
+            }
+            finally
+            {
+              TrackCutterDaemon.this.connections.remove(job.getCueSheet());
+            }
+          }
+        }
+      );
+  }
+  
+  /**
+   * Send an event about a processing action to the connection of its job, if any.
+   * @param event The name of the event.
+   * @param processAction The processing action.
+   * @param details Further details of the event. May be empty.
+   */
+  private void sendActionEvent
+    ( final String event
+    , final TrackCutterProcessingAction processAction
+    , final String details
+    )
+  {
+    final Connection connection = this.connections.get(processAction.getTrackData().getParent().getParent());
+    if (connection != null)
+    {
+      connection.send
+        ( event
+        + " " + processAction.getTrackData().getNumber()
+        + (processAction.getIsPregap() ? " pregap" : " track")
+        + details
+        );
+    }
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  public void cueSheetStarted(final CueSheet cueSheet)
+  {
+    final Connection connection = this.connections.get(cueSheet);
+    if (connection != null)
+    {
+      connection.send("STARTED");
+    }
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  public void cueSheetFinished(final CueSheet cueSheet)
+  {
+    // FINISHED is sent when the job returns, as only then do we know that it succeeded.
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  public void actionSkipped(final TrackCutterProcessingAction processAction)
+  {
+    this.sendActionEvent("SKIPPED", processAction, "");
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  public void actionStarted(final TrackCutterProcessingAction processAction)
+  {
+    this.sendActionEvent("CUTTING", processAction, "");
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  public void actionFinished
+    ( final TrackCutterProcessingAction processAction
+    , final long framesCut
+    , final long bytesRead
+    , final long bytesWritten
+    )
+  {
+    this.sendActionEvent("CUT", processAction, " " + framesCut + " " + bytesRead + " " + bytesWritten);
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  public void postProcessingStarted(final TrackCutterProcessingAction processAction)
+  {
+    this.sendActionEvent("POSTPROCESSING", processAction, "");
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  public void postProcessingFinished
+    ( final TrackCutterProcessingAction processAction
+    , final int exitValue
+    , final long wallTimeNanos
+    , final long cpuTimeNanos
+    )
+  {
+    this.sendActionEvent
+      ("POSTPROCESSED", processAction, " " + exitValue + " " + TimeUnit.NANOSECONDS.toMillis(wallTimeNanos));
+  }
+  
+  /**
+   * Create the directory for the socket if it does not exist, and check that only its owner can access it. Other
+   * users could otherwise connect to the socket and have jobs run as the owner of the daemon.
+   * @param directory The directory.
+   * @throws IOException If the directory could not be created, or is accessible to others.
+   */
+  private static void prepareDirectory(final Path directory) throws IOException
+  {
+    if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS))
+    {
+      Files.createDirectories
+        (directory, PosixFilePermissions.asFileAttribute(TrackCutterDaemon.DIRECTORY_PERMISSIONS));
+    }
+    if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS))
+    {
+      throw new IOException("Not a directory: " + directory);
+    }
+    final String owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).getName();
+    if (!owner.equals(System.getProperty("user.name")))
+    {
+      throw new IOException("Directory for the daemon socket is owned by " + owner + ": " + directory);
+    }
+    final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS);
+    if (!TrackCutterDaemon.DIRECTORY_PERMISSIONS.containsAll(permissions))
+    {
+      throw new IOException
+        ( "Directory for the daemon socket must be accessible to its owner only, but has permissions "
+        + PosixFilePermissions.toString(permissions) + ": " + directory
+        );
+    }
+  }
+  
+  /**
+   * Create a factory for daemon threads with the specified name.
+   * @param name The name of the threads.
+   * @return A factory for daemon threads with the specified name.
+   */
+  private static ThreadFactory createThreadFactory(final String name)
+  {
+    return new ThreadFactory()
+    {
+      public Thread newThread(final Runnable runnable)
+      {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+  
+  /**
+   * Initialize the cue parser and genre tables, so that the first job does not pay for it.
+   */
+  private static void warmUp()
+  {
+    try
+    {
+      CueParser.parse
+        (new ByteArrayInputStream(TrackCutterDaemon.WARM_UP_CUE_SHEET.getBytes(StandardCharsets.UTF_8)));
+    }
+    catch (IOException e)
+    {
+      // Can't happen when reading from memory, and warming up is optional anyway.
+      e.printStackTrace();
+    }
+    GenreNormalizer.normalizeGenreDescription("Rock", true, true);
+  }
+  
+  /**
+   * Close the socket, ignoring any errors.
+   * @param socket The socket to close.
+   */
+  private static void closeQuietly(final SocketChannel socket)
+  {
+    try
+    {
+      socket.close();
+    }
+    catch (IOException e)
+    {
+      // Nothing we can do about it.
+    }
+  }
+  
+  /**
+   * The connection of a single job. Events may be sent from several threads at once.
+   */
+  private static class Connection
+  {
+    /**
+     * The socket of the connection.
+     */
+    private final SocketChannel socket;
+    /**
+     * Writer for the events. Guarded by this.
+     */
+    private final Writer writer;
+    
+    /**
+     * Create a new Connection.
+     * @param socket The socket of the connection.
+     * @throws IOException If the output stream of the socket could not be opened.
+     */
+    public Connection(final SocketChannel socket) throws IOException
+    {
+      this.socket = socket;
+      this.writer = new BufferedWriter
+        (new OutputStreamWriter(Channels.newOutputStream(socket), StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Send an event line to the client. Errors are ignored, as the job should continue even if the client is gone.
+     * @param line The line to send.
+     */
+    public synchronized void send(final String line)
+    {
+      try
+      {
+        this.writer.write(line);
+        this.writer.write('\n');
+        this.writer.flush();
+      }
+      catch (IOException e)
+      {
+        // The client has gone away.
+      }
+    }
+    
+    /**
+     * Report the failure of the job, and close the connection.
+     * @param e The cause of the failure.
+     */
+    public void fail(final Exception e)
+    {
+      final String message = e.getMessage()==null ? e.toString() : e.getMessage();
+      this.send("FAILED " + message.replaceAll("[\\r\\n]+", " "));
+      this.close();
+    }
+    
+    /**
+     * Close the connection. Not synchronized, so that it also interrupts a read or a blocked send.
+     */
+    public void close()
+    {
+      TrackCutterDaemon.closeQuietly(this.socket);
+    }
+  }
+}
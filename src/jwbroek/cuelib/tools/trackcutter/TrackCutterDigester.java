@@ -0,0 +1,451 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * <p>Computes digests of a single track while it is being cut, so that the output need not be read again.</p>
+ * <p>Supported algorithms are "CRC32", "CRC32C", and every {@link MessageDigest} algorithm, such as "MD5" and
+ * "SHA-256". Algorithms prefixed with "PCM-", such as "PCM-CRC32C", are computed over the audio data only, so they
+ * do not depend on the file headers or the target type. Other algorithms are computed over the complete output.</p>
+ * @author jwbroek
+ */
+public class TrackCutterDigester
+{
+  /**
+   * Prefix for algorithms that are computed over the audio data only.
+   */
+  public static final String PCM_PREFIX = "PCM-";
+  /**
+   * Size of the buffer used when digesting a file.
+   */
+  private static final int BUFFER_SIZE = 65536;
+  
+  /**
+   * Digests computed over the complete output, by algorithm name.
+   */
+  private final Map<String, Digest> outputDigests = new LinkedHashMap<String, Digest>();
+  /**
+   * Digests computed over the audio data only, by algorithm name including prefix.
+   */
+  private final Map<String, Digest> pcmDigests = new LinkedHashMap<String, Digest>();
+  
+  /**
+   * Create a new TrackCutterDigester.
+   * @param algorithms The names of the algorithms to compute.
+   * @throws IllegalArgumentException When an algorithm is not supported.
+   */
+  public TrackCutterDigester(final List<String> algorithms) throws IllegalArgumentException
+  {
+    for (String algorithm : algorithms)
+    {
+      if (algorithm.startsWith(TrackCutterDigester.PCM_PREFIX))
+      {
+        this.pcmDigests.put
+          (algorithm, createDigest(algorithm.substring(TrackCutterDigester.PCM_PREFIX.length())));
+      }
+      else
+      {
+        this.outputDigests.put(algorithm, createDigest(algorithm));
+      }
+    }
+  }
+  
+  /**
+   * Parse a comma separated list of algorithm names. Whitespace and empty names are ignored.
+   * @param algorithms A comma separated list of algorithm names.
+   * @return The algorithm names.
+   * @throws IllegalArgumentException When an algorithm is not supported.
+   */
+  public static List<String> parseAlgorithms(final String algorithms) throws IllegalArgumentException
+  {
+    final List<String> result = new ArrayList<String>();
+    for (String algorithm : algorithms.split(","))
+    {
+      final String trimmedAlgorithm = algorithm.trim();
+      if (trimmedAlgorithm.length() > 0)
+      {
+        result.add(trimmedAlgorithm);
+      }
+    }
+    // Fail early on unsupported algorithms, rather than halfway through cutting.
+    new TrackCutterDigester(result);
+    return Collections.unmodifiableList(result);
+  }
+  
+  /**
+   * Create a digest for the specified algorithm.
+   * @param algorithm The name of the algorithm, without prefix.
+   * @return A digest for the specified algorithm.
+   * @throws IllegalArgumentException When the algorithm is not supported.
+   */
+  private static Digest createDigest(final String algorithm) throws IllegalArgumentException
+  {
+    final Digest result;
+    if ("CRC32".equalsIgnoreCase(algorithm))
+    {
+      result = new ChecksumDigest(new CRC32());
+    }
+    else if ("CRC32C".equalsIgnoreCase(algorithm))
+    {
+      result = new ChecksumDigest(new CRC32C());
+    }
+    else
+    {
+      try
+      {
+        result = new MessageDigestDigest(MessageDigest.getInstance(algorithm));
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+        final IllegalArgumentException exception =
+          new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+        exception.initCause(e);
+        throw exception;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Get whether any digests are computed over the complete output.
+   * @return Whether any digests are computed over the complete output.
+   */
+  public boolean hasOutputDigests()
+  {
+    return !this.outputDigests.isEmpty();
+  }
+  
+  /**
+   * Wrap the audio that is to be cut, so that the PCM digests are updated as the audio data is read.
+   * @param audioInputStream The audio that is to be cut.
+   * @return An AudioInputStream that updates the PCM digests as it is read.
+   */
+  public AudioInputStream wrapAudio(final AudioInputStream audioInputStream)
+  {
+    if (this.pcmDigests.isEmpty())
+    {
+      return audioInputStream;
+    }
+    final AudioInputStream result = new AudioInputStream
+      ( new DigestInputStream(audioInputStream, this.pcmDigests.values())
+      , audioInputStream.getFormat()
+      , audioInputStream.getFrameLength()
+      );
+    return result;
+  }
+  
+  /**
+   * Wrap the stream that the output is written to, so that the output digests are updated as it is written.
+   * @param outputStream The stream that the output is written to.
+   * @return An OutputStream that updates the output digests as it is written to.
+   */
+  public OutputStream wrapOutput(final OutputStream outputStream)
+  {
+    if (this.outputDigests.isEmpty())
+    {
+      return outputStream;
+    }
+    final OutputStream result = new DigestOutputStream(outputStream, this.outputDigests.values());
+    return result;
+  }
+  
+  /**
+   * Update the output digests by reading back the specified file. Only for output that could not be digested while
+   * it was written, such as files of which the header is completed after the audio has been written.
+   * @param file The file to read.
+   * @throws IOException When the file could not be read.
+   */
+  public void updateOutputFromFile(final File file) throws IOException
+  {
+    final InputStream inputStream = new FileInputStream(file);
+    try
+    {
+      final byte [] buffer = new byte[TrackCutterDigester.BUFFER_SIZE];
+      int bytesRead;
+      while ((bytesRead = inputStream.read(buffer)) != -1)
+      {
+        for (Digest digest : this.outputDigests.values())
+        {
+          digest.update(buffer, 0, bytesRead);
+        }
+      }
+    }
+    finally
+    {
+      inputStream.close();
+    }
+  }
+  
+  /**
+   * Get the values of the digests, in the order of the algorithms.
+   * @param includeOutputDigests Whether to include the digests over the complete output. Should be false when the
+   * output was not digested.
+   * @return The values of the digests as lower case hexadecimal strings, by algorithm name.
+   */
+  public Map<String, String> getValues(final boolean includeOutputDigests)
+  {
+    final Map<String, String> result = new LinkedHashMap<String, String>();
+    if (includeOutputDigests)
+    {
+      for (Map.Entry<String, Digest> entry : this.outputDigests.entrySet())
+      {
+        result.put(entry.getKey(), entry.getValue().getValue());
+      }
+    }
+    for (Map.Entry<String, Digest> entry : this.pcmDigests.entrySet())
+    {
+      result.put(entry.getKey(), entry.getValue().getValue());
+    }
+    return result;
+  }
+  
+  /**
+   * Convert bytes to a lower case hexadecimal string.
+   * @param bytes The bytes to convert.
+   * @return The bytes as a lower case hexadecimal string.
+   */
+  private static String toHex(final byte [] bytes)
+  {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte value : bytes)
+    {
+      builder.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+    }
+    return builder.toString();
+  }
+  
+  /**
+   * A digest that is updated incrementally.
+   */
+  private interface Digest
+  {
+    /**
+     * Update the digest with the specified bytes.
+     * @param bytes The bytes.
+     * @param offset Offset of the first byte.
+     * @param length Number of bytes.
+     */
+    public void update(byte [] bytes, int offset, int length);
+    
+    /**
+     * Get the value of the digest.
+     * @return The value of the digest as a lower case hexadecimal string.
+     */
+    public String getValue();
+  }
+  
+  /**
+   * Digest based on a {@link Checksum}.
+   */
+  private static class ChecksumDigest implements Digest
+  {
+    /**
+     * The checksum.
+     */
+    private final Checksum checksum;
+    
+    /**
+     * Create a new ChecksumDigest.
+     * @param checksum The checksum.
+     */
+    public ChecksumDigest(final Checksum checksum)
+    {
+      this.checksum = checksum;
+    }
+    
+    public void update(final byte [] bytes, final int offset, final int length)
+    {
+      this.checksum.update(bytes, offset, length);
+    }
+    
+    public String getValue()
+    {
+      return String.format("%08x", this.checksum.getValue());
+    }
+  }
+  
+  /**
+   * Digest based on a {@link MessageDigest}.
+   */
+  private static class MessageDigestDigest implements Digest
+  {
+    /**
+     * The message digest.
+     */
+    private final MessageDigest messageDigest;
+    /**
+     * The value of the digest, once computed. A MessageDigest is reset when its value is computed.
+     */
+    private String value = null;
+    
+    /**
+     * Create a new MessageDigestDigest.
+     * @param messageDigest The message digest.
+     */
+    public MessageDigestDigest(final MessageDigest messageDigest)
+    {
+      this.messageDigest = messageDigest;
+    }
+    
+    public void update(final byte [] bytes, final int offset, final int length)
+    {
+      this.messageDigest.update(bytes, offset, length);
+    }
+    
+    public String getValue()
+    {
+      if (this.value == null)
+      {
+        this.value = toHex(this.messageDigest.digest());
+      }
+      return this.value;
+    }
+  }
+  
+  /**
+   * InputStream that updates digests with all bytes read.
+   */
+  private static class DigestInputStream extends FilterInputStream
+  {
+    /**
+     * The digests to update.
+     */
+    private final Iterable<Digest> digests;
+    
+    /**
+     * Create a new DigestInputStream.
+     * @param in The stream to read from.
+     * @param digests The digests to update.
+     */
+    public DigestInputStream(final InputStream in, final Iterable<Digest> digests)
+    {
+      super(in);
+      this.digests = digests;
+    }
+    
+    @Override
+    public int read() throws IOException
+    {
+      final int result = in.read();
+      if (result != -1)
+      {
+        final byte [] bytes = {(byte) result};
+        for (Digest digest : this.digests)
+        {
+          digest.update(bytes, 0, 1);
+        }
+      }
+      return result;
+    }
+    
+    @Override
+    public int read(final byte [] b, final int off, final int len) throws IOException
+    {
+      final int result = in.read(b, off, len);
+      if (result > 0)
+      {
+        for (Digest digest : this.digests)
+        {
+          digest.update(b, off, result);
+        }
+      }
+      return result;
+    }
+    
+    @Override
+    public long skip(final long n) throws IOException
+    {
+      // Skipped bytes must still be digested, so read them instead.
+      final byte [] buffer = new byte[(int) Math.min(n, TrackCutterDigester.BUFFER_SIZE)];
+      final int result = this.read(buffer, 0, buffer.length);
+      return Math.max(0, result);
+    }
+    
+    @Override
+    public boolean markSupported()
+    {
+      // Bytes that are read again after a reset would be digested twice.
+      return false;
+    }
+  }
+  
+  /**
+   * OutputStream that updates digests with all bytes written.
+   */
+  private static class DigestOutputStream extends FilterOutputStream
+  {
+    /**
+     * The digests to update.
+     */
+    private final Iterable<Digest> digests;
+    
+    /**
+     * Create a new DigestOutputStream.
+     * @param out The stream to write to.
+     * @param digests The digests to update.
+     */
+    public DigestOutputStream(final OutputStream out, final Iterable<Digest> digests)
+    {
+      super(out);
+      this.digests = digests;
+    }
+    
+    @Override
+    public void write(final int b) throws IOException
+    {
+      out.write(b);
+      final byte [] bytes = {(byte) b};
+      for (Digest digest : this.digests)
+      {
+        digest.update(bytes, 0, 1);
+      }
+    }
+    
+    @Override
+    public void write(final byte [] b, final int off, final int len) throws IOException
+    {
+      // Don't call super, as FilterOutputStream writes byte by byte.
+      out.write(b, off, len);
+      for (Digest digest : this.digests)
+      {
+        digest.update(b, off, len);
+      }
+    }
+  }
+}
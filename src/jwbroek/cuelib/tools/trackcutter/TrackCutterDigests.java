@@ -0,0 +1,166 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Digests of the output produced for a single cue sheet, as computed by {@link TrackCutterDigester}.</p>
+ * <p>The digests are stored in a sidecar file in every directory that output is written to, with one line per file
+ * and algorithm in the BSD tag format used by tools such as <code>sha256sum --tag</code>:
+ * <code>ALGORITHM (file name) = value</code>. Lines of a previous run are kept for files that were not produced
+ * again, such as tracks that were skipped because they were up to date.</p>
+ * <p>Each job should use its own instance. Digests of the same job may be added concurrently.</p>
+ * @author jwbroek
+ */
+public class TrackCutterDigests
+{
+  /**
+   * Pattern for a line in a sidecar file.
+   */
+  private static final Pattern LINE_PATTERN = Pattern.compile("^(\\S+) \\((.*)\\) = ([0-9a-fA-F]+)$");
+  
+  /**
+   * The name of the sidecar file in every directory.
+   */
+  private final String fileName;
+  /**
+   * Digests of the current run, by directory, then by file name, then by algorithm.
+   */
+  private final Map<File, Map<String, Map<String, String>>> digestsByDirectory =
+    new LinkedHashMap<File, Map<String, Map<String, String>>>();
+  
+  /**
+   * Create a new TrackCutterDigests.
+   * @param fileName The name of the sidecar file in every directory.
+   */
+  public TrackCutterDigests(final String fileName)
+  {
+    this.fileName = fileName;
+  }
+  
+  /**
+   * Add the digests of the specified output file.
+   * @param outputFile The output file.
+   * @param digests The values of the digests, by algorithm.
+   */
+  public synchronized void put(final File outputFile, final Map<String, String> digests)
+  {
+    final File directory = outputFile.getAbsoluteFile().getParentFile();
+    Map<String, Map<String, String>> digestsByFile = this.digestsByDirectory.get(directory);
+    if (digestsByFile == null)
+    {
+      digestsByFile = new LinkedHashMap<String, Map<String, String>>();
+      this.digestsByDirectory.put(directory, digestsByFile);
+    }
+    digestsByFile.put(outputFile.getName(), digests);
+  }
+  
+  /**
+   * Store the digests in the sidecar file of every directory that output was written to. Each sidecar file is first
+   * written to a temporary file, so that an interrupted write will not corrupt the previous one.
+   * @throws IOException If a sidecar file could not be read or stored.
+   */
+  public synchronized void store() throws IOException
+  {
+    for (Map.Entry<File, Map<String, Map<String, String>>> directoryEntry : this.digestsByDirectory.entrySet())
+    {
+      final File file = new File(directoryEntry.getKey(), this.fileName);
+      final Map<String, Map<String, String>> digestsByFile = this.load(file);
+      digestsByFile.putAll(directoryEntry.getValue());
+      
+      final File temporaryFile = new File(file.getPath() + ".tmp");
+      final PrintWriter writer = new PrintWriter
+        (new OutputStreamWriter(new FileOutputStream(temporaryFile), StandardCharsets.UTF_8));
+      try
+      {
+        for (Map.Entry<String, Map<String, String>> fileEntry : digestsByFile.entrySet())
+        {
+          for (Map.Entry<String, String> digest : fileEntry.getValue().entrySet())
+          {
+            writer.print(digest.getKey() + " (" + fileEntry.getKey() + ") = " + digest.getValue() + "\n");
+          }
+        }
+      }
+      finally
+      {
+        writer.close();
+      }
+      if (writer.checkError())
+      {
+        throw new IOException("Could not write digests to " + temporaryFile + ".");
+      }
+      Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+  
+  /**
+   * Read the digests of a previous run from the specified sidecar file, leaving out files that no longer exist.
+   * @param file The sidecar file.
+   * @return The digests of the previous run, by file name, then by algorithm. Empty if the file does not exist.
+   * @throws IOException If the file exists, but could not be read.
+   */
+  private Map<String, Map<String, String>> load(final File file) throws IOException
+  {
+    final Map<String, Map<String, String>> result = new LinkedHashMap<String, Map<String, String>>();
+    if (!file.exists())
+    {
+      return result;
+    }
+    final BufferedReader reader = new BufferedReader
+      (new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    try
+    {
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        final Matcher matcher = TrackCutterDigests.LINE_PATTERN.matcher(line);
+        if (matcher.matches() && new File(file.getParentFile(), matcher.group(2)).isFile())
+        {
+          Map<String, String> digests = result.get(matcher.group(2));
+          if (digests == null)
+          {
+            digests = new LinkedHashMap<String, String>();
+            result.put(matcher.group(2), digests);
+          }
+          digests.put(matcher.group(1), matcher.group(3));
+        }
+      }
+    }
+    finally
+    {
+      reader.close();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import jwbroek.cuelib.CueSheet;
+
+/**
+ * <p>Listener for the progress of a {@link TrackCutter}.</p>
+ * <p>As a TrackCutter may process several cue sheets concurrently, events may be fired from several threads at
+ * once. Implementations must therefore be thread-safe. Events are fired on the threads doing the work, so
+ * implementations should return quickly.</p>
+ * @author jwbroek
+ */
+public interface TrackCutterListener
+{
+  /**
+   * Processing of a cue sheet has started.
+   * @param cueSheet The cue sheet.
+   */
+  public void cueSheetStarted(CueSheet cueSheet);
+  
+  /**
+   * Processing of a cue sheet has finished, including any post-processing.
+   * @param cueSheet The cue sheet.
+   */
+  public void cueSheetFinished(CueSheet cueSheet);
+  
+  /**
+   * A processing action was skipped, as its output was up to date.
+   * @param processAction The processing action.
+   */
+  public void actionSkipped(TrackCutterProcessingAction processAction);
+  
+  /**
+   * A processing action has started.
+   * @param processAction The processing action.
+   */
+  public void actionStarted(TrackCutterProcessingAction processAction);
+  
+  /**
+   * A processing action has finished cutting. Post-processing may still be running.
+   * @param processAction The processing action.
+   * @param framesCut The number of audio frames cut.
+   * @param bytesRead The number of bytes read from the audio file for this action.
+   * @param bytesWritten The number of bytes written to the cut file or to post-processing.
+   */
+  public void actionFinished
+    ( TrackCutterProcessingAction processAction
+    , long framesCut
+    , long bytesRead
+    , long bytesWritten
+    );
+  
+  /**
+   * Post-processing for a processing action has started.
+   * @param processAction The processing action.
+   */
+  public void postProcessingStarted(TrackCutterProcessingAction processAction);
+  
+  /**
+   * Post-processing for a processing action has finished.
+   * @param processAction The processing action.
+   * @param exitValue The exit value of the post-processing process.
+   * @param wallTimeNanos The time in nanoseconds that the process ran.
+   * @param cpuTimeNanos The CPU time in nanoseconds used by the process, as far as could be determined, or -1 if
+   * unknown.
+   */
+  public void postProcessingFinished
+    ( TrackCutterProcessingAction processAction
+    , int exitValue
+    , long wallTimeNanos
+    , long cpuTimeNanos
+    );
+}
@@ -0,0 +1,425 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Manifest of the output produced for a single cue sheet, used for incremental cutting.</p>
+ * <p>For every processing action, the manifest records the identity of the source audio file, the range that was
+ * cut, the output paths, the post-processing command and the size, modification time and CRC-32 of the output. On a
+ * later run, actions for which all of this still matches are up to date and need not be performed again. The
+ * modification time is only a shortcut: if it differs, the output is checked against the recorded CRC-32.</p>
+ * <p>The manifest is stored as a properties file. Each job should use its own instance. Entries of the same job may
+ * be kept and recorded concurrently.</p>
+ * @author jwbroek
+ */
+public class TrackCutterManifest
+{
+  /**
+   * Prefix for the keys of actions in the properties file.
+   */
+  private static final String ACTION_PREFIX = "action.";
+  /**
+   * Field for the path of the output file.
+   */
+  private static final String OUTPUT_FIELD = "output";
+  /**
+   * Field for the size of the output file.
+   */
+  private static final String OUTPUT_LENGTH_FIELD = "outputLength";
+  /**
+   * Field for the modification time of the output file.
+   */
+  private static final String OUTPUT_MODIFIED_FIELD = "outputModified";
+  /**
+   * Field for the CRC-32 of the output file.
+   */
+  private static final String OUTPUT_CRC32_FIELD = "outputCrc32";
+  /**
+   * Size of the buffer used when computing checksums.
+   */
+  private static final int BUFFER_SIZE = 8192;
+  
+  /**
+   * The file that the manifest is stored in.
+   */
+  private final File file;
+  /**
+   * Entries from the previous run, by output path. Each entry maps field names to values.
+   */
+  private final Map<String, Map<String, String>> previousEntries = new LinkedHashMap<String, Map<String, String>>();
+  /**
+   * Entries for the current run, by output path. Each entry maps field names to values.
+   */
+  private final Map<String, Map<String, String>> currentEntries = new LinkedHashMap<String, Map<String, String>>();
+  
+  /**
+   * Create a new TrackCutterManifest, and read the entries of the previous run from the specified file if it exists.
+   * @param file The file that the manifest is stored in.
+   * @throws IOException If the manifest exists, but could not be read.
+   */
+  public TrackCutterManifest(final File file) throws IOException
+  {
+    this.file = file;
+    
+    if (file.exists())
+    {
+      final Properties properties = new Properties();
+      final InputStream inputStream = new FileInputStream(file);
+      try
+      {
+        properties.load(inputStream);
+      }
+      finally
+      {
+        inputStream.close();
+      }
+      
+      // Group the fields by action. Keys are of the form "action.<index>.<field>".
+      final Map<String, Map<String, String>> entriesByIndex = new LinkedHashMap<String, Map<String, String>>();
+      for (String key : properties.stringPropertyNames())
+      {
+        final int fieldStart = key.indexOf('.', TrackCutterManifest.ACTION_PREFIX.length());
+        if (key.startsWith(TrackCutterManifest.ACTION_PREFIX) && fieldStart != -1)
+        {
+          final String actionIndex = key.substring(TrackCutterManifest.ACTION_PREFIX.length(), fieldStart);
+          Map<String, String> entry = entriesByIndex.get(actionIndex);
+          if (entry == null)
+          {
+            entry = new LinkedHashMap<String, String>();
+            entriesByIndex.put(actionIndex, entry);
+          }
+          entry.put(key.substring(fieldStart + 1), properties.getProperty(key));
+        }
+      }
+      for (Map<String, String> entry : entriesByIndex.values())
+      {
+        if (entry.containsKey(TrackCutterManifest.OUTPUT_FIELD))
+        {
+          this.previousEntries.put(entry.get(TrackCutterManifest.OUTPUT_FIELD), entry);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Create an entry for the specified processing action.
+   * @param processAction The processing action.
+   * @param audioFile The audio file that the action reads from.
+   * @param context The context of the job that the action is part of.
+   * @return An entry for the specified processing action.
+   */
+  public Entry createEntry
+    ( final TrackCutterProcessingAction processAction
+    , final File audioFile
+    , final TrackCutterContext context
+    )
+  {
+    final File outputFile;
+    
+    if (context.getDoPostProcessing())
+    {
+      outputFile = processAction.getPostProcessFile();
+    }
+    else
+    {
+      outputFile = processAction.getCutFile();
+    }
+    
+    final Map<String, String> inputs = TrackCutterManifest.getInputs(processAction, outputFile, audioFile);
+    inputs.put("targetType", context.getTargetType().toString());
+    inputs.put("cutFile", processAction.getCutFile().getAbsolutePath());
+    if (context.getDoPostProcessing())
+    {
+      inputs.put("postProcessFile", processAction.getPostProcessFile().getAbsolutePath());
+      inputs.put("command", processAction.getPostProcessCommand());
+    }
+    
+    final Entry result = new Entry(outputFile, inputs);
+    return result;
+  }
+  
+  /**
+   * Create an entry for the specified processing action of a data track in a raw image, which is extracted as is,
+   * without conversion or post-processing.
+   * @param processAction The processing action.
+   * @param dataFile The file that the data track is extracted to.
+   * @param imageFile The raw image that the action reads from.
+   * @return An entry for the specified processing action.
+   */
+  public Entry createDataEntry
+    ( final TrackCutterProcessingAction processAction
+    , final File dataFile
+    , final File imageFile
+    )
+  {
+    final Entry result = new Entry(dataFile, TrackCutterManifest.getInputs(processAction, dataFile, imageFile));
+    return result;
+  }
+  
+  /**
+   * Get the inputs that every processing action has.
+   * @param processAction The processing action.
+   * @param outputFile The file produced by the action.
+   * @param audioFile The audio file that the action reads from.
+   * @return The inputs of the action, by field name. Modifiable.
+   */
+  private static Map<String, String> getInputs
+    ( final TrackCutterProcessingAction processAction
+    , final File outputFile
+    , final File audioFile
+    )
+  {
+    final Map<String, String> result = new LinkedHashMap<String, String>();
+    result.put(TrackCutterManifest.OUTPUT_FIELD, outputFile.getAbsolutePath());
+    result.put("source", audioFile.getAbsolutePath());
+    result.put("sourceLength", Long.toString(audioFile.length()));
+    result.put("sourceModified", Long.toString(audioFile.lastModified()));
+    result.put("startFrame", Integer.toString(processAction.getStartPosition().getTotalFrames()));
+    result.put
+      ( "endFrame"
+      , processAction.getEndPosition()==null?"":Integer.toString(processAction.getEndPosition().getTotalFrames())
+      );
+    return result;
+  }
+  
+  /**
+   * Store the manifest. Only entries that were kept or recorded during the current run are stored. The manifest is
+   * first written to a temporary file, so that an interrupted write will not corrupt the previous manifest.
+   * @throws IOException If the manifest could not be stored.
+   */
+  public synchronized void store() throws IOException
+  {
+    final Properties properties = new Properties();
+    int actionIndex = 0;
+    for (Map<String, String> entry : this.currentEntries.values())
+    {
+      for (Map.Entry<String, String> field : entry.entrySet())
+      {
+        properties.setProperty(getKey(actionIndex, field.getKey()), field.getValue());
+      }
+      actionIndex++;
+    }
+    
+    final File temporaryFile = new File(this.file.getPath() + ".tmp");
+    final OutputStream outputStream = new FileOutputStream(temporaryFile);
+    try
+    {
+      properties.store(outputStream, "TrackCutter manifest");
+    }
+    finally
+    {
+      outputStream.close();
+    }
+    Files.move(temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+  
+  /**
+   * Get the file that the manifest is stored in.
+   * @return The file that the manifest is stored in.
+   */
+  public File getFile()
+  {
+    return this.file;
+  }
+  
+  /**
+   * Get the key for the specified field of the specified action.
+   * @param actionIndex Index of the action.
+   * @param field Name of the field.
+   * @return The key for the specified field of the specified action.
+   */
+  private static String getKey(final int actionIndex, final String field)
+  {
+    return TrackCutterManifest.ACTION_PREFIX + actionIndex + "." + field;
+  }
+  
+  /**
+   * Compute the CRC-32 of the specified file.
+   * @param file The file to compute the CRC-32 of.
+   * @return The CRC-32 of the specified file, as a hexadecimal string.
+   * @throws IOException If the file could not be read.
+   */
+  private static String getCrc32(final File file) throws IOException
+  {
+    final CRC32 crc = new CRC32();
+    final byte [] buffer = new byte[TrackCutterManifest.BUFFER_SIZE];
+    final InputStream inputStream = new FileInputStream(file);
+    try
+    {
+      int bytesRead = inputStream.read(buffer);
+      while (bytesRead != -1)
+      {
+        crc.update(buffer, 0, bytesRead);
+        bytesRead = inputStream.read(buffer);
+      }
+    }
+    finally
+    {
+      inputStream.close();
+    }
+    return Long.toHexString(crc.getValue());
+  }
+  
+  /**
+   * Manifest entry for a single processing action.
+   */
+  public class Entry
+  {
+    /**
+     * The file produced by the action.
+     */
+    private final File outputFile;
+    /**
+     * The inputs of the action, by field name.
+     */
+    private final Map<String, String> inputs;
+    
+    /**
+     * Create a new Entry.
+     * @param outputFile The file produced by the action.
+     * @param inputs The inputs of the action, by field name.
+     */
+    private Entry(final File outputFile, final Map<String, String> inputs)
+    {
+      this.outputFile = outputFile;
+      this.inputs = inputs;
+    }
+    
+    /**
+     * Determine whether the output of the previous run is still valid for this action. This is the case when the
+     * previous run recorded the same inputs, and the output file still matches the recorded size and checksum.
+     * @return Whether the output of the previous run is still valid for this action.
+     */
+    public boolean isUpToDate()
+    {
+      final Map<String, String> previousEntry = TrackCutterManifest.this.previousEntries.get
+        (this.inputs.get(TrackCutterManifest.OUTPUT_FIELD));
+      
+      if (previousEntry == null || !this.outputFile.isFile())
+      {
+        return false;
+      }
+      for (Map.Entry<String, String> input : this.inputs.entrySet())
+      {
+        if (!input.getValue().equals(previousEntry.get(input.getKey())))
+        {
+          return false;
+        }
+      }
+      if (!Long.toString(this.outputFile.length()).equals(previousEntry.get(TrackCutterManifest.OUTPUT_LENGTH_FIELD)))
+      {
+        return false;
+      }
+      if  ( Long.toString(this.outputFile.lastModified())
+            .equals(previousEntry.get(TrackCutterManifest.OUTPUT_MODIFIED_FIELD))
+          )
+      {
+        return true;
+      }
+      
+      // Output has been touched, but may still be the same. Verify the contents.
+      try
+      {
+        return getCrc32(this.outputFile).equals(previousEntry.get(TrackCutterManifest.OUTPUT_CRC32_FIELD));
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+        return false;
+      }
+    }
+    
+    /**
+     * Keep the entry of the previous run for this action in the manifest. Should be used for actions that are
+     * skipped because they are up to date. The modification time of the output is updated, so that the contents
+     * need not be verified again on the next run.
+     */
+    public void keep()
+    {
+      final String output = this.inputs.get(TrackCutterManifest.OUTPUT_FIELD);
+      final Map<String, String> entry =
+        new LinkedHashMap<String, String>(TrackCutterManifest.this.previousEntries.get(output));
+      entry.put(TrackCutterManifest.OUTPUT_MODIFIED_FIELD, Long.toString(this.outputFile.lastModified()));
+      synchronized (TrackCutterManifest.this)
+      {
+        TrackCutterManifest.this.currentEntries.put(output, entry);
+      }
+    }
+    
+    /**
+     * Record this action in the manifest, along with the current state of its output file. Should be used after
+     * the action has been performed successfully. The output file is read back to compute its CRC-32.
+     * @throws IOException If the output file could not be read.
+     */
+    public void record() throws IOException
+    {
+      this.record(null);
+    }
+    
+    /**
+     * Record this action in the manifest, along with the current state of its output file. Should be used after
+     * the action has been performed successfully. The CRC-32 of the output is taken from the specified digests if
+     * they include one over the complete output, so that the output file need not be read back.
+     * @param outputDigests The digests of the output file, by algorithm name, as computed by
+     * {@link TrackCutterDigester}. May be null.
+     * @throws IOException If the output file had to be read, but could not be.
+     */
+    public void record(final Map<String, String> outputDigests) throws IOException
+    {
+      String crc32 = null;
+      if (outputDigests != null)
+      {
+        for (Map.Entry<String, String> digest : outputDigests.entrySet())
+        {
+          if ("CRC32".equalsIgnoreCase(digest.getKey()))
+          {
+            // Same format as getCrc32, so that it compares equal on the next run.
+            crc32 = Long.toHexString(Long.parseLong(digest.getValue(), 16));
+          }
+        }
+      }
+      if (crc32 == null)
+      {
+        crc32 = getCrc32(this.outputFile);
+      }
+      
+      final Map<String, String> entry = new LinkedHashMap<String, String>(this.inputs);
+      entry.put(TrackCutterManifest.OUTPUT_LENGTH_FIELD, Long.toString(this.outputFile.length()));
+      entry.put(TrackCutterManifest.OUTPUT_MODIFIED_FIELD, Long.toString(this.outputFile.lastModified()));
+      entry.put(TrackCutterManifest.OUTPUT_CRC32_FIELD, crc32);
+      synchronized (TrackCutterManifest.this)
+      {
+        TrackCutterManifest.this.currentEntries.put(this.inputs.get(TrackCutterManifest.OUTPUT_FIELD), entry);
+      }
+    }
+  }
+}
@@ -0,0 +1,379 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jwbroek.cuelib.CueSheet;
+
+/**
+ * <p>{@link TrackCutterListener} that keeps counters on the progress and throughput of a {@link TrackCutter}.</p>
+ * <p>The counters can be exposed as a JMX MBean through {@link #register()}, and can be logged periodically through
+ * {@link #startLogging(PrintStream, long, TimeUnit)}. Comparing the read and write throughput with the number of
+ * running post-processes and pending jobs shows whether a batch is I/O-bound or encoder-bound, or stuck.</p>
+ * @author jwbroek
+ */
+public class TrackCutterMetrics implements TrackCutterListener, TrackCutterMetricsMBean
+{
+  /**
+   * Name under which instances are registered by default.
+   */
+  public static final String DEFAULT_OBJECT_NAME = "jwbroek.cuelib:type=TrackCutterMetrics";
+  
+  /**
+   * Number of cue sheets of which processing has started.
+   */
+  private final AtomicLong cueSheetsStarted = new AtomicLong(0);
+  /**
+   * Number of cue sheets of which processing has finished.
+   */
+  private final AtomicLong cueSheetsFinished = new AtomicLong(0);
+  /**
+   * Number of processing actions that have started.
+   */
+  private final AtomicLong actionsStarted = new AtomicLong(0);
+  /**
+   * Number of processing actions that have finished cutting.
+   */
+  private final AtomicLong actionsFinished = new AtomicLong(0);
+  /**
+   * Number of processing actions that were skipped as their output was up to date.
+   */
+  private final AtomicLong actionsSkipped = new AtomicLong(0);
+  /**
+   * Number of bytes read from audio files.
+   */
+  private final AtomicLong bytesRead = new AtomicLong(0);
+  /**
+   * Number of bytes written to cut files or to post-processing.
+   */
+  private final AtomicLong bytesWritten = new AtomicLong(0);
+  /**
+   * Number of audio frames cut.
+   */
+  private final AtomicLong framesCut = new AtomicLong(0);
+  /**
+   * Number of post-processing processes that have started.
+   */
+  private final AtomicLong postProcessesStarted = new AtomicLong(0);
+  /**
+   * Number of post-processing processes that have finished.
+   */
+  private final AtomicLong postProcessesFinished = new AtomicLong(0);
+  /**
+   * Number of post-processing processes that have finished with a non-zero exit value.
+   */
+  private final AtomicLong postProcessesFailed = new AtomicLong(0);
+  /**
+   * Total time in nanoseconds that post-processing processes ran.
+   */
+  private final AtomicLong postProcessWallTimeNanos = new AtomicLong(0);
+  /**
+   * Total CPU time in nanoseconds used by post-processing processes, as far as known.
+   */
+  private final AtomicLong postProcessCpuTimeNanos = new AtomicLong(0);
+  
+  /**
+   * Scheduler to report the queue depths of. May be null.
+   */
+  private volatile TrackCutterScheduler scheduler = null;
+  /**
+   * Executor for periodic logging. Null if not logging. Guarded by this.
+   */
+  private ScheduledExecutorService loggingExecutor = null;
+  
+  /**
+   * Create a new TrackCutterMetrics instance with all counters at zero.
+   */
+  public TrackCutterMetrics()
+  {
+  }
+  
+  /**
+   * Register this instance with the platform MBean server, under {@link #DEFAULT_OBJECT_NAME}.
+   * @throws JMException If registration failed, for instance because another instance is already registered.
+   */
+  public void register() throws JMException
+  {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(this, new ObjectName(TrackCutterMetrics.DEFAULT_OBJECT_NAME));
+  }
+  
+  /**
+   * Unregister this instance from the platform MBean server.
+   * @throws JMException If unregistration failed.
+   */
+  public void unregister() throws JMException
+  {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.unregisterMBean(new ObjectName(TrackCutterMetrics.DEFAULT_OBJECT_NAME));
+  }
+  
+  /**
+   * Start logging a line with the state of the counters at a fixed rate. Logging is done on a daemon thread.
+   * Any previous logging by this instance is stopped.
+   * @param out The stream to log to.
+   * @param period The time between log lines.
+   * @param unit The unit of the period.
+   */
+  public synchronized void startLogging(final PrintStream out, final long period, final TimeUnit unit)
+  {
+    this.stopLogging();
+    this.loggingExecutor = Executors.newSingleThreadScheduledExecutor
+      ( new ThreadFactory()
+        {
+          public Thread newThread(final Runnable runnable)
+          {
+            final Thread thread = new Thread(runnable, "TrackCutterMetrics-logger");
+            thread.setDaemon(true);
+            return thread;
+          }
+        }
+      );
+    this.loggingExecutor.scheduleAtFixedRate
+      ( new Runnable()
+        {
+          /**
+           * Bytes read at the time of the previous log line.
+           */
+          private long previousBytesRead = 0;
+          /**
+           * Bytes written at the time of the previous log line.
+           */
+          private long previousBytesWritten = 0;
+          
+          public void run()
+          {
+            final long currentBytesRead = TrackCutterMetrics.this.getBytesRead();
+            final long currentBytesWritten = TrackCutterMetrics.this.getBytesWritten();
+            final double seconds = unit.toMillis(period) / 1000.0;
+            out.println
+              ( TrackCutterMetrics.this.toString()
+              + String.format
+                ( ", read %.1f MB/s, write %.1f MB/s"
+                , (currentBytesRead - this.previousBytesRead) / seconds / 1e6
+                , (currentBytesWritten - this.previousBytesWritten) / seconds / 1e6
+                )
+              );
+            this.previousBytesRead = currentBytesRead;
+            this.previousBytesWritten = currentBytesWritten;
+          }
+        }
+      , period
+      , period
+      , unit
+      );
+  }
+  
+  /**
+   * Stop periodic logging, if started.
+   */
+  public synchronized void stopLogging()
+  {
+    if (this.loggingExecutor != null)
+    {
+      this.loggingExecutor.shutdown();
+      this.loggingExecutor = null;
+    }
+  }
+  
+  /**
+   * Set the scheduler to report the queue depths of.
+   * @param scheduler The scheduler to report the queue depths of. May be null.
+   */
+  public void setScheduler(final TrackCutterScheduler scheduler)
+  {
+    this.scheduler = scheduler;
+  }
+  
+  /**
+   * Get a one-line summary of the counters.
+   * @return A one-line summary of the counters.
+   */
+  @Override
+  public String toString()
+  {
+    final String result = String.format
+      ( "TrackCutter: sheets %d/%d, actions %d/%d (%d skipped), frames %d, read %d B, written %d B"
+        + ", post-processes %d running/%d done/%d failed (wall %d ms, cpu %d ms), jobs %d pending/%d running"
+      , this.getCueSheetsFinished()
+      , this.getCueSheetsStarted()
+      , this.getActionsFinished()
+      , this.getActionsStarted()
+      , this.getActionsSkipped()
+      , this.getFramesCut()
+      , this.getBytesRead()
+      , this.getBytesWritten()
+      , this.getPostProcessesRunning()
+      , this.getPostProcessesFinished()
+      , this.getPostProcessesFailed()
+      , this.getPostProcessWallTimeMillis()
+      , this.getPostProcessCpuTimeMillis()
+      , this.getJobsPending()
+      , this.getJobsRunning()
+      );
+    return result;
+  }
+  
+  public void cueSheetStarted(final CueSheet cueSheet)
+  {
+    this.cueSheetsStarted.incrementAndGet();
+  }
+  
+  public void cueSheetFinished(final CueSheet cueSheet)
+  {
+    this.cueSheetsFinished.incrementAndGet();
+  }
+  
+  public void actionSkipped(final TrackCutterProcessingAction processAction)
+  {
+    this.actionsSkipped.incrementAndGet();
+  }
+  
+  public void actionStarted(final TrackCutterProcessingAction processAction)
+  {
+    this.actionsStarted.incrementAndGet();
+  }
+  
+  public void actionFinished
+    ( final TrackCutterProcessingAction processAction
+    , final long framesCut
+    , final long bytesRead
+    , final long bytesWritten
+    )
+  {
+    this.actionsFinished.incrementAndGet();
+    this.framesCut.addAndGet(framesCut);
+    this.bytesRead.addAndGet(bytesRead);
+    this.bytesWritten.addAndGet(bytesWritten);
+  }
+  
+  public void postProcessingStarted(final TrackCutterProcessingAction processAction)
+  {
+    this.postProcessesStarted.incrementAndGet();
+  }
+  
+  public void postProcessingFinished
+    ( final TrackCutterProcessingAction processAction
+    , final int exitValue
+    , final long wallTimeNanos
+    , final long cpuTimeNanos
+    )
+  {
+    this.postProcessesFinished.incrementAndGet();
+    if (exitValue != 0)
+    {
+      this.postProcessesFailed.incrementAndGet();
+    }
+    this.postProcessWallTimeNanos.addAndGet(wallTimeNanos);
+    if (cpuTimeNanos > 0)
+    {
+      this.postProcessCpuTimeNanos.addAndGet(cpuTimeNanos);
+    }
+  }
+  
+  public long getCueSheetsStarted()
+  {
+    return this.cueSheetsStarted.get();
+  }
+  
+  public long getCueSheetsFinished()
+  {
+    return this.cueSheetsFinished.get();
+  }
+  
+  public long getActionsStarted()
+  {
+    return this.actionsStarted.get();
+  }
+  
+  public long getActionsFinished()
+  {
+    return this.actionsFinished.get();
+  }
+  
+  public long getActionsSkipped()
+  {
+    return this.actionsSkipped.get();
+  }
+  
+  public long getBytesRead()
+  {
+    return this.bytesRead.get();
+  }
+  
+  public long getBytesWritten()
+  {
+    return this.bytesWritten.get();
+  }
+  
+  public long getFramesCut()
+  {
+    return this.framesCut.get();
+  }
+  
+  public long getPostProcessesRunning()
+  {
+    return this.postProcessesStarted.get() - this.postProcessesFinished.get();
+  }
+  
+  public long getPostProcessesFinished()
+  {
+    return this.postProcessesFinished.get();
+  }
+  
+  public long getPostProcessesFailed()
+  {
+    return this.postProcessesFailed.get();
+  }
+  
+  public long getPostProcessWallTimeMillis()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(this.postProcessWallTimeNanos.get());
+  }
+  
+  public long getPostProcessCpuTimeMillis()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(this.postProcessCpuTimeNanos.get());
+  }
+  
+  public int getJobsPending()
+  {
+    final TrackCutterScheduler currentScheduler = this.scheduler;
+    final int result = currentScheduler == null ? -1 : currentScheduler.getPendingJobCount();
+    return result;
+  }
+  
+  public int getJobsRunning()
+  {
+    final TrackCutterScheduler currentScheduler = this.scheduler;
+    final int result = currentScheduler == null ? -1 : currentScheduler.getRunningJobCount();
+    return result;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+/**
+ * Management interface of {@link TrackCutterMetrics}.
+ * @author jwbroek
+ */
+public interface TrackCutterMetricsMBean
+{
+  /**
+   * Get the number of cue sheets of which processing has started.
+   * @return The number of cue sheets of which processing has started.
+   */
+  public long getCueSheetsStarted();
+  
+  /**
+   * Get the number of cue sheets of which processing has finished.
+   * @return The number of cue sheets of which processing has finished.
+   */
+  public long getCueSheetsFinished();
+  
+  /**
+   * Get the number of processing actions that have started.
+   * @return The number of processing actions that have started.
+   */
+  public long getActionsStarted();
+  
+  /**
+   * Get the number of processing actions that have finished cutting.
+   * @return The number of processing actions that have finished cutting.
+   */
+  public long getActionsFinished();
+  
+  /**
+   * Get the number of processing actions that were skipped as their output was up to date.
+   * @return The number of processing actions that were skipped.
+   */
+  public long getActionsSkipped();
+  
+  /**
+   * Get the number of bytes read from audio files.
+   * @return The number of bytes read from audio files.
+   */
+  public long getBytesRead();
+  
+  /**
+   * Get the number of bytes written to cut files or to post-processing.
+   * @return The number of bytes written to cut files or to post-processing.
+   */
+  public long getBytesWritten();
+  
+  /**
+   * Get the number of audio frames cut.
+   * @return The number of audio frames cut.
+   */
+  public long getFramesCut();
+  
+  /**
+   * Get the number of post-processing processes that are running.
+   * @return The number of post-processing processes that are running.
+   */
+  public long getPostProcessesRunning();
+  
+  /**
+   * Get the number of post-processing processes that have finished.
+   * @return The number of post-processing processes that have finished.
+   */
+  public long getPostProcessesFinished();
+  
+  /**
+   * Get the number of post-processing processes that have finished with a non-zero exit value.
+   * @return The number of post-processing processes that have failed.
+   */
+  public long getPostProcessesFailed();
+  
+  /**
+   * Get the total time in milliseconds that post-processing processes ran.
+   * @return The total time in milliseconds that post-processing processes ran.
+   */
+  public long getPostProcessWallTimeMillis();
+  
+  /**
+   * Get the total CPU time in milliseconds used by post-processing processes, as far as could be determined.
+   * @return The total CPU time in milliseconds used by post-processing processes.
+   */
+  public long getPostProcessCpuTimeMillis();
+  
+  /**
+   * Get the number of jobs waiting in the scheduler.
+   * @return The number of jobs waiting in the scheduler, or -1 if there is no scheduler.
+   */
+  public int getJobsPending();
+  
+  /**
+   * Get the number of jobs running in the scheduler.
+   * @return The number of jobs running in the scheduler, or -1 if there is no scheduler.
+   */
+  public int getJobsRunning();
+}
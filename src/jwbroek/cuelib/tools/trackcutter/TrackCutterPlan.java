@@ -0,0 +1,358 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jwbroek.cuelib.CueSheet;
+
+/**
+ * <p>Plan of the work that a {@link TrackCutter} will do for a number of cue sheets. A plan is created by
+ * {@link TrackCutter#planCueSheet(File)}, which only reads the cue sheet and the headers of the audio files, so
+ * creating a plan is cheap compared to executing it.</p>
+ * <p>A plan consists of a {@link Job} per cue sheet, each consisting of a {@link Step} per processing action. Plans
+ * can be written as CSV for inspection, and executed through
+ * {@link TrackCutterScheduler#schedule(TrackCutterPlan)}.</p>
+ * @author jwbroek
+ */
+public class TrackCutterPlan
+{
+  /**
+   * Header of the CSV representation.
+   */
+  private static final String CSV_HEADER =
+    "cueFile,audioFile,track,pregap,startByte,endByte,bytesToRead,bytesToWrite,cutFile,postProcessFile,command";
+  
+  /**
+   * The jobs in this plan.
+   */
+  private final List<Job> jobs = new ArrayList<Job>();
+  
+  /**
+   * Create a new, empty TrackCutterPlan.
+   */
+  public TrackCutterPlan()
+  {
+  }
+  
+  /**
+   * Add a job to this plan.
+   * @param job The job to add.
+   */
+  public void addJob(final Job job)
+  {
+    this.jobs.add(job);
+  }
+  
+  /**
+   * Get the jobs in this plan.
+   * @return The jobs in this plan.
+   */
+  public List<Job> getJobs()
+  {
+    return Collections.unmodifiableList(this.jobs);
+  }
+  
+  /**
+   * Get the estimated number of bytes that executing this plan will read. Steps for which this is unknown are not
+   * counted.
+   * @return The estimated number of bytes that executing this plan will read.
+   */
+  public long getEstimatedBytesToRead()
+  {
+    long result = 0;
+    for (Job job : this.jobs)
+    {
+      result += job.getEstimatedBytesToRead();
+    }
+    return result;
+  }
+  
+  /**
+   * Write this plan as CSV, with a header line and a line per step.
+   * @param out The Appendable to write to.
+   * @throws IOException
+   */
+  public void writeCsv(final Appendable out) throws IOException
+  {
+    out.append(TrackCutterPlan.CSV_HEADER).append('\n');
+    for (Job job : this.jobs)
+    {
+      for (Step step : job.getSteps())
+      {
+        final TrackCutterProcessingAction action = step.getProcessAction();
+        appendCsvField(out, job.getCueFile()==null?"":job.getCueFile().getPath()).append(',');
+        appendCsvField(out, step.getAudioFile().getPath()).append(',');
+        out.append(Integer.toString(action.getTrackData().getNumber())).append(',');
+        out.append(Boolean.toString(action.getIsPregap())).append(',');
+        out.append(Long.toString(step.getStartByte())).append(',');
+        out.append(Long.toString(step.getEndByte())).append(',');
+        out.append(Long.toString(step.getEstimatedBytesToRead())).append(',');
+        out.append(Long.toString(step.getEstimatedBytesToWrite())).append(',');
+        appendCsvField(out, action.getCutFile().getPath()).append(',');
+        if (job.getContext().getDoPostProcessing())
+        {
+          appendCsvField(out, action.getPostProcessFile().getPath()).append(',');
+          appendCsvField(out, action.getPostProcessCommand());
+        }
+        else
+        {
+          out.append(',');
+        }
+        out.append('\n');
+      }
+    }
+  }
+  
+  /**
+   * Append a field to CSV output, quoting it if necessary.
+   * @param out The Appendable to write to.
+   * @param field The field to write.
+   * @return The Appendable that was written to.
+   * @throws IOException
+   */
+  private static Appendable appendCsvField(final Appendable out, final String field) throws IOException
+  {
+    if (field.indexOf(',') == -1 && field.indexOf('"') == -1 && field.indexOf('\n') == -1)
+    {
+      out.append(field);
+    }
+    else
+    {
+      out.append('"').append(field.replace("\"", "\"\"")).append('"');
+    }
+    return out;
+  }
+  
+  /**
+   * The work for a single cue sheet.
+   */
+  public static class Job
+  {
+    /**
+     * The file that the cue sheet was read from. May be null.
+     */
+    private final File cueFile;
+    /**
+     * The cue sheet.
+     */
+    private final CueSheet cueSheet;
+    /**
+     * The context for processing the cue sheet.
+     */
+    private final TrackCutterContext context;
+    /**
+     * The steps of this job.
+     */
+    private final List<Step> steps = new ArrayList<Step>();
+    
+    /**
+     * Create a new Job without steps.
+     * @param cueFile The file that the cue sheet was read from. May be null.
+     * @param cueSheet The cue sheet.
+     * @param context The context for processing the cue sheet.
+     */
+    public Job(final File cueFile, final CueSheet cueSheet, final TrackCutterContext context)
+    {
+      this.cueFile = cueFile;
+      this.cueSheet = cueSheet;
+      this.context = context;
+    }
+    
+    /**
+     * Add a step to this job.
+     * @param step The step to add.
+     */
+    public void addStep(final Step step)
+    {
+      this.steps.add(step);
+    }
+    
+    /**
+     * Get the estimated number of bytes that executing this job will read. Steps for which this is unknown are not
+     * counted.
+     * @return The estimated number of bytes that executing this job will read.
+     */
+    public long getEstimatedBytesToRead()
+    {
+      long result = 0;
+      for (Step step : this.steps)
+      {
+        result += Math.max(0, step.getEstimatedBytesToRead());
+      }
+      return result;
+    }
+    
+    /**
+     * Get the file that the job does most of its reading from. This is the audio file of the first step, or the cue
+     * file if there are no steps.
+     * @return The file that the job does most of its reading from. May be null.
+     */
+    public File getSourceFile()
+    {
+      final File result = this.steps.isEmpty() ? this.cueFile : this.steps.get(0).getAudioFile();
+      return result;
+    }
+    
+    /**
+     * Get the file that the cue sheet was read from.
+     * @return The file that the cue sheet was read from. May be null.
+     */
+    public File getCueFile()
+    {
+      return this.cueFile;
+    }
+    
+    /**
+     * Get the cue sheet.
+     * @return The cue sheet.
+     */
+    public CueSheet getCueSheet()
+    {
+      return this.cueSheet;
+    }
+    
+    /**
+     * Get the context for processing the cue sheet.
+     * @return The context for processing the cue sheet.
+     */
+    public TrackCutterContext getContext()
+    {
+      return this.context;
+    }
+    
+    /**
+     * Get the steps of this job.
+     * @return The steps of this job.
+     */
+    public List<Step> getSteps()
+    {
+      return Collections.unmodifiableList(this.steps);
+    }
+  }
+  
+  /**
+   * A single processing action, along with estimates of the I/O it will do.
+   */
+  public static class Step
+  {
+    /**
+     * The processing action.
+     */
+    private final TrackCutterProcessingAction processAction;
+    /**
+     * The audio file that the action reads from.
+     */
+    private final File audioFile;
+    /**
+     * Offset in the audio file of the first byte to read, or -1 if unknown.
+     */
+    private final long startByte;
+    /**
+     * Offset in the audio file just after the last byte to read, or -1 if unknown.
+     */
+    private final long endByte;
+    /**
+     * Estimated number of bytes of audio that will be written, or -1 if unknown.
+     */
+    private final long estimatedBytesToWrite;
+    
+    /**
+     * Create a new Step.
+     * @param processAction The processing action.
+     * @param audioFile The audio file that the action reads from.
+     * @param startByte Offset in the audio file of the first byte to read, or -1 if unknown.
+     * @param endByte Offset in the audio file just after the last byte to read, or -1 if unknown.
+     * @param estimatedBytesToWrite Estimated number of bytes of audio that will be written, or -1 if unknown.
+     */
+    public Step
+      ( final TrackCutterProcessingAction processAction
+      , final File audioFile
+      , final long startByte
+      , final long endByte
+      , final long estimatedBytesToWrite
+      )
+    {
+      this.processAction = processAction;
+      this.audioFile = audioFile;
+      this.startByte = startByte;
+      this.endByte = endByte;
+      this.estimatedBytesToWrite = estimatedBytesToWrite;
+    }
+    
+    /**
+     * Get the estimated number of bytes that this step will read.
+     * @return The estimated number of bytes that this step will read, or -1 if unknown.
+     */
+    public long getEstimatedBytesToRead()
+    {
+      final long result = (this.startByte < 0 || this.endByte < 0) ? -1 : this.endByte - this.startByte;
+      return result;
+    }
+    
+    /**
+     * Get the processing action.
+     * @return The processing action.
+     */
+    public TrackCutterProcessingAction getProcessAction()
+    {
+      return this.processAction;
+    }
+    
+    /**
+     * Get the audio file that the action reads from.
+     * @return The audio file that the action reads from.
+     */
+    public File getAudioFile()
+    {
+      return this.audioFile;
+    }
+    
+    /**
+     * Get the offset in the audio file of the first byte to read.
+     * @return The offset in the audio file of the first byte to read, or -1 if unknown.
+     */
+    public long getStartByte()
+    {
+      return this.startByte;
+    }
+    
+    /**
+     * Get the offset in the audio file just after the last byte to read.
+     * @return The offset in the audio file just after the last byte to read, or -1 if unknown.
+     */
+    public long getEndByte()
+    {
+      return this.endByte;
+    }
+    
+    /**
+     * Get the estimated number of bytes of audio that will be written.
+     * @return The estimated number of bytes of audio that will be written, or -1 if unknown.
+     */
+    public long getEstimatedBytesToWrite()
+    {
+      return this.estimatedBytesToWrite;
+    }
+  }
+}
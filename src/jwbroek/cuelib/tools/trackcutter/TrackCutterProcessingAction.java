@@ -48,10 +48,9 @@ public class TrackCutterProcessingAction
    */
   private boolean isPregap;
   /**
-   * The configuration of the TrackCutter. Undefined behavior occurs when the
-   * configuration does not match the configuration of the TrackCutter.
+   * The context of the job that this action is part of.
    */
-  private TrackCutterConfiguration configuration;
+  private TrackCutterContext context;
   /**
    * The target file for the cutting operation.
    */
@@ -72,7 +71,10 @@ public class TrackCutterProcessingAction
    * @param isPregap Whether or not this action concerns the pregap of a track. (These may be treated as separate
    * tracks.)
    * @param configuration The TrackCutterConfiguration of the TrackCutter for which this action is intended.
+   * @deprecated Use {@link #TrackCutterProcessingAction(Position, Position, TrackData, boolean, TrackCutterContext)},
+   * as the configuration may be changed while the action is in use.
    */
+  @Deprecated
   public TrackCutterProcessingAction
     ( final Position startPosition
     , final Position endPosition
@@ -80,12 +82,32 @@ public class TrackCutterProcessingAction
     , final boolean isPregap
     , final TrackCutterConfiguration configuration
     )
+  {
+    this(startPosition, endPosition, trackData, isPregap, new TrackCutterContext(configuration, null));
+  }
+  
+  /**
+   * Construct a processing action for a TrackCutter.
+   * @param startPosition Starting position for the track.
+   * @param endPosition Ending position for the track.
+   * @param trackData The TrackData instance corresponding to the processing action.
+   * @param isPregap Whether or not this action concerns the pregap of a track. (These may be treated as separate
+   * tracks.)
+   * @param context The context of the job for which this action is intended.
+   */
+  public TrackCutterProcessingAction
+    ( final Position startPosition
+    , final Position endPosition
+    , final TrackData trackData
+    , final boolean isPregap
+    , final TrackCutterContext context
+    )
   {
     this.startPosition = startPosition;
     this.endPosition = endPosition;
     this.trackData = trackData;
     this.isPregap = isPregap;
-    this.configuration = configuration;
+    this.context = context;
   }
 
   /**
@@ -96,7 +118,7 @@ public class TrackCutterProcessingAction
   {
     if (this.cutFile == null)
     {
-      this.cutFile = this.configuration.getCutFile(this);
+      this.cutFile = this.context.getCutFile(this);
     }
     return this.cutFile;
   }
@@ -109,7 +131,7 @@ public class TrackCutterProcessingAction
   {
     if (this.postProcessFile == null)
     {
-      this.postProcessFile = this.configuration.getPostProcessFile(this);
+      this.postProcessFile = this.context.getPostProcessFile(this);
     }
     return this.postProcessFile;
   }
@@ -122,7 +144,7 @@ public class TrackCutterProcessingAction
   {
     if (this.postProcessingCommand == null)
     {
-      this.postProcessingCommand = this.configuration
+      this.postProcessingCommand = this.context
           .getPostProcessCommand(this);
     }
     return this.postProcessingCommand;
@@ -135,7 +157,7 @@ public class TrackCutterProcessingAction
   public File getStdOutRedirectFile()
   {
     File result = null;
-    if (this.configuration.getRedirectStdOut())
+    if (this.context.getRedirectStdOut())
     {
       result = new File(this.getPostProcessFile().getPath() + ".out");
     }
@@ -149,7 +171,7 @@ public class TrackCutterProcessingAction
   public File getErrRedirectFile()
   {
     File result = null;
-    if (this.configuration.getRedirectStdOut())
+    if (this.context.getRedirectErr())
     {
       result = new File(this.getPostProcessFile().getPath() + ".err");
     }
@@ -0,0 +1,678 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import jwbroek.cuelib.FileData;
+import jwbroek.cuelib.Position;
+import jwbroek.cuelib.TrackData;
+import jwbroek.flac.FlacDecoder;
+
+/**
+ * <p>A headerless raw CD image, as referred to by FILE type BINARY or MOTOROLA in a cue sheet.</p>
+ * <p>Byte offsets follow directly from the positions in the cue sheet and the sector size of the track data type,
+ * so every track can be read directly from its own offset. Audio tracks are read as 44.1 kHz, 16 bit, stereo,
+ * little-endian audio. MOTOROLA images hold big-endian audio, which is byte-swapped while reading. Data tracks are
+ * extracted as plain 2048 byte sectors, as in an ISO image, with any sector framing stripped. Mode 2 sectors are
+ * assumed to be form 1. All reads are positional bulk reads on a {@link FileChannel}, so a single image can be read
+ * from several threads.</p>
+ * <p>A range that crosses into other tracks is read with the sector layout of each track in turn. Only the parts of
+ * the range in tracks of the same kind are read, so a data track next to an audio track never ends up in the audio,
+ * or the other way around.</p>
+ * @author jwbroek
+ */
+public class TrackCutterRawImage implements Closeable
+{
+  /**
+   * Number of samples per channel in a CD sector.
+   */
+  public static final int SAMPLES_PER_SECTOR = 588;
+  /**
+   * Format of the audio in a CD sector, after byte-swapping if needed.
+   */
+  public static final AudioFormat CD_AUDIO_FORMAT = new AudioFormat(44100, 16, 2, true, false);
+  /**
+   * Number of sectors to read at a time.
+   */
+  private static final int SECTORS_PER_READ = 64;
+  
+  /**
+   * The FileData that refers to the image.
+   */
+  private final FileData fileData;
+  /**
+   * Whether the audio in the image is big-endian.
+   */
+  private final boolean motorola;
+  /**
+   * Channel to read the image from.
+   */
+  private final FileChannel channel;
+  
+  /**
+   * Create a new TrackCutterRawImage.
+   * @param fileData The FileData that refers to the image.
+   * @param imageFile The image file.
+   * @throws IOException When the image file could not be opened.
+   */
+  public TrackCutterRawImage(final FileData fileData, final File imageFile) throws IOException
+  {
+    this.fileData = fileData;
+    this.motorola = "MOTOROLA".equalsIgnoreCase(fileData.getFileType());
+    this.channel = FileChannel.open(imageFile.toPath(), StandardOpenOption.READ);
+  }
+  
+  /**
+   * Determine whether the FileData refers to a raw image. This is the case when it has FILE type BINARY or MOTOROLA,
+   * and the file is not in a format that we can read as audio. The latter check is there because many cue sheets
+   * wrongly specify BINARY for WAVE files.
+   * @param fileData The FileData.
+   * @param file The file that the FileData refers to.
+   * @return Whether the FileData refers to a raw image.
+   */
+  public static boolean isRawImage(final FileData fileData, final File file)
+  {
+    if  ( !"BINARY".equalsIgnoreCase(fileData.getFileType())
+        && !"MOTOROLA".equalsIgnoreCase(fileData.getFileType())
+        )
+    {
+      return false;
+    }
+    if (!file.isFile() || FlacDecoder.isFlacFile(file))
+    {
+      return false;
+    }
+    try
+    {
+      AudioSystem.getAudioFileFormat(file);
+      return false;
+    }
+    catch (UnsupportedAudioFileException e)
+    {
+      return true;
+    }
+    catch (IOException e)
+    {
+      return false;
+    }
+  }
+  
+  /**
+   * Determine whether the track is an audio track.
+   * @param trackData The track.
+   * @return Whether the track is an audio track.
+   */
+  public static boolean isAudioTrack(final TrackData trackData)
+  {
+    final String dataType = trackData.getDataType();
+    return dataType == null || "AUDIO".equalsIgnoreCase(dataType) || "CDG".equalsIgnoreCase(dataType);
+  }
+  
+  /**
+   * Get the byte offset in the image of the specified position.
+   * @param position The position, or null for the end of the image.
+   * @return The byte offset in the image of the specified position.
+   * @throws IOException When the size of the image could not be determined.
+   */
+  public long getByteOffset(final Position position) throws IOException
+  {
+    if (position == null)
+    {
+      return this.channel.size();
+    }
+    // Each track has its own sector size, so add up the sizes of all sectors in front of the position.
+    final long targetSector = position.getTotalFrames();
+    final List<TrackData> trackDataList = this.fileData.getTrackData();
+    long result = 0;
+    for (int trackIndex = 0; trackIndex < trackDataList.size(); trackIndex++)
+    {
+      final long trackStart = trackIndex == 0 ? 0 : getFirstSector(trackDataList.get(trackIndex));
+      final long trackEnd = trackIndex + 1 < trackDataList.size()
+        ? getFirstSector(trackDataList.get(trackIndex + 1))
+        : Long.MAX_VALUE;
+      if (targetSector <= trackStart)
+      {
+        break;
+      }
+      result += (Math.min(targetSector, trackEnd) - trackStart)
+        * getSectorLayout(trackDataList.get(trackIndex)).sectorSize;
+    }
+    return Math.min(result, this.channel.size());
+  }
+  
+  /**
+   * Get the number of bytes of audio or data in the specified range of a track, with any sector framing stripped.
+   * @param trackData The track.
+   * @param startPosition The start of the range.
+   * @param endPosition The end of the range, or null for the end of the image.
+   * @return The number of bytes of audio or data in the range.
+   * @throws IOException When the size of the image could not be determined.
+   */
+  public long getPayloadLength
+    ( final TrackData trackData
+    , final Position startPosition
+    , final Position endPosition
+    ) throws IOException
+  {
+    long result = 0;
+    for (Segment segment : this.getSegments(trackData, startPosition, endPosition))
+    {
+      result += segment.sectorCount * segment.sectorLayout.payloadLength;
+    }
+    return result;
+  }
+  
+  /**
+   * Get the audio in the specified range of an audio track.
+   * @param trackData The track.
+   * @param startPosition The start of the range.
+   * @param endPosition The end of the range, or null for the end of the image.
+   * @return The audio in the specified range.
+   * @throws IOException When the image could not be read.
+   */
+  public AudioInputStream getAudioInputStream
+    ( final TrackData trackData
+    , final Position startPosition
+    , final Position endPosition
+    ) throws IOException
+  {
+    final List<InputStream> segmentStreams = new ArrayList<InputStream>();
+    long sectorCount = 0;
+    for (Segment segment : this.getSegments(trackData, startPosition, endPosition))
+    {
+      segmentStreams.add
+        (new SectorInputStream(segment.offset, segment.sectorCount, segment.sectorLayout, this.motorola));
+      sectorCount += segment.sectorCount;
+    }
+    final AudioInputStream result = new AudioInputStream
+      ( new SequenceInputStream(Collections.enumeration(segmentStreams))
+      , TrackCutterRawImage.CD_AUDIO_FORMAT
+      , sectorCount * TrackCutterRawImage.SAMPLES_PER_SECTOR
+      );
+    return result;
+  }
+  
+  /**
+   * Extract the specified range of a data track to a file of plain 2048 byte sectors.
+   * @param trackData The track.
+   * @param startPosition The start of the range.
+   * @param endPosition The end of the range, or null for the end of the image.
+   * @param targetFile The file to extract to.
+   * @return The number of bytes written.
+   * @throws IOException When the image could not be read, or the target file could not be written.
+   */
+  public long extractData
+    ( final TrackData trackData
+    , final Position startPosition
+    , final Position endPosition
+    , final File targetFile
+    ) throws IOException
+  {
+    final List<Segment> segments = this.getSegments(trackData, startPosition, endPosition);
+    final FileChannel targetChannel = new FileOutputStream(targetFile).getChannel();
+    long result = 0;
+    
+    try
+    {
+      for (Segment segment : segments)
+      {
+        result += this.extractData(segment, targetChannel);
+      }
+    }
+    finally
+    {
+      targetChannel.close();
+    }
+    return result;
+  }
+  
+  /**
+   * Get the file that the data track of the specified action is extracted to: the cut file, but with extension
+   * ".iso".
+   * @param processAction The action for the data track.
+   * @return The file that the data track of the specified action is extracted to.
+   */
+  public static File getDataFile(final TrackCutterProcessingAction processAction)
+  {
+    final String cutFileName = processAction.getCutFile().getName();
+    final int extensionStart = cutFileName.lastIndexOf('.');
+    final File result = new File
+      ( processAction.getCutFile().getParentFile()
+      , (extensionStart > 0 ? cutFileName.substring(0, extensionStart) : cutFileName) + ".iso"
+      );
+    return result;
+  }
+  
+  /**
+   * Close the image.
+   * @throws IOException When the image could not be closed.
+   */
+  public void close() throws IOException
+  {
+    this.channel.close();
+  }
+  
+  /**
+   * Split the specified range at the boundaries of the tracks in it, as each track has its own sector layout. Parts
+   * in tracks of another kind than the specified track, audio or data, are left out.
+   * @param trackData The track that the range is read for.
+   * @param startPosition The start of the range.
+   * @param endPosition The end of the range, or null for the end of the image.
+   * @return The whole sectors in the range, per track.
+   * @throws IOException When the size of the image could not be determined.
+   */
+  private List<Segment> getSegments
+    ( final TrackData trackData
+    , final Position startPosition
+    , final Position endPosition
+    ) throws IOException
+  {
+    final long startSector = startPosition.getTotalFrames();
+    final long endSector = endPosition == null ? Long.MAX_VALUE : endPosition.getTotalFrames();
+    final long imageSize = this.channel.size();
+    final List<TrackData> trackDataList = this.fileData.getTrackData();
+    final List<Segment> result = new ArrayList<Segment>();
+    long trackOffset = 0;
+    for (int trackIndex = 0; trackIndex < trackDataList.size(); trackIndex++)
+    {
+      final TrackData currentTrackData = trackDataList.get(trackIndex);
+      final SectorLayout sectorLayout = getSectorLayout(currentTrackData);
+      final long trackStart = trackIndex == 0 ? 0 : getFirstSector(currentTrackData);
+      final long trackEnd = trackIndex + 1 < trackDataList.size()
+        ? getFirstSector(trackDataList.get(trackIndex + 1))
+        : Long.MAX_VALUE;
+      final long segmentStart = Math.max(startSector, trackStart);
+      final long segmentEnd = Math.min(endSector, trackEnd);
+      if  ( segmentStart < segmentEnd
+          && TrackCutterRawImage.isAudioTrack(currentTrackData) == TrackCutterRawImage.isAudioTrack(trackData)
+          )
+      {
+        final long offset = trackOffset + (segmentStart - trackStart) * sectorLayout.sectorSize;
+        // The image may end before the range does.
+        final long sectorCount =
+          Math.min(segmentEnd - segmentStart, Math.max(0, (imageSize - offset) / sectorLayout.sectorSize));
+        if (sectorCount > 0)
+        {
+          result.add(new Segment(offset, sectorCount, sectorLayout));
+        }
+      }
+      if (trackEnd >= endSector)
+      {
+        break;
+      }
+      trackOffset += (trackEnd - trackStart) * sectorLayout.sectorSize;
+    }
+    return result;
+  }
+  
+  /**
+   * Extract the sectors of a single segment as plain 2048 byte sectors.
+   * @param segment The segment to extract.
+   * @param targetChannel The channel to write to.
+   * @return The number of bytes written.
+   * @throws IOException When the image could not be read, or the target could not be written.
+   */
+  private long extractData(final Segment segment, final FileChannel targetChannel) throws IOException
+  {
+    final SectorLayout sectorLayout = segment.sectorLayout;
+    long result = 0;
+    
+    if (sectorLayout.payloadLength == sectorLayout.sectorSize)
+    {
+      // Cooked sectors, so the channel can transfer them without copying them through our buffers.
+      final long length = segment.sectorCount * sectorLayout.sectorSize;
+      while (result < length)
+      {
+        final long transferred = this.channel.transferTo(segment.offset + result, length - result, targetChannel);
+        if (transferred <= 0)
+        {
+          throw new EOFException("Unexpected end of image.");
+        }
+        result += transferred;
+      }
+    }
+    else
+    {
+      // Read sectors in bulk, then write only the user data of each in a single gathering write.
+      final ByteBuffer readBuffer =
+        ByteBuffer.allocateDirect(sectorLayout.sectorSize * TrackCutterRawImage.SECTORS_PER_READ);
+      final ByteBuffer [] payloads = new ByteBuffer[TrackCutterRawImage.SECTORS_PER_READ];
+      long sector = 0;
+      while (sector < segment.sectorCount)
+      {
+        final int sectorsToRead = (int) Math.min(TrackCutterRawImage.SECTORS_PER_READ, segment.sectorCount - sector);
+        readBuffer.clear().limit(sectorsToRead * sectorLayout.sectorSize);
+        this.readFully(readBuffer, segment.offset + sector * sectorLayout.sectorSize);
+        for (int index = 0; index < sectorsToRead; index++)
+        {
+          final int payloadStart = index * sectorLayout.sectorSize + sectorLayout.payloadOffset;
+          payloads[index] = readBuffer.duplicate();
+          payloads[index].limit(payloadStart + sectorLayout.payloadLength).position(payloadStart);
+        }
+        final long length = (long) sectorsToRead * sectorLayout.payloadLength;
+        long written = 0;
+        while (written < length)
+        {
+          written += targetChannel.write(payloads, 0, sectorsToRead);
+        }
+        result += written;
+        sector += sectorsToRead;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Read from the image until the buffer is full.
+   * @param buffer The buffer to read into.
+   * @param position The offset in the image to read from.
+   * @throws IOException When the image could not be read, or ends before the buffer is full.
+   */
+  private void readFully(final ByteBuffer buffer, final long position) throws IOException
+  {
+    long currentPosition = position;
+    while (buffer.hasRemaining())
+    {
+      final int bytesRead = this.channel.read(buffer, currentPosition);
+      if (bytesRead < 0)
+      {
+        throw new EOFException("Unexpected end of image.");
+      }
+      currentPosition += bytesRead;
+    }
+    buffer.flip();
+  }
+  
+  /**
+   * Get the first sector of the track: the sector at its first index.
+   * @param trackData The track.
+   * @return The first sector of the track.
+   */
+  private static long getFirstSector(final TrackData trackData)
+  {
+    final long result = trackData.getIndex(0) != null
+      ? trackData.getIndex(0).getPosition().getTotalFrames()
+      : trackData.getIndex(1).getPosition().getTotalFrames();
+    return result;
+  }
+  
+  /**
+   * Get the layout of the sectors of the track, as per its data type.
+   * @param trackData The track.
+   * @return The layout of the sectors of the track.
+   */
+  private static SectorLayout getSectorLayout(final TrackData trackData)
+  {
+    final String dataType = trackData.getDataType() == null ? "AUDIO" : trackData.getDataType().toUpperCase();
+    final SectorLayout result;
+    if ("CDG".equals(dataType))
+    {
+      // Audio followed by 96 bytes of subcode.
+      result = new SectorLayout(2448, 0, 2352);
+    }
+    else if ("MODE1/2048".equals(dataType))
+    {
+      result = new SectorLayout(2048, 0, 2048);
+    }
+    else if ("MODE1/2352".equals(dataType))
+    {
+      // Sync and header, then user data, then error detection and correction.
+      result = new SectorLayout(2352, 16, 2048);
+    }
+    else if ("MODE2/2336".equals(dataType) || "CDI/2336".equals(dataType))
+    {
+      // Subheader, then user data of form 1.
+      result = new SectorLayout(2336, 8, 2048);
+    }
+    else if ("MODE2/2352".equals(dataType) || "CDI/2352".equals(dataType))
+    {
+      // Sync, header and subheader, then user data of form 1.
+      result = new SectorLayout(2352, 24, 2048);
+    }
+    else
+    {
+      result = new SectorLayout(2352, 0, 2352);
+    }
+    return result;
+  }
+  
+  /**
+   * The layout of a sector in the image.
+   */
+  private static class SectorLayout
+  {
+    /**
+     * Size of a sector in the image.
+     */
+    private final int sectorSize;
+    /**
+     * Offset of the audio or user data in the sector.
+     */
+    private final int payloadOffset;
+    /**
+     * Length of the audio or user data in the sector.
+     */
+    private final int payloadLength;
+    
+    /**
+     * Create a new SectorLayout.
+     * @param sectorSize Size of a sector in the image.
+     * @param payloadOffset Offset of the audio or user data in the sector.
+     * @param payloadLength Length of the audio or user data in the sector.
+     */
+    public SectorLayout(final int sectorSize, final int payloadOffset, final int payloadLength)
+    {
+      this.sectorSize = sectorSize;
+      this.payloadOffset = payloadOffset;
+      this.payloadLength = payloadLength;
+    }
+  }
+  
+  /**
+   * The whole sectors of a range that lie in a single track.
+   */
+  private static class Segment
+  {
+    /**
+     * Offset in the image of the first sector.
+     */
+    private final long offset;
+    /**
+     * Number of sectors.
+     */
+    private final long sectorCount;
+    /**
+     * The layout of the sectors.
+     */
+    private final SectorLayout sectorLayout;
+    
+    /**
+     * Create a new Segment.
+     * @param offset Offset in the image of the first sector.
+     * @param sectorCount Number of sectors.
+     * @param sectorLayout The layout of the sectors.
+     */
+    public Segment(final long offset, final long sectorCount, final SectorLayout sectorLayout)
+    {
+      this.offset = offset;
+      this.sectorCount = sectorCount;
+      this.sectorLayout = sectorLayout;
+    }
+  }
+  
+  /**
+   * Stream of the audio or user data in a range of sectors of the image.
+   */
+  private class SectorInputStream extends InputStream
+  {
+    /**
+     * Offset in the image of the next sector to read.
+     */
+    private long position;
+    /**
+     * Number of sectors still to read.
+     */
+    private long sectorsRemaining;
+    /**
+     * The layout of the sectors.
+     */
+    private final SectorLayout sectorLayout;
+    /**
+     * Whether the audio should be byte-swapped.
+     */
+    private final boolean swap;
+    /**
+     * Buffer that sectors are read into.
+     */
+    private final ByteBuffer readBuffer;
+    /**
+     * Audio or user data that has not been returned yet. Either the read buffer, or a separate buffer if the data
+     * had to be unframed or byte-swapped.
+     */
+    private ByteBuffer payloadBuffer;
+    
+    /**
+     * Create a new SectorInputStream.
+     * @param position Offset in the image of the first sector.
+     * @param sectorCount Number of sectors to read.
+     * @param sectorLayout The layout of the sectors.
+     * @param swap Whether the audio should be byte-swapped.
+     */
+    public SectorInputStream
+      ( final long position
+      , final long sectorCount
+      , final SectorLayout sectorLayout
+      , final boolean swap
+      )
+    {
+      this.position = position;
+      this.sectorsRemaining = sectorCount;
+      this.sectorLayout = sectorLayout;
+      this.swap = swap;
+      this.readBuffer = ByteBuffer.allocate(sectorLayout.sectorSize * TrackCutterRawImage.SECTORS_PER_READ);
+      if (swap || sectorLayout.payloadLength != sectorLayout.sectorSize)
+      {
+        this.payloadBuffer = ByteBuffer.allocate(sectorLayout.payloadLength * TrackCutterRawImage.SECTORS_PER_READ);
+      }
+      else
+      {
+        this.payloadBuffer = this.readBuffer;
+      }
+      this.payloadBuffer.limit(0);
+    }
+    
+    @Override
+    public int read() throws IOException
+    {
+      if (!this.fill())
+      {
+        return -1;
+      }
+      return this.payloadBuffer.get() & 0xFF;
+    }
+    
+    @Override
+    public int read(final byte [] buffer, final int offset, final int length) throws IOException
+    {
+      if (length == 0)
+      {
+        return 0;
+      }
+      if (!this.fill())
+      {
+        return -1;
+      }
+      final int result = Math.min(length, this.payloadBuffer.remaining());
+      this.payloadBuffer.get(buffer, offset, result);
+      return result;
+    }
+    
+    @Override
+    public int available()
+    {
+      return this.payloadBuffer.remaining();
+    }
+    
+    /**
+     * Make sure there is data to return, reading sectors as needed.
+     * @return True if there is data to return, false at the end of the range.
+     * @throws IOException When the image could not be read.
+     */
+    private boolean fill() throws IOException
+    {
+      if (this.payloadBuffer.hasRemaining())
+      {
+        return true;
+      }
+      if (this.sectorsRemaining == 0)
+      {
+        return false;
+      }
+      
+      final int sectorsToRead = (int) Math.min(TrackCutterRawImage.SECTORS_PER_READ, this.sectorsRemaining);
+      this.readBuffer.clear().limit(sectorsToRead * this.sectorLayout.sectorSize);
+      TrackCutterRawImage.this.readFully(this.readBuffer, this.position);
+      this.position += sectorsToRead * this.sectorLayout.sectorSize;
+      this.sectorsRemaining -= sectorsToRead;
+      
+      if (this.payloadBuffer != this.readBuffer)
+      {
+        this.payloadBuffer.clear();
+        for (int index = 0; index < sectorsToRead; index++)
+        {
+          final int payloadStart = index * this.sectorLayout.sectorSize + this.sectorLayout.payloadOffset;
+          final ByteBuffer payload = this.readBuffer.duplicate();
+          payload.limit(payloadStart + this.sectorLayout.payloadLength).position(payloadStart);
+          if (this.swap)
+          {
+            // Copying between short views of opposite byte order swaps the bytes of every sample in bulk.
+            this.payloadBuffer.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()
+              .put(payload.slice().order(ByteOrder.BIG_ENDIAN).asShortBuffer());
+            this.payloadBuffer.position(this.payloadBuffer.position() + this.sectorLayout.payloadLength);
+          }
+          else
+          {
+            this.payloadBuffer.put(payload);
+          }
+        }
+        this.payloadBuffer.flip();
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>Schedules cue sheets for processing by a {@link TrackCutter}, running several of them concurrently.</p>
+ * <p>Jobs run on a work-stealing pool with a fixed parallelism. In addition, the number of jobs that run concurrently
+ * on a single device (file store) can be limited, so that many cue sheets on one disk will not cause it to thrash,
+ * while cue sheets on different disks are still processed in parallel. Jobs that cannot start because their device is
+ * busy wait in a queue per device, without occupying a thread.</p>
+ * <p>When a {@link TrackCutterPlan} is scheduled, its jobs are started largest first, as far as the devices allow.
+ * Starting the long jobs early keeps the cores evenly loaded until the end, rather than leaving one long job
+ * running on its own.</p>
+ * @author jwbroek
+ */
+public class TrackCutterScheduler
+{
+  /**
+   * Device key for files of which the device could not be determined.
+   */
+  private static final Object UNKNOWN_DEVICE = new Object();
+  
+  /**
+   * The TrackCutter that will process the jobs.
+   */
+  private final TrackCutter trackCutter;
+  /**
+   * Maximum number of jobs running concurrently on a single device. Values smaller than 1 mean no limit.
+   */
+  private final int maxJobsPerDevice;
+  /**
+   * Pool on which the jobs run.
+   */
+  private final ForkJoinPool pool;
+  /**
+   * State per device, by device key. Guarded by this.
+   */
+  private final Map<Object, DeviceState> deviceStates = new HashMap<Object, DeviceState>();
+  /**
+   * Number of jobs that have been scheduled, but have not finished yet. Guarded by this.
+   */
+  private int outstandingJobs = 0;
+  
+  /**
+   * Create a new TrackCutterScheduler.
+   * @param trackCutter The TrackCutter that will process the jobs.
+   * @param parallelism Maximum number of jobs that run concurrently. Must be at least 1.
+   * @param maxJobsPerDevice Maximum number of jobs running concurrently on a single device. Values smaller than 1
+   * mean no limit apart from the parallelism.
+   */
+  public TrackCutterScheduler(final TrackCutter trackCutter, final int parallelism, final int maxJobsPerDevice)
+  {
+    this.trackCutter = trackCutter;
+    this.maxJobsPerDevice = maxJobsPerDevice;
+    this.pool = new ForkJoinPool(parallelism);
+  }
+  
+  /**
+   * Schedule the specified cue sheet for processing. Returns immediately.
+   * @param cueFile The cue sheet to process.
+   */
+  public void schedule(final File cueFile)
+  {
+    this.schedule
+      ( TrackCutterScheduler.getDeviceKey(cueFile)
+      , new Runnable()
+        {
+          public void run()
+          {
+            try
+            {
+              TrackCutterScheduler.this.trackCutter.cutTracksInCueSheet(cueFile);
+            }
+            catch (Exception e)
+            {
+              e.printStackTrace();
+            }
+          }
+        }
+      );
+  }
+  
+  /**
+   * Schedule all jobs in the specified plan, largest first. Each job is assigned to the device of the audio it
+   * reads. Returns immediately.
+   * @param plan The plan to execute.
+   */
+  public void schedule(final TrackCutterPlan plan)
+  {
+    final List<TrackCutterPlan.Job> jobs = new ArrayList<TrackCutterPlan.Job>(plan.getJobs());
+    Collections.sort
+      ( jobs
+      , new Comparator<TrackCutterPlan.Job>()
+        {
+          public int compare(final TrackCutterPlan.Job job1, final TrackCutterPlan.Job job2)
+          {
+            return Long.compare(job2.getEstimatedBytesToRead(), job1.getEstimatedBytesToRead());
+          }
+        }
+      );
+    
+    for (final TrackCutterPlan.Job job : jobs)
+    {
+      this.schedule
+        ( TrackCutterScheduler.getDeviceKey(job)
+        , new Runnable()
+          {
+            public void run()
+            {
+              try
+              {
+                TrackCutterScheduler.this.trackCutter.cutTracksInCueSheet(job);
+              }
+              catch (Exception e)
+              {
+                e.printStackTrace();
+              }
+            }
+          }
+        );
+    }
+  }
+  
+  /**
+   * Schedule the specified job on the specified device. Returns immediately.
+   * @param deviceKey Key of the device that the job does its I/O on.
+   * @param job The job to run.
+   */
+  synchronized void schedule(final Object deviceKey, final Runnable job)
+  {
+    DeviceState deviceState = this.deviceStates.get(deviceKey);
+    if (deviceState == null)
+    {
+      deviceState = new DeviceState();
+      this.deviceStates.put(deviceKey, deviceState);
+    }
+    deviceState.pendingJobs.add(job);
+    this.outstandingJobs++;
+    this.dispatch(deviceKey, deviceState);
+  }
+  
+  /**
+   * Start as many pending jobs for the specified device as its limit allows. Must be called while holding the lock
+   * on this.
+   * @param deviceKey Key of the device.
+   * @param deviceState State of the device.
+   */
+  private void dispatch(final Object deviceKey, final DeviceState deviceState)
+  {
+    while ( !deviceState.pendingJobs.isEmpty()
+          && (this.maxJobsPerDevice < 1 || deviceState.runningJobs < this.maxJobsPerDevice)
+          )
+    {
+      final Runnable job = deviceState.pendingJobs.remove();
+      deviceState.runningJobs++;
+      this.pool.execute
+        ( new Runnable()
+          {
+            public void run()
+            {
+              try
+              {
+                job.run();
+              }
+              finally
+              {
+                TrackCutterScheduler.this.jobFinished(deviceKey, deviceState);
+              }
+            }
+          }
+        );
+    }
+  }
+  
+  /**
+   * Bookkeeping for when a job has finished. Will start the next job for the device, if any.
+   * @param deviceKey Key of the device that the job ran on.
+   * @param deviceState State of the device that the job ran on.
+   */
+  private synchronized void jobFinished(final Object deviceKey, final DeviceState deviceState)
+  {
+    deviceState.runningJobs--;
+    this.outstandingJobs--;
+    this.dispatch(deviceKey, deviceState);
+    if (this.outstandingJobs == 0)
+    {
+      this.notifyAll();
+    }
+  }
+  
+  /**
+   * Wait until all scheduled jobs have finished.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public synchronized void awaitCompletion() throws InterruptedException
+  {
+    while (this.outstandingJobs > 0)
+    {
+      this.wait();
+    }
+  }
+  
+  /**
+   * Wait until all scheduled jobs have finished, and release the threads of this scheduler. No jobs may be
+   * scheduled afterward.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public void shutdown() throws InterruptedException
+  {
+    this.awaitCompletion();
+    this.pool.shutdown();
+  }
+  
+  /**
+   * Get the number of jobs that are waiting for their device.
+   * @return The number of jobs that are waiting for their device.
+   */
+  public synchronized int getPendingJobCount()
+  {
+    int result = 0;
+    for (DeviceState deviceState : this.deviceStates.values())
+    {
+      result += deviceState.pendingJobs.size();
+    }
+    return result;
+  }
+  
+  /**
+   * Get the number of jobs that have been started, but have not finished yet.
+   * @return The number of jobs that have been started, but have not finished yet.
+   */
+  public synchronized int getRunningJobCount()
+  {
+    int result = 0;
+    for (DeviceState deviceState : this.deviceStates.values())
+    {
+      result += deviceState.runningJobs;
+    }
+    return result;
+  }
+  
+  /**
+   * Get a key identifying the device of the audio that the specified job reads.
+   * @param job The job to get a device key for.
+   * @return A key identifying the device of the audio that the specified job reads.
+   */
+  static Object getDeviceKey(final TrackCutterPlan.Job job)
+  {
+    final Object result = job.getSourceFile()==null
+      ? TrackCutterScheduler.UNKNOWN_DEVICE
+      : TrackCutterScheduler.getDeviceKey(job.getSourceFile());
+    return result;
+  }
+  
+  /**
+   * Get a key identifying the device that the specified file is stored on. Files on the same device get equal keys.
+   * @param file The file to get a device key for.
+   * @return A key identifying the device that the specified file is stored on.
+   */
+  static Object getDeviceKey(final File file)
+  {
+    Object result = TrackCutterScheduler.UNKNOWN_DEVICE;
+    // Walk up until we find something that exists, so that files that are yet to be created also get a device.
+    File existingFile = file.getAbsoluteFile();
+    while (existingFile != null && !existingFile.exists())
+    {
+      existingFile = existingFile.getParentFile();
+    }
+    if (existingFile != null)
+    {
+      try
+      {
+        result = Files.getFileStore(existingFile.toPath());
+      }
+      catch (IOException e)
+      {
+        // Can't determine the device, so treat it as unknown.
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Scheduling state of a single device.
+   */
+  private static class DeviceState
+  {
+    /**
+     * Jobs waiting for the device.
+     */
+    private final Queue<Runnable> pendingJobs = new LinkedList<Runnable>();
+    /**
+     * Number of jobs currently running on the device.
+     */
+    private int runningJobs = 0;
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.trackcutter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jwbroek.cuelib.CueSheet.MetaDataField;
+import jwbroek.cuelib.TrackData;
+import jwbroek.cuelib.tools.genrenormalizer.GenreNormalizer;
+
+/**
+ * <p>A file name or command template, such as "&lt;artist&gt;/&lt;album&gt;/&lt;track&gt;_&lt;title&gt;.wav",
+ * compiled into literal and field segments.</p>
+ * <p>Templates are compiled once, and can then be rendered for any number of tracks. The values of the fields are
+ * taken from {@link FieldValues}, which computes the value of every field only once per track. Text between angle
+ * brackets that is not a known field is kept as is. Instances are immutable, and thus safe for concurrent use.</p>
+ * @author jwbroek
+ */
+final class TrackCutterTemplate
+{
+  /**
+   * The fields that can be used in templates.
+   */
+  enum Field
+  {
+    TITLE("<title>"),
+    ARTIST("<artist>"),
+    ALBUM("<album>"),
+    YEAR("<year>"),
+    COMMENT("<comment>"),
+    TRACK("<track>"),
+    GENRE("<genre>"),
+    ID3GENRE("<id3genre>"),
+    ID31GENRE("<id31genre>"),
+    LAMEGENRE("<lamegenre>"),
+    CUT_FILE("<cutFile>"),
+    POST_PROCESS_FILE("<postProcessFile>");
+    
+    /**
+     * The placeholder for the field in templates.
+     */
+    private final String placeholder;
+    
+    /**
+     * Create a new Field.
+     * @param placeholder The placeholder for the field in templates.
+     */
+    private Field(final String placeholder)
+    {
+      this.placeholder = placeholder;
+    }
+  }
+  
+  /**
+   * The fields, by placeholder.
+   */
+  private static final Map<String, Field> fieldsByPlaceholder = new HashMap<String, Field>();
+  
+  static
+  {
+    for (Field field : Field.values())
+    {
+      TrackCutterTemplate.fieldsByPlaceholder.put(field.placeholder, field);
+    }
+  }
+  
+  /**
+   * The literal segments. The literal at index i comes before the field at index i, so there is one more literal
+   * than there are fields. Literals may be empty.
+   */
+  private final String [] literals;
+  /**
+   * The field segments.
+   */
+  private final Field [] fields;
+  /**
+   * The total length of the literal segments.
+   */
+  private final int literalLength;
+  
+  /**
+   * Create a new TrackCutterTemplate.
+   * @param literals The literal segments, one more than there are fields.
+   * @param fields The field segments.
+   */
+  private TrackCutterTemplate(final String [] literals, final Field [] fields)
+  {
+    this.literals = literals;
+    this.fields = fields;
+    int length = 0;
+    for (String literal : literals)
+    {
+      length += literal.length();
+    }
+    this.literalLength = length;
+  }
+  
+  /**
+   * Compile the specified template.
+   * @param template The template to compile.
+   * @return The compiled template.
+   */
+  public static TrackCutterTemplate compile(final String template)
+  {
+    final List<String> literals = new ArrayList<String>();
+    final List<Field> fields = new ArrayList<Field>();
+    final StringBuilder literal = new StringBuilder();
+    int index = 0;
+    
+    while (index < template.length())
+    {
+      final int fieldEnd = template.charAt(index) == '<' ? template.indexOf('>', index) : -1;
+      final Field field = fieldEnd == -1
+        ? null
+        : TrackCutterTemplate.fieldsByPlaceholder.get(template.substring(index, fieldEnd + 1));
+      if (field == null)
+      {
+        literal.append(template.charAt(index));
+        index++;
+      }
+      else
+      {
+        literals.add(literal.toString());
+        literal.setLength(0);
+        fields.add(field);
+        index = fieldEnd + 1;
+      }
+    }
+    literals.add(literal.toString());
+    
+    final TrackCutterTemplate result = new TrackCutterTemplate
+      (literals.toArray(new String[literals.size()]), fields.toArray(new Field[fields.size()]));
+    return result;
+  }
+  
+  /**
+   * Render the template as a file name, with all field values normalized to be valid in file names.
+   * @param values The field values of the track.
+   * @param parentDirectory The parent directory for relative paths. May be null.
+   * @return The file.
+   */
+  public File renderFile(final FieldValues values, final File parentDirectory)
+  {
+    final String fileName = this.render(values, true, null, null);
+    File result = new File(fileName);
+    if (!result.isAbsolute())
+    {
+      result = new File(parentDirectory, fileName);
+    }
+    return result;
+  }
+  
+  /**
+   * Render the template.
+   * @param values The field values of the track.
+   * @param normalize Whether the field values should be normalized to be valid in file names.
+   * @param cutFileName The value for {@link Field#CUT_FILE}. May be null.
+   * @param postProcessFileName The value for {@link Field#POST_PROCESS_FILE}. May be null.
+   * @return The rendered template.
+   */
+  public String render
+    ( final FieldValues values
+    , final boolean normalize
+    , final String cutFileName
+    , final String postProcessFileName
+    )
+  {
+    final String [] fieldValues = new String[this.fields.length];
+    int length = this.literalLength;
+    for (int index = 0; index < this.fields.length; index++)
+    {
+      switch (this.fields[index])
+      {
+        case CUT_FILE:
+          fieldValues[index] = String.valueOf(cutFileName);
+          break;
+        case POST_PROCESS_FILE:
+          fieldValues[index] = String.valueOf(postProcessFileName);
+          break;
+        default:
+          fieldValues[index] = values.get(this.fields[index], normalize);
+          break;
+      }
+      length += fieldValues[index].length();
+    }
+    
+    final StringBuilder builder = new StringBuilder(length);
+    for (int index = 0; index < this.fields.length; index++)
+    {
+      builder.append(this.literals[index]).append(fieldValues[index]);
+    }
+    builder.append(this.literals[this.fields.length]);
+    return builder.toString();
+  }
+  
+  /**
+   * Normalize the specified file name (without path component) so that it will likely be valid on modern
+   * file and operating systems.
+   * @param fileName The file name to normalize. Must not contain a path component.
+   * @return The input file name, normalized to be likely to be valid on modern file and operating systems.
+   */
+  private static String normalizeFileName(final String fileName)
+  {
+    final StringBuilder builder = new StringBuilder(fileName.length());
+    final int length = fileName.length();
+    for (int index = 0; index < length; index++)
+    {
+      char currentChar = fileName.charAt(index);
+      if (currentChar < 32)
+      {
+        // No control characters in file name.
+        builder.append('_');
+      }
+      else
+      {
+        switch (currentChar)
+        {
+          // These characters are likely to be troublesome in file names.
+          case '/':
+          case '\\':
+          case ':':
+          case '*':
+          case '?':
+          case '"':
+          case '|':
+            builder.append('_');
+            break;
+          // Everything else should be okay on modern file system.
+          default:
+            builder.append(currentChar);
+            break;
+        }
+      }
+    }
+    final String result = builder.toString();
+    return result;
+  }
+  
+  /**
+   * <p>The values of the template fields for a single track, both as is and normalized for use in file names.</p>
+   * <p>Values are computed when first needed. Concurrent use may occasionally compute a value more than once, which
+   * is harmless, as the result is always the same immutable String.</p>
+   */
+  static final class FieldValues
+  {
+    /**
+     * The track.
+     */
+    private final TrackData trackData;
+    /**
+     * The values as is, by field ordinal. Null if not yet computed.
+     */
+    private final String [] values = new String[Field.values().length];
+    /**
+     * The values normalized for use in file names, by field ordinal. Null if not yet computed.
+     */
+    private final String [] normalizedValues = new String[Field.values().length];
+    
+    /**
+     * Create a new FieldValues.
+     * @param trackData The track.
+     */
+    public FieldValues(final TrackData trackData)
+    {
+      this.trackData = trackData;
+    }
+    
+    /**
+     * Get the value of the field. Missing values are rendered as "null".
+     * @param field The field. Must not be {@link Field#CUT_FILE} or {@link Field#POST_PROCESS_FILE}.
+     * @param normalize Whether the value should be normalized for use in file names.
+     * @return The value of the field.
+     */
+    public String get(final Field field, final boolean normalize)
+    {
+      final String [] cache = normalize ? this.normalizedValues : this.values;
+      String result = cache[field.ordinal()];
+      if (result == null)
+      {
+        result = String.valueOf(this.getValue(field));
+        if (normalize)
+        {
+          result = normalizeFileName(result);
+        }
+        cache[field.ordinal()] = result;
+      }
+      return result;
+    }
+    
+    /**
+     * Compute the value of the field from the meta data of the track.
+     * @param field The field.
+     * @return The value of the field. May be null.
+     */
+    private String getValue(final Field field)
+    {
+      switch (field)
+      {
+        case TITLE:
+          return this.trackData.getMetaData(MetaDataField.TITLE);
+        case ARTIST:
+          return this.trackData.getMetaData(MetaDataField.PERFORMER);
+        case ALBUM:
+          return this.trackData.getMetaData(MetaDataField.ALBUMTITLE);
+        case YEAR:
+          return this.trackData.getMetaData(MetaDataField.YEAR);
+        case COMMENT:
+          return this.trackData.getMetaData(MetaDataField.COMMENT);
+        case TRACK:
+          return this.trackData.getMetaData(MetaDataField.TRACKNUMBER);
+        case GENRE:
+          return this.trackData.getMetaData(MetaDataField.GENRE);
+        case ID3GENRE:
+          return GenreNormalizer.normalizeGenreDescription
+            (this.trackData.getMetaData(MetaDataField.GENRE), false, false);
+        case ID31GENRE:
+          return GenreNormalizer.normalizeGenreDescription
+            (this.trackData.getMetaData(MetaDataField.GENRE), true, false);
+        case LAMEGENRE:
+          return GenreNormalizer.normalizeGenreDescription
+            (this.trackData.getMetaData(MetaDataField.GENRE), true, true);
+        default:
+          throw new IllegalArgumentException("Field has no value for the track: " + field);
+      }
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.io.EOFException;
+
+/**
+ * Reads values of arbitrary bit length, most significant bit first, from a byte array. Counterpart of
+ * {@link BitWriter}.
+ * @author jwbroek
+ */
+class BitReader
+{
+  /**
+   * The bytes to read from.
+   */
+  private final byte [] data;
+  /**
+   * Offset of the first byte to read.
+   */
+  private final int offset;
+  /**
+   * Offset just beyond the last byte to read.
+   */
+  private final int limit;
+  /**
+   * Offset of the next byte to move into the cache.
+   */
+  private int bytePosition;
+  /**
+   * Bits that have been taken from the data but not read yet, aligned to the most significant bit. Bits beyond
+   * cacheBitCount are always zero.
+   */
+  private long cache = 0;
+  /**
+   * Number of bits in the cache.
+   */
+  private int cacheBitCount = 0;
+  
+  /**
+   * Create a new BitReader.
+   * @param data The bytes to read from.
+   * @param offset Offset of the first byte to read.
+   * @param length Number of bytes that may be read.
+   */
+  public BitReader(final byte [] data, final int offset, final int length)
+  {
+    this.data = data;
+    this.offset = offset;
+    this.limit = offset + length;
+    this.bytePosition = offset;
+  }
+  
+  /**
+   * Read an unsigned value.
+   * @param bitCount The number of bits to read. At most 32.
+   * @return The value read.
+   * @throws EOFException When there are not enough bits left.
+   */
+  public int readBits(final int bitCount) throws EOFException
+  {
+    if (bitCount == 0)
+    {
+      return 0;
+    }
+    this.ensureCache(bitCount);
+    final int result = (int) (this.cache >>> (64 - bitCount));
+    this.cache <<= bitCount;
+    this.cacheBitCount -= bitCount;
+    return result;
+  }
+  
+  /**
+   * Read a signed two's complement value.
+   * @param bitCount The number of bits to read. At most 32.
+   * @return The value read.
+   * @throws EOFException When there are not enough bits left.
+   */
+  public int readSignedBits(final int bitCount) throws EOFException
+  {
+    if (bitCount == 0)
+    {
+      return 0;
+    }
+    final int shift = 32 - bitCount;
+    final int result = (this.readBits(bitCount) << shift) >> shift;
+    return result;
+  }
+  
+  /**
+   * Read a value in unary: the number of zero bits before the next one bit.
+   * @return The value read.
+   * @throws EOFException When there is no one bit left.
+   */
+  public int readUnary() throws EOFException
+  {
+    int result = 0;
+    while (true)
+    {
+      if (this.cacheBitCount == 0)
+      {
+        this.ensureCache(1);
+      }
+      final int leadingZeros = Long.numberOfLeadingZeros(this.cache);
+      if (leadingZeros < this.cacheBitCount)
+      {
+        result += leadingZeros;
+        // Shifting a long by 64 has no effect, so take care of the case where the one bit is the last bit.
+        this.cache = leadingZeros == 63 ? 0 : this.cache << (leadingZeros + 1);
+        this.cacheBitCount -= leadingZeros + 1;
+        return result;
+      }
+      result += this.cacheBitCount;
+      this.cache = 0;
+      this.cacheBitCount = 0;
+    }
+  }
+  
+  /**
+   * Read a signed value coded as a Rice code with the specified parameter.
+   * @param parameter The Rice parameter.
+   * @return The value read.
+   * @throws EOFException When there are not enough bits left.
+   */
+  public int readRice(final int parameter) throws EOFException
+  {
+    final long folded = (((long) this.readUnary()) << parameter) | (this.readBits(parameter) & 0xFFFFFFFFL);
+    final int result = (int) ((folded >>> 1) ^ -(folded & 1));
+    return result;
+  }
+  
+  /**
+   * Read a value with the variable length coding that FLAC uses for frame and sample numbers.
+   * @return The value read, or -1 if the coding is invalid.
+   * @throws EOFException When there are not enough bits left.
+   */
+  public long readUtf8() throws EOFException
+  {
+    final int lead = this.readBits(8);
+    if ((lead & 0x80) == 0)
+    {
+      return lead;
+    }
+    // The number of leading one bits is the total number of bytes.
+    final int byteCount = Integer.numberOfLeadingZeros(~(lead << 24));
+    if (byteCount < 2 || byteCount > 7)
+    {
+      return -1;
+    }
+    long result = lead & (0x7F >> byteCount);
+    for (int index = 1; index < byteCount; index++)
+    {
+      final int continuation = this.readBits(8);
+      if ((continuation & 0xC0) != 0x80)
+      {
+        return -1;
+      }
+      result = (result << 6) | (continuation & 0x3F);
+    }
+    return result;
+  }
+  
+  /**
+   * Skip to the next byte boundary.
+   */
+  public void alignToByte()
+  {
+    final int skip = this.cacheBitCount & 7;
+    this.cache <<= skip;
+    this.cacheBitCount -= skip;
+  }
+  
+  /**
+   * Get the number of complete bytes read so far, counted from the offset. Only meaningful when aligned to a byte
+   * boundary.
+   * @return The number of complete bytes read so far.
+   */
+  public int getBytePosition()
+  {
+    return this.bytePosition - this.offset - this.cacheBitCount / 8;
+  }
+  
+  /**
+   * Make sure the cache holds at least the specified number of bits.
+   * @param bitCount The number of bits required. At most 57.
+   * @throws EOFException When there are not enough bits left.
+   */
+  private void ensureCache(final int bitCount) throws EOFException
+  {
+    if (this.cacheBitCount >= bitCount)
+    {
+      return;
+    }
+    while (this.cacheBitCount <= 56 && this.bytePosition < this.limit)
+    {
+      this.cache |= ((long) (this.data[this.bytePosition++] & 0xFF)) << (56 - this.cacheBitCount);
+      this.cacheBitCount += 8;
+    }
+    if (this.cacheBitCount < bitCount)
+    {
+      throw new EOFException("Unexpected end of FLAC data.");
+    }
+  }
+}
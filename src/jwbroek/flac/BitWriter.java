@@ -0,0 +1,186 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of arbitrary bit length, most significant bit first, into a growable byte array.
+ * @author jwbroek
+ */
+class BitWriter
+{
+  /**
+   * The bytes written so far.
+   */
+  private byte [] buffer;
+  /**
+   * Number of complete bytes in the buffer.
+   */
+  private int byteCount = 0;
+  /**
+   * Bits that have not been written to the buffer yet, in the low bits.
+   */
+  private long pendingBits = 0;
+  /**
+   * Number of bits in pendingBits. Always less than 8 between calls.
+   */
+  private int pendingBitCount = 0;
+  
+  /**
+   * Create a new BitWriter.
+   * @param initialCapacity Initial capacity in bytes.
+   */
+  public BitWriter(final int initialCapacity)
+  {
+    this.buffer = new byte[Math.max(16, initialCapacity)];
+  }
+  
+  /**
+   * Write the lowest bits of the specified value.
+   * @param value The value to write.
+   * @param bitCount The number of bits to write. At most 32.
+   */
+  public void writeBits(final long value, final int bitCount)
+  {
+    if (bitCount == 0)
+    {
+      return;
+    }
+    this.pendingBits = (this.pendingBits << bitCount) | (value & ((1L << bitCount) - 1));
+    this.pendingBitCount += bitCount;
+    this.flushPendingBytes();
+  }
+  
+  /**
+   * Write a value in unary: the specified number of zero bits, followed by a one bit.
+   * @param value The value to write.
+   */
+  public void writeUnary(final int value)
+  {
+    int zeros = value;
+    while (zeros >= 32)
+    {
+      this.writeBits(0, 32);
+      zeros -= 32;
+    }
+    this.writeBits(1, zeros + 1);
+  }
+  
+  /**
+   * Write a signed value as a Rice code with the specified parameter.
+   * @param value The value to write.
+   * @param parameter The Rice parameter.
+   */
+  public void writeRice(final int value, final int parameter)
+  {
+    final long folded = (((long) value) << 1) ^ (((long) value) >> 63);
+    this.writeUnary((int) (folded >>> parameter));
+    this.writeBits(folded, parameter);
+  }
+  
+  /**
+   * Write a value with the variable length coding that FLAC uses for frame numbers.
+   * @param value The value to write.
+   */
+  public void writeUtf8(final long value)
+  {
+    if (value < 0x80)
+    {
+      this.writeBits(value, 8);
+      return;
+    }
+    // Determine the number of continuation bytes.
+    int continuationBytes = 1;
+    while (value >= (1L << (5 * continuationBytes + 6)) && continuationBytes < 6)
+    {
+      continuationBytes++;
+    }
+    final int leadMask = (0xFF00 >> (continuationBytes + 1)) & 0xFF;
+    this.writeBits(leadMask | (value >>> (6 * continuationBytes)), 8);
+    for (int byteIndex = continuationBytes - 1; byteIndex >= 0; byteIndex--)
+    {
+      this.writeBits(0x80 | ((value >>> (6 * byteIndex)) & 0x3F), 8);
+    }
+  }
+  
+  /**
+   * Pad with zero bits up to the next byte boundary.
+   */
+  public void alignToByte()
+  {
+    if (this.pendingBitCount > 0)
+    {
+      this.writeBits(0, 8 - this.pendingBitCount);
+    }
+  }
+  
+  /**
+   * Get the number of bits written so far.
+   * @return The number of bits written so far.
+   */
+  public long getBitCount()
+  {
+    return ((long) this.byteCount) * 8 + this.pendingBitCount;
+  }
+  
+  /**
+   * Get the number of complete bytes written so far.
+   * @return The number of complete bytes written so far.
+   */
+  public int getByteCount()
+  {
+    return this.byteCount;
+  }
+  
+  /**
+   * Get the buffer holding the bytes written so far. Only the first {@link #getByteCount()} bytes are valid.
+   * @return The buffer holding the bytes written so far.
+   */
+  public byte [] getBuffer()
+  {
+    return this.buffer;
+  }
+  
+  /**
+   * Get a copy of the bytes written so far. Should only be called when aligned to a byte boundary.
+   * @return A copy of the bytes written so far.
+   */
+  public byte [] toByteArray()
+  {
+    return Arrays.copyOf(this.buffer, this.byteCount);
+  }
+  
+  /**
+   * Move complete bytes from pendingBits to the buffer.
+   */
+  private void flushPendingBytes()
+  {
+    while (this.pendingBitCount >= 8)
+    {
+      if (this.byteCount == this.buffer.length)
+      {
+        this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+      }
+      this.pendingBitCount -= 8;
+      this.buffer[this.byteCount++] = (byte) (this.pendingBits >>> this.pendingBitCount);
+    }
+    this.pendingBits &= (1L << this.pendingBitCount) - 1;
+  }
+}
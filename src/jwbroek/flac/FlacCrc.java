@@ -0,0 +1,99 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+/**
+ * The CRC-8 and CRC-16 checksums used in FLAC frames.
+ * @author jwbroek
+ */
+final class FlacCrc
+{
+  /**
+   * Table for CRC-8 with polynomial x^8 + x^2 + x^1 + x^0.
+   */
+  private static final int [] CRC8_TABLE = createTable(0x07, 8);
+  /**
+   * Table for CRC-16 with polynomial x^16 + x^15 + x^2 + x^0.
+   */
+  private static final int [] CRC16_TABLE = createTable(0x8005, 16);
+  
+  /**
+   * This class has only static members, so it should not be instantiated.
+   */
+  private FlacCrc()
+  {
+  }
+  
+  /**
+   * Compute the CRC-8 of the specified bytes, as used in FLAC frame headers.
+   * @param bytes The bytes.
+   * @param offset Offset of the first byte.
+   * @param length Number of bytes.
+   * @return The CRC-8 of the specified bytes.
+   */
+  public static int crc8(final byte [] bytes, final int offset, final int length)
+  {
+    int crc = 0;
+    for (int index = offset; index < offset + length; index++)
+    {
+      crc = FlacCrc.CRC8_TABLE[(crc ^ bytes[index]) & 0xFF];
+    }
+    return crc;
+  }
+  
+  /**
+   * Compute the CRC-16 of the specified bytes, as used in FLAC frame footers.
+   * @param bytes The bytes.
+   * @param offset Offset of the first byte.
+   * @param length Number of bytes.
+   * @return The CRC-16 of the specified bytes.
+   */
+  public static int crc16(final byte [] bytes, final int offset, final int length)
+  {
+    int crc = 0;
+    for (int index = offset; index < offset + length; index++)
+    {
+      crc = ((crc << 8) ^ FlacCrc.CRC16_TABLE[((crc >>> 8) ^ bytes[index]) & 0xFF]) & 0xFFFF;
+    }
+    return crc;
+  }
+  
+  /**
+   * Create a lookup table for a most significant bit first CRC.
+   * @param polynomial The polynomial, without the highest term.
+   * @param width The width of the CRC in bits.
+   * @return A lookup table for the CRC.
+   */
+  private static int [] createTable(final int polynomial, final int width)
+  {
+    final int [] table = new int[256];
+    final int topBit = 1 << (width - 1);
+    final int mask = (1 << width) - 1;
+    for (int value = 0; value < 256; value++)
+    {
+      int crc = value << (width - 8);
+      for (int bit = 0; bit < 8; bit++)
+      {
+        crc = ((crc & topBit) != 0) ? (crc << 1) ^ polynomial : crc << 1;
+      }
+      table[value] = crc & mask;
+    }
+    return table;
+  }
+}
@@ -0,0 +1,599 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>Pure Java decoder for FLAC files, with random access to samples.</p>
+ * <p>Streams can be opened from any sample through {@link #openStream(long, long)}. The frame holding that sample is
+ * found through the SEEKTABLE if there is one, narrowed down by a binary search over frame headers. Each stream
+ * reads the file independently, so several streams of the same decoder can be used concurrently, for instance to
+ * decode all tracks of an image in parallel.</p>
+ * <p>Decoded audio is signed little-endian PCM. Sample sizes that are not a multiple of 8 bits are padded to the
+ * next multiple of 8 bits.</p>
+ * @author jwbroek
+ */
+public class FlacDecoder implements Closeable
+{
+  /**
+   * Metadata block type of STREAMINFO.
+   */
+  private static final int BLOCK_STREAMINFO = 0;
+  /**
+   * Metadata block type of SEEKTABLE.
+   */
+  private static final int BLOCK_SEEKTABLE = 3;
+  /**
+   * Sample number of a placeholder seek point.
+   */
+  private static final long PLACEHOLDER_SEEK_POINT = 0xFFFFFFFFFFFFFFFFL;
+  /**
+   * Number of bytes to read at a time when scanning for frame headers.
+   */
+  private static final int SCAN_BUFFER_SIZE = 1 << 16;
+  /**
+   * Maximum length of a frame header.
+   */
+  private static final int MAX_HEADER_LENGTH = 16;
+  
+  /**
+   * The file being decoded.
+   */
+  private final File file;
+  /**
+   * Channel for reading the file. Only positional reads are used, so it can be shared by streams.
+   */
+  private final FileChannel channel;
+  /**
+   * Length of the file.
+   */
+  private final long fileLength;
+  /**
+   * Offset of the first frame in the file.
+   */
+  private final long audioOffset;
+  /**
+   * Minimum number of samples per channel in a block.
+   */
+  private final int minBlockSize;
+  /**
+   * Maximum number of samples per channel in a block.
+   */
+  private final int maxBlockSize;
+  /**
+   * Maximum frame size in bytes, or 0 if not known.
+   */
+  private final int maxFrameSize;
+  /**
+   * Sample rate in Hz.
+   */
+  private final int sampleRate;
+  /**
+   * Number of channels.
+   */
+  private final int channels;
+  /**
+   * Number of bits per sample.
+   */
+  private final int bitsPerSample;
+  /**
+   * Total number of samples per channel, or 0 if not known.
+   */
+  private final long totalSamples;
+  /**
+   * MD5 signature of the unencoded audio, or all zeroes if not known.
+   */
+  private final byte [] md5Signature;
+  /**
+   * Sample numbers of the seek points, in ascending order.
+   */
+  private final long [] seekPointSamples;
+  /**
+   * Offsets of the seek points in the file.
+   */
+  private final long [] seekPointOffsets;
+  /**
+   * Format of the decoded audio.
+   */
+  private final AudioFormat audioFormat;
+  
+  /**
+   * Open the specified FLAC file and read its metadata.
+   * @param file The file to decode.
+   * @throws IOException When the file could not be read, or is not a FLAC file.
+   */
+  public FlacDecoder(final File file) throws IOException
+  {
+    this.file = file;
+    this.channel = new RandomAccessFile(file, "r").getChannel();
+    
+    try
+    {
+      this.fileLength = this.channel.size();
+      long position = FlacDecoder.getStreamOffset(this.channel);
+      if (position < 0)
+      {
+        throw new IOException("Not a FLAC file: " + file);
+      }
+      position += 4;
+      
+      byte [] streamInfo = null;
+      final List<long []> seekPoints = new ArrayList<long []>();
+      boolean lastBlock = false;
+      while (!lastBlock)
+      {
+        final byte [] blockHeader = this.read(position, 4);
+        lastBlock = (blockHeader[0] & 0x80) != 0;
+        final int blockType = blockHeader[0] & 0x7F;
+        final int blockLength =
+          ((blockHeader[1] & 0xFF) << 16) | ((blockHeader[2] & 0xFF) << 8) | (blockHeader[3] & 0xFF);
+        position += 4;
+        if (blockType == FlacDecoder.BLOCK_STREAMINFO)
+        {
+          streamInfo = this.read(position, blockLength);
+        }
+        else if (blockType == FlacDecoder.BLOCK_SEEKTABLE)
+        {
+          final byte [] seekTable = this.read(position, blockLength);
+          final BitReader reader = new BitReader(seekTable, 0, seekTable.length);
+          for (int index = 0; index + 18 <= blockLength; index += 18)
+          {
+            final long sample = FlacDecoder.readLong(reader);
+            final long offset = FlacDecoder.readLong(reader);
+            reader.readBits(16);
+            if (sample != FlacDecoder.PLACEHOLDER_SEEK_POINT)
+            {
+              seekPoints.add(new long [] {sample, offset});
+            }
+          }
+        }
+        position += blockLength;
+      }
+      this.audioOffset = position;
+      
+      if (streamInfo == null || streamInfo.length < 34)
+      {
+        throw new IOException("FLAC file has no valid STREAMINFO block: " + file);
+      }
+      final BitReader reader = new BitReader(streamInfo, 0, streamInfo.length);
+      this.minBlockSize = reader.readBits(16);
+      this.maxBlockSize = reader.readBits(16);
+      reader.readBits(24);
+      this.maxFrameSize = reader.readBits(24);
+      this.sampleRate = reader.readBits(20);
+      this.channels = reader.readBits(3) + 1;
+      this.bitsPerSample = reader.readBits(5) + 1;
+      this.totalSamples = (((long) reader.readBits(4)) << 32) | (reader.readBits(32) & 0xFFFFFFFFL);
+      this.md5Signature = new byte[16];
+      System.arraycopy(streamInfo, 18, this.md5Signature, 0, 16);
+      
+      this.seekPointSamples = new long[seekPoints.size()];
+      this.seekPointOffsets = new long[seekPoints.size()];
+      for (int index = 0; index < seekPoints.size(); index++)
+      {
+        this.seekPointSamples[index] = seekPoints.get(index)[0];
+        this.seekPointOffsets[index] = this.audioOffset + seekPoints.get(index)[1];
+      }
+      
+      final int bytesPerSample = (this.bitsPerSample + 7) / 8;
+      this.audioFormat = new AudioFormat(this.sampleRate, bytesPerSample * 8, this.channels, true, false);
+    }
+    catch (IOException e)
+    {
+      this.channel.close();
+      throw e;
+    }
+  }
+  
+  /**
+   * Determine whether the specified file is a FLAC file, possibly preceded by an ID3v2 tag.
+   * @param file The file to check.
+   * @return True if the file is a FLAC file, false otherwise.
+   */
+  public static boolean isFlacFile(final File file)
+  {
+    boolean result = false;
+    try
+    {
+      final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try
+      {
+        result = FlacDecoder.getStreamOffset(randomAccessFile.getChannel()) >= 0;
+      }
+      finally
+      {
+        randomAccessFile.close();
+      }
+    }
+    catch (IOException e)
+    {
+      // Not readable, so not a FLAC file as far as we are concerned.
+    }
+    return result;
+  }
+  
+  /**
+   * Get the offset of the "fLaC" marker, skipping any ID3v2 tag in front of it.
+   * @param channel The channel to read from.
+   * @return The offset of the "fLaC" marker, or -1 if there is none.
+   * @throws IOException When the channel could not be read.
+   */
+  private static long getStreamOffset(final FileChannel channel) throws IOException
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(10);
+    long offset = 0;
+    channel.read(buffer, 0);
+    if (buffer.position() == 10 && buffer.get(0) == 'I' && buffer.get(1) == 'D' && buffer.get(2) == '3')
+    {
+      // Synchsafe tag size, plus header and optional footer.
+      final int tagSize = ((buffer.get(6) & 0x7F) << 21) | ((buffer.get(7) & 0x7F) << 14)
+        | ((buffer.get(8) & 0x7F) << 7) | (buffer.get(9) & 0x7F);
+      offset = 10 + tagSize + ((buffer.get(5) & 0x10) != 0 ? 10 : 0);
+      buffer.clear();
+      channel.read(buffer, offset);
+    }
+    if (buffer.position() >= 4 && buffer.get(0) == 'f' && buffer.get(1) == 'L' && buffer.get(2) == 'a'
+      && buffer.get(3) == 'C')
+    {
+      return offset;
+    }
+    return -1;
+  }
+  
+  /**
+   * Read a 64 bit value.
+   * @param reader The reader to read from.
+   * @return The value read.
+   * @throws EOFException When there are not enough bits left.
+   */
+  private static long readLong(final BitReader reader) throws EOFException
+  {
+    final long result = (((long) reader.readBits(32)) << 32) | (reader.readBits(32) & 0xFFFFFFFFL);
+    return result;
+  }
+  
+  /**
+   * Open a stream of decoded audio.
+   * @param startSample The number of the first sample per channel to decode.
+   * @param endSample The number of the sample per channel just beyond the last one to decode, or -1 to decode until
+   * the end.
+   * @return A stream of decoded audio, in the format returned by {@link #getAudioFormat()}.
+   * @throws IOException When the start sample could not be found.
+   */
+  public FlacInputStream openStream(final long startSample, final long endSample) throws IOException
+  {
+    final FlacInputStream result = new FlacInputStream(this, startSample, endSample);
+    return result;
+  }
+  
+  /**
+   * Get an AudioInputStream of decoded audio.
+   * @param startSample The number of the first sample per channel to decode.
+   * @param endSample The number of the sample per channel just beyond the last one to decode, or -1 to decode until
+   * the end.
+   * @return An AudioInputStream of decoded audio.
+   * @throws IOException When the start sample could not be found.
+   */
+  public AudioInputStream getAudioInputStream(final long startSample, final long endSample) throws IOException
+  {
+    long length = AudioSystem.NOT_SPECIFIED;
+    if (endSample >= 0)
+    {
+      length = Math.max(0, endSample - startSample);
+    }
+    else if (this.totalSamples > 0)
+    {
+      length = Math.max(0, this.totalSamples - startSample);
+    }
+    final AudioInputStream result =
+      new AudioInputStream(this.openStream(startSample, endSample), this.audioFormat, length);
+    return result;
+  }
+  
+  /**
+   * Find the frame that holds the specified sample. Starts from the nearest seek point, narrows down by binary
+   * search over frame headers, and finishes by stepping through frame headers.
+   * @param targetSample The sample to find.
+   * @return The offset of the frame in the file, or the file length if the sample lies beyond the last frame.
+   * @throws IOException When the file could not be read.
+   */
+  long findFrame(final long targetSample) throws IOException
+  {
+    long low = this.audioOffset;
+    long high = this.fileLength;
+    
+    // Use the seek table to bound the search.
+    for (int index = 0; index < this.seekPointSamples.length; index++)
+    {
+      if (this.seekPointSamples[index] <= targetSample)
+      {
+        low = Math.max(low, this.seekPointOffsets[index]);
+      }
+      else
+      {
+        high = Math.min(high, this.seekPointOffsets[index]);
+      }
+    }
+    FrameDecoder.Header lowHeader = this.readHeaderAt(low);
+    if (lowHeader == null || lowHeader.getFirstSample() > targetSample || high <= low)
+    {
+      // The seek table is not to be trusted.
+      low = this.audioOffset;
+      high = this.fileLength;
+      lowHeader = this.readHeaderAt(low);
+      if (lowHeader == null)
+      {
+        throw new IOException("No FLAC frame at start of audio in " + this.file);
+      }
+    }
+    
+    // Binary search. Invariant: the frame holding the target starts at or after low, and before high.
+    final int closeEnough = Math.max(FlacDecoder.SCAN_BUFFER_SIZE, 2 * this.maxFrameSize);
+    while (high - low > closeEnough)
+    {
+      final long middle = low + (high - low) / 2;
+      final long [] found = this.findNextHeader(middle, high);
+      if (found == null || found[1] > targetSample)
+      {
+        // No frame starts between middle and the found frame, so the target frame starts before middle.
+        high = middle;
+      }
+      else
+      {
+        low = found[0];
+        lowHeader = this.readHeaderAt(low);
+      }
+    }
+    
+    // Step through the remaining frames.
+    long result = low;
+    while (lowHeader.getFirstSample() + lowHeader.getBlockSize() <= targetSample)
+    {
+      final long expectedSample = lowHeader.getFirstSample() + lowHeader.getBlockSize();
+      long searchFrom = result + 1;
+      long [] found;
+      do
+      {
+        found = this.findNextHeader(searchFrom, this.fileLength);
+        if (found != null)
+        {
+          searchFrom = found[0] + 1;
+        }
+      }
+      while (found != null && found[1] != expectedSample);
+      if (found == null)
+      {
+        return this.fileLength;
+      }
+      result = found[0];
+      lowHeader = this.readHeaderAt(result);
+    }
+    return result;
+  }
+  
+  /**
+   * Find the next valid frame header at or after the specified offset.
+   * @param from The offset to start looking from.
+   * @param limit The offset before which the frame must start.
+   * @return The offset and the first sample of the frame found, or null if there is none.
+   * @throws IOException When the file could not be read.
+   */
+  private long [] findNextHeader(final long from, final long limit) throws IOException
+  {
+    long position = from;
+    while (position < limit)
+    {
+      final int length = (int) Math.min
+        (FlacDecoder.SCAN_BUFFER_SIZE + FlacDecoder.MAX_HEADER_LENGTH, this.fileLength - position);
+      final byte [] buffer = this.read(position, length);
+      final int scanLength = (int) Math.min(FlacDecoder.SCAN_BUFFER_SIZE, limit - position);
+      for (int index = 0; index < scanLength && index + 1 < length; index++)
+      {
+        if (buffer[index] == (byte) 0xFF && (buffer[index + 1] & 0xFE) == 0xF8)
+        {
+          final FrameDecoder.Header header = FrameDecoder.readHeader(buffer, index, length - index, this);
+          // Guard against false sync codes in the audio data.
+          if ( header != null
+            && header.getSampleRate() == this.sampleRate
+            && header.getBitsPerSample() == this.bitsPerSample
+            && (this.totalSamples == 0 || header.getFirstSample() < this.totalSamples)
+             )
+          {
+            return new long [] {position + index, header.getFirstSample()};
+          }
+        }
+      }
+      position += scanLength;
+    }
+    return null;
+  }
+  
+  /**
+   * Read the frame header at the specified offset.
+   * @param offset The offset of the frame.
+   * @return The header, or null if there is no valid frame header at the specified offset.
+   * @throws IOException When the file could not be read.
+   */
+  private FrameDecoder.Header readHeaderAt(final long offset) throws IOException
+  {
+    final int length = (int) Math.min(FlacDecoder.MAX_HEADER_LENGTH, this.fileLength - offset);
+    if (length <= 0)
+    {
+      return null;
+    }
+    final byte [] buffer = this.read(offset, length);
+    final FrameDecoder.Header result = FrameDecoder.readHeader(buffer, 0, length, this);
+    return result;
+  }
+  
+  /**
+   * Read bytes from the file. Safe for concurrent use.
+   * @param position The offset in the file to read from.
+   * @param length The number of bytes to read.
+   * @return The bytes read.
+   * @throws IOException When the file could not be read, or holds fewer bytes.
+   */
+  private byte [] read(final long position, final int length) throws IOException
+  {
+    final byte [] result = new byte[length];
+    this.read(position, result, 0, length);
+    return result;
+  }
+  
+  /**
+   * Read bytes from the file. Safe for concurrent use.
+   * @param position The offset in the file to read from.
+   * @param buffer The buffer to read into.
+   * @param offset The offset in the buffer to read into.
+   * @param length The number of bytes to read.
+   * @throws IOException When the file could not be read, or holds fewer bytes.
+   */
+  void read(final long position, final byte [] buffer, final int offset, final int length) throws IOException
+  {
+    final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+    while (byteBuffer.hasRemaining())
+    {
+      if (this.channel.read(byteBuffer, position + byteBuffer.position() - offset) < 0)
+      {
+        throw new EOFException("Unexpected end of FLAC file: " + this.file);
+      }
+    }
+  }
+  
+  /**
+   * Close the file. Streams opened from this decoder can no longer be read afterward.
+   * @throws IOException When the file could not be closed.
+   */
+  public void close() throws IOException
+  {
+    this.channel.close();
+  }
+  
+  /**
+   * Get the format of the decoded audio.
+   * @return The format of the decoded audio.
+   */
+  public AudioFormat getAudioFormat()
+  {
+    return this.audioFormat;
+  }
+  
+  /**
+   * Get the total number of samples per channel.
+   * @return The total number of samples per channel, or 0 if not known.
+   */
+  public long getTotalSamples()
+  {
+    return this.totalSamples;
+  }
+  
+  /**
+   * Get the MD5 signature of the unencoded audio.
+   * @return The MD5 signature of the unencoded audio, or all zeroes if not known.
+   */
+  public byte [] getMd5Signature()
+  {
+    return this.md5Signature.clone();
+  }
+  
+  /**
+   * Get the offset of the first frame in the file.
+   * @return The offset of the first frame in the file.
+   */
+  public long getAudioOffset()
+  {
+    return this.audioOffset;
+  }
+  
+  /**
+   * Get the length of the file.
+   * @return The length of the file.
+   */
+  public long getFileLength()
+  {
+    return this.fileLength;
+  }
+  
+  /**
+   * Get the minimum number of samples per channel in a block.
+   * @return The minimum number of samples per channel in a block.
+   */
+  public int getMinBlockSize()
+  {
+    return this.minBlockSize;
+  }
+  
+  /**
+   * Get the maximum number of samples per channel in a block.
+   * @return The maximum number of samples per channel in a block.
+   */
+  public int getMaxBlockSize()
+  {
+    return this.maxBlockSize;
+  }
+  
+  /**
+   * Get the maximum frame size in bytes.
+   * @return The maximum frame size in bytes, or 0 if not known.
+   */
+  public int getMaxFrameSize()
+  {
+    return this.maxFrameSize;
+  }
+  
+  /**
+   * Get the sample rate in Hz.
+   * @return The sample rate in Hz.
+   */
+  public int getSampleRate()
+  {
+    return this.sampleRate;
+  }
+  
+  /**
+   * Get the number of channels.
+   * @return The number of channels.
+   */
+  public int getChannels()
+  {
+    return this.channels;
+  }
+  
+  /**
+   * Get the number of bits per sample.
+   * @return The number of bits per sample.
+   */
+  public int getBitsPerSample()
+  {
+    return this.bitsPerSample;
+  }
+}
@@ -0,0 +1,699 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>Pure Java FLAC encoder.</p>
+ * <p>Input is read sequentially in blocks, and the blocks are encoded into frames concurrently on an
+ * {@link Executor}. Frames are written in order as they become available. Only a bounded number of blocks is in
+ * flight at any time, so memory use does not depend on the length of the input.</p>
+ * <p>When encoding to a file, the STREAMINFO block (total samples, frame sizes, MD5 signature) and a SEEKTABLE are
+ * filled in after encoding. When encoding to a stream, these can not be filled in, so the STREAMINFO block leaves
+ * them unknown and no SEEKTABLE is written.</p>
+ * <p>Subframes use constant, verbatim, or fixed prediction coding; there is no LPC. This gives less compression than
+ * the reference encoder, but is cheap enough to keep up with cutting.</p>
+ * @author jwbroek
+ */
+public class FlacEncoder
+{
+  /**
+   * The FLAC file type. Not supported by {@link AudioSystem#write(AudioInputStream, AudioFileFormat.Type, File)},
+   * but by this encoder.
+   */
+  public static final AudioFileFormat.Type FLAC = new AudioFileFormat.Type("FLAC", "flac");
+  /**
+   * Default number of samples per channel in a block.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 4096;
+  /**
+   * Vendor string written in the VORBIS_COMMENT block.
+   */
+  private static final String VENDOR = "jwbroek.flac";
+  /**
+   * Number of seconds between seek points.
+   */
+  private static final int SEEK_POINT_INTERVAL_SECONDS = 10;
+  /**
+   * Number of seek points to reserve when the length of the input is not known in advance. Enough for an hour.
+   */
+  private static final int DEFAULT_SEEK_POINT_COUNT = 360;
+  /**
+   * Sample number of a placeholder seek point.
+   */
+  private static final long PLACEHOLDER_SEEK_POINT = 0xFFFFFFFFFFFFFFFFL;
+  /**
+   * Metadata block type of STREAMINFO.
+   */
+  private static final int BLOCK_STREAMINFO = 0;
+  /**
+   * Metadata block type of SEEKTABLE.
+   */
+  private static final int BLOCK_SEEKTABLE = 3;
+  /**
+   * Metadata block type of VORBIS_COMMENT.
+   */
+  private static final int BLOCK_VORBIS_COMMENT = 4;
+  /**
+   * Length of the STREAMINFO block, excluding its header.
+   */
+  private static final int STREAMINFO_LENGTH = 34;
+  /**
+   * Length of a single seek point.
+   */
+  private static final int SEEK_POINT_LENGTH = 18;
+  
+  /**
+   * The executor on which blocks are encoded.
+   */
+  private final Executor executor;
+  /**
+   * Number of samples per channel in a block.
+   */
+  private final int blockSize;
+  /**
+   * Maximum number of blocks that are being encoded at any time.
+   */
+  private final int maxBlocksInFlight;
+  
+  /**
+   * Create a new FlacEncoder that encodes blocks on the common fork/join pool.
+   */
+  public FlacEncoder()
+  {
+    this(ForkJoinPool.commonPool());
+  }
+  
+  /**
+   * Create a new FlacEncoder that encodes blocks on the specified executor.
+   * @param executor The executor on which to encode blocks.
+   */
+  public FlacEncoder(final Executor executor)
+  {
+    this(executor, FlacEncoder.DEFAULT_BLOCK_SIZE, 4 * Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Create a new FlacEncoder.
+   * @param executor The executor on which to encode blocks.
+   * @param blockSize The number of samples per channel in a block. Must be between 16 and 65535.
+   * @param maxBlocksInFlight The maximum number of blocks that are being encoded at any time.
+   * @throws IllegalArgumentException When the block size or maximum number of blocks is out of range.
+   */
+  public FlacEncoder(final Executor executor, final int blockSize, final int maxBlocksInFlight)
+    throws IllegalArgumentException
+  {
+    if (blockSize < 16 || blockSize > 65535)
+    {
+      throw new IllegalArgumentException("Block size must be between 16 and 65535, but was " + blockSize + ".");
+    }
+    if (maxBlocksInFlight < 1)
+    {
+      throw new IllegalArgumentException("Must allow at least one block in flight.");
+    }
+    this.executor = executor;
+    this.blockSize = blockSize;
+    this.maxBlocksInFlight = maxBlocksInFlight;
+  }
+  
+  /**
+   * Encode the specified audio to a FLAC file, including a filled in STREAMINFO block and a SEEKTABLE.
+   * @param audioInputStream The audio to encode. Will be read until the end, but not closed.
+   * @param file The file to write to. Will be overwritten if it exists.
+   * @param comments Vorbis comments, in the form "NAME=value". May be null.
+   * @return The number of bytes written.
+   * @throws IOException When the audio could not be read or encoded, or the file could not be written.
+   */
+  public long encode(final AudioInputStream audioInputStream, final File file, final List<String> comments)
+    throws IOException
+  {
+    final AudioInputStream pcmStream = FlacEncoder.toSupportedFormat(audioInputStream);
+    final AudioFormat format = pcmStream.getFormat();
+    
+    // Reserve room for a seek point every so many seconds.
+    final long seekPointInterval = ((long) FlacEncoder.SEEK_POINT_INTERVAL_SECONDS) * (long) format.getSampleRate();
+    final int seekPointCount;
+    if (pcmStream.getFrameLength() == AudioSystem.NOT_SPECIFIED)
+    {
+      seekPointCount = FlacEncoder.DEFAULT_SEEK_POINT_COUNT;
+    }
+    else
+    {
+      seekPointCount = (int) Math.min(65535 / FlacEncoder.SEEK_POINT_LENGTH
+        , (pcmStream.getFrameLength() + seekPointInterval - 1) / seekPointInterval);
+    }
+    
+    final EncodingState state = new EncodingState(format, seekPointInterval);
+    final byte [] header = this.createHeader(state, seekPointCount, comments);
+    
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+    try
+    {
+      out.write(header);
+      this.encodeFrames(pcmStream, state, out);
+    }
+    finally
+    {
+      out.close();
+    }
+    
+    // Now that all frames are known, fill in the STREAMINFO block and the SEEKTABLE.
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try
+    {
+      randomAccessFile.seek(4 + 4);
+      randomAccessFile.write(FlacEncoder.createStreamInfo(state));
+      if (seekPointCount > 0)
+      {
+        randomAccessFile.seek(4 + 4 + FlacEncoder.STREAMINFO_LENGTH + 4);
+        randomAccessFile.write(FlacEncoder.createSeekPoints(state, seekPointCount));
+      }
+    }
+    finally
+    {
+      randomAccessFile.close();
+    }
+    
+    final long result = header.length + state.frameBytes;
+    return result;
+  }
+  
+  /**
+   * Encode the specified audio to a FLAC stream. As the stream can not be rewound, the STREAMINFO block will not
+   * contain the total number of samples, the frame sizes, or the MD5 signature, and there will be no SEEKTABLE.
+   * @param audioInputStream The audio to encode. Will be read until the end, but not closed.
+   * @param outputStream The stream to write to. Will not be closed.
+   * @param comments Vorbis comments, in the form "NAME=value". May be null.
+   * @return The number of bytes written.
+   * @throws IOException When the audio could not be read or encoded, or the stream could not be written.
+   */
+  public long encode(final AudioInputStream audioInputStream, final OutputStream outputStream
+    , final List<String> comments) throws IOException
+  {
+    final AudioInputStream pcmStream = FlacEncoder.toSupportedFormat(audioInputStream);
+    final EncodingState state = new EncodingState(pcmStream.getFormat(), 0);
+    final byte [] header = this.createHeader(state, 0, comments);
+    
+    outputStream.write(header);
+    this.encodeFrames(pcmStream, state, outputStream);
+    outputStream.flush();
+    
+    final long result = header.length + state.frameBytes;
+    return result;
+  }
+  
+  /**
+   * Get a stream of the specified audio in a format that can be encoded. The audio is converted to 16 bit signed
+   * PCM if it is not already in a supported PCM format.
+   * @param audioInputStream The audio to encode.
+   * @return A stream of the specified audio in a format that can be encoded.
+   * @throws IOException When the audio can not be converted to a format that can be encoded.
+   */
+  private static AudioInputStream toSupportedFormat(final AudioInputStream audioInputStream) throws IOException
+  {
+    final AudioFormat format = audioInputStream.getFormat();
+    if ( ( AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+        || AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding())
+         )
+      && (format.getSampleSizeInBits() == 8 || format.getSampleSizeInBits() == 16 || format.getSampleSizeInBits() == 24)
+      && format.getChannels() >= 1 && format.getChannels() <= 8
+      && format.getFrameSize() == format.getChannels() * format.getSampleSizeInBits() / 8
+      && format.getSampleRate() > 0 && format.getSampleRate() < (1 << 20)
+       )
+    {
+      return audioInputStream;
+    }
+    
+    final AudioFormat targetFormat = new AudioFormat
+      ( AudioFormat.Encoding.PCM_SIGNED
+      , format.getSampleRate()
+      , 16
+      , format.getChannels()
+      , format.getChannels() * 2
+      , format.getSampleRate()
+      , false
+      );
+    try
+    {
+      return AudioSystem.getAudioInputStream(targetFormat, audioInputStream);
+    }
+    catch (IllegalArgumentException e)
+    {
+      final IOException exception = new IOException("Can not encode audio in format " + format + " as FLAC.");
+      exception.initCause(e);
+      throw exception;
+    }
+  }
+  
+  /**
+   * Create the "fLaC" marker and all metadata blocks. The STREAMINFO block and SEEKTABLE are filled in as far as
+   * currently known.
+   * @param state The state of the encoding.
+   * @param seekPointCount The number of seek points to reserve room for.
+   * @param comments Vorbis comments, in the form "NAME=value". May be null.
+   * @return The "fLaC" marker and all metadata blocks.
+   */
+  private byte [] createHeader(final EncodingState state, final int seekPointCount, final List<String> comments)
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write('f');
+    out.write('L');
+    out.write('a');
+    out.write('C');
+    
+    FlacEncoder.writeBlockHeader(out, false, FlacEncoder.BLOCK_STREAMINFO, FlacEncoder.STREAMINFO_LENGTH);
+    out.write(FlacEncoder.createStreamInfo(state), 0, FlacEncoder.STREAMINFO_LENGTH);
+    
+    if (seekPointCount > 0)
+    {
+      FlacEncoder.writeBlockHeader
+        (out, false, FlacEncoder.BLOCK_SEEKTABLE, seekPointCount * FlacEncoder.SEEK_POINT_LENGTH);
+      final byte [] seekPoints = FlacEncoder.createSeekPoints(state, seekPointCount);
+      out.write(seekPoints, 0, seekPoints.length);
+    }
+    
+    final ByteArrayOutputStream commentOut = new ByteArrayOutputStream();
+    FlacEncoder.writeVorbisString(commentOut, FlacEncoder.VENDOR);
+    final List<String> commentList = comments == null ? Collections.<String>emptyList() : comments;
+    FlacEncoder.writeLittleEndianInt(commentOut, commentList.size());
+    for (String comment : commentList)
+    {
+      FlacEncoder.writeVorbisString(commentOut, comment);
+    }
+    FlacEncoder.writeBlockHeader(out, true, FlacEncoder.BLOCK_VORBIS_COMMENT, commentOut.size());
+    out.write(commentOut.toByteArray(), 0, commentOut.size());
+    
+    return out.toByteArray();
+  }
+  
+  /**
+   * Create the contents of the STREAMINFO block, as far as currently known.
+   * @param state The state of the encoding.
+   * @return The contents of the STREAMINFO block.
+   */
+  private static byte [] createStreamInfo(final EncodingState state)
+  {
+    final BitWriter writer = new BitWriter(FlacEncoder.STREAMINFO_LENGTH);
+    writer.writeBits(state.blockSize, 16);
+    writer.writeBits(state.blockSize, 16);
+    writer.writeBits(state.frameCount == 0 ? 0 : state.minFrameSize, 24);
+    writer.writeBits(state.maxFrameSize, 24);
+    writer.writeBits(state.sampleRate, 20);
+    writer.writeBits(state.channels - 1, 3);
+    writer.writeBits(state.bitsPerSample - 1, 5);
+    writer.writeBits(state.totalSamples >>> 32, 4);
+    writer.writeBits(state.totalSamples, 32);
+    final byte [] md5 = state.md5Signature == null ? new byte[16] : state.md5Signature;
+    for (byte md5Byte : md5)
+    {
+      writer.writeBits(md5Byte, 8);
+    }
+    return writer.toByteArray();
+  }
+  
+  /**
+   * Create the seek points for the SEEKTABLE, as far as currently known. If there are more seek points than
+   * room, they are thinned out evenly. Remaining room is filled with placeholders.
+   * @param state The state of the encoding.
+   * @param seekPointCount The number of seek points to create.
+   * @return The seek points.
+   */
+  private static byte [] createSeekPoints(final EncodingState state, final int seekPointCount)
+  {
+    final BitWriter writer = new BitWriter(seekPointCount * FlacEncoder.SEEK_POINT_LENGTH);
+    final int available = state.seekPoints.size();
+    final int used = Math.min(available, seekPointCount);
+    for (int index = 0; index < used; index++)
+    {
+      final long [] seekPoint = state.seekPoints.get((int) (((long) index) * available / used));
+      writer.writeBits(seekPoint[0] >>> 32, 32);
+      writer.writeBits(seekPoint[0], 32);
+      writer.writeBits(seekPoint[1] >>> 32, 32);
+      writer.writeBits(seekPoint[1], 32);
+      writer.writeBits(seekPoint[2], 16);
+    }
+    for (int index = used; index < seekPointCount; index++)
+    {
+      writer.writeBits(FlacEncoder.PLACEHOLDER_SEEK_POINT >>> 32, 32);
+      writer.writeBits(FlacEncoder.PLACEHOLDER_SEEK_POINT, 32);
+      writer.writeBits(0, 32);
+      writer.writeBits(0, 32);
+      writer.writeBits(0, 16);
+    }
+    return writer.toByteArray();
+  }
+  
+  /**
+   * Write a metadata block header.
+   * @param out The stream to write to.
+   * @param last Whether this is the last metadata block.
+   * @param type The type of the block.
+   * @param length The length of the block, excluding the header.
+   */
+  private static void writeBlockHeader(final ByteArrayOutputStream out, final boolean last, final int type
+    , final int length)
+  {
+    out.write((last ? 0x80 : 0) | type);
+    out.write(length >>> 16);
+    out.write(length >>> 8);
+    out.write(length);
+  }
+  
+  /**
+   * Write a length-prefixed UTF-8 string, as used in the VORBIS_COMMENT block.
+   * @param out The stream to write to.
+   * @param value The string to write.
+   */
+  private static void writeVorbisString(final ByteArrayOutputStream out, final String value)
+  {
+    final byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+    FlacEncoder.writeLittleEndianInt(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+  
+  /**
+   * Write a 32 bit little-endian integer, as used in the VORBIS_COMMENT block.
+   * @param out The stream to write to.
+   * @param value The value to write.
+   */
+  private static void writeLittleEndianInt(final ByteArrayOutputStream out, final int value)
+  {
+    out.write(value);
+    out.write(value >>> 8);
+    out.write(value >>> 16);
+    out.write(value >>> 24);
+  }
+  
+  /**
+   * Read the audio in blocks, encode the blocks on the executor, and write the frames in order.
+   * @param pcmStream The audio to encode. Must be in a supported format.
+   * @param state The state of the encoding. Will be updated with the frames written.
+   * @param out The stream to write the frames to.
+   * @throws IOException When the audio could not be read or encoded, or the frames could not be written.
+   */
+  private void encodeFrames(final InputStream pcmStream, final EncodingState state, final OutputStream out)
+    throws IOException
+  {
+    final MessageDigest md5;
+    try
+    {
+      md5 = MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      // Every Java platform is required to support MD5.
+      throw new IllegalStateException(e);
+    }
+    
+    final Deque<FutureTask<byte []>> framesInFlight = new ArrayDeque<FutureTask<byte []>>();
+    final Deque<Integer> blockSizesInFlight = new ArrayDeque<Integer>();
+    final byte [] buffer = new byte[state.blockSize * state.frameSize];
+    long frameNumber = 0;
+    
+    while (true)
+    {
+      final int bytesRead = FlacEncoder.readFully(pcmStream, buffer);
+      final int samplesRead = bytesRead / state.frameSize;
+      if (samplesRead == 0)
+      {
+        break;
+      }
+      
+      final int [][] samples = state.toSamples(buffer, samplesRead, md5);
+      final long currentFrameNumber = frameNumber++;
+      final FutureTask<byte []> frameTask = new FutureTask<byte []>(new Callable<byte []>()
+      {
+        public byte [] call()
+        {
+          return FrameEncoder.encodeFrame
+            (samples, samplesRead, state.bitsPerSample, state.sampleRate, currentFrameNumber);
+        }
+      });
+      this.executor.execute(frameTask);
+      framesInFlight.addLast(frameTask);
+      blockSizesInFlight.addLast(samplesRead);
+      
+      if (framesInFlight.size() >= this.maxBlocksInFlight)
+      {
+        FlacEncoder.writeFrame(framesInFlight.removeFirst(), blockSizesInFlight.removeFirst(), state, out);
+      }
+      if (samplesRead < state.blockSize)
+      {
+        break;
+      }
+    }
+    
+    while (!framesInFlight.isEmpty())
+    {
+      FlacEncoder.writeFrame(framesInFlight.removeFirst(), blockSizesInFlight.removeFirst(), state, out);
+    }
+    state.md5Signature = md5.digest();
+  }
+  
+  /**
+   * Wait for a frame to be encoded, write it, and update the state accordingly.
+   * @param frameTask The task encoding the frame.
+   * @param samples The number of samples per channel in the frame.
+   * @param state The state of the encoding.
+   * @param out The stream to write the frame to.
+   * @throws IOException When the frame could not be encoded or written.
+   */
+  private static void writeFrame(final FutureTask<byte []> frameTask, final int samples, final EncodingState state
+    , final OutputStream out) throws IOException
+  {
+    final byte [] frame;
+    try
+    {
+      frame = frameTask.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      final IOException exception = new IOException("Interrupted while encoding FLAC frame.");
+      exception.initCause(e);
+      throw exception;
+    }
+    catch (ExecutionException e)
+    {
+      final IOException exception = new IOException("Could not encode FLAC frame.");
+      exception.initCause(e.getCause());
+      throw exception;
+    }
+    
+    if (state.seekPointInterval > 0 && state.totalSamples >= state.nextSeekPoint)
+    {
+      state.seekPoints.add(new long [] {state.totalSamples, state.frameBytes, samples});
+      while (state.nextSeekPoint <= state.totalSamples)
+      {
+        state.nextSeekPoint += state.seekPointInterval;
+      }
+    }
+    
+    out.write(frame);
+    state.frameCount++;
+    state.frameBytes += frame.length;
+    state.totalSamples += samples;
+    state.minFrameSize = Math.min(state.minFrameSize, frame.length);
+    state.maxFrameSize = Math.max(state.maxFrameSize, frame.length);
+  }
+  
+  /**
+   * Read from the stream until the buffer is full or the end of the stream is reached.
+   * @param in The stream to read from.
+   * @param buffer The buffer to read into.
+   * @return The number of bytes read.
+   * @throws IOException When the stream could not be read.
+   */
+  private static int readFully(final InputStream in, final byte [] buffer) throws IOException
+  {
+    int result = 0;
+    while (result < buffer.length)
+    {
+      final int bytesRead = in.read(buffer, result, buffer.length - result);
+      if (bytesRead < 0)
+      {
+        break;
+      }
+      result += bytesRead;
+    }
+    return result;
+  }
+  
+  /**
+   * The state of a single encoding.
+   */
+  private class EncodingState
+  {
+    /**
+     * Number of samples per channel in a block.
+     */
+    private final int blockSize = FlacEncoder.this.blockSize;
+    /**
+     * Sample rate in Hz.
+     */
+    private final int sampleRate;
+    /**
+     * Number of channels.
+     */
+    private final int channels;
+    /**
+     * Number of bits per sample.
+     */
+    private final int bitsPerSample;
+    /**
+     * Number of bytes per sample in the input.
+     */
+    private final int bytesPerSample;
+    /**
+     * Number of bytes per sample frame in the input.
+     */
+    private final int frameSize;
+    /**
+     * Whether the input is big-endian.
+     */
+    private final boolean bigEndian;
+    /**
+     * Whether the input is signed.
+     */
+    private final boolean signed;
+    /**
+     * Number of samples per channel between seek points, or 0 if there should be no seek points.
+     */
+    private final long seekPointInterval;
+    /**
+     * Seek points found so far, as sample number, offset from the first frame, and number of samples.
+     */
+    private final List<long []> seekPoints = new ArrayList<long []>();
+    /**
+     * Sample number from which the next seek point should be taken.
+     */
+    private long nextSeekPoint = 0;
+    /**
+     * Number of frames written so far.
+     */
+    private long frameCount = 0;
+    /**
+     * Number of frame bytes written so far.
+     */
+    private long frameBytes = 0;
+    /**
+     * Number of samples per channel written so far.
+     */
+    private long totalSamples = 0;
+    /**
+     * Size of the smallest frame written so far.
+     */
+    private int minFrameSize = Integer.MAX_VALUE;
+    /**
+     * Size of the largest frame written so far.
+     */
+    private int maxFrameSize = 0;
+    /**
+     * MD5 signature of the unencoded audio, or null if not yet known.
+     */
+    private byte [] md5Signature = null;
+    
+    /**
+     * Create a new EncodingState.
+     * @param format The format of the input. Must be supported.
+     * @param seekPointInterval Number of samples per channel between seek points, or 0 if there should be no seek
+     * points.
+     */
+    private EncodingState(final AudioFormat format, final long seekPointInterval)
+    {
+      this.sampleRate = (int) format.getSampleRate();
+      this.channels = format.getChannels();
+      this.bitsPerSample = format.getSampleSizeInBits();
+      this.bytesPerSample = this.bitsPerSample / 8;
+      this.frameSize = format.getFrameSize();
+      this.bigEndian = format.isBigEndian() && this.bytesPerSample > 1;
+      this.signed = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding());
+      this.seekPointInterval = seekPointInterval;
+    }
+    
+    /**
+     * Convert raw input to samples per channel, and add them to the MD5 signature. The signature is computed over
+     * the signed little-endian interleaved samples, as FLAC requires.
+     * @param buffer The raw input.
+     * @param sampleCount The number of samples per channel in the raw input.
+     * @param md5 The digest to add the samples to.
+     * @return The samples per channel.
+     */
+    private int [][] toSamples(final byte [] buffer, final int sampleCount, final MessageDigest md5)
+    {
+      final int [][] result = new int[this.channels][sampleCount];
+      final byte [] md5Buffer = new byte[sampleCount * this.frameSize];
+      final int signOffset = this.signed ? 0 : 1 << (this.bitsPerSample - 1);
+      final int shift = 32 - this.bitsPerSample;
+      int position = 0;
+      for (int sample = 0; sample < sampleCount; sample++)
+      {
+        for (int channel = 0; channel < this.channels; channel++)
+        {
+          int value = 0;
+          for (int byteIndex = 0; byteIndex < this.bytesPerSample; byteIndex++)
+          {
+            final int shiftBytes = this.bigEndian ? this.bytesPerSample - 1 - byteIndex : byteIndex;
+            value |= (buffer[position + byteIndex] & 0xFF) << (8 * shiftBytes);
+          }
+          // Sign extend, then remove the offset of unsigned input.
+          value = ((value << shift) >> shift);
+          if (!this.signed)
+          {
+            value = ((value + signOffset) << shift) >> shift;
+          }
+          result[channel][sample] = value;
+          for (int byteIndex = 0; byteIndex < this.bytesPerSample; byteIndex++)
+          {
+            md5Buffer[position + byteIndex] = (byte) (value >> (8 * byteIndex));
+          }
+          position += this.bytesPerSample;
+        }
+      }
+      md5.update(md5Buffer);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream of audio decoded from a range of samples of a FLAC file. Created through
+ * {@link FlacDecoder#openStream(long, long)}. Decoding starts at the frame holding the first sample, so no audio
+ * before that frame is decoded.
+ * @author jwbroek
+ */
+public class FlacInputStream extends InputStream
+{
+  /**
+   * Minimum number of bytes to read from the file at a time.
+   */
+  private static final int MIN_READ_SIZE = 1 << 18;
+  
+  /**
+   * The decoder this stream reads from.
+   */
+  private final FlacDecoder decoder;
+  /**
+   * Number of bytes per sample in the decoded audio.
+   */
+  private final int bytesPerSample;
+  /**
+   * Number of bits to shift samples left to pad them to a multiple of 8 bits.
+   */
+  private final int padBits;
+  /**
+   * Samples of the current frame, per channel.
+   */
+  private final int [][] samples;
+  /**
+   * Bytes read from the file, starting at windowOffset.
+   */
+  private byte [] window = new byte[0];
+  /**
+   * Offset in the file of the first byte in the window.
+   */
+  private long windowOffset = 0;
+  /**
+   * Number of valid bytes in the window.
+   */
+  private int windowLength = 0;
+  /**
+   * Offset in the file of the next frame to decode.
+   */
+  private long frameOffset;
+  /**
+   * Number of the first sample per channel of the range.
+   */
+  private final long startSample;
+  /**
+   * Number of samples per channel still to return, or -1 if all remaining samples should be returned.
+   */
+  private long samplesRemaining;
+  /**
+   * Decoded audio that has not been returned yet.
+   */
+  private byte [] pcm = new byte[0];
+  /**
+   * Offset of the next byte to return from pcm.
+   */
+  private int pcmPosition = 0;
+  /**
+   * Number of valid bytes in pcm.
+   */
+  private int pcmLength = 0;
+  /**
+   * Number of bytes read from the file.
+   */
+  private long bytesRead = 0;
+  
+  /**
+   * Create a new FlacInputStream.
+   * @param decoder The decoder to read from.
+   * @param startSample The number of the first sample per channel to decode.
+   * @param endSample The number of the sample per channel just beyond the last one to decode, or -1 to decode until
+   * the end.
+   * @throws IOException When the start sample could not be found.
+   */
+  FlacInputStream(final FlacDecoder decoder, final long startSample, final long endSample) throws IOException
+  {
+    this.decoder = decoder;
+    this.bytesPerSample = decoder.getAudioFormat().getSampleSizeInBits() / 8;
+    this.padBits = this.bytesPerSample * 8 - decoder.getBitsPerSample();
+    this.samples = new int[decoder.getChannels()][Math.max(decoder.getMaxBlockSize(), 16)];
+    this.frameOffset = decoder.findFrame(startSample);
+    this.startSample = startSample;
+    this.samplesRemaining = endSample < 0 ? -1 : Math.max(0, endSample - startSample);
+  }
+  
+  /**
+   * Read a single byte of decoded audio.
+   * @return The byte read, or -1 at the end of the stream.
+   * @throws IOException When the file could not be read or decoded.
+   */
+  @Override
+  public int read() throws IOException
+  {
+    if (!this.fill())
+    {
+      return -1;
+    }
+    return this.pcm[this.pcmPosition++] & 0xFF;
+  }
+  
+  /**
+   * Read decoded audio.
+   * @param buffer The buffer to read into.
+   * @param offset The offset in the buffer to read into.
+   * @param length The maximum number of bytes to read.
+   * @return The number of bytes read, or -1 at the end of the stream.
+   * @throws IOException When the file could not be read or decoded.
+   */
+  @Override
+  public int read(final byte [] buffer, final int offset, final int length) throws IOException
+  {
+    if (length == 0)
+    {
+      return 0;
+    }
+    if (!this.fill())
+    {
+      return -1;
+    }
+    final int result = Math.min(length, this.pcmLength - this.pcmPosition);
+    System.arraycopy(this.pcm, this.pcmPosition, buffer, offset, result);
+    this.pcmPosition += result;
+    return result;
+  }
+  
+  /**
+   * Get the number of bytes of decoded audio that can be read without decoding another frame.
+   * @return The number of bytes of decoded audio that can be read without decoding another frame.
+   */
+  @Override
+  public int available()
+  {
+    return this.pcmLength - this.pcmPosition;
+  }
+  
+  /**
+   * Get the number of bytes read from the FLAC file so far.
+   * @return The number of bytes read from the FLAC file so far.
+   */
+  public long getBytesRead()
+  {
+    return this.bytesRead;
+  }
+  
+  /**
+   * Make sure there is decoded audio to return, decoding frames as needed.
+   * @return True if there is decoded audio to return, false at the end of the stream.
+   * @throws IOException When the file could not be read or decoded.
+   */
+  private boolean fill() throws IOException
+  {
+    while (this.pcmPosition == this.pcmLength)
+    {
+      if (this.samplesRemaining == 0 || this.frameOffset >= this.decoder.getFileLength())
+      {
+        return false;
+      }
+      this.decodeNextFrame();
+    }
+    return true;
+  }
+  
+  /**
+   * Decode the next frame into pcm, leaving out samples outside of the range.
+   * @throws IOException When the file could not be read or decoded.
+   */
+  private void decodeNextFrame() throws IOException
+  {
+    final int maxFrameSize = this.decoder.getMaxFrameSize();
+    int required = maxFrameSize > 0 ? maxFrameSize : FlacInputStream.MIN_READ_SIZE;
+    while (true)
+    {
+      this.ensureWindow(required);
+      final int start = (int) (this.frameOffset - this.windowOffset);
+      final int available = (int) (this.windowOffset + this.windowLength - this.frameOffset);
+      final FrameDecoder.Header header = FrameDecoder.readHeader(this.window, start, available, this.decoder);
+      if (header == null)
+      {
+        throw new IOException("Lost sync in FLAC file at offset " + this.frameOffset + ".");
+      }
+      if (header.getBlockSize() > this.samples[0].length)
+      {
+        throw new IOException("FLAC frame exceeds the maximum block size.");
+      }
+      try
+      {
+        final int frameLength = FrameDecoder.decodeFrame(this.window, start, available, header, this.samples);
+        this.frameOffset += frameLength;
+        this.storeSamples(header);
+        return;
+      }
+      catch (EOFException e)
+      {
+        if (this.windowOffset + this.windowLength >= this.decoder.getFileLength())
+        {
+          throw e;
+        }
+        // The frame is larger than expected, so try again with more data.
+        required = 2 * available;
+      }
+    }
+  }
+  
+  /**
+   * Make sure the window holds the specified number of bytes from the current frame offset, or up to the end of the
+   * file.
+   * @param required The number of bytes required.
+   * @throws IOException When the file could not be read.
+   */
+  private void ensureWindow(final int required) throws IOException
+  {
+    final long wanted = Math.min(required, this.decoder.getFileLength() - this.frameOffset);
+    if (this.frameOffset >= this.windowOffset
+      && this.frameOffset + wanted <= this.windowOffset + this.windowLength)
+    {
+      return;
+    }
+    final int length = (int) Math.min
+      (Math.max(FlacInputStream.MIN_READ_SIZE, 2L * required), this.decoder.getFileLength() - this.frameOffset);
+    if (this.window.length < length)
+    {
+      this.window = new byte[length];
+    }
+    this.decoder.read(this.frameOffset, this.window, 0, length);
+    this.windowOffset = this.frameOffset;
+    this.windowLength = length;
+    this.bytesRead += length;
+  }
+  
+  /**
+   * Convert the samples of the decoded frame to little-endian bytes, leaving out samples outside of the range.
+   * @param header The header of the decoded frame.
+   */
+  private void storeSamples(final FrameDecoder.Header header)
+  {
+    int first = 0;
+    int last = header.getBlockSize();
+    if (this.startSample > header.getFirstSample())
+    {
+      first = (int) Math.min(last, this.startSample - header.getFirstSample());
+    }
+    if (this.samplesRemaining >= 0)
+    {
+      last = (int) Math.min(last, first + this.samplesRemaining);
+      this.samplesRemaining -= last - first;
+    }
+    
+    final int channels = this.samples.length;
+    final int length = (last - first) * channels * this.bytesPerSample;
+    if (this.pcm.length < length)
+    {
+      this.pcm = new byte[length];
+    }
+    int position = 0;
+    for (int sample = first; sample < last; sample++)
+    {
+      for (int channel = 0; channel < channels; channel++)
+      {
+        final int value = this.samples[channel][sample] << this.padBits;
+        for (int byteIndex = 0; byteIndex < this.bytesPerSample; byteIndex++)
+        {
+          this.pcm[position++] = (byte) (value >> (8 * byteIndex));
+        }
+      }
+    }
+    this.pcmPosition = 0;
+    this.pcmLength = length;
+  }
+}
@@ -0,0 +1,537 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * <p>Decodes FLAC frames. Counterpart of {@link FrameEncoder}, but supports all subframe types, including LPC.</p>
+ * <p>Frame headers can also be read on their own, which is used to find frames when seeking.</p>
+ * @author jwbroek
+ */
+final class FrameDecoder
+{
+  /**
+   * Block sizes per block size code, or 0 where the code has a special meaning.
+   */
+  private static final int [] BLOCK_SIZES =
+    {0, 192, 576, 1152, 2304, 4608, 0, 0, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768};
+  /**
+   * Sample rates per sample rate code, or 0 where the code has a special meaning.
+   */
+  private static final int [] SAMPLE_RATES =
+    {0, 88200, 176400, 192000, 8000, 16000, 22050, 24000, 32000, 44100, 48000, 96000, 0, 0, 0, 0};
+  /**
+   * Bits per sample per sample size code, or 0 where the code has a special meaning or is reserved.
+   */
+  private static final int [] SAMPLE_SIZES = {0, 8, 12, 0, 16, 20, 24, 32};
+  
+  /**
+   * This class has only static members, so it should not be instantiated.
+   */
+  private FrameDecoder()
+  {
+  }
+  
+  /**
+   * Read a frame header, including its CRC-8.
+   * @param data The bytes to read from.
+   * @param offset Offset of the frame in the data.
+   * @param length Number of bytes available from the offset.
+   * @param streamInfo The decoder holding the STREAMINFO values, used for values the header refers to.
+   * @return The header, or null if there is no valid frame header at the specified offset.
+   */
+  public static Header readHeader(final byte [] data, final int offset, final int length, final FlacDecoder streamInfo)
+  {
+    final BitReader reader = new BitReader(data, offset, length);
+    try
+    {
+      final int sync = reader.readBits(15);
+      final boolean variableBlockSize = reader.readBits(1) == 1;
+      final int blockSizeCode = reader.readBits(4);
+      final int sampleRateCode = reader.readBits(4);
+      final int channelAssignment = reader.readBits(4);
+      final int sampleSizeCode = reader.readBits(3);
+      final int reserved = reader.readBits(1);
+      if ( sync != 0x7FFC || blockSizeCode == 0 || sampleRateCode == 15 || channelAssignment > 10
+        || sampleSizeCode == 3 || reserved != 0
+         )
+      {
+        return null;
+      }
+      final long number = reader.readUtf8();
+      if (number < 0)
+      {
+        return null;
+      }
+      
+      int blockSize = FrameDecoder.BLOCK_SIZES[blockSizeCode];
+      if (blockSizeCode == 6)
+      {
+        blockSize = reader.readBits(8) + 1;
+      }
+      else if (blockSizeCode == 7)
+      {
+        blockSize = reader.readBits(16) + 1;
+      }
+      
+      int sampleRate = FrameDecoder.SAMPLE_RATES[sampleRateCode];
+      if (sampleRateCode == 0)
+      {
+        sampleRate = streamInfo.getSampleRate();
+      }
+      else if (sampleRateCode == 12)
+      {
+        sampleRate = reader.readBits(8) * 1000;
+      }
+      else if (sampleRateCode == 13)
+      {
+        sampleRate = reader.readBits(16);
+      }
+      else if (sampleRateCode == 14)
+      {
+        sampleRate = reader.readBits(16) * 10;
+      }
+      
+      final int bitsPerSample =
+        sampleSizeCode == 0 ? streamInfo.getBitsPerSample() : FrameDecoder.SAMPLE_SIZES[sampleSizeCode];
+      
+      final int headerLength = reader.getBytePosition();
+      if (reader.readBits(8) != FlacCrc.crc8(data, offset, headerLength))
+      {
+        return null;
+      }
+      
+      // With a fixed block size, the header holds the frame number instead of the sample number.
+      final long firstSample = variableBlockSize ? number : number * streamInfo.getMaxBlockSize();
+      final Header result = new Header
+        (firstSample, blockSize, sampleRate, channelAssignment, bitsPerSample, headerLength + 1);
+      return result;
+    }
+    catch (EOFException e)
+    {
+      return null;
+    }
+  }
+  
+  /**
+   * Decode the subframes and footer of a frame.
+   * @param data The bytes to read from.
+   * @param offset Offset of the frame in the data.
+   * @param length Number of bytes available from the offset.
+   * @param header The header of the frame, as read by {@link #readHeader(byte[], int, int, FlacDecoder)}.
+   * @param samples Array to decode the samples into, per channel. Must be large enough for the block size.
+   * @return The length of the frame in bytes.
+   * @throws EOFException When the frame does not fit in the available bytes.
+   * @throws IOException When the frame is invalid or its CRC-16 does not match.
+   */
+  public static int decodeFrame
+    ( final byte [] data
+    , final int offset
+    , final int length
+    , final Header header
+    , final int [][] samples
+    ) throws IOException
+  {
+    final BitReader reader = new BitReader(data, offset, length);
+    // Skip the header, which has already been read.
+    for (int index = 0; index < header.headerLength; index++)
+    {
+      reader.readBits(8);
+    }
+    
+    final int channelAssignment = header.channelAssignment;
+    final int channels = channelAssignment < 8 ? channelAssignment + 1 : 2;
+    if (channels != samples.length)
+    {
+      throw new IOException("FLAC frame has " + channels + " channels, but the stream has " + samples.length + ".");
+    }
+    for (int channel = 0; channel < channels; channel++)
+    {
+      // The side channel has an extra bit.
+      final boolean side = (channelAssignment == 8 && channel == 1) || (channelAssignment == 9 && channel == 0)
+        || (channelAssignment == 10 && channel == 1);
+      FrameDecoder.decodeSubframe
+        (reader, samples[channel], header.blockSize, header.bitsPerSample + (side ? 1 : 0));
+    }
+    
+    // Undo the stereo decorrelation.
+    final int [] first = samples[0];
+    final int [] second = samples.length > 1 ? samples[1] : null;
+    switch (channelAssignment)
+    {
+      case 8:
+        for (int index = 0; index < header.blockSize; index++)
+        {
+          second[index] = first[index] - second[index];
+        }
+        break;
+      case 9:
+        for (int index = 0; index < header.blockSize; index++)
+        {
+          first[index] += second[index];
+        }
+        break;
+      case 10:
+        for (int index = 0; index < header.blockSize; index++)
+        {
+          final int side = second[index];
+          final int mid = (first[index] << 1) | (side & 1);
+          first[index] = (mid + side) >> 1;
+          second[index] = (mid - side) >> 1;
+        }
+        break;
+      default:
+        break;
+    }
+    
+    reader.alignToByte();
+    final int frameLength = reader.getBytePosition();
+    if (reader.readBits(16) != FlacCrc.crc16(data, offset, frameLength))
+    {
+      throw new IOException("CRC-16 mismatch in FLAC frame.");
+    }
+    final int result = frameLength + 2;
+    return result;
+  }
+  
+  /**
+   * Decode a subframe.
+   * @param reader The reader, positioned at the start of the subframe.
+   * @param samples Array to decode the samples into.
+   * @param blockSize The number of samples in the subframe.
+   * @param frameBitsPerSample The number of bits per sample in the subframe, before removing wasted bits.
+   * @throws IOException When the subframe is invalid.
+   */
+  private static void decodeSubframe
+    ( final BitReader reader
+    , final int [] samples
+    , final int blockSize
+    , final int frameBitsPerSample
+    ) throws IOException
+  {
+    if (reader.readBits(1) != 0)
+    {
+      throw new IOException("Invalid FLAC subframe padding.");
+    }
+    final int type = reader.readBits(6);
+    int wastedBits = 0;
+    if (reader.readBits(1) == 1)
+    {
+      wastedBits = reader.readUnary() + 1;
+    }
+    final int bitsPerSample = frameBitsPerSample - wastedBits;
+    if (bitsPerSample < 1 || bitsPerSample > 32)
+    {
+      throw new IOException("Unsupported number of bits per sample in FLAC subframe: " + bitsPerSample + ".");
+    }
+    
+    if (type == 0)
+    {
+      final int value = reader.readSignedBits(bitsPerSample);
+      for (int index = 0; index < blockSize; index++)
+      {
+        samples[index] = value;
+      }
+    }
+    else if (type == 1)
+    {
+      for (int index = 0; index < blockSize; index++)
+      {
+        samples[index] = reader.readSignedBits(bitsPerSample);
+      }
+    }
+    else if (type >= 8 && type <= 12)
+    {
+      final int order = type - 8;
+      FrameDecoder.readWarmup(reader, samples, order, blockSize, bitsPerSample);
+      FrameDecoder.readResidual(reader, samples, order, blockSize);
+      FrameDecoder.restoreFixed(samples, order, blockSize);
+    }
+    else if (type >= 32)
+    {
+      final int order = (type & 31) + 1;
+      FrameDecoder.readWarmup(reader, samples, order, blockSize, bitsPerSample);
+      final int precision = reader.readBits(4) + 1;
+      if (precision == 16)
+      {
+        throw new IOException("Invalid FLAC LPC coefficient precision.");
+      }
+      final int shift = reader.readSignedBits(5);
+      if (shift < 0)
+      {
+        throw new IOException("Negative FLAC LPC shift.");
+      }
+      final int [] coefficients = new int[order];
+      for (int index = 0; index < order; index++)
+      {
+        coefficients[index] = reader.readSignedBits(precision);
+      }
+      FrameDecoder.readResidual(reader, samples, order, blockSize);
+      FrameDecoder.restoreLpc(samples, coefficients, shift, blockSize);
+    }
+    else
+    {
+      throw new IOException("Reserved FLAC subframe type: " + type + ".");
+    }
+    
+    if (wastedBits > 0)
+    {
+      for (int index = 0; index < blockSize; index++)
+      {
+        samples[index] <<= wastedBits;
+      }
+    }
+  }
+  
+  /**
+   * Read the unencoded warm-up samples of a predicted subframe.
+   * @param reader The reader.
+   * @param samples Array to read the samples into.
+   * @param order The order of prediction.
+   * @param blockSize The number of samples in the subframe.
+   * @param bitsPerSample The number of bits per sample.
+   * @throws IOException When the order is larger than the block size.
+   */
+  private static void readWarmup
+    ( final BitReader reader
+    , final int [] samples
+    , final int order
+    , final int blockSize
+    , final int bitsPerSample
+    ) throws IOException
+  {
+    if (order > blockSize)
+    {
+      throw new IOException("FLAC prediction order exceeds block size.");
+    }
+    for (int index = 0; index < order; index++)
+    {
+      samples[index] = reader.readSignedBits(bitsPerSample);
+    }
+  }
+  
+  /**
+   * Read a Rice coded residual into the samples following the warm-up samples.
+   * @param reader The reader.
+   * @param samples Array to read the residual into.
+   * @param order The order of prediction, which is the number of warm-up samples.
+   * @param blockSize The number of samples in the subframe.
+   * @throws IOException When the residual is invalid.
+   */
+  private static void readResidual
+    ( final BitReader reader
+    , final int [] samples
+    , final int order
+    , final int blockSize
+    ) throws IOException
+  {
+    final int method = reader.readBits(2);
+    if (method > 1)
+    {
+      throw new IOException("Reserved FLAC residual coding method: " + method + ".");
+    }
+    final int parameterBits = method == 0 ? 4 : 5;
+    final int escapeParameter = (1 << parameterBits) - 1;
+    final int partitionOrder = reader.readBits(4);
+    final int partitionSize = blockSize >> partitionOrder;
+    if ((partitionSize << partitionOrder) != blockSize || partitionSize < order)
+    {
+      throw new IOException("Invalid FLAC partition order: " + partitionOrder + ".");
+    }
+    
+    int index = order;
+    for (int partition = 0; partition < (1 << partitionOrder); partition++)
+    {
+      final int end = (partition + 1) * partitionSize;
+      final int parameter = reader.readBits(parameterBits);
+      if (parameter == escapeParameter)
+      {
+        // Unencoded partition.
+        final int bitCount = reader.readBits(5);
+        for (; index < end; index++)
+        {
+          samples[index] = reader.readSignedBits(bitCount);
+        }
+      }
+      else
+      {
+        for (; index < end; index++)
+        {
+          samples[index] = reader.readRice(parameter);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Replace the residual of fixed prediction by the samples it was computed from.
+   * @param samples The warm-up samples followed by the residual.
+   * @param order The order of prediction.
+   * @param blockSize The number of samples in the subframe.
+   */
+  private static void restoreFixed(final int [] samples, final int order, final int blockSize)
+  {
+    switch (order)
+    {
+      case 1:
+        for (int index = 1; index < blockSize; index++)
+        {
+          samples[index] += samples[index - 1];
+        }
+        break;
+      case 2:
+        for (int index = 2; index < blockSize; index++)
+        {
+          samples[index] += 2 * samples[index - 1] - samples[index - 2];
+        }
+        break;
+      case 3:
+        for (int index = 3; index < blockSize; index++)
+        {
+          samples[index] += 3 * (samples[index - 1] - samples[index - 2]) + samples[index - 3];
+        }
+        break;
+      case 4:
+        for (int index = 4; index < blockSize; index++)
+        {
+          samples[index] += 4 * (samples[index - 1] + samples[index - 3]) - 6 * samples[index - 2]
+            - samples[index - 4];
+        }
+        break;
+      default:
+        break;
+    }
+  }
+  
+  /**
+   * Replace the residual of linear prediction by the samples it was computed from.
+   * @param samples The warm-up samples followed by the residual.
+   * @param coefficients The prediction coefficients.
+   * @param shift The shift to apply to the prediction.
+   * @param blockSize The number of samples in the subframe.
+   */
+  private static void restoreLpc(final int [] samples, final int [] coefficients, final int shift, final int blockSize)
+  {
+    final int order = coefficients.length;
+    for (int index = order; index < blockSize; index++)
+    {
+      long prediction = 0;
+      for (int coefficient = 0; coefficient < order; coefficient++)
+      {
+        prediction += ((long) coefficients[coefficient]) * samples[index - 1 - coefficient];
+      }
+      samples[index] += (int) (prediction >> shift);
+    }
+  }
+  
+  /**
+   * The header of a FLAC frame.
+   */
+  static final class Header
+  {
+    /**
+     * Number of the first sample in the frame.
+     */
+    private final long firstSample;
+    /**
+     * Number of samples per channel in the frame.
+     */
+    private final int blockSize;
+    /**
+     * Sample rate in Hz.
+     */
+    private final int sampleRate;
+    /**
+     * Channel assignment.
+     */
+    private final int channelAssignment;
+    /**
+     * Number of bits per sample.
+     */
+    private final int bitsPerSample;
+    /**
+     * Length of the header in bytes, including the CRC-8.
+     */
+    private final int headerLength;
+    
+    /**
+     * Create a new Header.
+     * @param firstSample Number of the first sample in the frame.
+     * @param blockSize Number of samples per channel in the frame.
+     * @param sampleRate Sample rate in Hz.
+     * @param channelAssignment Channel assignment.
+     * @param bitsPerSample Number of bits per sample.
+     * @param headerLength Length of the header in bytes, including the CRC-8.
+     */
+    private Header
+      ( final long firstSample
+      , final int blockSize
+      , final int sampleRate
+      , final int channelAssignment
+      , final int bitsPerSample
+      , final int headerLength
+      )
+    {
+      this.firstSample = firstSample;
+      this.blockSize = blockSize;
+      this.sampleRate = sampleRate;
+      this.channelAssignment = channelAssignment;
+      this.bitsPerSample = bitsPerSample;
+      this.headerLength = headerLength;
+    }
+    
+    /**
+     * Get the number of the first sample in the frame.
+     * @return The number of the first sample in the frame.
+     */
+    public long getFirstSample()
+    {
+      return this.firstSample;
+    }
+    
+    /**
+     * Get the number of samples per channel in the frame.
+     * @return The number of samples per channel in the frame.
+     */
+    public int getBlockSize()
+    {
+      return this.blockSize;
+    }
+    
+    /**
+     * Get the sample rate in Hz.
+     * @return The sample rate in Hz.
+     */
+    public int getSampleRate()
+    {
+      return this.sampleRate;
+    }
+    
+    /**
+     * Get the number of bits per sample.
+     * @return The number of bits per sample.
+     */
+    public int getBitsPerSample()
+    {
+      return this.bitsPerSample;
+    }
+  }
+}
@@ -0,0 +1,644 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+/**
+ * <p>Encodes a single block of samples into a FLAC frame.</p>
+ * <p>Every channel is coded with the cheapest of a constant, verbatim, or fixed prediction subframe, with the
+ * residual Rice coded in the best partitioning. For stereo, the cheapest of the four channel decorrelation modes is
+ * used. Frames are independent of each other, so several frames can be encoded concurrently.</p>
+ * @author jwbroek
+ */
+final class FrameEncoder
+{
+  /**
+   * Highest order of fixed prediction to consider.
+   */
+  private static final int MAX_FIXED_ORDER = 4;
+  /**
+   * Highest Rice partition order to consider.
+   */
+  private static final int MAX_PARTITION_ORDER = 8;
+  /**
+   * Highest Rice parameter that can be coded with the 4 bit parameter coding method. (15 is the escape code.)
+   */
+  private static final int MAX_RICE_PARAMETER = 14;
+  /**
+   * Highest Rice parameter that can be coded with the 5 bit parameter coding method. (31 is the escape code.)
+   */
+  private static final int MAX_RICE2_PARAMETER = 30;
+  
+  /**
+   * Channel assignment for independently coded channels, to which the number of channels minus one is added.
+   */
+  static final int CHANNELS_INDEPENDENT = 0;
+  /**
+   * Channel assignment for left/side stereo.
+   */
+  static final int CHANNELS_LEFT_SIDE = 8;
+  /**
+   * Channel assignment for side/right stereo.
+   */
+  static final int CHANNELS_SIDE_RIGHT = 9;
+  /**
+   * Channel assignment for mid/side stereo.
+   */
+  static final int CHANNELS_MID_SIDE = 10;
+  
+  /**
+   * This class has only static members, so it should not be instantiated.
+   */
+  private FrameEncoder()
+  {
+  }
+  
+  /**
+   * Encode a block of samples into a complete FLAC frame, including header and footer.
+   * @param samples The samples, per channel. Only the first blockSize samples of each channel are used.
+   * @param blockSize The number of samples per channel in this block.
+   * @param bitsPerSample The number of bits per sample.
+   * @param sampleRate The sample rate in Hz.
+   * @param frameNumber The number of this frame in the stream.
+   * @return The encoded frame.
+   */
+  public static byte [] encodeFrame
+    ( final int [][] samples
+    , final int blockSize
+    , final int bitsPerSample
+    , final int sampleRate
+    , final long frameNumber
+    )
+  {
+    final int channels = samples.length;
+    final Subframe [] subframes;
+    final int channelAssignment;
+    
+    if (channels == 2)
+    {
+      // Try all stereo decorrelation modes, and use the cheapest.
+      final int [] left = samples[0];
+      final int [] right = samples[1];
+      final int [] mid = new int[blockSize];
+      final int [] side = new int[blockSize];
+      for (int index = 0; index < blockSize; index++)
+      {
+        mid[index] = (left[index] + right[index]) >> 1;
+        side[index] = left[index] - right[index];
+      }
+      final Subframe leftSubframe = planSubframe(left, blockSize, bitsPerSample);
+      final Subframe rightSubframe = planSubframe(right, blockSize, bitsPerSample);
+      final Subframe midSubframe = planSubframe(mid, blockSize, bitsPerSample);
+      final Subframe sideSubframe = planSubframe(side, blockSize, bitsPerSample + 1);
+      
+      final long independentBits = leftSubframe.bits + rightSubframe.bits;
+      final long leftSideBits = leftSubframe.bits + sideSubframe.bits;
+      final long sideRightBits = sideSubframe.bits + rightSubframe.bits;
+      final long midSideBits = midSubframe.bits + sideSubframe.bits;
+      final long minimumBits = Math.min(Math.min(independentBits, leftSideBits), Math.min(sideRightBits, midSideBits));
+      
+      if (minimumBits == independentBits)
+      {
+        channelAssignment = FrameEncoder.CHANNELS_INDEPENDENT + 1;
+        subframes = new Subframe [] {leftSubframe, rightSubframe};
+      }
+      else if (minimumBits == leftSideBits)
+      {
+        channelAssignment = FrameEncoder.CHANNELS_LEFT_SIDE;
+        subframes = new Subframe [] {leftSubframe, sideSubframe};
+      }
+      else if (minimumBits == sideRightBits)
+      {
+        channelAssignment = FrameEncoder.CHANNELS_SIDE_RIGHT;
+        subframes = new Subframe [] {sideSubframe, rightSubframe};
+      }
+      else
+      {
+        channelAssignment = FrameEncoder.CHANNELS_MID_SIDE;
+        subframes = new Subframe [] {midSubframe, sideSubframe};
+      }
+    }
+    else
+    {
+      channelAssignment = FrameEncoder.CHANNELS_INDEPENDENT + channels - 1;
+      subframes = new Subframe[channels];
+      for (int channel = 0; channel < channels; channel++)
+      {
+        subframes[channel] = planSubframe(samples[channel], blockSize, bitsPerSample);
+      }
+    }
+    
+    long estimatedBits = 0;
+    for (Subframe subframe : subframes)
+    {
+      estimatedBits += subframe.bits;
+    }
+    final BitWriter writer = new BitWriter((int) (estimatedBits / 8) + 32);
+    
+    writeFrameHeader(writer, blockSize, sampleRate, channelAssignment, bitsPerSample, frameNumber);
+    for (Subframe subframe : subframes)
+    {
+      writeSubframe(writer, subframe);
+    }
+    writer.alignToByte();
+    writer.writeBits(FlacCrc.crc16(writer.getBuffer(), 0, writer.getByteCount()), 16);
+    
+    return writer.toByteArray();
+  }
+  
+  /**
+   * Write the frame header, including its CRC-8.
+   * @param writer The writer to write to. Must be at the start of the frame.
+   * @param blockSize The number of samples per channel in this block.
+   * @param sampleRate The sample rate in Hz.
+   * @param channelAssignment The channel assignment.
+   * @param bitsPerSample The number of bits per sample.
+   * @param frameNumber The number of this frame in the stream.
+   */
+  private static void writeFrameHeader
+    ( final BitWriter writer
+    , final int blockSize
+    , final int sampleRate
+    , final int channelAssignment
+    , final int bitsPerSample
+    , final long frameNumber
+    )
+  {
+    final int blockSizeCode = getBlockSizeCode(blockSize);
+    final int sampleRateCode = getSampleRateCode(sampleRate);
+    
+    // Sync code, reserved bit and fixed block size strategy.
+    writer.writeBits(0xFFF8, 16);
+    writer.writeBits(blockSizeCode, 4);
+    writer.writeBits(sampleRateCode, 4);
+    writer.writeBits(channelAssignment, 4);
+    writer.writeBits(getSampleSizeCode(bitsPerSample), 3);
+    writer.writeBits(0, 1);
+    writer.writeUtf8(frameNumber);
+    if (blockSizeCode == 6)
+    {
+      writer.writeBits(blockSize - 1, 8);
+    }
+    else if (blockSizeCode == 7)
+    {
+      writer.writeBits(blockSize - 1, 16);
+    }
+    if (sampleRateCode == 12)
+    {
+      writer.writeBits(sampleRate / 1000, 8);
+    }
+    else if (sampleRateCode == 13)
+    {
+      writer.writeBits(sampleRate, 16);
+    }
+    else if (sampleRateCode == 14)
+    {
+      writer.writeBits(sampleRate / 10, 16);
+    }
+    writer.writeBits(FlacCrc.crc8(writer.getBuffer(), 0, writer.getByteCount()), 8);
+  }
+  
+  /**
+   * Get the code for the specified block size in the frame header.
+   * @param blockSize The block size.
+   * @return The code for the specified block size.
+   */
+  static int getBlockSizeCode(final int blockSize)
+  {
+    final int result;
+    if (blockSize == 192)
+    {
+      result = 1;
+    }
+    else if (blockSize % 576 == 0 && Integer.bitCount(blockSize / 576) == 1 && blockSize / 576 <= 8)
+    {
+      result = 2 + Integer.numberOfTrailingZeros(blockSize / 576);
+    }
+    else if (blockSize % 256 == 0 && Integer.bitCount(blockSize / 256) == 1 && blockSize / 256 <= 128)
+    {
+      result = 8 + Integer.numberOfTrailingZeros(blockSize / 256);
+    }
+    else if (blockSize <= 256)
+    {
+      result = 6;
+    }
+    else
+    {
+      result = 7;
+    }
+    return result;
+  }
+  
+  /**
+   * Get the code for the specified sample rate in the frame header.
+   * @param sampleRate The sample rate in Hz.
+   * @return The code for the specified sample rate.
+   */
+  static int getSampleRateCode(final int sampleRate)
+  {
+    final int result;
+    switch (sampleRate)
+    {
+      case 88200: result = 1; break;
+      case 176400: result = 2; break;
+      case 192000: result = 3; break;
+      case 8000: result = 4; break;
+      case 16000: result = 5; break;
+      case 22050: result = 6; break;
+      case 24000: result = 7; break;
+      case 32000: result = 8; break;
+      case 44100: result = 9; break;
+      case 48000: result = 10; break;
+      case 96000: result = 11; break;
+      default:
+        if (sampleRate % 1000 == 0 && sampleRate / 1000 <= 255)
+        {
+          result = 12;
+        }
+        else if (sampleRate <= 65535)
+        {
+          result = 13;
+        }
+        else if (sampleRate % 10 == 0 && sampleRate / 10 <= 65535)
+        {
+          result = 14;
+        }
+        else
+        {
+          // Refer to STREAMINFO.
+          result = 0;
+        }
+        break;
+    }
+    return result;
+  }
+  
+  /**
+   * Get the code for the specified sample size in the frame header.
+   * @param bitsPerSample The number of bits per sample.
+   * @return The code for the specified sample size.
+   */
+  static int getSampleSizeCode(final int bitsPerSample)
+  {
+    final int result;
+    switch (bitsPerSample)
+    {
+      case 8: result = 1; break;
+      case 12: result = 2; break;
+      case 16: result = 4; break;
+      case 20: result = 5; break;
+      case 24: result = 6; break;
+      case 32: result = 7; break;
+      default:
+        // Refer to STREAMINFO.
+        result = 0;
+        break;
+    }
+    return result;
+  }
+  
+  /**
+   * Determine the cheapest way to code the specified samples as a subframe.
+   * @param samples The samples.
+   * @param blockSize The number of samples.
+   * @param bitsPerSample The number of bits per sample in this subframe.
+   * @return The plan for the subframe.
+   */
+  private static Subframe planSubframe(final int [] samples, final int blockSize, final int bitsPerSample)
+  {
+    final Subframe result = new Subframe(samples, blockSize, bitsPerSample);
+    
+    // Constant.
+    boolean constant = true;
+    for (int index = 1; index < blockSize && constant; index++)
+    {
+      constant = samples[index] == samples[0];
+    }
+    if (constant)
+    {
+      result.type = Subframe.CONSTANT;
+      result.bits = 8 + bitsPerSample;
+      return result;
+    }
+    
+    // Verbatim.
+    result.type = Subframe.VERBATIM;
+    result.bits = 8 + ((long) blockSize) * bitsPerSample;
+    
+    // Fixed prediction. Residuals of higher orders are the differences of those of the order below. Pick the order
+    // with the smallest sum of absolute residuals, and only work out the Rice coding for that one.
+    final int maxOrder = Math.min(FrameEncoder.MAX_FIXED_ORDER, blockSize - 1);
+    int [] residual = samples.clone();
+    int [] bestResidual = null;
+    int bestOrder = 0;
+    long bestSum = Long.MAX_VALUE;
+    for (int order = 0; order <= maxOrder; order++)
+    {
+      if (order > 0)
+      {
+        // residual[i] for i >= order now holds the residual of the previous order at position i.
+        for (int index = blockSize - 1; index >= order; index--)
+        {
+          residual[index] = residual[index] - residual[index - 1];
+        }
+      }
+      long sum = 0;
+      for (int index = order; index < blockSize; index++)
+      {
+        sum += Math.abs((long) residual[index]);
+      }
+      if (sum < bestSum)
+      {
+        bestSum = sum;
+        bestOrder = order;
+        bestResidual = residual.clone();
+      }
+    }
+    
+    final RicePlan ricePlan = planRice(bestResidual, bestOrder, blockSize);
+    final long fixedBits = 8 + ((long) bestOrder) * bitsPerSample + ricePlan.bits;
+    if (fixedBits < result.bits)
+    {
+      result.type = Subframe.FIXED;
+      result.order = bestOrder;
+      result.residual = bestResidual;
+      result.ricePlan = ricePlan;
+      result.bits = fixedBits;
+    }
+    return result;
+  }
+  
+  /**
+   * Determine the cheapest Rice partitioning and parameters for the specified residual.
+   * @param residual The residual. The first warmupCount values are warm-up samples, not residual.
+   * @param warmupCount The number of warm-up samples.
+   * @param blockSize The number of samples in the block.
+   * @return The plan for the Rice coding.
+   */
+  private static RicePlan planRice(final int [] residual, final int warmupCount, final int blockSize)
+  {
+    // Highest partition order such that the block size is divisible and the first partition is not empty.
+    int maxPartitionOrder = 0;
+    while ( maxPartitionOrder < FrameEncoder.MAX_PARTITION_ORDER
+          && (blockSize % (1 << (maxPartitionOrder + 1))) == 0
+          && (blockSize >> (maxPartitionOrder + 1)) > warmupCount
+          )
+    {
+      maxPartitionOrder++;
+    }
+    
+    // Sums of folded residuals per partition at the highest partition order.
+    int partitions = 1 << maxPartitionOrder;
+    long [] sums = new long[partitions];
+    int [] counts = new int[partitions];
+    final int partitionSize = blockSize >> maxPartitionOrder;
+    for (int partition = 0; partition < partitions; partition++)
+    {
+      final int start = partition == 0 ? warmupCount : partition * partitionSize;
+      final int end = (partition + 1) * partitionSize;
+      long sum = 0;
+      for (int index = start; index < end; index++)
+      {
+        final long value = residual[index];
+        sum += (value << 1) ^ (value >> 63);
+      }
+      sums[partition] = sum;
+      counts[partition] = end - start;
+    }
+    
+    RicePlan result = null;
+    for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; partitionOrder--)
+    {
+      if (partitionOrder < maxPartitionOrder)
+      {
+        // Merge pairs of partitions.
+        partitions = 1 << partitionOrder;
+        final long [] mergedSums = new long[partitions];
+        final int [] mergedCounts = new int[partitions];
+        for (int partition = 0; partition < partitions; partition++)
+        {
+          mergedSums[partition] = sums[2 * partition] + sums[2 * partition + 1];
+          mergedCounts[partition] = counts[2 * partition] + counts[2 * partition + 1];
+        }
+        sums = mergedSums;
+        counts = mergedCounts;
+      }
+      
+      final int [] parameters = new int[partitions];
+      long bits = 2 + 4;
+      boolean needsWideParameters = false;
+      for (int partition = 0; partition < partitions; partition++)
+      {
+        int bestParameter = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int parameter = 0; parameter <= FrameEncoder.MAX_RICE2_PARAMETER; parameter++)
+        {
+          // Estimate: every value costs parameter + 1 bits, plus its quotient in unary.
+          final long estimate = ((long) counts[partition]) * (parameter + 1) + (sums[partition] >> parameter);
+          if (estimate < bestBits)
+          {
+            bestBits = estimate;
+            bestParameter = parameter;
+          }
+        }
+        parameters[partition] = bestParameter;
+        needsWideParameters |= bestParameter > FrameEncoder.MAX_RICE_PARAMETER;
+        bits += bestBits;
+      }
+      bits += ((long) partitions) * (needsWideParameters ? 5 : 4);
+      
+      if (result == null || bits < result.bits)
+      {
+        result = new RicePlan(partitionOrder, parameters, needsWideParameters, bits);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Write a subframe according to its plan.
+   * @param writer The writer to write to.
+   * @param subframe The plan for the subframe.
+   */
+  private static void writeSubframe(final BitWriter writer, final Subframe subframe)
+  {
+    // Zero padding bit, type, and no wasted bits.
+    writer.writeBits(0, 1);
+    switch (subframe.type)
+    {
+      case Subframe.CONSTANT:
+        writer.writeBits(0, 6);
+        writer.writeBits(0, 1);
+        writer.writeBits(subframe.samples[0], subframe.bitsPerSample);
+        break;
+      case Subframe.VERBATIM:
+        writer.writeBits(1, 6);
+        writer.writeBits(0, 1);
+        for (int index = 0; index < subframe.blockSize; index++)
+        {
+          writer.writeBits(subframe.samples[index], subframe.bitsPerSample);
+        }
+        break;
+      default:
+        writer.writeBits(8 | subframe.order, 6);
+        writer.writeBits(0, 1);
+        for (int index = 0; index < subframe.order; index++)
+        {
+          writer.writeBits(subframe.samples[index], subframe.bitsPerSample);
+        }
+        writeResidual(writer, subframe.residual, subframe.order, subframe.blockSize, subframe.ricePlan);
+        break;
+    }
+  }
+  
+  /**
+   * Write a Rice coded residual.
+   * @param writer The writer to write to.
+   * @param residual The residual. The first warmupCount values are not written.
+   * @param warmupCount The number of warm-up samples.
+   * @param blockSize The number of samples in the block.
+   * @param ricePlan The plan for the Rice coding.
+   */
+  private static void writeResidual
+    ( final BitWriter writer
+    , final int [] residual
+    , final int warmupCount
+    , final int blockSize
+    , final RicePlan ricePlan
+    )
+  {
+    final int parameterBits = ricePlan.wideParameters ? 5 : 4;
+    writer.writeBits(ricePlan.wideParameters ? 1 : 0, 2);
+    writer.writeBits(ricePlan.partitionOrder, 4);
+    final int partitionSize = blockSize >> ricePlan.partitionOrder;
+    for (int partition = 0; partition < ricePlan.parameters.length; partition++)
+    {
+      final int parameter = ricePlan.parameters[partition];
+      writer.writeBits(parameter, parameterBits);
+      final int start = partition == 0 ? warmupCount : partition * partitionSize;
+      final int end = (partition + 1) * partitionSize;
+      for (int index = start; index < end; index++)
+      {
+        writer.writeRice(residual[index], parameter);
+      }
+    }
+  }
+  
+  /**
+   * Plan for coding a single subframe.
+   */
+  private static class Subframe
+  {
+    /**
+     * Subframe type for a constant signal.
+     */
+    private static final int CONSTANT = 0;
+    /**
+     * Subframe type for an uncompressed signal.
+     */
+    private static final int VERBATIM = 1;
+    /**
+     * Subframe type for fixed prediction.
+     */
+    private static final int FIXED = 2;
+    
+    /**
+     * The samples.
+     */
+    private final int [] samples;
+    /**
+     * The number of samples.
+     */
+    private final int blockSize;
+    /**
+     * The number of bits per sample in this subframe.
+     */
+    private final int bitsPerSample;
+    /**
+     * The type of subframe.
+     */
+    private int type;
+    /**
+     * The number of bits that the subframe will take, estimated for fixed prediction.
+     */
+    private long bits;
+    /**
+     * The order of fixed prediction.
+     */
+    private int order;
+    /**
+     * The residual of fixed prediction.
+     */
+    private int [] residual;
+    /**
+     * The Rice coding of the residual.
+     */
+    private RicePlan ricePlan;
+    
+    /**
+     * Create a new Subframe plan.
+     * @param samples The samples.
+     * @param blockSize The number of samples.
+     * @param bitsPerSample The number of bits per sample in this subframe.
+     */
+    private Subframe(final int [] samples, final int blockSize, final int bitsPerSample)
+    {
+      this.samples = samples;
+      this.blockSize = blockSize;
+      this.bitsPerSample = bitsPerSample;
+    }
+  }
+  
+  /**
+   * Plan for Rice coding a residual.
+   */
+  private static class RicePlan
+  {
+    /**
+     * The partition order.
+     */
+    private final int partitionOrder;
+    /**
+     * The Rice parameter per partition.
+     */
+    private final int [] parameters;
+    /**
+     * Whether the 5 bit parameter coding method is needed.
+     */
+    private final boolean wideParameters;
+    /**
+     * The estimated number of bits for the coded residual.
+     */
+    private final long bits;
+    
+    /**
+     * Create a new RicePlan.
+     * @param partitionOrder The partition order.
+     * @param parameters The Rice parameter per partition.
+     * @param wideParameters Whether the 5 bit parameter coding method is needed.
+     * @param bits The estimated number of bits for the coded residual.
+     */
+    private RicePlan(final int partitionOrder, final int [] parameters, final boolean wideParameters, final long bits)
+    {
+      this.partitionOrder = partitionOrder;
+      this.parameters = parameters;
+      this.wideParameters = wideParameters;
+      this.bits = bits;
+    }
+  }
+}
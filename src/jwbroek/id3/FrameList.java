@@ -0,0 +1,170 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import jwbroek.id3.v2.MalformedFrameException;
+import jwbroek.id3.v2.UnsupportedEncodingException;
+
+/**
+ * The frames of a tag. Frames can be added undecoded, in which case only their type is known until they are
+ * accessed. Decoding errors at that point are reported as a {@link FrameDecodingException}.
+ * <p>
+ * Frames may be accessed from several threads at once; each frame is decoded only once. Like other lists, the list
+ * must not be modified while other threads access it.
+ */
+public class FrameList extends AbstractList<ID3Frame>
+{
+  /**
+   * Decodes the body of a single frame.
+   */
+  public interface FrameDecoder
+  {
+    public ID3Frame decode() throws IOException, UnsupportedEncodingException, MalformedFrameException;
+  }
+  
+  /**
+   * A frame, or the means to decode it. The decoder and frame are guarded by the entry itself.
+   */
+  private static class Entry
+  {
+    private final CanonicalFrameType canonicalFrameType;
+    private FrameDecoder decoder;
+    private ID3Frame frame;
+    
+    public Entry(final CanonicalFrameType canonicalFrameType, final FrameDecoder decoder, final ID3Frame frame)
+    {
+      this.canonicalFrameType = canonicalFrameType;
+      this.decoder = decoder;
+      this.frame = frame;
+    }
+  }
+  
+  private final List<Entry> entries = new ArrayList<Entry>();
+  
+  public FrameList()
+  {
+    
+  }
+  
+  /**
+   * Add a frame that will be decoded when it is first accessed.
+   * @param canonicalFrameType The type of the frame.
+   * @param decoder Decoder for the frame.
+   */
+  public void addUndecoded(final CanonicalFrameType canonicalFrameType, final FrameDecoder decoder)
+  {
+    this.entries.add(new Entry(canonicalFrameType, decoder, null));
+    this.modCount++;
+  }
+  
+  /**
+   * Get the type of a frame without decoding it.
+   * @param index Index of the frame.
+   * @return The type of the frame.
+   */
+  public CanonicalFrameType getCanonicalFrameType(final int index)
+  {
+    return this.entries.get(index).canonicalFrameType;
+  }
+  
+  /**
+   * @param index Index of the frame.
+   * @return Whether the frame at the index has been decoded.
+   */
+  public boolean isDecoded(final int index)
+  {
+    final Entry entry = this.entries.get(index);
+    synchronized (entry)
+    {
+      return entry.decoder == null;
+    }
+  }
+  
+  /**
+   * Get a frame, decoding it if it was added undecoded.
+   * @param index Index of the frame.
+   * @return The frame.
+   * @throws FrameDecodingException When the frame was added undecoded and could not be decoded. The frame stays
+   * undecoded, so later calls fail in the same way.
+   */
+  @Override
+  public ID3Frame get(final int index)
+  {
+    final Entry entry = this.entries.get(index);
+    synchronized (entry)
+    {
+      if (entry.decoder != null)
+      {
+        try
+        {
+          entry.frame = entry.decoder.decode();
+        }
+        catch (IOException e)
+        {
+          throw new FrameDecodingException("Could not decode " + entry.canonicalFrameType + " frame.", e);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+          throw new FrameDecodingException("Could not decode " + entry.canonicalFrameType + " frame.", e);
+        }
+        catch (MalformedFrameException e)
+        {
+          throw new FrameDecodingException("Could not decode " + entry.canonicalFrameType + " frame.", e);
+        }
+        entry.decoder = null;
+      }
+      return entry.frame;
+    }
+  }
+  
+  @Override
+  public int size()
+  {
+    return this.entries.size();
+  }
+  
+  @Override
+  public ID3Frame set(final int index, final ID3Frame frame)
+  {
+    final ID3Frame result = this.get(index);
+    this.entries.set(index, new Entry(frame.getCanonicalFrameType(), null, frame));
+    return result;
+  }
+  
+  @Override
+  public void add(final int index, final ID3Frame frame)
+  {
+    this.entries.add(index, new Entry(frame.getCanonicalFrameType(), null, frame));
+    this.modCount++;
+  }
+  
+  @Override
+  public ID3Frame remove(final int index)
+  {
+    final ID3Frame result = this.get(index);
+    this.entries.remove(index);
+    this.modCount++;
+    return result;
+  }
+}
@@ -0,0 +1,599 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3;
+
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Reads the tags of many files in parallel.
+ * <p>
+ * Files are taken from the input only as reads complete, and no more than a fixed number of reads are in progress or
+ * waiting to be handled at any time, so memory use does not depend on the size of the library. Results are passed to
+ * a {@link ResultHandler} on the thread that calls scan, in the order in which the reads complete. A slow handler
+ * therefore slows down the scan instead of letting results pile up.
+ * <p>
+ * Reads are run on the executor that is passed in, or on a fixed thread pool for the duration of the scan if there is
+ * none. Since the reads mostly wait for the disk, an executor that starts a virtual thread per task is a good fit;
+ * the concurrency setting still bounds the number of files that are open at once.
+ * <p>
+ * When scanning directories, each root and each of its subdirectories is walked on a thread of its own, so that
+ * slow directory listings, as on network storage, overlap with each other and with the reads. The walks hand files
+ * over through a bounded queue, so they cannot run far ahead of the reads.
+ * @author jwbroek
+ */
+public class ID3LibraryScanner
+{
+  /**
+   * The outcome of reading a single file.
+   */
+  public static class Result
+  {
+    private final Path path;
+    private final List<ID3Tag> tags;
+    private final List<Exception> errors;
+    
+    public Result(final Path path, final List<ID3Tag> tags, final List<Exception> errors)
+    {
+      this.path = path;
+      this.tags = tags;
+      this.errors = errors;
+    }
+    
+    /**
+     * @return The file that was read.
+     */
+    public Path getPath()
+    {
+      return this.path;
+    }
+    
+    /**
+     * @return The tags that were read. Empty if the file has no tags, or if it could not be read.
+     */
+    public List<ID3Tag> getTags()
+    {
+      return this.tags;
+    }
+    
+    /**
+     * @return The problems that prevented the file from being read. Empty if the file was read successfully.
+     */
+    public List<Exception> getErrors()
+    {
+      return this.errors;
+    }
+  }
+  
+  /**
+   * Receives the results of a scan.
+   */
+  public interface ResultHandler
+  {
+    /**
+     * Handle the result for a single file. Called on the thread that started the scan.
+     * @param result The result.
+     * @throws IOException When the result could not be handled. This stops the scan.
+     */
+    public void handle(Result result) throws IOException;
+  }
+  
+  /**
+   * Marks the end of a directory walk in its queue.
+   */
+  private static final Object END_OF_WALK = new Object();
+  
+  private final ID3ReaderFactory readerFactory;
+  private final Executor executor;
+  private final int concurrency;
+  
+  /**
+   * Create a new ID3LibraryScanner that reads with a thread per available processor.
+   * @param readerFactory The factory to read tags with.
+   */
+  public ID3LibraryScanner(final ID3ReaderFactory readerFactory)
+  {
+    this(readerFactory, null, Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Create a new ID3LibraryScanner.
+   * @param readerFactory The factory to read tags with.
+   * @param executor The executor to run reads on, or null to use a fixed thread pool of the specified concurrency for
+   * the duration of each scan. The executor is not shut down.
+   * @param concurrency The maximum number of reads that are in progress or waiting to be handled.
+   */
+  public ID3LibraryScanner(final ID3ReaderFactory readerFactory, final Executor executor, final int concurrency)
+  {
+    if (concurrency < 1)
+    {
+      throw new IllegalArgumentException("Concurrency must be at least 1, but is " + concurrency);
+    }
+    this.readerFactory = readerFactory;
+    this.executor = executor;
+    this.concurrency = concurrency;
+  }
+  
+  /**
+   * Read the tags of the specified files. The stream is consumed as the scan progresses.
+   * @param paths The files to read.
+   * @param handler Handler for the results.
+   * @throws IOException When a result could not be handled, or when the scan was interrupted. Problems reading
+   * individual files are reported in their results instead.
+   */
+  public void scan(final Stream<Path> paths, final ResultHandler handler) throws IOException
+  {
+    this.scan(paths.iterator(), handler);
+  }
+  
+  /**
+   * Read the tags of the specified files. The iterator is consumed as the scan progresses.
+   * @param paths The files to read.
+   * @param handler Handler for the results.
+   * @throws IOException When a result could not be handled, or when the scan was interrupted. Problems reading
+   * individual files are reported in their results instead.
+   */
+  public void scan(final Iterator<Path> paths, final ResultHandler handler) throws IOException
+  {
+    final Session session = new Session(handler);
+    try
+    {
+      while (paths.hasNext())
+      {
+        session.add(paths.next());
+      }
+      session.finish();
+    }
+    finally
+    {
+      session.close();
+    }
+  }
+  
+  /**
+   * Read the tags of all regular files below the specified roots. Directories that cannot be read are reported as
+   * results with an error, as are directories whose walk failed with a runtime exception, such as one thrown by the
+   * filter.
+   * @param roots The directories to scan. May also be regular files.
+   * @param fileFilter Filter for the files to read, or null to read all files. See
+   * {@link jwbroek.io.FileSelector} for common filters.
+   * @param handler Handler for the results.
+   * @throws IOException When a result could not be handled, when a walk failed with an Error, or when the scan was
+   * interrupted. Problems reading individual files are reported in their results instead.
+   */
+  public void scanRoots(final List<Path> roots, final FileFilter fileFilter, final ResultHandler handler)
+    throws IOException
+  {
+    final Session session = new Session(handler);
+    final Walk walk = new Walk(fileFilter);
+    try
+    {
+      for (final Path root : roots)
+      {
+        walk.start(root, true);
+      }
+      walk.finishStarting();
+      while (true)
+      {
+        final Object item = walk.take();
+        if (item == ID3LibraryScanner.END_OF_WALK)
+        {
+          break;
+        }
+        else if (item instanceof Result)
+        {
+          handler.handle((Result) item);
+        }
+        else if (item instanceof Error)
+        {
+          final IOException resultException = new IOException("Could not walk directories.");
+          resultException.initCause((Error) item);
+          throw resultException;
+        }
+        else
+        {
+          session.add((Path) item);
+        }
+      }
+      session.finish();
+    }
+    finally
+    {
+      walk.close();
+      session.close();
+    }
+  }
+  
+  /**
+   * Read the tags of a single file. Does not throw, so that one bad file does not stop the scan.
+   * @param path The file to read.
+   * @return The result.
+   */
+  private Result read(final Path path)
+  {
+    try
+    {
+      return new Result(path, this.readerFactory.readAll(path), Collections.<Exception>emptyList());
+    }
+    catch (Exception e)
+    {
+      return ID3LibraryScanner.createErrorResult(path, e);
+    }
+  }
+  
+  private static Result createErrorResult(final Path path, final Exception exception)
+  {
+    final List<Exception> errors = new ArrayList<Exception>(1);
+    errors.add(exception);
+    return new Result(path, Collections.<ID3Tag>emptyList(), errors);
+  }
+  
+  /**
+   * Walks directories in parallel for a single scan. Roots are listed on a thread of their own, and each of their
+   * subdirectories is walked on a thread of its own. Files and errors are passed to the scanning thread through a
+   * bounded queue, followed by {@link ID3LibraryScanner#END_OF_WALK} once all walks are done, whether they succeeded
+   * or not.
+   */
+  private class Walk
+  {
+    private final FileFilter fileFilter;
+    private final ExecutorService executor;
+    /**
+     * Files to read, as Path, directories that could not be read, as Result, and walks that failed with an Error.
+     */
+    private final BlockingQueue<Object> queue;
+    /**
+     * The number of walks that have been started but not finished, plus one until all roots have been started.
+     */
+    private final AtomicInteger pendingWalks = new AtomicInteger(1);
+    
+    public Walk(final FileFilter fileFilter)
+    {
+      this.fileFilter = fileFilter;
+      this.executor = Executors.newFixedThreadPool
+        ( ID3LibraryScanner.this.concurrency
+        , new ThreadFactory()
+          {
+            public Thread newThread(final Runnable runnable)
+            {
+              final Thread thread = new Thread(runnable, "ID3LibraryScanner-walk");
+              thread.setDaemon(true);
+              return thread;
+            }
+          }
+        );
+      this.queue = new ArrayBlockingQueue<Object>(ID3LibraryScanner.this.concurrency * 4);
+    }
+    
+    /**
+     * Start walking a directory on a thread of its own.
+     * @param start The directory or file to walk.
+     * @param topLevel Whether to walk only the top level, and start a walk of its own for each subdirectory.
+     */
+    public void start(final Path start, final boolean topLevel)
+    {
+      this.pendingWalks.incrementAndGet();
+      this.executor.execute
+        ( new Runnable()
+          {
+            public void run()
+            {
+              try
+              {
+                Walk.this.walk(start, topLevel);
+              }
+              catch (InterruptedException e)
+              {
+                // The scan was stopped. Keep the interrupt, so that signalling the end of the walk will not block.
+                Thread.currentThread().interrupt();
+              }
+              catch (RuntimeException e)
+              {
+                // Such as one thrown by the filter. Report it like a directory that could not be read.
+                Walk.this.putUnfiltered(ID3LibraryScanner.createErrorResult(start, e));
+              }
+              catch (Error e)
+              {
+                Walk.this.putUnfiltered(e);
+              }
+              finally
+              {
+                // Always signal the end of the walk, or the scanning thread would wait for it forever.
+                Walk.this.walkFinished();
+              }
+            }
+          }
+        );
+    }
+    
+    /**
+     * Signal that all roots have been started. When interrupted, the interrupt is kept, so that the next
+     * {@link #take()} fails.
+     */
+    public void finishStarting()
+    {
+      this.walkFinished();
+    }
+    
+    /**
+     * Take the next file or error, or {@link ID3LibraryScanner#END_OF_WALK}. Blocks until one is available.
+     * @return The next file or error, or {@link ID3LibraryScanner#END_OF_WALK}.
+     * @throws IOException When interrupted.
+     */
+    public Object take() throws IOException
+    {
+      try
+      {
+        return this.queue.take();
+      }
+      catch (InterruptedException e)
+      {
+        throw ID3LibraryScanner.createInterruptedException(e);
+      }
+    }
+    
+    /**
+     * Stop all walks that are still in progress.
+     */
+    public void close()
+    {
+      this.executor.shutdownNow();
+    }
+    
+    /**
+     * Signal that a walk has finished, and pass on {@link ID3LibraryScanner#END_OF_WALK} if it was the last one.
+     */
+    private void walkFinished()
+    {
+      if (this.pendingWalks.decrementAndGet() == 0)
+      {
+        this.putUnfiltered(ID3LibraryScanner.END_OF_WALK);
+      }
+    }
+    
+    /**
+     * Hand an item to the scanning thread, waiting for room in the queue, unless the scan was stopped. Unlike
+     * {@link #put(Object)}, the item is not filtered, and this is used outside of a file tree walk.
+     */
+    private void putUnfiltered(final Object item)
+    {
+      try
+      {
+        this.queue.put(item);
+      }
+      catch (InterruptedException e)
+      {
+        // The scan was stopped, so nobody is waiting for the item.
+        Thread.currentThread().interrupt();
+      }
+    }
+    
+    private void walk(final Path start, final boolean topLevel) throws InterruptedException
+    {
+      try
+      {
+        Files.walkFileTree
+          ( start
+          , EnumSet.noneOf(FileVisitOption.class)
+          , topLevel ? 1 : Integer.MAX_VALUE
+          , new SimpleFileVisitor<Path>()
+            {
+              @Override
+              public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+              {
+                if (attributes.isDirectory() && !file.equals(start))
+                {
+                  // Only seen at the maximum depth of a top level walk.
+                  Walk.this.start(file, false);
+                }
+                else if (attributes.isRegularFile())
+                {
+                  Walk.this.put(file);
+                }
+                return FileVisitResult.CONTINUE;
+              }
+              
+              @Override
+              public FileVisitResult visitFileFailed(final Path file, final IOException exception)
+              {
+                Walk.this.put(ID3LibraryScanner.createErrorResult(file, exception));
+                return FileVisitResult.CONTINUE;
+              }
+              
+              @Override
+              public FileVisitResult postVisitDirectory(final Path directory, final IOException exception)
+              {
+                if (exception != null)
+                {
+                  Walk.this.put(ID3LibraryScanner.createErrorResult(directory, exception));
+                }
+                return FileVisitResult.CONTINUE;
+              }
+            }
+          );
+      }
+      catch (IOException e)
+      {
+        this.put(ID3LibraryScanner.createErrorResult(start, e));
+      }
+      catch (InterruptedWalkException e)
+      {
+        throw (InterruptedException) e.getCause();
+      }
+    }
+    
+    /**
+     * Hand a file or error to the scanning thread, waiting for room in the queue. Files that do not pass the filter
+     * are dropped.
+     */
+    private void put(final Object item)
+    {
+      if (item instanceof Path && this.fileFilter != null && !this.fileFilter.accept(((Path) item).toFile()))
+      {
+        return;
+      }
+      try
+      {
+        this.queue.put(item);
+      }
+      catch (InterruptedException e)
+      {
+        // Visitors cannot throw InterruptedException, so carry it out of the walk.
+        throw new InterruptedWalkException(e);
+      }
+    }
+  }
+  
+  /**
+   * Carries an InterruptedException out of a file tree walk.
+   */
+  private static class InterruptedWalkException extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+    
+    public InterruptedWalkException(final InterruptedException cause)
+    {
+      super(cause);
+    }
+  }
+  
+  private static IOException createInterruptedException(final InterruptedException cause)
+  {
+    Thread.currentThread().interrupt();
+    final IOException resultException = new IOException("Interrupted while scanning for tags.");
+    resultException.initCause(cause);
+    return resultException;
+  }
+  
+  /**
+   * The state of a single scan. Keeps the number of reads in progress below the concurrency by handling results
+   * before new reads are started.
+   */
+  private class Session
+  {
+    private final ResultHandler handler;
+    private final ExecutorService ownExecutor;
+    private final CompletionService<Result> completionService;
+    private int pending = 0;
+    
+    public Session(final ResultHandler handler)
+    {
+      this.handler = handler;
+      if (ID3LibraryScanner.this.executor == null)
+      {
+        this.ownExecutor = Executors.newFixedThreadPool(ID3LibraryScanner.this.concurrency);
+        this.completionService = new ExecutorCompletionService<Result>(this.ownExecutor);
+      }
+      else
+      {
+        this.ownExecutor = null;
+        this.completionService = new ExecutorCompletionService<Result>(ID3LibraryScanner.this.executor);
+      }
+    }
+    
+    /**
+     * Start reading a file, after handling a result if the maximum number of reads is pending.
+     * @param path The file to read.
+     * @throws IOException When a result could not be handled, or when the scan was interrupted.
+     */
+    public void add(final Path path) throws IOException
+    {
+      if (this.pending >= ID3LibraryScanner.this.concurrency)
+      {
+        this.handleNext();
+      }
+      this.completionService.submit(new Callable<Result>()
+      {
+        public Result call()
+        {
+          return ID3LibraryScanner.this.read(path);
+        }
+      });
+      this.pending++;
+    }
+    
+    /**
+     * Handle the results of all pending reads.
+     * @throws IOException When a result could not be handled, or when the scan was interrupted.
+     */
+    public void finish() throws IOException
+    {
+      while (this.pending > 0)
+      {
+        this.handleNext();
+      }
+    }
+    
+    /**
+     * Stop the executor, if it was created for this scan. Reads that are still pending are abandoned.
+     */
+    public void close()
+    {
+      if (this.ownExecutor != null)
+      {
+        this.ownExecutor.shutdownNow();
+      }
+    }
+    
+    private void handleNext() throws IOException
+    {
+      final Result result;
+      try
+      {
+        result = this.completionService.take().get();
+      }
+      catch (ExecutionException e)
+      {
+        // Reads catch their own exceptions, so this is an Error.
+        final IOException resultException = new IOException("Could not read tags.");
+        resultException.initCause(e.getCause());
+        throw resultException;
+      }
+      catch (InterruptedException e)
+      {
+        throw ID3LibraryScanner.createInterruptedException(e);
+      }
+      this.pending--;
+      this.handler.handle(result);
+    }
+  }
+}
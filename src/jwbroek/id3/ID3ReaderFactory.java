@@ -21,21 +21,72 @@ package jwbroek.id3;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 import jwbroek.id3.v1.ID3v1Reader;
+import jwbroek.id3.v2.MalformedFrameException;
+import jwbroek.id3.v2.TagLoader;
+import jwbroek.id3.v2.UnsupportedEncodingException;
 import jwbroek.id3.v2.r00.ID3v2r00Reader;
 import jwbroek.id3.v2.r30.ID3v2r30Reader;
 import jwbroek.id3.v2.r40.ID3v2r40Reader;
+import jwbroek.io.FileWindow;
 
 public class ID3ReaderFactory
 {
+  /**
+   * Number of bytes read from the start of the file by {@link #readAll(Path)}. Tags that fit in this window need
+   * no further reads.
+   */
+  public static final int HEAD_WINDOW_SIZE = 32 * 1024;
+  
+  private boolean lazy = false;
+  private boolean verifyCrc = false;
+  
   public ID3ReaderFactory()
   {
     
   }
   
+  /**
+   * @return Whether the ID3v2 readers created by this factory decode frame bodies only when the frame is accessed.
+   */
+  public boolean isLazy()
+  {
+    return this.lazy;
+  }
+  
+  /**
+   * @param lazy Whether the ID3v2 readers created by this factory should decode frame bodies only when the frame is
+   * accessed. Use {@link ID3Tag#getFrames(CanonicalFrameType)} to get frames without decoding the others.
+   */
+  public void setLazy(final boolean lazy)
+  {
+    this.lazy = lazy;
+  }
+  
+  /**
+   * @return Whether the ID3v2 readers created by this factory check the CRC-32 that a tag declares.
+   */
+  public boolean isVerifyCrc()
+  {
+    return this.verifyCrc;
+  }
+  
+  /**
+   * @param verifyCrc Whether the ID3v2 readers created by this factory should check the CRC-32 that a tag declares.
+   * Tags that do not match have {@link ID3Tag#CRC32_VALID} set to false.
+   */
+  public void setVerifyCrc(final boolean verifyCrc)
+  {
+    this.verifyCrc = verifyCrc;
+  }
+  
   public ID3Reader getReader(final ID3Version version)
   {
     switch(version)
@@ -46,12 +97,20 @@ public class ID3ReaderFactory
         return new ID3v1Reader();
       case ID3v2r0:
       case ID3v2r2:
-        return new ID3v2r00Reader();
+        final ID3v2r00Reader r00Reader = new ID3v2r00Reader();
+        r00Reader.setLazy(this.lazy);
+        return r00Reader;
       case ID3v2r3:
-        return new ID3v2r30Reader();
+        final ID3v2r30Reader r30Reader = new ID3v2r30Reader();
+        r30Reader.setLazy(this.lazy);
+        r30Reader.setVerifyCrc(this.verifyCrc);
+        return r30Reader;
       case ID3v2:
       case ID3v2r4:
-        return new ID3v2r40Reader();
+        final ID3v2r40Reader r40Reader = new ID3v2r40Reader();
+        r40Reader.setLazy(this.lazy);
+        r40Reader.setVerifyCrc(this.verifyCrc);
+        return r40Reader;
       default:
         throw new RuntimeException("Unsupported ID3 version: " + version.toString());
     }
@@ -83,6 +142,9 @@ public class ID3ReaderFactory
         case 0:
           result = ID3Version.ID3v2r0;
           break;
+        case 2:
+          result = ID3Version.ID3v2r2;
+          break;
         case 3:
           result = ID3Version.ID3v2r3;
           break;
@@ -201,6 +263,104 @@ public class ID3ReaderFactory
     }
   }
   
+  /**
+   * Read all supported tags in the file, opening it only once. The start of the file and the last 128 bytes are
+   * each read with a single positional read. An ID3v2 tag that does not fit in {@link #HEAD_WINDOW_SIZE} costs
+   * one more read.
+   * @param path The file to read.
+   * @return The tags, ID3v2 first, then ID3v1. Empty if the file has no supported tags.
+   * @throws IOException
+   * @throws UnsupportedEncodingException
+   * @throws MalformedFrameException
+   */
+  public List<ID3Tag> readAll(final Path path) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    final List<ID3Tag> result = new ArrayList<ID3Tag>();
+    
+    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try
+    {
+      final long fileSize = channel.size();
+      
+      // First look for a V2 style tag.
+      final ByteBuffer head = ByteBuffer.allocate((int) Math.min(fileSize, ID3ReaderFactory.HEAD_WINDOW_SIZE));
+      TagLoader.readFully(channel, head, 0);
+      head.flip();
+      final int tagLength = TagLoader.getTagLength(head);
+      if (tagLength >= 0)
+      {
+        final ByteBuffer tagBuffer;
+        if (tagLength <= head.limit())
+        {
+          head.limit(tagLength);
+          tagBuffer = head;
+        }
+        else if (tagLength >= FileWindow.MIN_MAPPED_LENGTH)
+        {
+          tagBuffer = FileWindow.map(channel, 0, tagLength);
+        }
+        else
+        {
+          tagBuffer = ByteBuffer.allocate(tagLength);
+          final long headLength = head.limit();
+          tagBuffer.put(head);
+          TagLoader.readFully(channel, tagBuffer, headLength);
+          tagBuffer.flip();
+        }
+        final ID3Tag tag = this.readID3v2(tagBuffer);
+        if (tag != null)
+        {
+          result.add(tag);
+        }
+      }
+      
+      // Then for a V1 style tag.
+      if (fileSize >= ID3v1Reader.TAG_LENGTH)
+      {
+        final ByteBuffer tail = ByteBuffer.allocate(ID3v1Reader.TAG_LENGTH);
+        TagLoader.readFully(channel, tail, fileSize - ID3v1Reader.TAG_LENGTH);
+        tail.flip();
+        final ID3Tag tag = new ID3v1Reader().read(tail);
+        if (tag != null)
+        {
+          result.add(tag);
+        }
+      }
+    }
+    finally
+    {
+      channel.close();
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Read the ID3v2 tag in the buffer with the reader for its major version.
+   * @param buffer Buffer holding the entire tag, starting at the header.
+   * @return The tag, or null if the version is not supported.
+   * @throws IOException
+   * @throws UnsupportedEncodingException
+   * @throws MalformedFrameException
+   */
+  private ID3Tag readID3v2(final ByteBuffer buffer) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    final int majorVersion = buffer.get(buffer.position() + 3);
+    switch (majorVersion)
+    {
+      case 2:
+        return ((ID3v2r00Reader) this.getReader(ID3Version.ID3v2r2)).read(buffer);
+      case 3:
+        return ((ID3v2r30Reader) this.getReader(ID3Version.ID3v2r3)).read(buffer);
+      case 4:
+        return ((ID3v2r40Reader) this.getReader(ID3Version.ID3v2r4)).read(buffer);
+      default:
+        // TODO Emit warning.
+        // Version not supported.
+        return null;
+    }
+  }
+  
   public static void main(String ... param)
   {
     try
@@ -26,8 +26,17 @@ public class ID3Tag
 {
   public static final String COMPRESSION_USED = "compression_used"; 
   public static final String CRC32_HEX = "crc32_hex"; 
+  /**
+   * Whether the data matches {@link #CRC32_HEX}. Only set when the CRC-32 was verified while reading.
+   */
+  public static final String CRC32_VALID = "crc32_valid"; 
   public static final String EXPERIMENTAL = "experimental"; 
   public static final String EXTENDED_HEADER_SIZE = "extended_header_size"; 
+  /**
+   * Whether frames were left out while reading, because only frames of selected types were read. Writing such a tag
+   * would lose the other frames.
+   */
+  public static final String FRAMES_SKIPPED = "frames_skipped"; 
   public static final String PADDING_SIZE = "padding_size"; 
   public static final String UNSYNC_USED = "unsync_used"; 
   public static final String FOOTER_PRESENT = "footer_present"; 
@@ -35,7 +44,7 @@ public class ID3Tag
   
   private ID3Version version = ID3Version.ID3v2r4;
   private Properties flags = new Properties();
-  private List<ID3Frame> frames = new ArrayList<ID3Frame>();
+  private final FrameList frames = new FrameList();
   private int revision = 0;
   // TODO Make sure this is consistently with or without header. Decide which makes more sense.
   private int declaredSize = 0;
@@ -91,6 +100,32 @@ public class ID3Tag
   {
     return frames;
   }
+  
+  /**
+   * @return The frames, including access to frames that have not been decoded yet.
+   */
+  public FrameList getFrameList()
+  {
+    return this.frames;
+  }
+  
+  /**
+   * Get the frames of a type. Frames of other types are not decoded.
+   * @param canonicalFrameType The type of frame to get.
+   * @return The frames of the type, in tag order.
+   */
+  public List<ID3Frame> getFrames(final CanonicalFrameType canonicalFrameType)
+  {
+    final List<ID3Frame> result = new ArrayList<ID3Frame>();
+    for (int index = 0; index < this.frames.size(); index++)
+    {
+      if (this.frames.getCanonicalFrameType(index) == canonicalFrameType)
+      {
+        result.add(this.frames.get(index));
+      }
+    }
+    return result;
+  }
 
   /**
    * @return the revision
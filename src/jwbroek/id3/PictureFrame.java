@@ -18,12 +18,17 @@
  */
 package jwbroek.id3;
 
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import jwbroek.io.ByteBufferInputStream;
+
 public class PictureFrame implements ID3Frame
 {
   private int totalFrameSize;
@@ -36,7 +41,9 @@ public class PictureFrame implements ID3Frame
   // to the image.
   // TODO Tidy up for usecase when hyperlink is used.
   private String imageType; 
-  private byte[] imageData;
+  // May be a slice of the tag as read from the file, or of a mapping of the file, so it is never handed out writable.
+  // See copyToHeap for the mapped case.
+  private ByteBuffer image;
   
   public PictureFrame()
   {
@@ -146,11 +153,18 @@ public class PictureFrame implements ID3Frame
   }
 
   /**
-   * Get the imageData of this PictureFrame.
-   * @return The imageData of this PictureFrame.
+   * Get the imageData of this PictureFrame. This copies the image to the heap; prefer {@link #getImage()} or
+   * {@link #transferTo(WritableByteChannel)} for large images.
+   * @return A copy of the imageData of this PictureFrame.
    */
   public byte[] getImageData()
   {
+    if (this.image == null)
+    {
+      return null;
+    }
+    final byte[] imageData = new byte[this.image.remaining()];
+    this.image.duplicate().get(imageData);
     return imageData;
   }
 
@@ -160,7 +174,83 @@ public class PictureFrame implements ID3Frame
    */
   public void setImageData(byte[] imageData)
   {
-    this.imageData = imageData;
+    this.image = imageData == null ? null : ByteBuffer.wrap(imageData);
+  }
+  
+  /**
+   * Get the image of this PictureFrame without copying it.
+   * <p>
+   * Large images are mapped from the file that they were read from, until {@link #copyToHeap()} is called. Such an
+   * image reflects later changes to that file. If the file is truncated, reading the image may fail with an
+   * InternalError, or even crash the virtual machine, so call {@link #copyToHeap()} before truncating a file that
+   * pictures were read from.
+   * @return A read-only buffer holding the image of this PictureFrame, or null if there is no image.
+   */
+  public ByteBuffer getImage()
+  {
+    return this.image == null ? null : this.image.asReadOnlyBuffer();
+  }
+  
+  /**
+   * Set the image of this PictureFrame. The buffer is not copied, so it should not be modified afterwards.
+   * @param image The image of this PictureFrame, from the position to the limit of the buffer.
+   */
+  public void setImage(final ByteBuffer image)
+  {
+    this.image = image == null ? null : image.slice();
+  }
+  
+  /**
+   * @return The size of the image of this PictureFrame in bytes.
+   */
+  public int getImageSize()
+  {
+    return this.image == null ? 0 : this.image.remaining();
+  }
+  
+  /**
+   * Get the image of this PictureFrame as a stream, without copying it.
+   * @return A stream over the image of this PictureFrame, or null if there is no image.
+   */
+  public InputStream getImageInputStream()
+  {
+    return this.image == null ? null : new ByteBufferInputStream(this.getImage());
+  }
+  
+  /**
+   * Write the image of this PictureFrame to a channel. When the image is mapped from the file, it is not copied to the
+   * heap. The same hazards as for {@link #getImage()} apply.
+   * @param channel The channel to write to.
+   * @return The number of bytes written.
+   * @throws IOException When the image could not be written.
+   */
+  public long transferTo(final WritableByteChannel channel) throws IOException
+  {
+    if (this.image == null)
+    {
+      return 0;
+    }
+    final ByteBuffer source = this.image.duplicate();
+    long bytesWritten = 0;
+    while (source.hasRemaining())
+    {
+      bytesWritten += channel.write(source);
+    }
+    return bytesWritten;
+  }
+  
+  /**
+   * Copy the image of this PictureFrame to the heap if it is mapped from the file that it was read from, so that it
+   * no longer depends on that file. {@link jwbroek.id3.v2.TagWriter} does this for the tag that it overwrites in
+   * place.
+   */
+  public void copyToHeap()
+  {
+    // Mapped buffers are direct.
+    if (this.image != null && this.image.isDirect())
+    {
+      this.setImageData(this.getImageData());
+    }
   }
   
   public enum PictureType
@@ -0,0 +1,145 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * A frame of a type that cannot be decoded, such as lyrics or ratings. The frame is kept as it was stored, so that it
+ * can be written back unchanged into a tag of the same version. Only unsynchronisation has been undone.
+ * @author jwbroek
+ */
+public class RawFrame implements ID3Frame
+{
+  private final ID3Version version;
+  private final String frameName;
+  private final int formatFlags;
+  private ByteBuffer data;
+  private final int totalFrameSize;
+  private Properties flags = new Properties();
+  
+  /**
+   * Create a new RawFrame.
+   * @param version The version of the tag that the frame was read from.
+   * @param frameName The name of the frame, as stored.
+   * @param formatFlags The two flag bytes of the frame header, as stored but with the unsynchronisation flag cleared.
+   * Always 0 for ID3v2.2, which has no frame flags.
+   * @param data Everything after the frame header, from its position to its limit. Includes the extra bytes that
+   * the flags call for, such as the group identifier or the data length indicator.
+   * @param totalFrameSize The size of the frame as stored, including the header.
+   */
+  public RawFrame
+    ( final ID3Version version
+    , final String frameName
+    , final int formatFlags
+    , final ByteBuffer data
+    , final int totalFrameSize
+    )
+  {
+    this.version = version;
+    this.frameName = frameName;
+    this.formatFlags = formatFlags;
+    this.data = data.slice();
+    this.totalFrameSize = totalFrameSize;
+  }
+  
+  @Override
+  public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder .append("Raw frame: ").append(this.frameName)
+            .append(" [").append(this.totalFrameSize).append("] ").append(this.version).append('\n')
+            .append("Flags: ").append(this.flags.toString()).append('\n')
+            .append("Data: ").append(this.data.remaining()).append(" bytes")
+            ;
+    return builder.toString();
+  }
+  
+  /**
+   * @return The version of the tag that the frame was read from. The frame can only be written back into a tag of
+   * this version.
+   */
+  public ID3Version getVersion()
+  {
+    return this.version;
+  }
+  
+  /**
+   * @return The name of the frame, as stored.
+   */
+  public String getFrameName()
+  {
+    return this.frameName;
+  }
+  
+  /**
+   * @return The two flag bytes of the frame header, with the unsynchronisation flag cleared.
+   */
+  public int getFormatFlags()
+  {
+    return this.formatFlags;
+  }
+  
+  /**
+   * Get everything after the frame header. For large tags, this is mapped from the file that the frame was read from,
+   * with the same hazards as described for {@link PictureFrame#getImage()}, until {@link #copyToHeap()} is called.
+   * @return Everything after the frame header, as a read-only buffer of its own.
+   */
+  public ByteBuffer getData()
+  {
+    return this.data.asReadOnlyBuffer();
+  }
+  
+  /**
+   * Copy the data of this RawFrame to the heap if it is mapped from the file that it was read from, so that it no
+   * longer depends on that file. {@link jwbroek.id3.v2.TagWriter} does this for the tag that it overwrites in place.
+   */
+  public void copyToHeap()
+  {
+    // Mapped buffers are direct.
+    if (this.data.isDirect())
+    {
+      final byte [] bytes = new byte[this.data.remaining()];
+      this.data.duplicate().get(bytes);
+      this.data = ByteBuffer.wrap(bytes);
+    }
+  }
+  
+  /**
+   * @return the declaredSize
+   */
+  public int getTotalFrameSize()
+  {
+    return this.totalFrameSize;
+  }
+  
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.UNRECOGNISED_FRAME;
+  }
+  
+  /**
+   * @return the flags
+   */
+  public Properties getFlags()
+  {
+    return this.flags;
+  }
+}
@@ -90,6 +90,6 @@ public class UniqueFileIdentifierFrame implements ID3Frame
 
   public CanonicalFrameType getCanonicalFrameType()
   {
-    return CanonicalFrameType.MUSIC_CD_IDENTIFIER;
+    return CanonicalFrameType.UNIQUE_FILE_IDENTIFIER;
   }
 }
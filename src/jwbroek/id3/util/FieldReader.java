@@ -60,6 +60,25 @@ public class FieldReader
     }
     
     final byte [] b = new byte[length];
+    
+    if (input.markSupported())
+    {
+      // In-memory input: read the whole field at once, then give back what follows the nul.
+      input.mark(length);
+      final int bytesRead = Math.max(0, input.read(b, 0, length));
+      input.reset();
+      for (int index = 0; index < bytesRead; index++)
+      {
+        if (b[index] == 0 && (singleNul || (index > 0 && b[index - 1] == 0)))
+        {
+          input.skip(index + 1);
+          return new String(b, 0, index - (singleNul?0:1), charset);
+        }
+      }
+      input.skip(bytesRead);
+      return new String(b, 0, bytesRead, charset);
+    }
+    
     int previousValue = -1;
     
     for (int index = 0; index < length; index++)
@@ -88,4 +107,14 @@ public class FieldReader
     final int nulPosition = rawResult.indexOf(0);
     return rawResult.substring(0, (nulPosition==-1)?rawResult.length():nulPosition);
   }
+  
+  /**
+   * Append a byte as exactly two hex digits, so that the bytes can be recovered from the text.
+   * @param builder The builder to append to.
+   * @param value The byte, as returned by {@link InputStream#read()}.
+   */
+  public static void appendHex(final StringBuilder builder, final int value)
+  {
+    builder.append(Character.forDigit((value >> 4) & 15, 16)).append(Character.forDigit(value & 15, 16));
+  }
 }
@@ -21,6 +21,7 @@ package jwbroek.id3.v1;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.ID3Tag;
@@ -30,6 +31,8 @@ import jwbroek.id3.TextFrame;
 
 public class ID3v1Reader implements ID3Reader
 {
+  public static final int TAG_LENGTH = 128;
+  
   public ID3v1Reader()
   {
     
@@ -65,70 +68,108 @@ public class ID3v1Reader implements ID3Reader
    */
   public ID3Tag read(final File file) throws IOException
   {
-    ID3Tag tag = new ID3Tag();
     final RandomAccessFile input = new RandomAccessFile(file, "r");
     try
     {
-      if (input.length() >= 128)
+      if (input.length() >= ID3v1Reader.TAG_LENGTH)
       {
-        input.seek(input.length()-128);
-        if  ( input.readUnsignedByte() == 'T'
-            && input.readUnsignedByte() == 'A'
-            && input.readUnsignedByte() == 'G'
-            )
-        {
-          tag.setVersion(ID3Version.ID3v1r0);
-          // TODO Don't create frame if field is empty?
-          tag.getFrames().add(new TextFrame(CanonicalFrameType.TITLE, ID3v1Reader.getField(input, 30), 30));
-          tag.getFrames().add(new TextFrame(CanonicalFrameType.PERFORMER, ID3v1Reader.getField(input, 30), 30));
-          tag.getFrames().add(new TextFrame(CanonicalFrameType.ALBUM, ID3v1Reader.getField(input, 30), 30));
-          tag.getFrames().add(new TextFrame(CanonicalFrameType.YEAR, ID3v1Reader.getField(input, 4), 4));
-          // Remember as we may extract a track number from it.
-          final TextFrame commentFrame = new TextFrame(CanonicalFrameType.COMMENT, ID3v1Reader.getField(input, 30), 30);
-          tag.getFrames().add(commentFrame);
-          final int rawGenre = input.readUnsignedByte();
-          if (rawGenre != 0)
-          {
-            // TODO Perhaps a message indicating that genre was not set, if this is the case.
-            // TODO Genre is in different form than is the case for v2 tags. Normalise somehow.
-            tag.getFrames().add(new TextFrame(CanonicalFrameType.CONTENT_TYPE, "" + rawGenre, 1));
-          }
-          // ID3 1.1 extension.
-          input.seek(input.length()-3);
-          final int trackNoMarker = input.readUnsignedByte();
-          final int rawTrackNo = input.readUnsignedByte();
-          if (trackNoMarker == 0)
-          {
-            if (rawTrackNo != 0)
-            {
-              // TODO Track no is in different form than is the case for v2 tags. Normalise somehow.
-              tag.getFrames().add(new TextFrame(CanonicalFrameType.TRACK_NO, "" + rawTrackNo, 1));
-              // Comment actually size 28.
-              commentFrame.setTotalFrameSize(28);
-              tag.setVersion(ID3Version.ID3v1r1);
-            }
-          }
-        }
-        else
-        {
-          // Not a valid ID3v1 tag.
-          tag = null;
-        }
+        // Read the entire tag at once.
+        final byte [] tagBytes = new byte[ID3v1Reader.TAG_LENGTH];
+        input.seek(input.length()-ID3v1Reader.TAG_LENGTH);
+        input.readFully(tagBytes);
+        return this.read(ByteBuffer.wrap(tagBytes));
       }
       else
       {
         // File too small to contain ID3v1 data.
-        tag = null;
+        return null;
       }
     }
     finally
     {
       input.close();
     }
+  }
+  
+  /**
+   * Read the tag from a buffer that holds the last 128 bytes of the file.
+   */
+  public ID3Tag read(final ByteBuffer buffer)
+  {
+    ID3Tag tag = new ID3Tag();
+    final int start = buffer.position();
+    if  ( buffer.remaining() >= ID3v1Reader.TAG_LENGTH
+        && buffer.get() == 'T'
+        && buffer.get() == 'A'
+        && buffer.get() == 'G'
+        )
+    {
+      tag.setVersion(ID3Version.ID3v1r0);
+      // TODO Don't create frame if field is empty?
+      tag.getFrames().add(new TextFrame(CanonicalFrameType.TITLE, ID3v1Reader.getField(buffer, 30), 30));
+      tag.getFrames().add(new TextFrame(CanonicalFrameType.PERFORMER, ID3v1Reader.getField(buffer, 30), 30));
+      tag.getFrames().add(new TextFrame(CanonicalFrameType.ALBUM, ID3v1Reader.getField(buffer, 30), 30));
+      tag.getFrames().add(new TextFrame(CanonicalFrameType.YEAR, ID3v1Reader.getField(buffer, 4), 4));
+      // Remember as we may extract a track number from it.
+      final TextFrame commentFrame = new TextFrame(CanonicalFrameType.COMMENT, ID3v1Reader.getField(buffer, 30), 30);
+      tag.getFrames().add(commentFrame);
+      final int rawGenre = buffer.get() & 0xFF;
+      if (rawGenre != 0)
+      {
+        // TODO Perhaps a message indicating that genre was not set, if this is the case.
+        // TODO Genre is in different form than is the case for v2 tags. Normalise somehow.
+        tag.getFrames().add(new TextFrame(CanonicalFrameType.CONTENT_TYPE, "" + rawGenre, 1));
+      }
+      // ID3 1.1 extension.
+      final int trackNoMarker = buffer.get(start + ID3v1Reader.TAG_LENGTH - 3) & 0xFF;
+      final int rawTrackNo = buffer.get(start + ID3v1Reader.TAG_LENGTH - 2) & 0xFF;
+      if (trackNoMarker == 0)
+      {
+        if (rawTrackNo != 0)
+        {
+          // TODO Track no is in different form than is the case for v2 tags. Normalise somehow.
+          tag.getFrames().add(new TextFrame(CanonicalFrameType.TRACK_NO, "" + rawTrackNo, 1));
+          // Comment actually size 28.
+          commentFrame.setTotalFrameSize(28);
+          tag.setVersion(ID3Version.ID3v1r1);
+        }
+      }
+    }
+    else
+    {
+      // Not a valid ID3v1 tag.
+      tag = null;
+    }
     
     return tag;
   }
   
+  public static String getField
+    ( final ByteBuffer buffer
+    , final int length
+    )
+  {
+    final StringBuffer result = new StringBuffer();
+    final int end = buffer.position() + length;
+    while (buffer.position() < end)
+    {
+      int i = buffer.get() & 0xFF;
+      
+      if (i==0)
+      {
+        // End of buffer.
+        buffer.position(end);
+        break;
+      }
+      else
+      {
+        result.append((char) i);
+      }
+    }
+    // TODO remove trailing spaces if desired.
+    return result.toString();
+  }
+  
   public static String getField
     ( final RandomAccessFile input
     , final int length
@@ -0,0 +1,124 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the bodies of ID3v2.3 and ID3v2.4 frames that were compressed with zlib. {@link Inflater}s are taken
+ * from a small shared pool and returned after use, so that reading many compressed frames does not allocate a native
+ * zlib stream per frame. This also holds when every file is read on a new (virtual) thread. Inflaters that do not fit
+ * in the pool are ended straight away, so their native memory does not wait for garbage collection.
+ * @author jwbroek
+ */
+public class FrameInflater
+{
+  /**
+   * zlib cannot compress by more than a factor of about 1032, so a declared size beyond that is not to be trusted for
+   * sizing the output.
+   */
+  private static final int MAX_COMPRESSION_RATIO = 1032;
+  
+  /**
+   * The maximum number of idle inflaters that are kept for reuse.
+   */
+  private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+  
+  private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(FrameInflater.POOL_SIZE);
+  
+  private FrameInflater()
+  {
+    // No need to instantiate.
+  }
+  
+  /**
+   * Decompress a frame body.
+   * @param body The compressed body, from its position to its limit. The position of the buffer is not changed.
+   * @param decompressedSize The size of the body after decompression as declared in the frame, or -1 if unknown. Only
+   * used to size the output.
+   * @return A buffer holding the decompressed body.
+   * @throws MalformedFrameException When the body is not valid zlib data, or ends before the data is complete.
+   */
+  public static ByteBuffer inflate(final ByteBuffer body, final int decompressedSize) throws MalformedFrameException
+  {
+    final Inflater inflater = FrameInflater.borrowInflater();
+    try
+    {
+      return FrameInflater.inflate(inflater, body, decompressedSize);
+    }
+    finally
+    {
+      FrameInflater.returnInflater(inflater);
+    }
+  }
+  
+  private static ByteBuffer inflate(final Inflater inflater, final ByteBuffer body, final int decompressedSize)
+    throws MalformedFrameException
+  {
+    inflater.setInput(body.duplicate());
+    
+    final long maxSize = (long) body.remaining() * FrameInflater.MAX_COMPRESSION_RATIO + 16;
+    byte [] result = new byte[decompressedSize >= 0 && decompressedSize <= maxSize
+                             ? decompressedSize
+                             : Math.max(64, body.remaining() * 4)
+                             ];
+    int size = 0;
+    try
+    {
+      while (!inflater.finished())
+      {
+        if (size == result.length)
+        {
+          result = Arrays.copyOf(result, Math.max(64, result.length * 2));
+        }
+        final int chunkSize = inflater.inflate(result, size, result.length - size);
+        if (chunkSize == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+        {
+          throw new MalformedFrameException("Compressed frame ends after " + size + " decompressed bytes.");
+        }
+        size += chunkSize;
+      }
+    }
+    catch (DataFormatException e)
+    {
+      throw new MalformedFrameException("Could not decompress frame.", e);
+    }
+    return ByteBuffer.wrap(result, 0, size);
+  }
+  
+  private static Inflater borrowInflater()
+  {
+    final Inflater inflater = FrameInflater.inflaters.poll();
+    return inflater == null ? new Inflater() : inflater;
+  }
+  
+  private static void returnInflater(final Inflater inflater)
+  {
+    inflater.reset();
+    if (!FrameInflater.inflaters.offer(inflater))
+    {
+      inflater.end();
+    }
+  }
+}
@@ -21,10 +21,16 @@ package jwbroek.id3.v2;
 import java.io.IOException;
 import java.io.InputStream;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.ID3Frame;
 
 public interface FrameReader
 {
+  /**
+   * @return The type of the frames that this reader produces.
+   */
+  public CanonicalFrameType getCanonicalFrameType();
+  
   public ID3Frame readFrameBody(final int size, final InputStream input)
     throws IOException, UnsupportedEncodingException, MalformedFrameException;
 }
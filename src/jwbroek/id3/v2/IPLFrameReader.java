@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.InvolvedPeopleFrame;
 
 public class IPLFrameReader implements FrameReader
@@ -33,6 +34,11 @@ public class IPLFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
   
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.INVOLVED_PEOPLE_LIST;
+  }
+  
   public InvolvedPeopleFrame readFrameBody(final int size, final InputStream input)
     throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
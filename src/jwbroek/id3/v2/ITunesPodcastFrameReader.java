@@ -6,7 +6,9 @@ package jwbroek.id3.v2;
 import java.io.IOException;
 import java.io.InputStream;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.ITunesPodcastFrame;
+import jwbroek.id3.util.FieldReader;
 
 public class ITunesPodcastFrameReader implements FrameReader
 {
@@ -17,6 +19,11 @@ public class ITunesPodcastFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
   
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.ITUNES_PODCAST;
+  }
+  
   public ITunesPodcastFrame readFrameBody(final int size, final InputStream input)
       throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
@@ -24,7 +31,7 @@ public class ITunesPodcastFrameReader implements FrameReader
     final StringBuilder payloadBuilder = new StringBuilder();
     for (int index = 0; index < 4; index++)
     {
-      payloadBuilder.append(Integer.toHexString(input.read()));
+      FieldReader.appendHex(payloadBuilder, input.read());
     }
     result.setPayload(payloadBuilder.toString());
     return result;
@@ -21,7 +21,9 @@ package jwbroek.id3.v2;
 import java.io.IOException;
 import java.io.InputStream;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.MusicCDIdentifierFrame;
+import jwbroek.id3.util.FieldReader;
 
 public class MCIFrameReader implements FrameReader
 {
@@ -32,6 +34,11 @@ public class MCIFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
   
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.MUSIC_CD_IDENTIFIER;
+  }
+  
   public MusicCDIdentifierFrame readFrameBody(final int size, final InputStream input)
     throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
@@ -40,10 +47,10 @@ public class MCIFrameReader implements FrameReader
     final StringBuilder hexBuilder = new StringBuilder();
     for (int index = 0; index < size; index++)
     {
-      hexBuilder.append(Integer.toHexString(input.read()));
+      FieldReader.appendHex(hexBuilder, input.read());
     }
     result.setHexTOC(hexBuilder.toString());
     
     return result;
   }
-}
\ No newline at end of file
+}
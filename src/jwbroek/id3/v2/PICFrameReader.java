@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.CommentFrame;
 import jwbroek.id3.ID3Frame;
 import jwbroek.id3.PictureFrame;
@@ -41,7 +42,15 @@ public class PICFrameReader implements FrameReader
   public PICFrameReader(final int headerSize, final boolean v2r00Mode)
   {
     this.headerSize = headerSize;
-    this.imageTypeSize = 3;
+    if (v2r00Mode)
+    {
+      this.imageTypeSize = 3;
+    }
+  }
+  
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.PICTURE;
   }
   
   public PictureFrame readFrameBody(final int size, final InputStream input)
@@ -91,10 +100,8 @@ public class PICFrameReader implements FrameReader
     // TODO Size is actually a maximum of 64 in 2.2 and 2.3.
     result.setDescription(FieldReader.readUntilNul(countingInput, size, charset));
     
-    // Remainder of frame is data.
-    final byte[] imageData = new byte[size-(int)countingInput.getBytesRead()];
-    countingInput.read(imageData);
-    result.setImageData(imageData);
+    // Remainder of frame is data. Data that is already in memory is not copied.
+    result.setImage(TagLoader.readBytes(input, size - (int) countingInput.getBytesRead()));
     
     return result;
   }
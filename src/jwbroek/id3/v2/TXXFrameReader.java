@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.UserDefinedTextFrame;
 
 public class TXXFrameReader implements FrameReader
@@ -33,6 +34,11 @@ public class TXXFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
   
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.USER_DEFINED_TEXT;
+  }
+  
   public UserDefinedTextFrame readFrameBody(final int size, final InputStream input)
     throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
@@ -82,4 +88,4 @@ public class TXXFrameReader implements FrameReader
     
     return result;
   }
-}
\ No newline at end of file
+}
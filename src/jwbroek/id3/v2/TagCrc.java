@@ -0,0 +1,89 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import jwbroek.id3.ID3Tag;
+import jwbroek.id3.util.FieldReader;
+
+/**
+ * Checks the CRC-32 that ID3v2.3 and ID3v2.4 tags can declare in their extended header. The check runs over the
+ * tag data that is already in memory for parsing, so it does not read the file again.
+ * @author jwbroek
+ */
+public class TagCrc
+{
+  private TagCrc()
+  {
+    // No need to instantiate.
+  }
+  
+  /**
+   * Format a CRC-32 as it is stored in {@link ID3Tag#CRC32_HEX}: eight hex digits.
+   * @param crc The CRC-32.
+   * @return The CRC-32 as hex.
+   */
+  public static String toHex(final long crc)
+  {
+    final StringBuilder hexBuilder = new StringBuilder(8);
+    for (int shift = 24; shift >= 0; shift -= 8)
+    {
+      FieldReader.appendHex(hexBuilder, (int) (crc >> shift) & 255);
+    }
+    return hexBuilder.toString();
+  }
+  
+  /**
+   * Compute the CRC-32 of part of a buffer.
+   * @param data The data, starting at the position of the buffer. The position of the buffer is not changed.
+   * @param length The number of bytes to include. Limited to the bytes that remain in the buffer.
+   * @return The CRC-32.
+   */
+  public static long compute(final ByteBuffer data, final long length)
+  {
+    final ByteBuffer range = data.duplicate();
+    range.limit(range.position() + (int) Math.max(0, Math.min(length, range.remaining())));
+    final CRC32 crc = new CRC32();
+    crc.update(range);
+    return crc.getValue();
+  }
+  
+  /**
+   * Check the CRC-32 that the tag declares against the data, and record the outcome as {@link ID3Tag#CRC32_VALID}.
+   * Does nothing if the tag declares no CRC-32.
+   * @param tag The tag, with {@link ID3Tag#CRC32_HEX} set from its extended header.
+   * @param data The data the CRC-32 covers, starting at the position of the buffer. The position of the buffer is
+   * not changed.
+   * @param length The number of bytes the CRC-32 covers.
+   * @return False if the CRC-32 does not match, true otherwise.
+   */
+  public static boolean verify(final ID3Tag tag, final ByteBuffer data, final long length)
+  {
+    final String declaredHex = tag.getFlags().getProperty(ID3Tag.CRC32_HEX);
+    if (declaredHex == null)
+    {
+      return true;
+    }
+    final boolean valid = TagCrc.toHex(TagCrc.compute(data, length)).equals(declaredHex);
+    tag.getFlags().setProperty(ID3Tag.CRC32_VALID, Boolean.toString(valid));
+    return valid;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import jwbroek.io.ByteBufferInputStream;
+import jwbroek.io.FileWindow;
+
+/**
+ * Loads an entire ID3v2 tag into memory with a single read, so that it can be parsed without going back to the file
+ * for every byte. Large tags are mapped instead, which keeps embedded pictures off the heap.
+ * @author jwbroek
+ */
+public class TagLoader
+{
+  /**
+   * Length of the ID3v2 tag header, which is not included in the size it declares.
+   */
+  public static final int HEADER_LENGTH = 10;
+  /**
+   * Number of bytes read by {@link #readHead(FileChannel)}. Enough for the header and any extended header.
+   */
+  public static final int HEAD_LENGTH = 64;
+  
+  /**
+   * Private constructor, as this class only has static methods.
+   */
+  private TagLoader()
+  {
+    // No need to instantiate.
+  }
+  
+  /**
+   * Get the length of the tag whose header starts at the position of the buffer. The position of the buffer is not
+   * changed.
+   * @param buffer Buffer that contains the header.
+   * @return The length of the tag including the header, or -1 if there is no valid ID3v2 header.
+   */
+  public static int getTagLength(final ByteBuffer buffer)
+  {
+    final int start = buffer.position();
+    if  ( buffer.remaining() < TagLoader.HEADER_LENGTH
+        || buffer.get(start) != 'I'
+        || buffer.get(start + 1) != 'D'
+        || buffer.get(start + 2) != '3'
+        )
+    {
+      return -1;
+    }
+    int size = 0;
+    for (int index = 6; index < TagLoader.HEADER_LENGTH; index++)
+    {
+      final int sizeByte = buffer.get(start + index);
+      if (sizeByte < 0)  // Top bit cannot be used.
+      {
+        return -1;
+      }
+      size = size * 128 + sizeByte;
+    }
+    return size + TagLoader.HEADER_LENGTH;
+  }
+  
+  /**
+   * Read the tag at the start of the file.
+   * @param channel The file.
+   * @return A buffer containing the header and body of the tag, or null if there is no valid ID3v2 header. If the
+   * file is shorter than the declared size, then the buffer will contain only the part that is present. Tags of at
+   * least {@link FileWindow#MIN_MAPPED_LENGTH} bytes are mapped read-only.
+   * @throws IOException
+   */
+  public static ByteBuffer readTag(final FileChannel channel) throws IOException
+  {
+    final ByteBuffer header = ByteBuffer.allocate(TagLoader.HEADER_LENGTH);
+    TagLoader.readFully(channel, header, 0);
+    header.flip();
+    final int tagLength = TagLoader.getTagLength(header);
+    if (tagLength < 0)
+    {
+      return null;
+    }
+    if (tagLength >= FileWindow.MIN_MAPPED_LENGTH)
+    {
+      return FileWindow.map(channel, 0, tagLength);
+    }
+    final ByteBuffer result = ByteBuffer.allocate(tagLength);
+    result.put(header);
+    TagLoader.readFully(channel, result, TagLoader.HEADER_LENGTH);
+    result.flip();
+    return result;
+  }
+  
+  /**
+   * Read the start of the tag at the start of the file, up to {@link #HEAD_LENGTH} bytes.
+   * @param channel The file.
+   * @return A buffer containing the header and what follows it, but no more than the tag, or null if there is no
+   * valid ID3v2 header.
+   * @throws IOException
+   */
+  public static ByteBuffer readHead(final FileChannel channel) throws IOException
+  {
+    final ByteBuffer result = ByteBuffer.allocate(TagLoader.HEAD_LENGTH);
+    TagLoader.readFully(channel, result, 0);
+    result.flip();
+    final int tagLength = TagLoader.getTagLength(result);
+    if (tagLength < 0)
+    {
+      return null;
+    }
+    result.limit(Math.min(tagLength, result.limit()));
+    return result;
+  }
+  
+  /**
+   * Read the tag at the start of the file.
+   * @param file The file.
+   * @return See {@link #readTag(FileChannel)}.
+   * @throws IOException
+   */
+  public static ByteBuffer readTag(final File file) throws IOException
+  {
+    final FileInputStream input = new FileInputStream(file);
+    try
+    {
+      return TagLoader.readTag(input.getChannel());
+    }
+    finally
+    {
+      input.close();
+    }
+  }
+  
+  /**
+   * Fill the remainder of the buffer with positional reads, or until the end of the file.
+   * @param channel The file.
+   * @param buffer The buffer to fill.
+   * @param position The position in the file to start reading at.
+   * @throws IOException
+   */
+  public static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+    throws IOException
+  {
+    FileWindow.readFully(channel, buffer, position);
+  }
+  
+  /**
+   * Take the next bytes of the input as a buffer. Input that is already in memory is not copied.
+   * @param input The input.
+   * @param size The number of bytes to take.
+   * @return A buffer with the bytes. Holds less than size bytes if the input ends first.
+   * @throws IOException
+   */
+  public static ByteBuffer readBytes(final InputStream input, final int size) throws IOException
+  {
+    if (input instanceof ByteBufferInputStream)
+    {
+      final ByteBuffer buffer = ((ByteBufferInputStream) input).getBuffer();
+      final ByteBuffer result = buffer.slice();
+      result.limit(Math.min(Math.max(0, size), result.remaining()));
+      buffer.position(buffer.position() + result.limit());
+      return result;
+    }
+    final byte [] bytes = new byte[Math.max(0, size)];
+    int bytesRead = 0;
+    while (bytesRead < bytes.length)
+    {
+      final int chunkSize = input.read(bytes, bytesRead, bytes.length - bytesRead);
+      if (chunkSize < 0)
+      {
+        break;
+      }
+      bytesRead += chunkSize;
+    }
+    return ByteBuffer.wrap(bytes, 0, bytesRead);
+  }
+}
@@ -0,0 +1,547 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+import jwbroek.id3.CanonicalFrameType;
+import jwbroek.id3.CommentFrame;
+import jwbroek.id3.ID3Frame;
+import jwbroek.id3.ID3Tag;
+import jwbroek.id3.ID3Version;
+import jwbroek.id3.ITunesPodcastFrame;
+import jwbroek.id3.InvolvedPeopleFrame;
+import jwbroek.id3.MusicCDIdentifierFrame;
+import jwbroek.id3.PictureFrame;
+import jwbroek.id3.RawFrame;
+import jwbroek.id3.TextFrame;
+import jwbroek.id3.URLFrame;
+import jwbroek.id3.UniqueFileIdentifierFrame;
+import jwbroek.id3.UserDefinedTextFrame;
+import jwbroek.id3.UserDefinedURLFrame;
+
+/**
+ * Writes ID3v2.3 and ID3v2.4 tags. When the new tag fits in the space of the tag that is already in the file, including
+ * its padding, the tag is overwritten in place and the rest of the file is left alone. Otherwise the file is rewritten
+ * once with plenty of padding, so that later edits can again be done in place.
+ * @author jwbroek
+ */
+public class TagWriter
+{
+  /**
+   * Default amount of padding to add when the file has to be rewritten.
+   */
+  public static final int DEFAULT_PADDING = 8 * 1024;
+  /**
+   * The largest tag size that can be expressed in the header.
+   */
+  private static final int MAX_TAG_SIZE = (1 << 28) - 1;
+  
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+  private static final jwbroek.id3.v2.r30.FrameDictionary r30Dictionary = new jwbroek.id3.v2.r30.FrameDictionary();
+  private static final jwbroek.id3.v2.r40.FrameDictionary r40Dictionary = new jwbroek.id3.v2.r40.FrameDictionary();
+  
+  private final ID3Version version;
+  private int padding = TagWriter.DEFAULT_PADDING;
+  
+  /**
+   * Create a new TagWriter.
+   * @param version The version to write. Either {@link ID3Version#ID3v2r3} or {@link ID3Version#ID3v2r4}.
+   */
+  public TagWriter(final ID3Version version)
+  {
+    if (version != ID3Version.ID3v2r3 && version != ID3Version.ID3v2r4)
+    {
+      throw new IllegalArgumentException("Unsupported ID3 version for writing: " + version);
+    }
+    this.version = version;
+  }
+  
+  /**
+   * @return The amount of padding that is added when the file has to be rewritten.
+   */
+  public int getPadding()
+  {
+    return this.padding;
+  }
+  
+  /**
+   * @param padding The amount of padding to add when the file has to be rewritten.
+   */
+  public void setPadding(final int padding)
+  {
+    this.padding = padding;
+  }
+  
+  /**
+   * Write the tag to the start of the file, replacing any ID3v2 tag that is already there. Frames that could not be
+   * decoded when the tag was read are written back as they were read, provided that the version is the same.
+   * <p>
+   * Before the tag is overwritten in place, the pictures and undecoded frames of the tag that are mapped from the file
+   * are copied to the heap, so that they keep their contents. Other tags that were read from this file before may
+   * still refer to the file directly, so their pictures may change. Such tags should be read again. See
+   * {@link PictureFrame#getImage()} for the hazards of truncating the file instead.
+   * @param tag The tag to write.
+   * @param file The file to write to.
+   * @return Whether the tag was written in place. If not, the file was rewritten.
+   * @throws IOException When the file could not be written, or the tag holds frames that cannot be written in this
+   * version. Also when the tag was read with only selected frame types, as the other frames would be lost.
+   */
+  public boolean write(final ID3Tag tag, final File file) throws IOException
+  {
+    final byte [] frames = this.serialiseFrames(tag);
+    final Path path = file.toPath();
+    final long existingTagLength;
+    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try
+    {
+      existingTagLength = TagWriter.getExistingTagLength(channel);
+      if (existingTagLength >= TagLoader.HEADER_LENGTH + frames.length)
+      {
+        TagWriter.copyToHeap(tag);
+        TagWriter.writeFully(channel, this.createTag(frames, (int) existingTagLength), 0);
+        return true;
+      }
+    }
+    finally
+    {
+      channel.close();
+    }
+    
+    // Does not fit, so write a new file next to the old one, and move it into place once complete.
+    final long newTagLength = Math.min((long) TagLoader.HEADER_LENGTH + frames.length + this.padding, MAX_TAG_SIZE);
+    final Path temporaryPath = Files.createTempFile(path.toAbsolutePath().getParent(), file.getName(), ".tmp");
+    try
+    {
+      final PosixFileAttributeView attributeView = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+      if (attributeView != null)
+      {
+        Files.setPosixFilePermissions(temporaryPath, attributeView.readAttributes().permissions());
+      }
+      final FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+      try
+      {
+        final FileChannel target = FileChannel.open(temporaryPath, StandardOpenOption.WRITE);
+        try
+        {
+          TagWriter.writeFully(target, this.createTag(frames, (int) newTagLength), 0);
+          target.position(newTagLength);
+          final long audioLength = source.size() - existingTagLength;
+          long bytesTransferred = 0;
+          ByteBuffer buffer = null;
+          while (bytesTransferred < audioLength)
+          {
+            long chunkSize = source.transferTo
+              (existingTagLength + bytesTransferred, audioLength - bytesTransferred, target);
+            if (chunkSize == 0)
+            {
+              // No progress, which transferTo also reports when the file has become shorter. Copy through a buffer,
+              // which makes progress or notices the end of the file.
+              if (buffer == null)
+              {
+                buffer = ByteBuffer.allocate(64 * 1024);
+              }
+              buffer.clear();
+              if (buffer.remaining() > audioLength - bytesTransferred)
+              {
+                buffer.limit((int) (audioLength - bytesTransferred));
+              }
+              chunkSize = source.read(buffer, existingTagLength + bytesTransferred);
+              if (chunkSize < 0)
+              {
+                throw new EOFException("File ended while copying it, after " + bytesTransferred + " bytes of audio.");
+              }
+              buffer.flip();
+              while (buffer.hasRemaining())
+              {
+                target.write(buffer);
+              }
+            }
+            bytesTransferred += chunkSize;
+          }
+        }
+        finally
+        {
+          target.close();
+        }
+      }
+      finally
+      {
+        source.close();
+      }
+      Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally
+    {
+      Files.deleteIfExists(temporaryPath);
+    }
+    return false;
+  }
+  
+  /**
+   * Serialise the tag, with padding up to the specified length.
+   * @param tag The tag to serialise.
+   * @param tagLength The length of the result, including the header. Must be enough to hold the frames.
+   * @return The header, frames and padding of the tag.
+   * @throws IOException When the tag is too large for the specified length, or cannot be written in this version.
+   */
+  public ByteBuffer serialise(final ID3Tag tag, final int tagLength) throws IOException
+  {
+    return this.createTag(this.serialiseFrames(tag), tagLength);
+  }
+  
+  /**
+   * Copy the pictures and undecoded frames of the tag that are mapped from a file to the heap, so that they keep their
+   * contents when that file is overwritten.
+   * @param tag The tag.
+   */
+  private static void copyToHeap(final ID3Tag tag)
+  {
+    for (final ID3Frame frame : tag.getFrames())
+    {
+      if (frame instanceof PictureFrame)
+      {
+        ((PictureFrame) frame).copyToHeap();
+      }
+      else if (frame instanceof RawFrame)
+      {
+        ((RawFrame) frame).copyToHeap();
+      }
+    }
+  }
+  
+  /**
+   * Get the length of the ID3v2 tag at the start of the file.
+   * @param channel The file.
+   * @return The length of the tag, including header and footer, or 0 if there is no tag.
+   * @throws IOException When the file could not be read.
+   */
+  private static long getExistingTagLength(final FileChannel channel) throws IOException
+  {
+    final ByteBuffer header = ByteBuffer.allocate(TagLoader.HEADER_LENGTH);
+    TagLoader.readFully(channel, header, 0);
+    header.flip();
+    final int tagLength = TagLoader.getTagLength(header);
+    if (tagLength < 0 || tagLength > channel.size())
+    {
+      return 0;
+    }
+    final boolean footerPresent = header.get(3) == 4 && (header.get(5) & 16) == 16;
+    return footerPresent ? tagLength + TagLoader.HEADER_LENGTH : tagLength;
+  }
+  
+  private ByteBuffer createTag(final byte [] frames, final int tagLength) throws IOException
+  {
+    if (tagLength < TagLoader.HEADER_LENGTH + frames.length || tagLength - TagLoader.HEADER_LENGTH > MAX_TAG_SIZE)
+    {
+      throw new IOException("Tag of " + frames.length + " bytes of frames cannot be written in " + tagLength + " bytes.");
+    }
+    final ByteBuffer result = ByteBuffer.allocate(tagLength);
+    result.put((byte) 'I').put((byte) 'D').put((byte) '3');
+    result.put((byte) (this.version == ID3Version.ID3v2r3 ? 3 : 4)).put((byte) 0);
+    result.put((byte) 0);  // No unsync, extended header, experimental indicator or footer.
+    TagWriter.putSyncsafe(result, tagLength - TagLoader.HEADER_LENGTH);
+    result.put(frames);
+    // Remainder is padding, which is already zero.
+    result.clear();
+    return result;
+  }
+  
+  private byte [] serialiseFrames(final ID3Tag tag) throws IOException
+  {
+    if (Boolean.parseBoolean(tag.getFlags().getProperty(ID3Tag.FRAMES_SKIPPED)))
+    {
+      throw new IOException("Tag was read with only selected frame types, so writing it would lose the other frames.");
+    }
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (final ID3Frame frame : tag.getFrames())
+    {
+      final String frameName;
+      final byte [] body;
+      final int formatFlags;
+      if (frame instanceof RawFrame)
+      {
+        final RawFrame rawFrame = (RawFrame) frame;
+        if (rawFrame.getVersion() != this.version)
+        {
+          throw new IOException
+            ( "Cannot write undecoded " + rawFrame.getFrameName() + " frame of an " + rawFrame.getVersion()
+            + " tag in " + this.version + "."
+            );
+        }
+        frameName = rawFrame.getFrameName();
+        final ByteBuffer data = rawFrame.getData();
+        body = new byte[data.remaining()];
+        data.get(body);
+        formatFlags = rawFrame.getFormatFlags();
+      }
+      else
+      {
+        frameName = this.getFrameName(frame);
+        if (frameName == null)
+        {
+          throw new IOException
+            ("Cannot write frame of type " + frame.getCanonicalFrameType() + " in " + this.version + ".");
+        }
+        body = this.serialiseBody(frame);
+        // Flags are left clear, as frames are written without compression, encryption or grouping.
+        formatFlags = 0;
+      }
+      output.write(frameName.getBytes(TagWriter.ISO_8859_1));
+      final ByteBuffer sizeAndFlags = ByteBuffer.allocate(6);
+      if (this.version == ID3Version.ID3v2r3)
+      {
+        sizeAndFlags.putInt(body.length);
+      }
+      else
+      {
+        TagWriter.putSyncsafe(sizeAndFlags, body.length);
+      }
+      sizeAndFlags.putShort((short) formatFlags);
+      output.write(sizeAndFlags.array());
+      output.write(body);
+    }
+    return output.toByteArray();
+  }
+  
+  private String getFrameName(final ID3Frame frame)
+  {
+    if (frame instanceof UserDefinedTextFrame)
+    {
+      return "TXXX";
+    }
+    else if (frame instanceof UserDefinedURLFrame)
+    {
+      return "WXXX";
+    }
+    else if (frame instanceof TextFrame && frame.getCanonicalFrameType() == CanonicalFrameType.USER_DEFINED_TEXT)
+    {
+      // Text frame of a type we do not know, stored under its original name.
+      final String name = ((TextFrame) frame).getAdditionalTypeInfo();
+      return name == null || name.length() != 4 ? null : name;
+    }
+    else if (frame instanceof URLFrame && frame.getCanonicalFrameType() == CanonicalFrameType.USER_DEFINED_URL)
+    {
+      final String name = ((URLFrame) frame).getAdditionalTypeInfo();
+      return name == null || name.length() != 4 ? null : name;
+    }
+    else if (this.version == ID3Version.ID3v2r3)
+    {
+      return TagWriter.r30Dictionary.getName(frame.getCanonicalFrameType());
+    }
+    else
+    {
+      return TagWriter.r40Dictionary.getName(frame.getCanonicalFrameType());
+    }
+  }
+  
+  private byte [] serialiseBody(final ID3Frame frame) throws IOException
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    if (frame instanceof TextFrame)
+    {
+      final TextFrame textFrame = (TextFrame) frame;
+      final Charset charset = this.writeEncoding(output, textFrame.getCharset());
+      this.writeString(output, textFrame.getText(), charset, false);
+    }
+    else if (frame instanceof URLFrame)
+    {
+      this.writeString(output, ((URLFrame) frame).getUrl(), TagWriter.ISO_8859_1, false);
+    }
+    else if (frame instanceof UserDefinedTextFrame)
+    {
+      final UserDefinedTextFrame textFrame = (UserDefinedTextFrame) frame;
+      final Charset charset = this.writeEncoding(output, textFrame.getCharset());
+      this.writeString(output, textFrame.getDescription(), charset, true);
+      this.writeString(output, textFrame.getText(), charset, false);
+    }
+    else if (frame instanceof UserDefinedURLFrame)
+    {
+      final UserDefinedURLFrame urlFrame = (UserDefinedURLFrame) frame;
+      final Charset charset = this.writeEncoding(output, urlFrame.getCharset());
+      this.writeString(output, urlFrame.getDescription(), charset, true);
+      this.writeString(output, urlFrame.getUrl(), TagWriter.ISO_8859_1, false);
+    }
+    else if (frame instanceof CommentFrame)
+    {
+      final CommentFrame commentFrame = (CommentFrame) frame;
+      final Charset charset = this.writeEncoding(output, commentFrame.getCharset());
+      final String languageCode = commentFrame.getLanguageCode();
+      this.writeString
+        (output, languageCode == null || languageCode.length() != 3 ? "XXX" : languageCode, TagWriter.ISO_8859_1, false);
+      this.writeString(output, commentFrame.getDescription(), charset, true);
+      this.writeString(output, commentFrame.getText(), charset, false);
+    }
+    else if (frame instanceof PictureFrame)
+    {
+      final PictureFrame pictureFrame = (PictureFrame) frame;
+      final Charset charset = this.writeEncoding(output, pictureFrame.getCharset());
+      this.writeString(output, TagWriter.getMimeType(pictureFrame.getImageType()), TagWriter.ISO_8859_1, true);
+      output.write(pictureFrame.getPictureNumber());
+      this.writeString(output, pictureFrame.getDescription(), charset, true);
+      final ByteBuffer image = pictureFrame.getImage();
+      if (image != null)
+      {
+        final byte [] chunk = new byte[Math.min(image.remaining(), 64 * 1024)];
+        while (image.hasRemaining())
+        {
+          final int chunkSize = Math.min(chunk.length, image.remaining());
+          image.get(chunk, 0, chunkSize);
+          output.write(chunk, 0, chunkSize);
+        }
+      }
+    }
+    else if (frame instanceof UniqueFileIdentifierFrame)
+    {
+      final UniqueFileIdentifierFrame identifierFrame = (UniqueFileIdentifierFrame) frame;
+      this.writeString(output, identifierFrame.getOwnerIdentifier(), TagWriter.ISO_8859_1, true);
+      TagWriter.writeHex(output, identifierFrame.getHexIdentifier());
+    }
+    else if (frame instanceof MusicCDIdentifierFrame)
+    {
+      TagWriter.writeHex(output, ((MusicCDIdentifierFrame) frame).getHexTOC());
+    }
+    else if (frame instanceof ITunesPodcastFrame)
+    {
+      TagWriter.writeHex(output, ((ITunesPodcastFrame) frame).getPayload());
+    }
+    else if (frame instanceof InvolvedPeopleFrame)
+    {
+      final InvolvedPeopleFrame peopleFrame = (InvolvedPeopleFrame) frame;
+      final Charset charset = this.writeEncoding(output, peopleFrame.getCharset());
+      for (final InvolvedPeopleFrame.InvolvedPerson person : peopleFrame.getInvolvedPeopleList())
+      {
+        this.writeString(output, person.getInvolvement(), charset, true);
+        this.writeString(output, person.getInvolvee(), charset, true);
+      }
+    }
+    else
+    {
+      throw new IOException("Cannot write frame of class " + frame.getClass().getName());
+    }
+    return output.toByteArray();
+  }
+  
+  /**
+   * Write the encoding byte for the charset.
+   * @param output The output to write to.
+   * @param charset The charset of the frame.
+   * @return The charset to encode the text of the frame with. UTF-16 when the charset cannot be written in this
+   * version.
+   */
+  private Charset writeEncoding(final ByteArrayOutputStream output, final Charset charset)
+  {
+    final String name = charset == null ? "ISO-8859-1" : charset.name();
+    if (name.equals("ISO-8859-1"))
+    {
+      output.write(0);
+      return TagWriter.ISO_8859_1;
+    }
+    else if (this.version == ID3Version.ID3v2r4 && name.equals("UTF-16BE"))
+    {
+      output.write(2);
+      return charset;
+    }
+    else if (this.version == ID3Version.ID3v2r4 && name.equals("UTF-8"))
+    {
+      output.write(3);
+      return charset;
+    }
+    else
+    {
+      // UTF-16 with byte order mark, which is the only other encoding that v2.3 supports.
+      output.write(1);
+      return Charset.forName("UTF-16");
+    }
+  }
+  
+  private void writeString
+    ( final ByteArrayOutputStream output
+    , final String value
+    , final Charset charset
+    , final boolean terminate
+    ) throws IOException
+  {
+    if (value != null)
+    {
+      output.write(value.getBytes(charset));
+    }
+    if (terminate)
+    {
+      output.write(0);
+      if (charset.name().startsWith("UTF-16"))
+      {
+        output.write(0);
+      }
+    }
+  }
+  
+  /**
+   * Get the MIME type for an image type, which in v2.2 is a three letter format instead.
+   */
+  private static String getMimeType(final String imageType)
+  {
+    if (imageType == null || imageType.length() != 3 || imageType.equals("-->"))
+    {
+      return imageType;
+    }
+    final String format = imageType.toLowerCase();
+    return "image/" + (format.equals("jpg") ? "jpeg" : format);
+  }
+  
+  private static void writeHex(final ByteArrayOutputStream output, final String hex)
+  {
+    if (hex != null)
+    {
+      for (int index = 0; index + 1 < hex.length(); index += 2)
+      {
+        output.write(Integer.parseInt(hex.substring(index, index + 2), 16));
+      }
+    }
+  }
+  
+  private static void putSyncsafe(final ByteBuffer buffer, final int value)
+  {
+    buffer.put((byte) ((value >> 21) & 127));
+    buffer.put((byte) ((value >> 14) & 127));
+    buffer.put((byte) ((value >> 7) & 127));
+    buffer.put((byte) (value & 127));
+  }
+  
+  private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+    throws IOException
+  {
+    long currentPosition = position;
+    while (buffer.hasRemaining())
+    {
+      currentPosition += channel.write(buffer, currentPosition);
+    }
+  }
+}
@@ -37,6 +37,11 @@ public class TextFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
   
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return this.canonicalFrameType;
+  }
+  
   public TextFrame readFrameBody(final int size, final InputStream input) throws IOException, UnsupportedEncodingException
   {
     return this.readFrameBody(null, size, input);
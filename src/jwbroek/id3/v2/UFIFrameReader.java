@@ -23,7 +23,9 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.UniqueFileIdentifierFrame;
+import jwbroek.id3.util.FieldReader;
 
 public class UFIFrameReader implements FrameReader
 {
@@ -34,6 +36,11 @@ public class UFIFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
   
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.UNIQUE_FILE_IDENTIFIER;
+  }
+  
   public UniqueFileIdentifierFrame readFrameBody(final int size, final InputStream input)
     throws IOException, UnsupportedEncodingException
   {
@@ -68,10 +75,10 @@ public class UFIFrameReader implements FrameReader
     final StringBuilder hexIdentifier = new StringBuilder();
     for (final Integer i : identifier)
     {
-      hexIdentifier.append(Integer.toHexString(i));
+      FieldReader.appendHex(hexIdentifier, i);
     }
     result.setHexIdentifier(hexIdentifier.toString());
     
     return result;
   }
-}
\ No newline at end of file
+}
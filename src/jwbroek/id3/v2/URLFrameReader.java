@@ -37,6 +37,11 @@ public class URLFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
 
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return this.canonicalFrameType;
+  }
+  
   public URLFrame readFrameBody(final int size, final InputStream input) throws IOException, UnsupportedEncodingException
   {
     return this.readFrameBody(null, size, input);
@@ -56,4 +61,4 @@ public class URLFrameReader implements FrameReader
     }
     return result;
   }
-}
\ No newline at end of file
+}
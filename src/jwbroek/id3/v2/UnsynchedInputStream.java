@@ -21,51 +21,113 @@ package jwbroek.id3.v2;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PushbackInputStream;
 
+/**
+ * Reverses the unsynchronisation scheme of ID3v2: every 0x00 that directly follows a 0xFF is removed. Bulk reads
+ * are decoded in place, a whole array at a time.
+ */
 public class UnsynchedInputStream extends FilterInputStream
 {
+  /**
+   * Size of the scratch buffer used for skipping.
+   */
+  private static final int SKIP_BUFFER_SIZE = 2048;
+  
+  /**
+   * Whether the last byte read from the underlying stream was 0xFF. If so, a 0x00 that follows must be removed, even
+   * if it comes in the next read.
+   */
+  private boolean previousWasFF = false;
+  
   public UnsynchedInputStream(final InputStream in)
   {
-    super(new PushbackInputStream(in, 1));
+    super(in);
   }
   
-  @Override
-  public int read() throws IOException
+  /**
+   * Reverse the unsynchronisation of a complete block of data, in place.
+   * @param b The data.
+   * @param off Start of the data in b.
+   * @param len Length of the data.
+   * @return The length of the data after decoding. The decoded data starts at off.
+   */
+  public static int decode(final byte [] b, final int off, final int len)
   {
-    final int c1 = this.in.read();
-    if (c1 == 0xFF)
+    return UnsynchedInputStream.decode(b, off, len, false);
+  }
+  
+  private static int decode(final byte [] b, final int off, final int len, final boolean previousWasFF)
+  {
+    if (len == 0)
+    {
+      return 0;
+    }
+    final int end = off + len;
+    int index = off;
+    // Nothing needs to move until the first 0x00 that has to go, so just look for it.
+    if (!previousWasFF || b[index] != 0)
     {
-      final int c2 = this.in.read();
-      if (c2 != 0x00)
+      while (index < end - 1 && (b[index] != (byte) 0xFF || b[index + 1] != 0))
       {
-        ((PushbackInputStream) this.in).unread(c2);
+        index++;
       }
+      if (index >= end - 1)
+      {
+        return len;
+      }
+      // Keep the 0xFF.
+      index++;
+    }
+    int outIndex = index;
+    boolean afterFF = true;
+    for (; index < end; index++)
+    {
+      final byte value = b[index];
+      if (value != 0 || !afterFF)
+      {
+        b[outIndex] = value;
+        outIndex++;
+      }
+      afterFF = value == (byte) 0xFF;
     }
-    return c1;
+    return outIndex - off;
+  }
+  
+  @Override
+  public int read() throws IOException
+  {
+    int c = this.in.read();
+    if (c == 0x00 && this.previousWasFF)
+    {
+      c = this.in.read();
+    }
+    this.previousWasFF = c == 0xFF;
+    return c;
   }
   
   @Override
   public int read(byte [] b, int off, int len) throws IOException
   {
-    // Will have to use read() to perform unsync.
-    for (int index = 0; index < len; index++)
+    // Keep reading until the request is filled, as callers rely on that.
+    int decodedLength = 0;
+    while (decodedLength < len)
     {
-      final int i = this.read();
-      if (i == -1)
+      final int bytesRead = this.in.read(b, off + decodedLength, len - decodedLength);
+      if (bytesRead < 0)
       {
-        if (index > 0)
-        {
-          return index;
-        }
-        else
+        if (decodedLength == 0)
         {
+          this.previousWasFF = false;
           return -1;
         }
+        break;
       }
-      b[off + index] = (byte) i;
+      // A 0x00 at the end was either removed or is kept as 0x00, so only the raw last byte matters.
+      final boolean lastWasFF = b[off + decodedLength + bytesRead - 1] == (byte) 0xFF;
+      decodedLength += UnsynchedInputStream.decode(b, off + decodedLength, bytesRead, this.previousWasFF);
+      this.previousWasFF = lastWasFF;
     }
-    return len;
+    return decodedLength;
   }
   
   @Override
@@ -79,17 +141,45 @@ public class UnsynchedInputStream extends FilterInputStream
   public long skip(long n) throws IOException
   {
     // Have to override, as javadoc is inconsistent on default behaviour,
-    // and is imperative that read() is used. Otherwise it is possible
+    // and is imperative that the data is decoded. Otherwise it is possible
     // to skip to the second byte of an unsync sequence resulting in
     // data corruption.
-    for (long index = 0; index < n; index++)
+    if (n <= 0)
     {
-      final int i = this.read();
-      if (i == -1)
+      return 0;
+    }
+    final byte [] skipBuffer = new byte[(int) Math.min(n, UnsynchedInputStream.SKIP_BUFFER_SIZE)];
+    long bytesSkipped = 0;
+    while (bytesSkipped < n)
+    {
+      final int bytesRead = this.read(skipBuffer, 0, (int) Math.min(n - bytesSkipped, skipBuffer.length));
+      if (bytesRead < 0)
       {
-        return index;
+        break;
       }
+      bytesSkipped += bytesRead;
     }
-    return n;
+    return bytesSkipped;
+  }
+  
+  /**
+   * Mark and reset are not supported, as the state of the decoding cannot be reset along with the underlying stream.
+   */
+  @Override
+  public boolean markSupported()
+  {
+    return false;
+  }
+  
+  @Override
+  public synchronized void mark(final int readlimit)
+  {
+    // Not supported.
+  }
+  
+  @Override
+  public synchronized void reset() throws IOException
+  {
+    throw new IOException("mark/reset not supported");
   }
 }
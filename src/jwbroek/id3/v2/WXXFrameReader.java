@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.UserDefinedURLFrame;
 import jwbroek.id3.util.FieldReader;
 
@@ -34,6 +35,11 @@ public class WXXFrameReader implements FrameReader
     this.headerSize = headerSize;
   }
   
+  public CanonicalFrameType getCanonicalFrameType()
+  {
+    return CanonicalFrameType.USER_DEFINED_URL;
+  }
+  
   public UserDefinedURLFrame readFrameBody(final int size, final InputStream input)
     throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
@@ -83,4 +89,4 @@ public class WXXFrameReader implements FrameReader
     
     return result;
   }
-}
\ No newline at end of file
+}
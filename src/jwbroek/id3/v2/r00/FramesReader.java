@@ -20,11 +20,18 @@ package jwbroek.id3.v2.r00;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import jwbroek.id3.CanonicalFrameType;
+import jwbroek.id3.FrameList;
+import jwbroek.id3.ID3Frame;
 import jwbroek.id3.ID3Tag;
+import jwbroek.id3.ID3Version;
+import jwbroek.id3.RawFrame;
 import jwbroek.id3.v2.COMFrameReader;
 import jwbroek.id3.v2.FrameReader;
 import jwbroek.id3.v2.IPLFrameReader;
@@ -32,12 +39,15 @@ import jwbroek.id3.v2.ITunesPodcastFrameReader;
 import jwbroek.id3.v2.MCIFrameReader;
 import jwbroek.id3.v2.MalformedFrameException;
 import jwbroek.id3.v2.PICFrameReader;
+import jwbroek.id3.v2.TagLoader;
 import jwbroek.id3.v2.TXXFrameReader;
 import jwbroek.id3.v2.TextFrameReader;
 import jwbroek.id3.v2.UFIFrameReader;
 import jwbroek.id3.v2.URLFrameReader;
 import jwbroek.id3.v2.UnsupportedEncodingException;
 import jwbroek.id3.v2.WXXFrameReader;
+import jwbroek.io.ByteBufferInputStream;
+import jwbroek.io.FileWindow;
 
 public class FramesReader
 {
@@ -46,6 +56,7 @@ public class FramesReader
   private static FrameDictionary frameDictionary = new FrameDictionary();
   private static Map<String, FrameReader> frameReaders = new HashMap<String, FrameReader>();
   final private static int FRAME_HEADER_LENGTH = 6;
+  final private static int WINDOW_SIZE = 4096;
   
   private static void putTextFrameReader(final String frameName)
   {
@@ -248,11 +259,48 @@ public class FramesReader
     frameReaders.put("PCS", new ITunesPodcastFrameReader(FramesReader.FRAME_HEADER_LENGTH));
   }
   
+  private boolean lazy = false;
+  private Set<CanonicalFrameType> canonicalFrameTypes = null;
+  
   public FramesReader()
   {
     
   }
   
+  /**
+   * @return Whether frame bodies are decoded only when the frame is accessed.
+   */
+  public boolean isLazy()
+  {
+    return this.lazy;
+  }
+  
+  /**
+   * @param lazy Whether frame bodies should be decoded only when the frame is accessed. Lazy frames keep the tag data
+   * they were read from in memory.
+   */
+  public void setLazy(final boolean lazy)
+  {
+    this.lazy = lazy;
+  }
+  
+  /**
+   * @return The types of the frames that are read, or null if all frames are read.
+   */
+  public Set<CanonicalFrameType> getCanonicalFrameTypes()
+  {
+    return this.canonicalFrameTypes;
+  }
+  
+  /**
+   * @param canonicalFrameTypes The types of the frames to read, or null to read all frames. The bodies of other frames
+   * are skipped.
+   */
+  public void setCanonicalFrameTypes(final Set<CanonicalFrameType> canonicalFrameTypes)
+  {
+    this.canonicalFrameTypes = canonicalFrameTypes;
+  }
+  
   public int readNextFrame
     ( final ID3Tag tag
     , final InputStream input
@@ -265,39 +313,102 @@ public class FramesReader
     final String frameName = frameNameBuilder.toString();
     final int frameSize = input.read() * 65536 + input.read() * 256 + input.read();
     final FrameReader reader = FramesReader.frameReaders.get(frameName);
-    if (reader == null)
+    if (reader == null && "\u0000\u0000\u0000".equals(frameName))
     {
-      if ("\u0000\u0000\u0000".equals(frameName))
-      {
-        // End of frames.
-        return FramesReader.FRAME_HEADER_LENGTH;
-      }
-      else if (frameName.charAt(0)=='T')
-      {
-        // TODO: Add option to enable/disable this behaviour.
-        System.out.println("Encountered unknown text frame: " + frameName);
-        tag.getFrames().add(new TextFrameReader(CanonicalFrameType.USER_DEFINED_TEXT, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, frameSize, input));
-      }
-      else if (frameName.charAt(0)=='W')
-      {
-        // TODO: Add option to enable/disable this behaviour.
-        System.out.println("Encountered unknown URL frame: " + frameName);
-        tag.getFrames().add(new URLFrameReader(CanonicalFrameType.USER_DEFINED_URL, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, frameSize, input));
-      }
-      else
-      {
-        System.out.println("Encountered unsupported frame type: " + frameName + " of length " + frameSize);
-        input.skip(frameSize);
-        // TODO Handle
-      }
+      // End of frames.
+      return FramesReader.FRAME_HEADER_LENGTH;
+    }
+    else if (!this.isWanted(frameName, reader))
+    {
+      tag.getFlags().setProperty(ID3Tag.FRAMES_SKIPPED, Boolean.toString(true));
+      input.skip(frameSize);
+    }
+    else if (reader == null && frameName.charAt(0)!='T' && frameName.charAt(0)!='W')
+    {
+      // Not supported, so keep it as stored. It cannot be written back, as only v2.3 and v2.4 tags can be written.
+      tag.getFrames().add
+        ( new RawFrame
+            ( ID3Version.ID3v2r2, frameName, 0, TagLoader.readBytes(input, frameSize)
+            , frameSize + FramesReader.FRAME_HEADER_LENGTH
+            )
+        );
+    }
+    else if (this.lazy)
+    {
+      final ByteBuffer body = TagLoader.readBytes(input, frameSize);
+      tag.getFrameList().addUndecoded
+        ( FramesReader.getCanonicalFrameType(frameName, reader)
+        , new FrameList.FrameDecoder()
+          {
+            public ID3Frame decode() throws IOException, UnsupportedEncodingException, MalformedFrameException
+            {
+              return FramesReader.readFrameBody
+                (frameName, reader, body.remaining(), new ByteBufferInputStream(body.duplicate()));
+            }
+          }
+        );
     }
     else
     {
-      tag.getFrames().add(reader.readFrameBody(frameSize, input));
+      tag.getFrames().add(FramesReader.readFrameBody(frameName, reader, frameSize, input));
     }
+    
     return frameSize + FramesReader.FRAME_HEADER_LENGTH; // Size + header size.
   }
   
+  private static CanonicalFrameType getCanonicalFrameType(final String frameName, final FrameReader reader)
+  {
+    if (reader != null)
+    {
+      return reader.getCanonicalFrameType();
+    }
+    else if (frameName.charAt(0)=='T')
+    {
+      return CanonicalFrameType.USER_DEFINED_TEXT;
+    }
+    else if (frameName.charAt(0)=='W')
+    {
+      return CanonicalFrameType.USER_DEFINED_URL;
+    }
+    else
+    {
+      return CanonicalFrameType.UNRECOGNISED_FRAME;
+    }
+  }
+  
+  private boolean isWanted(final String frameName, final FrameReader reader)
+  {
+    return  this.canonicalFrameTypes == null
+        ||  this.canonicalFrameTypes.contains(FramesReader.getCanonicalFrameType(frameName, reader));
+  }
+  
+  private static ID3Frame readFrameBody
+    ( final String frameName
+    , final FrameReader reader
+    , final int size
+    , final InputStream input
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    final ID3Frame frame;
+    if (reader == null && frameName.charAt(0)=='T')
+    {
+      // TODO: Add option to enable/disable this behaviour.
+      System.out.println("Encountered unknown text frame: " + frameName);
+      frame = new TextFrameReader(CanonicalFrameType.USER_DEFINED_TEXT, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, size, input);
+    }
+    else if (reader == null)
+    {
+      // TODO: Add option to enable/disable this behaviour.
+      System.out.println("Encountered unknown URL frame: " + frameName);
+      frame = new URLFrameReader(CanonicalFrameType.USER_DEFINED_URL, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, size, input);
+    }
+    else
+    {
+      frame = reader.readFrameBody(size, input);
+    }
+    return frame;
+  }
+  
   public void readFrames
     ( final ID3Tag tag
     , final InputStream input
@@ -317,4 +428,60 @@ public class FramesReader
     }
     input.skip(bytesLeft);
   }
+  
+  /**
+   * Read the frames directly from the file. Frame headers are read through a small window and only the frames that
+   * are wanted are read in full, so the bodies of other frames are skipped without reading them. This relies on the
+   * frame sizes describing the data in the file, which is not the case when the whole tag is unsynchronised.
+   * @param tag The tag to add the frames to.
+   * @param channel The file.
+   * @param position The position of the first frame in the file.
+   * @param length The number of bytes of frames and padding.
+   * @throws MalformedFrameException When a frame does not fit in the tag.
+   */
+  public void readFrames
+    ( final ID3Tag tag
+    , final FileChannel channel
+    , final long position
+    , final long length
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    final FileWindow window = new FileWindow(channel, FramesReader.WINDOW_SIZE);
+    final long end = position + length;
+    long framePosition = position;
+    while (end - framePosition >= FramesReader.FRAME_HEADER_LENGTH)
+    {
+      final ByteBuffer header = window.get(framePosition, FramesReader.FRAME_HEADER_LENGTH);
+      if (header.remaining() < FramesReader.FRAME_HEADER_LENGTH)
+      {
+        // Unexpected end of file.
+        break;
+      }
+      final StringBuilder frameNameBuilder = new StringBuilder(3);
+      for (int index = 0; index < 3; index++)
+      {
+        frameNameBuilder.append((char) (header.get(index) & 0xFF));
+      }
+      final String frameName = frameNameBuilder.toString();
+      if ("\u0000\u0000\u0000".equals(frameName))
+      {
+        // End of frames.
+        break;
+      }
+      final long frameLength = FramesReader.FRAME_HEADER_LENGTH + ((header.get(3) & 0xFF) * 65536 + (header.get(4) & 0xFF) * 256 + (header.get(5) & 0xFF));
+      if (frameLength > end - framePosition)
+      {
+        throw new MalformedFrameException("Frame " + frameName + " does not fit in the tag.");
+      }
+      if (this.isWanted(frameName, FramesReader.frameReaders.get(frameName)))
+      {
+        this.readNextFrame(tag, new ByteBufferInputStream(window.get(framePosition, (int) frameLength)));
+      }
+      else
+      {
+        tag.getFlags().setProperty(ID3Tag.FRAMES_SKIPPED, Boolean.toString(true));
+      }
+      framePosition += frameLength;
+    }
+  }
 }
@@ -18,28 +18,53 @@
  */
 package jwbroek.id3.v2.r00;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.ID3Tag;
 import jwbroek.id3.ID3Reader;
 import jwbroek.id3.ID3Version;
 import jwbroek.id3.v2.MalformedFrameException;
+import jwbroek.id3.v2.TagLoader;
 import jwbroek.id3.v2.UnsupportedEncodingException;
 import jwbroek.id3.v2.UnsynchedInputStream;
+import jwbroek.io.ByteBufferInputStream;
 
 public class ID3v2r00Reader implements ID3Reader
 {
+  private boolean lazy = false;
+  
   public ID3v2r00Reader()
   {
     
   }
   
+  /**
+   * @return Whether frame bodies are decoded only when the frame is accessed.
+   */
+  public boolean isLazy()
+  {
+    return this.lazy;
+  }
+  
+  /**
+   * @param lazy Whether frame bodies should be decoded only when the frame is accessed, rather than while reading.
+   */
+  public void setLazy(final boolean lazy)
+  {
+    this.lazy = lazy;
+  }
+  
   public boolean hasTag(final File file) throws IOException
   {
-    final FileInputStream input = new FileInputStream(file);
+    final InputStream input = new BufferedInputStream(new FileInputStream(file), TagLoader.HEADER_LENGTH);
     try
     {
       if  ( input.read() == 'I'
@@ -78,43 +103,102 @@ public class ID3v2r00Reader implements ID3Reader
   
   public ID3Tag read(final File file) throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
-    ID3Tag tag = new ID3Tag();
-    
+    final ByteBuffer buffer = TagLoader.readTag(file);
+    if (buffer == null)
+    {
+      // TODO Emit warning?
+      // No valid tag found.
+      return null;
+    }
+    return this.read(buffer);
+  }
+  
+  /**
+   * Read the tag from a buffer that holds the entire tag, starting at the header.
+   */
+  public ID3Tag read(final ByteBuffer buffer) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    return this.read(buffer, null, null);
+  }
+  
+  /**
+   * Read only the frames of the given types. Frames are read straight from the file and the bodies of other frames
+   * are skipped without reading them, so pictures and other large frames cost nothing when they are not wanted.
+   * @param file The file.
+   * @param canonicalFrameTypes The types of the frames to read.
+   */
+  public ID3Tag read(final File file, final Set<CanonicalFrameType> canonicalFrameTypes)
+    throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
     final FileInputStream input = new FileInputStream(file);
     try
     {
-      if  ( input.read() == 'I'
-          && input.read() == 'D'
-          && input.read() == '3'
-          )
+      final FileChannel channel = input.getChannel();
+      final ByteBuffer head = TagLoader.readHead(channel);
+      if (head == null)
       {
-        final int majorVersion = input.read();
-        final int revision = input.read();
-        if (majorVersion==2 && revision==0)
+        // TODO Emit warning?
+        // No valid tag found.
+        return null;
+      }
+      return this.read(head, channel, canonicalFrameTypes);
+    }
+    finally
+    {
+      input.close();
+    }
+  }
+  
+  /**
+   * Read the tag. If a channel is specified, then the buffer need only hold the header and extended header, and the
+   * frames are read from the channel.
+   */
+  private ID3Tag read
+    ( final ByteBuffer buffer
+    , final FileChannel channel
+    , final Set<CanonicalFrameType> canonicalFrameTypes
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    ID3Tag tag = new ID3Tag();
+    
+    final InputStream input = new ByteBufferInputStream(buffer);
+    if  ( input.read() == 'I'
+        && input.read() == 'D'
+        && input.read() == '3'
+        )
+    {
+      final int majorVersion = input.read();
+      final int revision = input.read();
+      if (majorVersion==2 && revision==0)
+      {
+        tag.setVersion(ID3Version.ID3v2r2);
+        tag.setRevision(0);
+        final int flags = input.read();
+        final boolean unsyncUsed = (flags & 128) == 128;
+        tag.getFlags().setProperty(ID3Tag.UNSYNC_USED, Boolean.toString(unsyncUsed));
+        final boolean compressionUsed = (flags & 64) == 64;
+        tag.getFlags().setProperty(ID3Tag.COMPRESSION_USED, Boolean.toString(compressionUsed));
+        int size = 0;
+        for (int index = 0; index < 4; index++)
         {
-          tag.setVersion(ID3Version.ID3v2r2);
-          tag.setRevision(0);
-          final int flags = input.read();
-          final boolean unsyncUsed = (flags & 128) == 128;
-          tag.getFlags().setProperty(ID3Tag.UNSYNC_USED, Boolean.toString(unsyncUsed));
-          final boolean compressionUsed = (flags & 64) == 64;
-          tag.getFlags().setProperty(ID3Tag.COMPRESSION_USED, Boolean.toString(compressionUsed));
-          int size = 0;
-          for (int index = 0; index < 4; index++)
+          final int sizeByte = input.read();
+          if (sizeByte >= 128)
           {
-            final int sizeByte = input.read();
-            if (sizeByte >= 128)
-            {
-              size = -1;
-              break;
-            }
-            size = size * 128 + sizeByte;
+            size = -1;
+            break;
           }
-          if (size >= 0)
+          size = size * 128 + sizeByte;
+        }
+        if (size >= 0)
+        {
+          tag.setDeclaredSize(size);
+          
+          // Now to read the frames.
+          final FramesReader frameReader = new FramesReader();
+          frameReader.setLazy(this.lazy);
+          frameReader.setCanonicalFrameTypes(canonicalFrameTypes);
+          if (channel == null)
           {
-            tag.setDeclaredSize(size);
-            
-            // Now to read the frames.
             final InputStream frameInputStream;
             if (unsyncUsed)
             {
@@ -124,33 +208,45 @@ public class ID3v2r00Reader implements ID3Reader
             {
               frameInputStream = input;
             }
-            final FramesReader frameReader = new FramesReader();
             frameReader.readFrames(tag, frameInputStream, size);
           }
           else
           {
-            // TODO Emit warning.
-            // Invalid size byte encountered. Not a valid ID3 tag.
-            tag = null;
+            final long framesPosition = buffer.position();
+            final int framesLength = (int) (TagLoader.HEADER_LENGTH + size - framesPosition);
+            if (unsyncUsed)
+            {
+              // The frame sizes are those of the decoded data, so frames cannot be skipped by position.
+              final ByteBuffer frames = ByteBuffer.allocate(framesLength);
+              TagLoader.readFully(channel, frames, framesPosition);
+              frames.flip();
+              frameReader.readFrames(tag, new UnsynchedInputStream(new ByteBufferInputStream(frames)), framesLength);
+            }
+            else
+            {
+              frameReader.readFrames(tag, channel, framesPosition, framesLength);
+            }
           }
         }
         else
         {
           // TODO Emit warning.
-          // Version and revision combination not supported.
+          // Invalid size byte encountered. Not a valid ID3 tag.
           tag = null;
         }
       }
       else
       {
-        // TODO Emit warning?
-        // No valid tag found.
+        // TODO Emit warning.
+        // Version and revision combination not supported.
         tag = null;
       }
     }
-    finally
+    else
     {
-      input.close();
+      // TODO Emit warning?
+      // No valid tag found.
+      tag = null;
     }
     
     return tag;
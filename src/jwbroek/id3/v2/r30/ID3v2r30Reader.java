@@ -18,28 +18,73 @@
  */
 package jwbroek.id3.v2.r30;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.ID3Reader;
 import jwbroek.id3.ID3Tag;
 import jwbroek.id3.ID3Version;
+import jwbroek.id3.util.FieldReader;
 import jwbroek.id3.v2.MalformedFrameException;
+import jwbroek.id3.v2.TagCrc;
+import jwbroek.id3.v2.TagLoader;
 import jwbroek.id3.v2.UnsupportedEncodingException;
 import jwbroek.id3.v2.UnsynchedInputStream;
+import jwbroek.io.ByteBufferInputStream;
 
 public class ID3v2r30Reader implements ID3Reader
 {
+  private boolean lazy = false;
+  private boolean verifyCrc = false;
+  
   public ID3v2r30Reader()
   {
     
   }
   
+  /**
+   * @return Whether frame bodies are decoded only when the frame is accessed.
+   */
+  public boolean isLazy()
+  {
+    return this.lazy;
+  }
+  
+  /**
+   * @param lazy Whether frame bodies should be decoded only when the frame is accessed, rather than while reading.
+   */
+  public void setLazy(final boolean lazy)
+  {
+    this.lazy = lazy;
+  }
+  
+  /**
+   * @return Whether the CRC-32 that a tag declares is checked while reading.
+   */
+  public boolean isVerifyCrc()
+  {
+    return this.verifyCrc;
+  }
+  
+  /**
+   * @param verifyCrc Whether the CRC-32 that a tag declares should be checked while reading. The outcome is recorded
+   * as {@link ID3Tag#CRC32_VALID}. Reads of selected frame types then load the whole tag, since all of it is checked.
+   */
+  public void setVerifyCrc(final boolean verifyCrc)
+  {
+    this.verifyCrc = verifyCrc;
+  }
+  
   public boolean hasTag(final File file) throws IOException
   {
-    final FileInputStream input = new FileInputStream(file);
+    final InputStream input = new BufferedInputStream(new FileInputStream(file), TagLoader.HEADER_LENGTH);
     try
     {
       if  ( input.read() == 'I'
@@ -78,76 +123,154 @@ public class ID3v2r30Reader implements ID3Reader
   
   public ID3Tag read(final File file) throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
-    ID3Tag tag = new ID3Tag();
-    
+    final ByteBuffer buffer = TagLoader.readTag(file);
+    if (buffer == null)
+    {
+      // TODO Emit warning?
+      // No valid tag found.
+      return null;
+    }
+    return this.read(buffer);
+  }
+  
+  /**
+   * Read the tag from a buffer that holds the entire tag, starting at the header.
+   */
+  public ID3Tag read(final ByteBuffer buffer) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    return this.read(buffer, null, null);
+  }
+  
+  /**
+   * Read only the frames of the given types. Frames are read straight from the file and the bodies of other frames
+   * are skipped without reading them, so pictures and other large frames cost nothing when they are not wanted.
+   * @param file The file.
+   * @param canonicalFrameTypes The types of the frames to read.
+   */
+  public ID3Tag read(final File file, final Set<CanonicalFrameType> canonicalFrameTypes)
+    throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
     final FileInputStream input = new FileInputStream(file);
     try
     {
-      if  ( input.read() == 'I'
-          && input.read() == 'D'
-          && input.read() == '3'
-          )
+      final FileChannel channel = input.getChannel();
+      if (this.verifyCrc)
       {
-        final int majorVersion = input.read();
-        final int revision = input.read();
-        if (majorVersion==3 && revision==0)
+        final ByteBuffer buffer = TagLoader.readTag(channel);
+        return buffer == null ? null : this.read(buffer, null, canonicalFrameTypes);
+      }
+      final ByteBuffer head = TagLoader.readHead(channel);
+      if (head == null)
+      {
+        // TODO Emit warning?
+        // No valid tag found.
+        return null;
+      }
+      return this.read(head, channel, canonicalFrameTypes);
+    }
+    finally
+    {
+      input.close();
+    }
+  }
+  
+  /**
+   * Read the tag. If a channel is specified, then the buffer need only hold the header and extended header, and the
+   * frames are read from the channel.
+   */
+  private ID3Tag read
+    ( final ByteBuffer buffer
+    , final FileChannel channel
+    , final Set<CanonicalFrameType> canonicalFrameTypes
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    ID3Tag tag = new ID3Tag();
+    
+    final InputStream input = new ByteBufferInputStream(buffer);
+    if  ( input.read() == 'I'
+        && input.read() == 'D'
+        && input.read() == '3'
+        )
+    {
+      final int majorVersion = input.read();
+      final int revision = input.read();
+      if (majorVersion==3 && revision==0)
+      {
+        tag.setVersion(ID3Version.ID3v2r3);
+        tag.setRevision(0);
+        final int flags = input.read();
+        final boolean unsyncUsed = (flags & 128) == 128;
+        tag.getFlags().setProperty(ID3Tag.UNSYNC_USED, Boolean.toString(unsyncUsed));
+        final boolean extendedHeaderUsed = (flags & 64) == 64;
+        final boolean experimental = (flags & 32) == 32;
+        tag.getFlags().setProperty(ID3Tag.EXPERIMENTAL, Boolean.toString(experimental));
+        // TODO Check that other flags are not set.
+        int size = 0;
+        for (int index = 0; index < 4; index++)
         {
-          tag.setVersion(ID3Version.ID3v2r3);
-          tag.setRevision(0);
-          final int flags = input.read();
-          final boolean unsyncUsed = (flags & 128) == 128;
-          tag.getFlags().setProperty(ID3Tag.UNSYNC_USED, Boolean.toString(unsyncUsed));
-          final boolean extendedHeaderUsed = (flags & 64) == 64;
-          final boolean experimental = (flags & 32) == 32;
-          tag.getFlags().setProperty(ID3Tag.EXPERIMENTAL, Boolean.toString(experimental));
-          // TODO Check that other flags are not set.
-          int size = 0;
-          for (int index = 0; index < 4; index++)
+          final int sizeByte = input.read();
+          if (sizeByte >= 128)
           {
-            final int sizeByte = input.read();
-            if (sizeByte >= 128)
-            {
-              size = -1;
-              break;
-            }
-            size = size * 128 + sizeByte;
+            size = -1;
+            break;
           }
-          if (size >= 0)
+          size = size * 128 + sizeByte;
+        }
+        if (size >= 0)
+        {
+          tag.setDeclaredSize(size);
+          
+          // Read the extended header, if it is used.
+          long paddingSize = 0;
+          if (extendedHeaderUsed)
           {
-            tag.setDeclaredSize(size);
+            long extendedHeaderSize = 0;
+            for (int index = 0; index < 4; index++)
+            {
+              extendedHeaderSize = extendedHeaderSize * 256 + input.read();
+            }
+            tag.getFlags().put(ID3Tag.EXTENDED_HEADER_SIZE, Long.toString(extendedHeaderSize));
+            final int extendedFlags = (input.read() << 8) | input.read();
+            final boolean crcPresent = (extendedFlags & 0x8000) == 0x8000;
+            for (int index = 0; index < 4; index++)
+            {
+              paddingSize = paddingSize * 256 + input.read();
+            }
+            tag.getFlags().put(ID3Tag.PADDING_SIZE, Long.toString(paddingSize));
+            // TODO Use/check this information.
             
-            // Read the extended header, if it is used.
-            if (extendedHeaderUsed)
+            if (crcPresent)
             {
-              long extendedHeaderSize = 0;
-              for (int index = 0; index < 4; index++)
-              {
-                extendedHeaderSize = extendedHeaderSize * 256 + input.read();
-              }
-              tag.getFlags().put(ID3Tag.EXTENDED_HEADER_SIZE, Long.toString(extendedHeaderSize));
-              final int extendedFlags = (input.read() << 8) | input.read();
-              final boolean crcPresent = (extendedFlags & 65536) == 65536;
-              long paddingSize = 0;
+              final StringBuilder hexBuilder = new StringBuilder(8);
               for (int index = 0; index < 4; index++)
               {
-                paddingSize = paddingSize * 256 + input.read();
+                FieldReader.appendHex(hexBuilder, input.read());
               }
-              tag.getFlags().put(ID3Tag.PADDING_SIZE, Long.toString(paddingSize));
-              // TODO Use/check this information.
+              tag.getFlags().put(ID3Tag.CRC32_HEX, hexBuilder.toString());
+            }
+          }
               
-              if (crcPresent)
-              {
-                final StringBuilder hexBuilder = new StringBuilder();
-                for (int index = 0; index < 4; index++)
-                {
-                  hexBuilder.append(Integer.toHexString(input.read()));
-                }
-                tag.getFlags().put(ID3Tag.CRC32_HEX, hexBuilder.toString());
-                // TODO Use this CRC32_HEX information.
-              }
+          // Now to read the frames.
+          final FramesReader frameReader = new FramesReader();
+          frameReader.setLazy(this.lazy);
+          frameReader.setCanonicalFrameTypes(canonicalFrameTypes);
+          if (channel == null && this.verifyCrc && tag.getFlags().containsKey(ID3Tag.CRC32_HEX))
+          {
+            // The CRC covers the frames before unsync, without the padding. The decoded frames are checked and then
+            // parsed, so unsync is undone only once.
+            ByteBuffer frames = buffer.slice();
+            frames.limit(Math.max(0, Math.min(TagLoader.HEADER_LENGTH + size - buffer.position(), frames.limit())));
+            if (unsyncUsed)
+            {
+              final byte [] bytes = new byte[frames.remaining()];
+              frames.get(bytes);
+              frames = ByteBuffer.wrap(bytes, 0, UnsynchedInputStream.decode(bytes, 0, bytes.length));
             }
-            
-            // Now to read the frames.
+            TagCrc.verify(tag, frames, frames.remaining() - paddingSize);
+            frameReader.readFrames(tag, new ByteBufferInputStream(frames), frames.remaining());
+          }
+          else if (channel == null)
+          {
             final InputStream frameInputStream;
             if (unsyncUsed)
             {
@@ -157,33 +280,45 @@ public class ID3v2r30Reader implements ID3Reader
             {
               frameInputStream = input;
             }
-            final FramesReader frameReader = new FramesReader();
             frameReader.readFrames(tag, frameInputStream, size);
           }
           else
           {
-            // TODO Emit warning.
-            // Invalid size byte encountered. Not a valid ID3 tag.
-            tag = null;
+            final long framesPosition = buffer.position();
+            final int framesLength = (int) (TagLoader.HEADER_LENGTH + size - framesPosition);
+            if (unsyncUsed)
+            {
+              // The frame sizes are those of the decoded data, so frames cannot be skipped by position.
+              final ByteBuffer frames = ByteBuffer.allocate(framesLength);
+              TagLoader.readFully(channel, frames, framesPosition);
+              frames.flip();
+              frameReader.readFrames(tag, new UnsynchedInputStream(new ByteBufferInputStream(frames)), framesLength);
+            }
+            else
+            {
+              frameReader.readFrames(tag, channel, framesPosition, framesLength);
+            }
           }
         }
         else
         {
           // TODO Emit warning.
-          // Version and revision combination not supported.
+          // Invalid size byte encountered. Not a valid ID3 tag.
           tag = null;
         }
       }
       else
       {
-        // TODO Emit warning?
-        // No valid tag found.
+        // TODO Emit warning.
+        // Version and revision combination not supported.
         tag = null;
       }
     }
-    finally
+    else
     {
-      input.close();
+      // TODO Emit warning?
+      // No valid tag found.
+      tag = null;
     }
     
     return tag;
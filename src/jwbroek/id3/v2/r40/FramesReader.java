@@ -20,6 +20,8 @@ package jwbroek.id3.v2.r40;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,20 +29,28 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import jwbroek.id3.CanonicalFrameType;
+import jwbroek.id3.FrameList;
 import jwbroek.id3.ID3Frame;
 import jwbroek.id3.ID3Tag;
+import jwbroek.id3.ID3Version;
+import jwbroek.id3.RawFrame;
 import jwbroek.id3.v2.COMFrameReader;
+import jwbroek.id3.v2.FrameInflater;
 import jwbroek.id3.v2.FrameReader;
 import jwbroek.id3.v2.ITunesPodcastFrameReader;
 import jwbroek.id3.v2.MCIFrameReader;
 import jwbroek.id3.v2.MalformedFrameException;
 import jwbroek.id3.v2.PICFrameReader;
+import jwbroek.id3.v2.TagLoader;
 import jwbroek.id3.v2.TXXFrameReader;
 import jwbroek.id3.v2.TextFrameReader;
 import jwbroek.id3.v2.UFIFrameReader;
 import jwbroek.id3.v2.URLFrameReader;
 import jwbroek.id3.v2.UnsupportedEncodingException;
+import jwbroek.id3.v2.UnsynchedInputStream;
 import jwbroek.id3.v2.WXXFrameReader;
+import jwbroek.io.ByteBufferInputStream;
+import jwbroek.io.FileWindow;
 
 public class FramesReader
 {
@@ -49,6 +59,7 @@ public class FramesReader
   private static FrameDictionary frameDictionary = new FrameDictionary();
   private static Map<String, FrameReader> frameReaders = new HashMap<String, FrameReader>();
   final private static int FRAME_HEADER_LENGTH = 10;
+  final private static int WINDOW_SIZE = 4096;
   
   private static void putTextFrameReader(final String frameName)
   {
@@ -209,16 +220,52 @@ public class FramesReader
     frameReaders.put("WXXX", new WXXFrameReader(FramesReader.FRAME_HEADER_LENGTH));
   }
   
+  private boolean lazy = false;
+  private Set<CanonicalFrameType> canonicalFrameTypes = null;
+  
   public FramesReader()
   {
   }
   
+  /**
+   * @return Whether frame bodies are decoded only when the frame is accessed.
+   */
+  public boolean isLazy()
+  {
+    return this.lazy;
+  }
+  
+  /**
+   * @param lazy Whether frame bodies should be decoded only when the frame is accessed. Lazy frames keep the tag data
+   * they were read from in memory.
+   */
+  public void setLazy(final boolean lazy)
+  {
+    this.lazy = lazy;
+  }
+  
+  /**
+   * @return The types of the frames that are read, or null if all frames are read.
+   */
+  public Set<CanonicalFrameType> getCanonicalFrameTypes()
+  {
+    return this.canonicalFrameTypes;
+  }
+  
+  /**
+   * @param canonicalFrameTypes The types of the frames to read, or null to read all frames. The bodies of other frames
+   * are skipped.
+   */
+  public void setCanonicalFrameTypes(final Set<CanonicalFrameType> canonicalFrameTypes)
+  {
+    this.canonicalFrameTypes = canonicalFrameTypes;
+  }
+  
   public int readNextFrame
     ( final ID3Tag tag
     , final InputStream input
     ) throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
-    final ID3Frame frame;
     final StringBuilder frameNameBuilder = new StringBuilder(4);
     frameNameBuilder.append((char) input.read());
     frameNameBuilder.append((char) input.read());
@@ -259,66 +306,203 @@ public class FramesReader
     flags.put(ID3Frame.COMPRESSION_USED, Boolean.toString(compressionUsed));
     final boolean encryptionUsed = (flagsBytes & 4) == 4;
     final boolean unsyncUsed = (flagsBytes & 2) == 2;
-    // TODO Handle unsync in frames. Take care not to do double unsync when tag flag is also set.
     flags.put(ID3Frame.UNSYNC_USED, Boolean.toString(unsyncUsed));
     final boolean dataLengthIndicatorPresent = (flagsBytes & 1) == 1;
 
+    int groupId = -1;
     if (containsGroupInformation)
     {
-      final int groupId = input.read();
+      groupId = input.read();
       flags.put(ID3Frame.GROUP_ID, Integer.toString(groupId));
     }
+    int encryptionMethodUsed = -1;
     if (encryptionUsed)
     {
-      final int encryptionMethodUsed = input.read();
+      encryptionMethodUsed = input.read();
       flags.put(ID3Frame.ENCRYPTION_METHOD_USED, Integer.toString(encryptionMethodUsed));
     }
+    int dataLength = -1;
     if (dataLengthIndicatorPresent)
     {
-      final int dataLength = input.read() * (1 << 20) + input.read() * (1 << 13) + input.read() * (1 << 6) + input.read();
+      // Syncsafe, like the frame size.
+      dataLength = (input.read() << 21) | (input.read() << 14) | (input.read() << 7) | input.read();
       flags.put(ID3Frame.DATA_LENGTH_INDICATOR, Integer.toString(dataLength));
     }
     
-    final FrameReader reader = FramesReader.frameReaders.get(frameName.toString());
-    if (reader == null)
+    // The fields above are included in the frame size.
+    final int bodySize = frameSize
+                       - (containsGroupInformation ? 1 : 0)
+                       - (encryptionUsed ? 1 : 0)
+                       - (dataLengthIndicatorPresent ? 4 : 0)
+                       ;
+    // Encrypted bodies cannot be decompressed, as compression is applied before encryption.
+    final boolean inflate = compressionUsed && !encryptionUsed;
+    final int decompressedSize = dataLength;
+    
+    final FrameReader reader = FramesReader.frameReaders.get(frameName);
+    if (reader == null && "\u0000\u0000\u0000\u0000".equals(frameName))
+    {
+      // End of frames.
+      return FramesReader.FRAME_HEADER_LENGTH;
+    }
+    else if (!this.isWanted(frameName, reader))
     {
-      if ("\u0000\u0000\u0000\u0000".equals(frameName.toString()))
+      tag.getFlags().setProperty(ID3Tag.FRAMES_SKIPPED, Boolean.toString(true));
+      input.skip(bodySize);
+    }
+    else
+    {
+      // In v2.4, unsync is applied per frame. The tag flag means that it is applied to all frames.
+      final boolean unsync = unsyncUsed || Boolean.parseBoolean(tag.getFlags().getProperty(ID3Tag.UNSYNC_USED));
+      if (reader == null && frameName.charAt(0)!='T' && frameName.charAt(0)!='W')
       {
-        // End of frames.
-        return FramesReader.FRAME_HEADER_LENGTH;
+        // Not supported, so keep it as stored, so that it can be written back unchanged.
+        final ByteBuffer data = ByteBuffer.allocate(frameSize);
+        if (containsGroupInformation)
+        {
+          data.put((byte) groupId);
+        }
+        if (encryptionUsed)
+        {
+          data.put((byte) encryptionMethodUsed);
+        }
+        if (dataLengthIndicatorPresent)
+        {
+          data.put((byte) ((dataLength >> 21) & 127)).put((byte) ((dataLength >> 14) & 127));
+          data.put((byte) ((dataLength >> 7) & 127)).put((byte) (dataLength & 127));
+        }
+        data.put(FramesReader.undoUnsync(TagLoader.readBytes(input, bodySize), unsync));
+        data.flip();
+        final RawFrame frame = new RawFrame
+          (ID3Version.ID3v2r4, frameName, flagsBytes & ~2, data, frameSize + FramesReader.FRAME_HEADER_LENGTH);
+        frame.getFlags().putAll(flags);
+        tag.getFrames().add(frame);
       }
-      else if (frameName.charAt(0)=='T')
+      else if (this.lazy)
       {
-        // TODO: Add option to enable/disable this behaviour.
-        System.out.println("Encountered unknown text frame: " + frameName);
-        frame = new TextFrameReader(CanonicalFrameType.USER_DEFINED_TEXT, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, frameSize, input);
+        final ByteBuffer body = TagLoader.readBytes(input, bodySize);
+        tag.getFrameList().addUndecoded
+          ( FramesReader.getCanonicalFrameType(frameName, reader)
+          , new FrameList.FrameDecoder()
+            {
+              public ID3Frame decode() throws IOException, UnsupportedEncodingException, MalformedFrameException
+              {
+                return FramesReader.readFrameBody
+                  (frameName, reader, body.duplicate(), unsync, inflate, decompressedSize, flags);
+              }
+            }
+          );
       }
-      else if (frameName.charAt(0)=='W')
+      else if (unsync || inflate)
       {
-        // TODO: Add option to enable/disable this behaviour.
-        System.out.println("Encountered unknown URL frame: " + frameName);
-        frame = new URLFrameReader(CanonicalFrameType.USER_DEFINED_URL, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, frameSize, input);
+        tag.getFrames().add
+          ( FramesReader.readFrameBody
+              (frameName, reader, TagLoader.readBytes(input, bodySize), unsync, inflate, decompressedSize, flags)
+          );
       }
       else
       {
-        System.out.println("Encountered unsupported frame type: " + frameName + " of length " + frameSize);
-        input.skip(frameSize);
-        frame = null;
-        // TODO Handle
+        tag.getFrames().add(FramesReader.readFrameBody(frameName, reader, bodySize, input, flags));
       }
     }
+    
+    return frameSize + FramesReader.FRAME_HEADER_LENGTH; // Size + header size.
+  }
+  
+  private static CanonicalFrameType getCanonicalFrameType(final String frameName, final FrameReader reader)
+  {
+    if (reader != null)
+    {
+      return reader.getCanonicalFrameType();
+    }
+    else if (frameName.charAt(0)=='T')
+    {
+      return CanonicalFrameType.USER_DEFINED_TEXT;
+    }
+    else if (frameName.charAt(0)=='W')
+    {
+      return CanonicalFrameType.USER_DEFINED_URL;
+    }
     else
     {
-      frame = reader.readFrameBody(frameSize, input);
+      return CanonicalFrameType.UNRECOGNISED_FRAME;
     }
+  }
+  
+  private boolean isWanted(final String frameName, final FrameReader reader)
+  {
+    return  this.canonicalFrameTypes == null
+        ||  this.canonicalFrameTypes.contains(FramesReader.getCanonicalFrameType(frameName, reader));
+  }
 
-    if (frame != null)
+  /**
+   * Read a frame body that is held in memory, undoing unsynchronisation and then compression as needed.
+   * @param dataLength The size of the body after decoding, or -1 if unknown.
+   */
+  private static ID3Frame readFrameBody
+    ( final String frameName
+    , final FrameReader reader
+    , final ByteBuffer body
+    , final boolean unsync
+    , final boolean inflate
+    , final int dataLength
+    , final Map<String, String> flags
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    ByteBuffer data = FramesReader.undoUnsync(body, unsync);
+    if (inflate)
     {
-      frame.getFlags().putAll(flags);
-      tag.getFrames().add(frame);
+      data = FrameInflater.inflate(data, dataLength);
     }
+    return FramesReader.readFrameBody(frameName, reader, data.remaining(), new ByteBufferInputStream(data), flags);
+  }
+  
+  /**
+   * Undo the unsynchronisation of a frame body, if applied.
+   * @param body The body. Its position is not changed.
+   * @param unsync Whether unsynchronisation was applied.
+   * @return The body with unsynchronisation undone. A copy if unsynchronisation was applied, so that the tag data
+   * itself is left intact.
+   */
+  private static ByteBuffer undoUnsync(final ByteBuffer body, final boolean unsync)
+  {
+    if (!unsync)
+    {
+      return body;
+    }
+    final byte [] bytes = new byte[body.remaining()];
+    body.duplicate().get(bytes);
+    final int size = UnsynchedInputStream.decode(bytes, 0, bytes.length);
+    return ByteBuffer.wrap(bytes, 0, size);
+  }
     
-    return frameSize + FramesReader.FRAME_HEADER_LENGTH; // Size + header size.
+  private static ID3Frame readFrameBody
+    ( final String frameName
+    , final FrameReader reader
+    , final int size
+    , final InputStream input
+    , final Map<String, String> flags
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    final ID3Frame frame;
+    if (reader == null && frameName.charAt(0)=='T')
+    {
+      // TODO: Add option to enable/disable this behaviour.
+      System.out.println("Encountered unknown text frame: " + frameName);
+      frame = new TextFrameReader(CanonicalFrameType.USER_DEFINED_TEXT, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, size, input);
+    }
+    else if (reader == null)
+    {
+      // TODO: Add option to enable/disable this behaviour.
+      System.out.println("Encountered unknown URL frame: " + frameName);
+      frame = new URLFrameReader(CanonicalFrameType.USER_DEFINED_URL, FramesReader.FRAME_HEADER_LENGTH).readFrameBody(frameName, size, input);
+    }
+    else
+    {
+      frame = reader.readFrameBody(size, input);
+    }
+    frame.getFlags().putAll(flags);
+    return frame;
   }
   
   public void readFrames(final ID3Tag tag, final InputStream input, final long length) throws IOException, UnsupportedEncodingException, MalformedFrameException
@@ -336,4 +520,75 @@ public class FramesReader
     }
     input.skip(bytesLeft);
   }
+  
+  /**
+   * Read the frames directly from the file. Frame headers are read through a small window and only the frames that
+   * are wanted are read in full, so the bodies of other frames are skipped without reading them. This relies on the
+   * frame sizes describing the data in the file, which is not the case when the whole tag is unsynchronised.
+   * @param tag The tag to add the frames to.
+   * @param channel The file.
+   * @param position The position of the first frame in the file.
+   * @param length The number of bytes of frames and padding.
+   * @throws MalformedFrameException When a frame has an illegal size or does not fit in the tag.
+   */
+  public void readFrames
+    ( final ID3Tag tag
+    , final FileChannel channel
+    , final long position
+    , final long length
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    final FileWindow window = new FileWindow(channel, FramesReader.WINDOW_SIZE);
+    final long end = position + length;
+    long framePosition = position;
+    while (end - framePosition >= FramesReader.FRAME_HEADER_LENGTH)
+    {
+      final ByteBuffer header = window.get(framePosition, FramesReader.FRAME_HEADER_LENGTH);
+      if (header.remaining() < FramesReader.FRAME_HEADER_LENGTH)
+      {
+        // Unexpected end of file.
+        break;
+      }
+      final StringBuilder frameNameBuilder = new StringBuilder(4);
+      for (int index = 0; index < 4; index++)
+      {
+        frameNameBuilder.append((char) (header.get(index) & 0xFF));
+      }
+      final String frameName = frameNameBuilder.toString();
+      if ("\u0000\u0000\u0000\u0000".equals(frameName))
+      {
+        // End of frames.
+        break;
+      }
+      int frameSize = 0;
+      for (int index = 4; index < 8; index++)
+      {
+        final int sizeByte = header.get(index);
+        if (sizeByte < 0)  // Top bit cannot be used.
+        {
+          frameSize = -1;
+          break;
+        }
+        frameSize = frameSize * 128 + sizeByte;
+      }
+      if (frameSize < 0)
+      {
+        throw new MalformedFrameException("Frame " + frameName + " has an illegal size.");
+      }
+      final long frameLength = FramesReader.FRAME_HEADER_LENGTH + frameSize;
+      if (frameLength > end - framePosition)
+      {
+        throw new MalformedFrameException("Frame " + frameName + " does not fit in the tag.");
+      }
+      if (this.isWanted(frameName, FramesReader.frameReaders.get(frameName)))
+      {
+        this.readNextFrame(tag, new ByteBufferInputStream(window.get(framePosition, (int) frameLength)));
+      }
+      else
+      {
+        tag.getFlags().setProperty(ID3Tag.FRAMES_SKIPPED, Boolean.toString(true));
+      }
+      framePosition += frameLength;
+    }
+  }
 }
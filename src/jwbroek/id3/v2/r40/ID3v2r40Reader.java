@@ -18,30 +18,73 @@
  */
 package jwbroek.id3.v2.r40;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
 
+import jwbroek.id3.CanonicalFrameType;
 import jwbroek.id3.ID3Reader;
 import jwbroek.id3.ID3Tag;
 import jwbroek.id3.ID3Version;
 import jwbroek.id3.v2.MalformedFrameException;
+import jwbroek.id3.v2.TagCrc;
+import jwbroek.id3.v2.TagLoader;
 import jwbroek.id3.v2.UnsupportedEncodingException;
-import jwbroek.id3.v2.UnsynchedInputStream;
+import jwbroek.io.ByteBufferInputStream;
 
 public class ID3v2r40Reader implements ID3Reader
 {
   // TODO Handle cases where tag is not at start of file.
   
+  private boolean lazy = false;
+  private boolean verifyCrc = false;
+  
   public ID3v2r40Reader()
   {
     
   }
   
+  /**
+   * @return Whether frame bodies are decoded only when the frame is accessed.
+   */
+  public boolean isLazy()
+  {
+    return this.lazy;
+  }
+  
+  /**
+   * @param lazy Whether frame bodies should be decoded only when the frame is accessed, rather than while reading.
+   */
+  public void setLazy(final boolean lazy)
+  {
+    this.lazy = lazy;
+  }
+  
+  /**
+   * @return Whether the CRC-32 that a tag declares is checked while reading.
+   */
+  public boolean isVerifyCrc()
+  {
+    return this.verifyCrc;
+  }
+  
+  /**
+   * @param verifyCrc Whether the CRC-32 that a tag declares should be checked while reading. The outcome is recorded
+   * as {@link ID3Tag#CRC32_VALID}. Reads of selected frame types then load the whole tag, since all of it is checked.
+   */
+  public void setVerifyCrc(final boolean verifyCrc)
+  {
+    this.verifyCrc = verifyCrc;
+  }
+  
   public boolean hasTag(final File file) throws IOException
   {
-    final FileInputStream input = new FileInputStream(file);
+    final InputStream input = new BufferedInputStream(new FileInputStream(file), TagLoader.HEADER_LENGTH);
     try
     {
       if  ( input.read() == 'I'
@@ -80,245 +123,304 @@ public class ID3v2r40Reader implements ID3Reader
   
   public ID3Tag read(final File file) throws IOException, UnsupportedEncodingException, MalformedFrameException
   {
-    ID3Tag tag = new ID3Tag();
-    
+    final ByteBuffer buffer = TagLoader.readTag(file);
+    if (buffer == null)
+    {
+      // TODO Emit warning?
+      // No valid tag found.
+      return null;
+    }
+    return this.read(buffer);
+  }
+  
+  /**
+   * Read the tag from a buffer that holds the entire tag, starting at the header.
+   */
+  public ID3Tag read(final ByteBuffer buffer) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    return this.read(buffer, null, null);
+  }
+  
+  /**
+   * Read only the frames of the given types. Frames are read straight from the file and the bodies of other frames
+   * are skipped without reading them, so pictures and other large frames cost nothing when they are not wanted.
+   * @param file The file.
+   * @param canonicalFrameTypes The types of the frames to read.
+   */
+  public ID3Tag read(final File file, final Set<CanonicalFrameType> canonicalFrameTypes)
+    throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
     final FileInputStream input = new FileInputStream(file);
     try
     {
-      if  ( input.read() == 'I'
-          && input.read() == 'D'
-          && input.read() == '3'
-          )
+      final FileChannel channel = input.getChannel();
+      if (this.verifyCrc)
       {
-        final int majorVersion = input.read();
-        final int revision = input.read();
-        if (majorVersion==4 && revision==0)
+        final ByteBuffer buffer = TagLoader.readTag(channel);
+        return buffer == null ? null : this.read(buffer, null, canonicalFrameTypes);
+      }
+      final ByteBuffer head = TagLoader.readHead(channel);
+      if (head == null)
+      {
+        // TODO Emit warning?
+        // No valid tag found.
+        return null;
+      }
+      return this.read(head, channel, canonicalFrameTypes);
+    }
+    finally
+    {
+      input.close();
+    }
+  }
+  
+  /**
+   * Read the tag. If a channel is specified, then the buffer need only hold the header and extended header, and the
+   * frames are read from the channel.
+   */
+  private ID3Tag read
+    ( final ByteBuffer buffer
+    , final FileChannel channel
+    , final Set<CanonicalFrameType> canonicalFrameTypes
+    ) throws IOException, UnsupportedEncodingException, MalformedFrameException
+  {
+    ID3Tag tag = new ID3Tag();
+    
+    final InputStream input = new ByteBufferInputStream(buffer);
+    if  ( input.read() == 'I'
+        && input.read() == 'D'
+        && input.read() == '3'
+        )
+    {
+      final int majorVersion = input.read();
+      final int revision = input.read();
+      if (majorVersion==4 && revision==0)
+      {
+        tag.setVersion(ID3Version.ID3v2r4);
+        tag.setRevision(0);
+        final int flags = input.read();
+        final boolean unsyncUsed = (flags & 128) == 128;
+        tag.getFlags().setProperty(ID3Tag.UNSYNC_USED, Boolean.toString(unsyncUsed));
+        final boolean extendedHeaderUsed = (flags & 64) == 64;
+        final boolean experimental = (flags & 32) == 32;
+        tag.getFlags().setProperty(ID3Tag.EXPERIMENTAL, Boolean.toString(experimental));
+        final boolean footerPresent = (flags & 16) == 16;
+        tag.getFlags().setProperty(ID3Tag.FOOTER_PRESENT, Boolean.toString(footerPresent));
+        // TODO Check that other flags are not set.
+        int size = 0;
+        for (int index = 0; index < 4; index++)
         {
-          tag.setVersion(ID3Version.ID3v2r4);
-          tag.setRevision(0);
-          final int flags = input.read();
-          final boolean unsyncUsed = (flags & 128) == 128;
-          tag.getFlags().setProperty(ID3Tag.UNSYNC_USED, Boolean.toString(unsyncUsed));
-          final boolean extendedHeaderUsed = (flags & 64) == 64;
-          final boolean experimental = (flags & 32) == 32;
-          tag.getFlags().setProperty(ID3Tag.EXPERIMENTAL, Boolean.toString(experimental));
-          final boolean footerPresent = (flags & 16) == 16;
-          tag.getFlags().setProperty(ID3Tag.FOOTER_PRESENT, Boolean.toString(footerPresent));
-          // TODO Check that other flags are not set.
-          int size = 0;
-          for (int index = 0; index < 4; index++)
+          final int sizeByte = input.read();
+          if (sizeByte >= 128)
           {
-            final int sizeByte = input.read();
-            if (sizeByte >= 128)
-            {
-              size = -1;
-              break;
-            }
-            size = size * 128 + sizeByte;
+            size = -1;
+            break;
           }
-          if (size >= 0)
+          size = size * 128 + sizeByte;
+        }
+        if (size >= 0)
+        {
+          tag.setDeclaredSize(size);
+          
+          // Read the extended header, if it is used.
+          if (extendedHeaderUsed)
           {
-            tag.setDeclaredSize(size);
-            
-            // Read the extended header, if it is used.
-            if (extendedHeaderUsed)
+            long extendedHeaderSize = 0;
+            for (int index = 0; index < 4; index++)
             {
-              long extendedHeaderSize = 0;
-              for (int index = 0; index < 4; index++)
+              final int sizeByte = input.read();
+              if (sizeByte >= 128)
               {
-                final int sizeByte = input.read();
-                if (sizeByte >= 128)
-                {
-                  extendedHeaderSize = -1;
-                  break;
-                }
-                extendedHeaderSize = extendedHeaderSize * 128 + sizeByte;
+                extendedHeaderSize = -1;
+                break;
               }
-              if (extendedHeaderSize >= 6)
+              extendedHeaderSize = extendedHeaderSize * 128 + sizeByte;
+            }
+            if (extendedHeaderSize >= 6)
+            {
+              tag.getFlags().put(ID3Tag.EXTENDED_HEADER_SIZE, Long.toString(extendedHeaderSize));
+              final int numberOfFlagBytes = input.read();
+              if (numberOfFlagBytes == 1)
               {
-                tag.getFlags().put(ID3Tag.EXTENDED_HEADER_SIZE, Long.toString(extendedHeaderSize));
-                final int numberOfFlagBytes = input.read();
-                if (numberOfFlagBytes == 1)
+                final int extendedFlags = input.read();
+                final boolean tagIsAnUpdate = (extendedFlags & 64) == 64;
+                tag.getFlags().put(ID3Tag.TAG_IS_UPDATE, Boolean.toString(tagIsAnUpdate));
+                final boolean crcPresent = (extendedFlags & 32) == 32;
+                final boolean tagRestrictionsSet = (extendedFlags & 16) == 16;
+                System.out.println("Tag restrictions set: " + tagRestrictionsSet);
+            
+                if (tagIsAnUpdate)
                 {
-                  final int extendedFlags = input.read();
-                  final boolean tagIsAnUpdate = (extendedFlags & 64) == 64;
-                  tag.getFlags().put(ID3Tag.TAG_IS_UPDATE, Boolean.toString(tagIsAnUpdate));
-                  final boolean crcPresent = (extendedFlags & 32) == 32;
-                  final boolean tagRestrictionsSet = (extendedFlags & 16) == 16;
-                  System.out.println("Tag restrictions set: " + tagRestrictionsSet);
-                  
-                  if (tagIsAnUpdate)
+                  final int updateFlagDataLength = input.read();
+                  if (updateFlagDataLength != 0)
                   {
-                    final int updateFlagDataLength = input.read();
-                    if (updateFlagDataLength != 0)
-                    {
-                      System.out.println("Invalid length for \"tag is an update\" flag encountered. Should be 0, but is " + updateFlagDataLength);
-                      // TODO Handle or throw exception.
-                    }
+                    System.out.println("Invalid length for \"tag is an update\" flag encountered. Should be 0, but is " + updateFlagDataLength);
+                    // TODO Handle or throw exception.
                   }
-                  
-                  if (crcPresent)
+                }
+                
+                if (crcPresent)
+                {
+                  final int crcLength = input.read();
+                  if (crcLength == 5)
+                  {
+                    // 35 bit value, but according to spec the upper 4 are not
+                    // used, so would fit in the positive part of a signed integer.
+                    // Seems odd though. I wonder if the spec doesn't mean the
+                    // upper 5 bits of the "raw" (non-sync-safe) bytes...
+                    // Using a long to be safe.
+                    final long crc  = (long) input.read() << 28
+                                    | input.read() << 21
+                                    | input.read() << 14
+                                    | input.read() << 7
+                                    | input.read();
+                    tag.getFlags().put(ID3Tag.CRC32_HEX, TagCrc.toHex(crc));
+                  }
+                  else
                   {
-                    final int crcLength = input.read();
-                    if (crcLength == 5)
+                    System.out.println("Invalid length for CRC32_HEX flag encountered. Should be 5, but is " + crcLength);
+                    // TODO Handle or throw exception.
+                  }
+                }
+                
+                if (tagRestrictionsSet)
+                {
+                  final int tagRestrictionsDataSize = input.read();
+                  if (tagRestrictionsDataSize == 1)
+                  {
+                    final int restrictionsByte = input.read();
+                    final int tagSizeRestrictions = (restrictionsByte & 192) >> 6;
+                    final int textEncodingRestrictions = (restrictionsByte & 32) >> 5;
+                    final int textFieldSizeRestrictions = (restrictionsByte & 24) >> 3;
+                    final int imageEncodingRestrictions = (restrictionsByte & 4) >> 2;
+                    final int imageSizeRestrictions = (restrictionsByte & 3);
+                    switch (tagSizeRestrictions)
                     {
-                      // 35 bit value, but according to spec the upper 4 are not
-                      // used, so would fit in the positive part of a signed integer.
-                      // Seems odd though. I wonder if the spec doesn't mean the
-                      // upper 5 bits of the "raw" (non-sync-safe) bytes...
-                      // Using a long to be safe.
-                      final long crc  = input.read() << 28
-                                      | input.read() << 21
-                                      | input.read() << 14
-                                      | input.read() << 7
-                                      | input.read();
-                      tag.getFlags().put(ID3Tag.CRC32_HEX, Long.toHexString(crc));
-                      // TODO Use this CRC32_HEX information.
+                      case 0:
+                        System.out.println("Tag size restriction: No more than 128 frames and 1 MB total tag size.");
+                        break;
+                      case 1:
+                        System.out.println("Tag size restriction: No more than 64 frames and 128 KB total tag size.");
+                        break;
+                      case 2:
+                        System.out.println("Tag size restriction: No more than 32 frames and 40 KB total tag size.");
+                        break;
+                      case 3:
+                        System.out.println("Tag size restriction: No more than 32 frames and 4 KB total tag size.");
+                        break;
                     }
-                    else
+                    switch (textEncodingRestrictions)
                     {
-                      System.out.println("Invalid length for CRC32_HEX flag encountered. Should be 5, but is " + crcLength);
-                      // TODO Handle or throw exception.
+                      case 0:
+                        System.out.println("Text encoding restriction: No restrictions.");
+                        break;
+                      case 1:
+                        System.out.println("Text encoding restriction: Strings are only encoded with ISO-8859-1 [ISO-8859-1] or UTF-8 [UTF-8].");
+                        break;
                     }
-                  }
-                  
-                  if (tagRestrictionsSet)
-                  {
-                    final int tagRestrictionsDataSize = input.read();
-                    if (tagRestrictionsDataSize == 1)
+                    switch (textFieldSizeRestrictions)
                     {
-                      final int restrictionsByte = input.read();
-                      final int tagSizeRestrictions = (restrictionsByte & 192) >> 6;
-                      final int textEncodingRestrictions = (restrictionsByte & 32) >> 5;
-                      final int textFieldSizeRestrictions = (restrictionsByte & 24) >> 3;
-                      final int imageEncodingRestrictions = (restrictionsByte & 4) >> 2;
-                      final int imageSizeRestrictions = (restrictionsByte & 3);
-                      switch (tagSizeRestrictions)
-                      {
-                        case 0:
-                          System.out.println("Tag size restriction: No more than 128 frames and 1 MB total tag size.");
-                          break;
-                        case 1:
-                          System.out.println("Tag size restriction: No more than 64 frames and 128 KB total tag size.");
-                          break;
-                        case 2:
-                          System.out.println("Tag size restriction: No more than 32 frames and 40 KB total tag size.");
-                          break;
-                        case 3:
-                          System.out.println("Tag size restriction: No more than 32 frames and 4 KB total tag size.");
-                          break;
-                      }
-                      switch (textEncodingRestrictions)
-                      {
-                        case 0:
-                          System.out.println("Text encoding restriction: No restrictions.");
-                          break;
-                        case 1:
-                          System.out.println("Text encoding restriction: Strings are only encoded with ISO-8859-1 [ISO-8859-1] or UTF-8 [UTF-8].");
-                          break;
-                      }
-                      switch (textFieldSizeRestrictions)
-                      {
-                        case 0:
-                          System.out.println("Text field size restriction: No restrictions.");
-                          break;
-                        case 1:
-                          System.out.println("Text field size restriction: No string is longer than 1024 characters.");
-                          break;
-                        case 2:
-                          System.out.println("Text field size restriction: No string is longer than 128 characters.");
-                          break;
-                        case 3:
-                          System.out.println("Text field size restriction: No string is longer than 30 characters.");
-                          break;
-                      }
-                      switch (imageEncodingRestrictions)
-                      {
-                        case 0:
-                          System.out.println("Image encoding restriction: No restrictions.");
-                          break;
-                        case 1:
-                          System.out.println("Image encoding restriction: Images are encoded only with PNG [PNG] or JPEG [JFIF].");
-                          break;
-                      }
-                      switch (imageSizeRestrictions)
-                      {
-                        case 0:
-                          System.out.println("Image size restriction: No restrictions.");
-                          break;
-                        case 1:
-                          System.out.println("Image size restriction: All images are 256x256 pixels or smaller.");
-                          break;
-                        case 2:
-                          System.out.println("Image size restriction: All images are 64x64 pixels or smaller.");
-                          break;
-                        case 3:
-                          System.out.println("Image size restriction: All images are exactly 64x64 pixels, unless required otherwise.");
-                          break;
-                      }
-                      // TODO Check restrictions.
-                      // TODO Set as property of tag.
+                      case 0:
+                        System.out.println("Text field size restriction: No restrictions.");
+                        break;
+                      case 1:
+                        System.out.println("Text field size restriction: No string is longer than 1024 characters.");
+                        break;
+                      case 2:
+                        System.out.println("Text field size restriction: No string is longer than 128 characters.");
+                        break;
+                      case 3:
+                        System.out.println("Text field size restriction: No string is longer than 30 characters.");
+                        break;
                     }
-                    else
+                    switch (imageEncodingRestrictions)
                     {
-                      System.out.println("Invalid length for tag restrictions flag encountered. Should be 1, but is " + tagRestrictionsDataSize);
-                      // TODO Handle or throw exception.
+                      case 0:
+                        System.out.println("Image encoding restriction: No restrictions.");
+                        break;
+                      case 1:
+                        System.out.println("Image encoding restriction: Images are encoded only with PNG [PNG] or JPEG [JFIF].");
+                        break;
                     }
+                    switch (imageSizeRestrictions)
+                    {
+                      case 0:
+                        System.out.println("Image size restriction: No restrictions.");
+                        break;
+                      case 1:
+                        System.out.println("Image size restriction: All images are 256x256 pixels or smaller.");
+                        break;
+                      case 2:
+                        System.out.println("Image size restriction: All images are 64x64 pixels or smaller.");
+                        break;
+                      case 3:
+                        System.out.println("Image size restriction: All images are exactly 64x64 pixels, unless required otherwise.");
+                        break;
+                    }
+                    // TODO Check restrictions.
+                    // TODO Set as property of tag.
+                  }
+                  else
+                  {
+                    System.out.println("Invalid length for tag restrictions flag encountered. Should be 1, but is " + tagRestrictionsDataSize);
+                    // TODO Handle or throw exception.
                   }
-                }
-                else
-                {
-                  System.out.println("Number of flag bytes in extended header should be one, but is: " + numberOfFlagBytes);
-                  // TODO Throw exception or handle.
                 }
               }
               else
               {
-                System.out.println("Invalid extended header size: " + extendedHeaderSize);
-                // TODO Throw an exception.
+                System.out.println("Number of flag bytes in extended header should be one, but is: " + numberOfFlagBytes);
+                // TODO Throw exception or handle.
               }
             }
-            
-            // Now to read the frames.
-            final InputStream frameInputStream;
-            if (unsyncUsed)
+            else
             {
-              frameInputStream = new UnsynchedInputStream(input);
+              System.out.println("Invalid extended header size: " + extendedHeaderSize);
+              // TODO Throw an exception.
             }
-            else
+          }
+          
+          // Now to read the frames. Unsync is undone per frame, as the frame sizes
+          // are those of the unsynchronised data.
+          final FramesReader frameReader = new FramesReader();
+          frameReader.setLazy(this.lazy);
+          frameReader.setCanonicalFrameTypes(canonicalFrameTypes);
+          if (channel == null)
+          {
+            if (this.verifyCrc)
             {
-              frameInputStream = input;
+              // The CRC covers everything after the extended header, including the padding, as stored.
+              TagCrc.verify(tag, buffer, TagLoader.HEADER_LENGTH + size - buffer.position());
             }
-            final FramesReader frameReader = new FramesReader();
-            frameReader.readFrames(tag, frameInputStream, size);
+            frameReader.readFrames(tag, input, size);
           }
           else
           {
-            // TODO Emit warning.
-            // Invalid size byte encountered. Not a valid ID3 tag.
-            tag = null;
+            frameReader.readFrames(tag, channel, buffer.position(), TagLoader.HEADER_LENGTH + size - buffer.position());
           }
         }
         else
         {
           // TODO Emit warning.
-          // Version and revision combination not supported.
+          // Invalid size byte encountered. Not a valid ID3 tag.
           tag = null;
         }
       }
       else
       {
-        // TODO Emit warning?
-        // No valid tag found.
+        // TODO Emit warning.
+        // Version and revision combination not supported.
         tag = null;
       }
-      // TODO Read footer (if present?). Is copy of header, but at end, and
-      // with "3DI" instead of "ID3".
     }
-    finally
+    else
     {
-      input.close();
+      // TODO Emit warning?
+      // No valid tag found.
+      tag = null;
     }
+    // TODO Read footer (if present?). Is copy of header, but at end, and
+    // with "3DI" instead of "ID3".
     
     return tag;
   }
@@ -0,0 +1,116 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads the remaining bytes of a ByteBuffer. Reading advances the position of the buffer. Unlike
+ * {@link java.io.ByteArrayInputStream}, this class is not synchronized, so single byte reads are cheap. Marking is
+ * supported.
+ * @author jwbroek
+ */
+public class ByteBufferInputStream extends InputStream
+{
+  /**
+   * The buffer to read from.
+   */
+  private final ByteBuffer buffer;
+  
+  /**
+   * Create a new ByteBufferInputStream.
+   * @param buffer The buffer to read from. Reading starts at the position of the buffer and ends at its limit.
+   */
+  public ByteBufferInputStream(final ByteBuffer buffer)
+  {
+    this.buffer = buffer;
+  }
+  
+  @Override
+  public int read()
+  {
+    if (!this.buffer.hasRemaining())
+    {
+      return -1;
+    }
+    return this.buffer.get() & 0xFF;
+  }
+  
+  @Override
+  public int read(final byte [] b, final int off, final int len)
+  {
+    if (len == 0)
+    {
+      return 0;
+    }
+    if (!this.buffer.hasRemaining())
+    {
+      return -1;
+    }
+    final int bytesRead = Math.min(len, this.buffer.remaining());
+    this.buffer.get(b, off, bytesRead);
+    return bytesRead;
+  }
+  
+  @Override
+  public long skip(final long n)
+  {
+    if (n <= 0)
+    {
+      return 0;
+    }
+    final int bytesSkipped = (int) Math.min(n, this.buffer.remaining());
+    this.buffer.position(this.buffer.position() + bytesSkipped);
+    return bytesSkipped;
+  }
+  
+  @Override
+  public int available()
+  {
+    return this.buffer.remaining();
+  }
+  
+  @Override
+  public boolean markSupported()
+  {
+    return true;
+  }
+  
+  @Override
+  public void mark(final int readLimit)
+  {
+    this.buffer.mark();
+  }
+  
+  @Override
+  public void reset()
+  {
+    this.buffer.reset();
+  }
+  
+  /**
+   * Get the buffer that this stream reads from.
+   * @return The buffer that this stream reads from. Its position is the position of the stream.
+   */
+  public ByteBuffer getBuffer()
+  {
+    return this.buffer;
+  }
+}
@@ -32,6 +32,7 @@ import java.io.InputStream;
 public class ByteCountInputStream extends FilterInputStream
 {
   private long bytesRead = 0;
+  private long markedBytesRead = 0;
   
   public ByteCountInputStream(final InputStream in)
   {
@@ -73,6 +74,23 @@ public class ByteCountInputStream extends FilterInputStream
     return bytesSkipped;
   }
 
+  @Override
+  public synchronized void mark(final int readlimit)
+  {
+    super.mark(readlimit);
+    this.markedBytesRead = this.bytesRead;
+  }
+  
+  /**
+   * Reset the stream to the mark. The bytes read since the mark are no longer counted.
+   */
+  @Override
+  public synchronized void reset() throws IOException
+  {
+    super.reset();
+    this.bytesRead = this.markedBytesRead;
+  }
+  
   /**
    * Get the bytesRead of this ByteCountInputStream.
    * @return The bytesRead of this ByteCountInputStream.
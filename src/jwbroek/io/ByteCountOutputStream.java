@@ -0,0 +1,68 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the number of bytes that are written. Counterpart of {@link ByteCountInputStream}.
+ * @author jwbroek
+ */
+public class ByteCountOutputStream extends FilterOutputStream
+{
+  private long bytesWritten = 0;
+  
+  public ByteCountOutputStream(final OutputStream out)
+  {
+    super(out);
+  }
+  
+  @Override
+  public void write(final int b) throws IOException
+  {
+    out.write(b);
+    this.bytesWritten++;
+  }
+  
+  // write(byte[]) is implemented to call write(byte[],int,int), so no need to override.
+  
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException
+  {
+    // Don't call super, as FilterOutputStream writes byte by byte.
+    out.write(b, off, len);
+    this.bytesWritten += len;
+  }
+  
+  /**
+   * Get the bytesWritten of this ByteCountOutputStream.
+   * @return The bytesWritten of this ByteCountOutputStream.
+   */
+  public long getBytesWritten()
+  {
+    return bytesWritten;
+  }
+  
+  public void resetBytesWritten()
+  {
+    this.bytesWritten = 0;
+  }
+}
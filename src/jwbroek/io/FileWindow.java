@@ -0,0 +1,142 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Gives access to ranges of a file through positional reads. Small ranges are served from a window of the file, so
+ * that reading several small ranges close together costs a single read. Ranges larger than the window are read
+ * directly, or mapped if they are at least {@link #MIN_MAPPED_LENGTH} bytes long. The position of the channel is not
+ * used or changed.
+ * @author jwbroek
+ */
+public class FileWindow
+{
+  /**
+   * Ranges of at least this many bytes are mapped rather than read, so that they do not take up space on the heap.
+   */
+  public static final int MIN_MAPPED_LENGTH = 64 * 1024;
+  
+  /**
+   * The file.
+   */
+  private final FileChannel channel;
+  /**
+   * The size of the window.
+   */
+  private final int windowSize;
+  /**
+   * The current window. A new buffer is allocated whenever the window moves, so ranges handed out earlier stay
+   * valid.
+   */
+  private ByteBuffer window = ByteBuffer.allocate(0);
+  /**
+   * The position in the file of the start of the window.
+   */
+  private long windowPosition = 0;
+  
+  /**
+   * Create a new FileWindow.
+   * @param channel The file.
+   * @param windowSize The size of the window.
+   */
+  public FileWindow(final FileChannel channel, final int windowSize)
+  {
+    this.channel = channel;
+    this.windowSize = windowSize;
+  }
+  
+  /**
+   * Get a range of the file.
+   * @param position The position of the range in the file.
+   * @param length The length of the range.
+   * @return A buffer holding the range. Holds less than length bytes if the file ends first. The buffer may share
+   * content with other buffers returned by this FileWindow, so it should not be modified. Large ranges are mapped,
+   * with the hazards described for {@link #map(FileChannel, long, int)}.
+   * @throws IOException When the file could not be read.
+   */
+  public ByteBuffer get(final long position, final int length) throws IOException
+  {
+    if (length >= FileWindow.MIN_MAPPED_LENGTH)
+    {
+      return FileWindow.map(this.channel, position, length);
+    }
+    if (length > this.windowSize)
+    {
+      final ByteBuffer result = ByteBuffer.allocate(length);
+      FileWindow.readFully(this.channel, result, position);
+      result.flip();
+      return result;
+    }
+    if (position < this.windowPosition || position + length > this.windowPosition + this.window.limit())
+    {
+      this.window = ByteBuffer.allocate(this.windowSize);
+      FileWindow.readFully(this.channel, this.window, position);
+      this.window.flip();
+      this.windowPosition = position;
+    }
+    final ByteBuffer result = this.window.duplicate();
+    final int start = (int) (position - this.windowPosition);
+    result.position(Math.min(start, result.limit()));
+    result.limit(Math.min(start + length, result.limit()));
+    return result.slice();
+  }
+  
+  /**
+   * Map a range of a file into memory. The mapping stays valid after the channel is closed, and is released when the
+   * buffer is garbage collected. Until then, the buffer reflects changes to the file. If the file is truncated, reading
+   * the buffer may fail with an InternalError, or even crash the virtual machine, so copy what is still needed before
+   * the file is changed.
+   * @param channel The file.
+   * @param position The position of the range in the file.
+   * @param length The length of the range.
+   * @return A read-only buffer holding the range. Holds less than length bytes if the file ends first.
+   * @throws IOException When the file could not be mapped.
+   */
+  public static ByteBuffer map(final FileChannel channel, final long position, final int length) throws IOException
+  {
+    final long mappedLength = Math.max(0, Math.min(length, channel.size() - position));
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, mappedLength);
+  }
+  
+  /**
+   * Fill the remainder of the buffer with positional reads, or until the end of the file.
+   * @param channel The file.
+   * @param buffer The buffer to fill.
+   * @param position The position in the file to start reading at.
+   * @throws IOException When the file could not be read.
+   */
+  public static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+    throws IOException
+  {
+    long currentPosition = position;
+    while (buffer.hasRemaining())
+    {
+      final int bytesRead = channel.read(buffer, currentPosition);
+      if (bytesRead < 0)
+      {
+        break;
+      }
+      currentPosition += bytesRead;
+    }
+  }
+}
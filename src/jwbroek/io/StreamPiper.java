@@ -23,16 +23,63 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Utility class for piping data from an InputStream to an OutputStream, or to nowhere. This class is particularly useful
- * for reading the output streams of a java.lang.Process, as such a Process may block if its output is not read.
+ * <p>Utility class for piping data from an InputStream to an OutputStream, or to nowhere. This class is particularly
+ * useful for reading the output streams of a java.lang.Process, as such a Process may block if its output is not
+ * read.</p>
+ * <p>Data is copied in blocks through a buffer that is reused by the piping thread. Pipes started through
+ * {@link #pipeStream(InputStream, File)} or {@link #pipeStream(InputStream, OutputStream, boolean, AtomicLong)} share
+ * a pool of daemon threads, so callers that need the piped data to be complete should {@link #join()} the returned
+ * StreamPiper.</p>
  * @author jwbroek
  */
 public class StreamPiper implements Runnable
 {
   /**
-   * Stream to read input from. mus not be null.
+   * Size of the buffer used for copying data.
+   */
+  private static final int BUFFER_SIZE = 8192;
+  /**
+   * Copy buffers, one per piping thread. As the threads are pooled, the buffers are reused across pipes.
+   */
+  private static final ThreadLocal<byte []> buffers = new ThreadLocal<byte []>()
+  {
+    @Override
+    protected byte [] initialValue()
+    {
+      return new byte[StreamPiper.BUFFER_SIZE];
+    }
+  };
+  /**
+   * Shared pool of threads for running pipes. Threads are daemons, so that an idle pool will not keep the VM alive.
+   */
+  private static final ExecutorService executor = Executors.newCachedThreadPool
+    ( new ThreadFactory()
+      {
+        /**
+         * Number of threads created so far. Used for naming.
+         */
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+        
+        public Thread newThread(final Runnable runnable)
+        {
+          final Thread thread = new Thread(runnable, "StreamPiper-" + this.threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      }
+    );
+  
+  /**
+   * Stream to read input from. Must not be null.
    */
   private InputStream from;
   /**
@@ -43,6 +90,22 @@ public class StreamPiper implements Runnable
    * Whether or not to close the output stream after all data has been piped.
    */
   private boolean closeOutput;
+  /**
+   * Counter that will be increased by the number of bytes piped. May be null.
+   */
+  private AtomicLong byteCounter;
+  /**
+   * Number of bytes piped so far.
+   */
+  private volatile long bytesPiped = 0;
+  /**
+   * The IOException that ended the piping, if any.
+   */
+  private volatile IOException exception = null;
+  /**
+   * Is released once piping has finished and the streams have been closed.
+   */
+  private final CountDownLatch finished = new CountDownLatch(1);
   
   /**
    * Pipe all input from the InputStream to the OutputStream. The OutputStream is explicitly allowed to be null.
@@ -65,27 +128,71 @@ public class StreamPiper implements Runnable
    * @param closeOutput
    */
   public StreamPiper(final InputStream from, final OutputStream to, final boolean closeOutput)
+  {
+    this(from, to, closeOutput, null);
+  }
+  
+  /**
+   * Pipe all input from the InputStream to the OutputStream. The OutputStream is explicitly allowed to be null.
+   * In such a case, all input will be discarded. In any case, the OutputStream will only be closed by StreamPiper if
+   * this is requested, while the InputStream will always be, once its end is reached.
+   * @param from
+   * @param to
+   * @param closeOutput
+   * @param byteCounter Counter that will be increased by the number of bytes piped. May be null. The same counter
+   * may be shared by several StreamPipers.
+   */
+  public StreamPiper
+    ( final InputStream from
+    , final OutputStream to
+    , final boolean closeOutput
+    , final AtomicLong byteCounter
+    )
   {
     this.from = from;
     this.to = to;
     this.closeOutput = closeOutput;
+    this.byteCounter = byteCounter;
   }
   
   /**
    * Pipe the contents of the specified input stream to the specified file, or throw it away if the file is
-   * null.
+   * null. The piping is done on a shared thread.
    * @param from The input to stream to file.
    * @param file The file to pipe input to, or null if the input should be thrown away.
+   * @return The StreamPiper doing the piping. Can be used to wait for the piping to finish.
    * @throws IOException
    */
-  public static void pipeStream(final InputStream from, final File file) throws IOException
+  public static StreamPiper pipeStream(final InputStream from, final File file) throws IOException
   {
     OutputStream out = null;
     if (file!=null)
     {
       out = new FileOutputStream(file);
     }
-    new Thread(new StreamPiper(from, out, true)).start();
+    final StreamPiper result = StreamPiper.pipeStream(from, out, true, null);
+    return result;
+  }
+  
+  /**
+   * Pipe the contents of the specified input stream to the specified output stream, or throw it away if the output
+   * stream is null. The piping is done on a shared thread.
+   * @param from The input to stream to file.
+   * @param to The stream to pipe input to, or null if the input should be thrown away.
+   * @param closeOutput Whether or not to close the output stream after all data has been piped.
+   * @param byteCounter Counter that will be increased by the number of bytes piped. May be null.
+   * @return The StreamPiper doing the piping. Can be used to wait for the piping to finish.
+   */
+  public static StreamPiper pipeStream
+    ( final InputStream from
+    , final OutputStream to
+    , final boolean closeOutput
+    , final AtomicLong byteCounter
+    )
+  {
+    final StreamPiper result = new StreamPiper(from, to, closeOutput, byteCounter);
+    StreamPiper.executor.execute(result);
+    return result;
   }
   
   /**
@@ -93,21 +200,28 @@ public class StreamPiper implements Runnable
    */
   public void run()
   {
+    final byte [] buffer = StreamPiper.buffers.get();
     try
     {
-      int input = this.from.read();
-      while (input != -1)
+      int bytesRead = this.from.read(buffer);
+      while (bytesRead != -1)
       {
         if (this.to != null)
         {
-          this.to.write(input);
+          this.to.write(buffer, 0, bytesRead);
+        }
+        this.bytesPiped += bytesRead;
+        if (this.byteCounter != null)
+        {
+          this.byteCounter.addAndGet(bytesRead);
         }
-        input = this.from.read();
+        bytesRead = this.from.read(buffer);
       }
     }
     catch (IOException e)
     {
-      // Nothing we can do.
+      // Nothing we can do, apart from making it available to whoever joins us.
+      this.exception = e;
       e.printStackTrace();
     }
     finally
@@ -133,6 +247,57 @@ public class StreamPiper implements Runnable
           e.printStackTrace();
         }
       }
+      this.finished.countDown();
     }
   }
+  
+  /**
+   * Wait until all data has been piped and the streams have been closed (as far as requested).
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public void join() throws InterruptedException
+  {
+    this.finished.await();
+  }
+  
+  /**
+   * Wait until all data has been piped and the streams have been closed (as far as requested), or until the
+   * timeout expires.
+   * @param timeout The maximum time to wait.
+   * @param unit The unit of the timeout.
+   * @return True if piping has finished, false if the timeout expired first.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public boolean join(final long timeout, final TimeUnit unit) throws InterruptedException
+  {
+    final boolean result = this.finished.await(timeout, unit);
+    return result;
+  }
+  
+  /**
+   * Get whether or not piping has finished.
+   * @return Whether or not piping has finished.
+   */
+  public boolean isFinished()
+  {
+    return this.finished.getCount() == 0;
+  }
+  
+  /**
+   * Get the number of bytes piped so far.
+   * @return The number of bytes piped so far.
+   */
+  public long getBytesPiped()
+  {
+    return this.bytesPiped;
+  }
+  
+  /**
+   * Get the IOException that ended the piping, if any.
+   * @return The IOException that ended the piping, or null if there was none (yet).
+   */
+  public IOException getException()
+  {
+    return this.exception;
+  }
 }
@@ -18,9 +18,10 @@
  */
 package jwbroek.util;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeSet;
 
 /**
  * <p>A StringReplacer will perform a number of string replacements on the same string in a single pass. For instance,
@@ -34,75 +35,281 @@ import java.util.regex.Pattern;
  * <p>Searches are done greedily. That is to say, the string "bulldogs rule" will match the search string "bulldog" in
  * preference over the search strings "bull" (matches less) and "dogs rule" (matches more, but later).</p>
  * 
- * <p>Instances of this class are reusable. They are also safe for concurrent use, as long as the Map instance they are
- * constructed on is safe for concurrent reads. (The Map need not be safe for concurrent writes.) Most Map
- * implementations, including {@link java.util.HashMap}, {@link java.util.Hashtable}, and {@link java.util.TreeMap},
- * will meet this requirement.</p>
+ * <p>The search strings are compiled into an Aho-Corasick automaton, so the time needed to find the matches does not
+ * grow with the number of search strings. Instances of this class are immutable, and thus reusable and safe for
+ * concurrent use.</p>
  * @author jwbroek
  */
 public class StringReplacer
 {
   /**
-   * A Pattern that is used to perform the replacements.
+   * Number of characters that get a direct entry in {@link #asciiClasses}.
    */
-  private Pattern replacementPattern;
+  private static final int ASCII_SIZE = 128;
+  
+  /**
+   * Character class of every ASCII character. Characters that do not occur in any search string have class 0.
+   */
+  private final int [] asciiClasses = new int[StringReplacer.ASCII_SIZE];
+  /**
+   * The non-ASCII characters that occur in the search strings, in ascending order. The character at index i has
+   * class {@link #asciiClassCount} + i + 1.
+   */
+  private final char [] otherChars;
+  /**
+   * Number of character classes for ASCII characters, excluding class 0.
+   */
+  private final int asciiClassCount;
+  /**
+   * Number of character classes, including class 0.
+   */
+  private final int classCount;
   /**
-   * A map from "value to search for", to "value to change to".
+   * The transition table of the automaton. The state after reading a character of class c in state s is at index
+   * s * {@link #classCount} + c. State 0 is the start state.
    */
-  private Map<String, String> replacements;
+  private final int [] transitions;
+  /**
+   * Per state, the length of the text read to reach it.
+   */
+  private final int [] depths;
+  /**
+   * Per state, the length of the longest search string that is a suffix of the text read to reach it. 0 if there
+   * is none.
+   */
+  private final int [] matchLengths;
+  /**
+   * Per state, the replacement of the search string in {@link #matchLengths}. Null if there is none.
+   */
+  private final String [] matchReplacements;
   
   /**
    * Build a reusable replacer based on a "from" "to" mapping of search and replace strings.
-   * @param replacements A "from" "to" mapping. This Map should not be modified after being passed to this constructor,
-   * or the behaviour of the StringReplacer will be undefined.
+   * @param replacements A "from" "to" mapping. The mapping is copied, so later changes to the Map do not affect the
+   * StringReplacer.
+   * @throws IllegalArgumentException If a search string is empty, or if a replacement is null.
    */
-  public StringReplacer(Map<String, String> replacements)
+  public StringReplacer(final Map<String, String> replacements)
   {
-    StringBuilder builder = new StringBuilder();
-    
-    builder.append('(');
+    // Assign character classes, so that the transition table only needs a column per character that actually
+    // occurs in the search strings.
+    final TreeSet<Character> otherCharSet = new TreeSet<Character>();
+    int asciiClassCount = 0;
+    int maxStates = 1;
+    for (Map.Entry<String, String> entry : replacements.entrySet())
+    {
+      final String key = entry.getKey();
+      if (key.length() == 0)
+      {
+        throw new IllegalArgumentException("Search strings must not be empty.");
+      }
+      if (entry.getValue() == null)
+      {
+        throw new IllegalArgumentException("Replacement for \"" + key + "\" must not be null.");
+      }
+      for (int index = 0; index < key.length(); index++)
+      {
+        final char currentChar = key.charAt(index);
+        if (currentChar < StringReplacer.ASCII_SIZE)
+        {
+          if (this.asciiClasses[currentChar] == 0)
+          {
+            asciiClassCount++;
+            this.asciiClasses[currentChar] = asciiClassCount;
+          }
+        }
+        else
+        {
+          otherCharSet.add(currentChar);
+        }
+      }
+      maxStates += key.length();
+    }
+    this.asciiClassCount = asciiClassCount;
+    this.otherChars = new char[otherCharSet.size()];
+    int otherIndex = 0;
+    for (Character currentChar : otherCharSet)
+    {
+      this.otherChars[otherIndex] = currentChar;
+      otherIndex++;
+    }
+    this.classCount = asciiClassCount + this.otherChars.length + 1;
     
-    boolean isFirst = true;
+    // Build the trie of search strings. -1 means that there is no edge yet.
+    final int [] table = new int[maxStates * this.classCount];
+    Arrays.fill(table, -1);
+    final int [] depths = new int[maxStates];
+    final int [] matchLengths = new int[maxStates];
+    final String [] matchReplacements = new String[maxStates];
+    int stateCount = 1;
+    for (Map.Entry<String, String> entry : replacements.entrySet())
+    {
+      final String key = entry.getKey();
+      int state = 0;
+      for (int index = 0; index < key.length(); index++)
+      {
+        final int edge = state * this.classCount + this.getCharClass(key.charAt(index));
+        if (table[edge] == -1)
+        {
+          table[edge] = stateCount;
+          depths[stateCount] = index + 1;
+          stateCount++;
+        }
+        state = table[edge];
+      }
+      matchLengths[state] = key.length();
+      matchReplacements[state] = entry.getValue();
+    }
     
-    for (String key : replacements.keySet())
+    // Turn the trie into the automaton, breadth first, so that the failure state of every state is complete before
+    // it is needed. Missing edges are replaced by the transition of the failure state.
+    final int [] failures = new int[stateCount];
+    final int [] queue = new int[stateCount];
+    int queueHead = 0;
+    int queueTail = 0;
+    for (int charClass = 0; charClass < this.classCount; charClass++)
     {
-      if (isFirst)
+      if (table[charClass] == -1)
       {
-        isFirst = false;
+        table[charClass] = 0;
       }
       else
       {
-        builder.append('|');
+        queue[queueTail] = table[charClass];
+        queueTail++;
+      }
+    }
+    while (queueHead < queueTail)
+    {
+      final int state = queue[queueHead];
+      queueHead++;
+      final int failure = failures[state];
+      if (matchLengths[state] == 0)
+      {
+        matchLengths[state] = matchLengths[failure];
+        matchReplacements[state] = matchReplacements[failure];
+      }
+      for (int charClass = 0; charClass < this.classCount; charClass++)
+      {
+        final int edge = state * this.classCount + charClass;
+        final int failureTransition = table[failure * this.classCount + charClass];
+        if (table[edge] == -1)
+        {
+          table[edge] = failureTransition;
+        }
+        else
+        {
+          failures[table[edge]] = failureTransition;
+          queue[queueTail] = table[edge];
+          queueTail++;
+        }
       }
-      builder.append("(?:").append(Pattern.quote(key)).append(')');
     }
     
-    builder.append(')');
-    
-    this.replacementPattern = Pattern.compile(builder.toString());
-    this.replacements = replacements;
+    this.transitions = Arrays.copyOf(table, stateCount * this.classCount);
+    this.depths = Arrays.copyOf(depths, stateCount);
+    this.matchLengths = Arrays.copyOf(matchLengths, stateCount);
+    this.matchReplacements = Arrays.copyOf(matchReplacements, stateCount);
   }
   
   /**
    * Perform the replacements on the specified input.
    * @param input The string to perform replacements on. Note that this String instance will not be modified, as
    * String instances are immutable in java.
-   * @return The result of doing all relevant replacements on the input string. 
+   * @return The result of doing all relevant replacements on the input string. This is the input instance itself if
+   * nothing was replaced.
    */
-  public String replace(String input)
+  public String replace(final String input)
   {
-    StringBuffer buffer = new StringBuffer();
-    
-    Matcher matcher = this.replacementPattern.matcher(input);
-    
-    while(matcher.find())
+    final int [] match = new int[2];
+    int matchStart = this.find(input, 0, match);
+    if (matchStart == -1)
     {
-      matcher.appendReplacement(buffer, Matcher.quoteReplacement(this.replacements.get(matcher.group())));
+      return input;
     }
     
-    matcher.appendTail(buffer);
+    final StringBuilder builder = new StringBuilder(input.length() + 16);
+    int tailStart = 0;
+    do
+    {
+      builder.append(input, tailStart, matchStart).append(this.matchReplacements[match[1]]);
+      tailStart = match[0];
+      matchStart = this.find(input, tailStart, match);
+    } while (matchStart != -1);
+    builder.append(input, tailStart, input.length());
     
-    String result = buffer.toString();
+    final String result = builder.toString();
+    return result;
+  }
+  
+  /**
+   * Perform the replacements on the specified input, and append the result to the specified output.
+   * @param input The text to perform replacements on.
+   * @param output The Appendable to append the result to, such as a StringBuilder or a Writer.
+   * @return The output.
+   * @throws IOException If the output could not be appended to.
+   */
+  public <T extends Appendable> T replace(final CharSequence input, final T output) throws IOException
+  {
+    final int [] match = new int[2];
+    int tailStart = 0;
+    int matchStart;
+    while ((matchStart = this.find(input, tailStart, match)) != -1)
+    {
+      output.append(input, tailStart, matchStart).append(this.matchReplacements[match[1]]);
+      tailStart = match[0];
+    }
+    output.append(input, tailStart, input.length());
+    return output;
+  }
+  
+  /**
+   * Find the leftmost-longest match in the input, starting at the specified index.
+   * @param input The text to search.
+   * @param fromIndex The index to start searching at.
+   * @param match Array that receives the end index of the match at index 0, and the state that identifies the
+   * replacement at index 1. Unchanged if there is no match.
+   * @return The start index of the match, or -1 if there is none.
+   */
+  private int find(final CharSequence input, final int fromIndex, final int [] match)
+  {
+    final int length = input.length();
+    int state = 0;
+    int matchStart = -1;
+    for (int index = fromIndex; index < length; index++)
+    {
+      state = this.transitions[state * this.classCount + this.getCharClass(input.charAt(index))];
+      // Any match still to be found starts where the text of the current state starts. Once that is beyond the
+      // start of the match found so far, no better match is possible.
+      if (matchStart != -1 && index + 1 - this.depths[state] > matchStart)
+      {
+        break;
+      }
+      final int matchLength = this.matchLengths[state];
+      // A match that ends later, but starts no later, is longer.
+      if (matchLength != 0 && (matchStart == -1 || index + 1 - matchLength <= matchStart))
+      {
+        matchStart = index + 1 - matchLength;
+        match[0] = index + 1;
+        match[1] = state;
+      }
+    }
+    return matchStart;
+  }
+  
+  /**
+   * Get the character class of the specified character.
+   * @param currentChar The character.
+   * @return The character class of the character, or 0 if it does not occur in any search string.
+   */
+  private int getCharClass(final char currentChar)
+  {
+    if (currentChar < StringReplacer.ASCII_SIZE)
+    {
+      return this.asciiClasses[currentChar];
+    }
+    final int index = Arrays.binarySearch(this.otherChars, currentChar);
+    final int result = index < 0 ? 0 : this.asciiClassCount + index + 1;
     return result;
   }
 }
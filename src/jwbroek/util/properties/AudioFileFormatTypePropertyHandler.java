@@ -22,6 +22,8 @@ import java.util.Properties;
 
 import javax.sound.sampled.AudioFileFormat;
 
+import jwbroek.flac.FlacEncoder;
+
 /**
  * PropertyHandler for {@link javax.sound.sampled.AudioFileFormat.Type}s.
  * @author jwbroek
@@ -91,6 +93,10 @@ final public class AudioFileFormatTypePropertyHandler implements PropertyHandler
     {
       result = AudioFileFormat.Type.WAVE;
     }
+    else if ("FLAC".equals(value))
+    {
+      result = FlacEncoder.FLAC;
+    }
     else
     {
       final CannotConvertPropertyException exception = new CannotConvertPropertyException
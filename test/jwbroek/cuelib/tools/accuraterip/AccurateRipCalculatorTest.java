@@ -0,0 +1,197 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.cuelib.tools.accuraterip;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import jwbroek.cuelib.CueParser;
+import jwbroek.cuelib.CueSheet;
+import jwbroek.flac.FlacEncoder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.cuelib.tools.accuraterip.AccurateRipCalculator}.
+ * @author jwbroek
+ */
+public class AccurateRipCalculatorTest
+{
+  /**
+   * Number of samples per channel in a CD sector.
+   */
+  private static final int SAMPLES_PER_SECTOR = 588;
+  /**
+   * Three tracks of 10, 2 and 10 sectors, so that the first and last track are just long enough to hold the five
+   * sectors that are skipped at the start and at the end of the disc, and little else.
+   */
+  private static final String CUE_SHEET =
+    "FILE \"audio\" WAVE\n"
+    + "  TRACK 01 AUDIO\n"
+    + "    INDEX 01 00:00:00\n"
+    + "  TRACK 02 AUDIO\n"
+    + "    INDEX 01 00:00:10\n"
+    + "  TRACK 03 AUDIO\n"
+    + "    INDEX 01 00:00:12\n";
+  
+  /**
+   * The test audio: silence, apart from a few stereo samples around the bounds of the checksums.
+   */
+  private byte [] pcm;
+  /**
+   * The calculator under test.
+   */
+  private AccurateRipCalculator calculator;
+  /**
+   * File holding the test audio.
+   */
+  private File audioFile;
+  
+  /**
+   * Create the test audio. Samples are placed by their multiplier, which is their position in the track, starting
+   * at 1. The first track covers multipliers 5*588-1 = 2939 up to its end, the last track covers multipliers 1 up to
+   * 5880-5*588 = 2940, and the middle track covers all of its samples.
+   */
+  @Before
+  public void setUp()
+  {
+    this.pcm = new byte[22 * AccurateRipCalculatorTest.SAMPLES_PER_SECTOR * 4];
+    // Track 1, at sample 0.
+    this.putSample(0, 2938, 0x12345678);
+    this.putSample(0, 2939, 0xFFFFFFFF);
+    this.putSample(0, 5880, 1);
+    // Track 2, at sample 5880.
+    this.putSample(5880, 1, 3);
+    this.putSample(5880, 1176, 0x80000000);
+    // Track 3, at sample 7056.
+    this.putSample(7056, 1, 5);
+    this.putSample(7056, 2940, 0xFFFFFFFF);
+    this.putSample(7056, 2941, 0x7FFFFFFF);
+    this.putSample(7056, 5880, 9);
+    this.calculator = new AccurateRipCalculator();
+  }
+  
+  /**
+   * Remove the test audio, and stop the calculator.
+   */
+  @After
+  public void tearDown()
+  {
+    if (this.audioFile != null)
+    {
+      this.audioFile.delete();
+    }
+    this.calculator.shutdown();
+  }
+  
+  /**
+   * Test the checksums of a WAVE file against checksums computed by hand.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testWave() throws Exception
+  {
+    this.audioFile = File.createTempFile("AccurateRipCalculatorTest", ".wav");
+    AudioSystem.write(this.createAudioInputStream(), AudioFileFormat.Type.WAVE, this.audioFile);
+    assertChecksums();
+  }
+  
+  /**
+   * Test the checksums of a FLAC file, of which the tracks are processed in parallel, against checksums computed by
+   * hand.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testFlac() throws Exception
+  {
+    this.audioFile = File.createTempFile("AccurateRipCalculatorTest", ".flac");
+    new FlacEncoder().encode(this.createAudioInputStream(), this.audioFile, null);
+    assertChecksums();
+    // The calculator can be used again, as its threads are shared.
+    assertChecksums();
+  }
+  
+  /**
+   * Check the checksums of the test audio. Per sample, the 64 bit product of the stereo sample, as a 32 bit word, and
+   * its multiplier is taken. Version 1 sums the low halves, and version 2 sums both halves, modulo 2^32.
+   * @throws Exception Not expected.
+   */
+  private void assertChecksums() throws Exception
+  {
+    final CueSheet cueSheet =
+      CueParser.parse(new ByteArrayInputStream(AccurateRipCalculatorTest.CUE_SHEET.getBytes("US-ASCII")));
+    final List<AccurateRipChecksum> checksums =
+      this.calculator.calculate(cueSheet.getFileData().get(0), this.audioFile);
+    Assert.assertEquals(3, checksums.size());
+    
+    // 0xFFFFFFFF * 2939 = 2938 * 2^32 + (2^32 - 2939), then 1 * 5880.
+    Assert.assertEquals(5880, checksums.get(0).getSampleCount());
+    Assert.assertEquals(2941, checksums.get(0).getChecksumV1());
+    Assert.assertEquals(2941 + 2938, checksums.get(0).getChecksumV2());
+    
+    // 3 * 1, then 0x80000000 * 1176 = 588 * 2^32.
+    Assert.assertEquals(1176, checksums.get(1).getSampleCount());
+    Assert.assertEquals(3, checksums.get(1).getChecksumV1());
+    Assert.assertEquals(3 + 588, checksums.get(1).getChecksumV2());
+    
+    // 5 * 1, then 0xFFFFFFFF * 2940 = 2939 * 2^32 + (2^32 - 2940).
+    Assert.assertEquals(5880, checksums.get(2).getSampleCount());
+    Assert.assertEquals(5 - 2940, checksums.get(2).getChecksumV1());
+    Assert.assertEquals(5 - 2940 + 2939, checksums.get(2).getChecksumV2());
+  }
+  
+  /**
+   * Put a stereo sample in the test audio, as a little endian 32 bit word with the left channel in the low half.
+   * @param trackStart The first sample of the track.
+   * @param multiplier The position of the sample in the track, starting at 1.
+   * @param word The stereo sample.
+   */
+  private void putSample(final int trackStart, final int multiplier, final int word)
+  {
+    final int offset = (trackStart + multiplier - 1) * 4;
+    this.pcm[offset] = (byte) word;
+    this.pcm[offset + 1] = (byte) (word >> 8);
+    this.pcm[offset + 2] = (byte) (word >> 16);
+    this.pcm[offset + 3] = (byte) (word >> 24);
+  }
+  
+  /**
+   * Get the test audio as CD audio.
+   * @return The test audio.
+   * @throws IOException Not expected.
+   */
+  private AudioInputStream createAudioInputStream() throws IOException
+  {
+    return new AudioInputStream
+      ( new ByteArrayInputStream(this.pcm)
+      , new AudioFormat(44100, 16, 2, true, false)
+      , this.pcm.length / 4
+      );
+  }
+}
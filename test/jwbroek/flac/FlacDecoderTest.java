@@ -0,0 +1,185 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.flac.FlacDecoder}.
+ * @author jwbroek
+ */
+public class FlacDecoderTest
+{
+  /**
+   * The original audio: 16 bit signed little endian stereo PCM.
+   */
+  private byte [] pcm;
+  /**
+   * The encoded audio.
+   */
+  private File flacFile;
+  /**
+   * Decoder for the encoded audio.
+   */
+  private FlacDecoder decoder;
+  
+  /**
+   * Encode 25 seconds of audio, so that the SEEKTABLE holds several seek points, and open it for decoding.
+   * @throws IOException
+   */
+  @Before
+  public void setUp() throws IOException
+  {
+    this.pcm = FlacEncoderTest.createPcm(FlacEncoderTest.TOTAL_SAMPLES);
+    this.flacFile = File.createTempFile("FlacDecoderTest", ".flac");
+    new FlacEncoder().encode(FlacEncoderTest.createAudioInputStream(this.pcm), this.flacFile, null);
+    this.decoder = new FlacDecoder(this.flacFile);
+  }
+  
+  /**
+   * Close the decoder and remove the encoded audio.
+   * @throws IOException
+   */
+  @After
+  public void tearDown() throws IOException
+  {
+    this.decoder.close();
+    this.flacFile.delete();
+  }
+  
+  /**
+   * Read a stream until the end.
+   * @param in The stream to read. Will be closed.
+   * @return All bytes read.
+   * @throws IOException When the stream could not be read.
+   */
+  private static byte [] readFully(final InputStream in) throws IOException
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try
+    {
+      final byte [] buffer = new byte[1 << 12];
+      int bytesRead;
+      while ((bytesRead = in.read(buffer)) >= 0)
+      {
+        out.write(buffer, 0, bytesRead);
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+    return out.toByteArray();
+  }
+  
+  /**
+   * Get the part of the fully decoded audio between two samples.
+   * @param startSample The first sample per channel.
+   * @param endSample The sample per channel just beyond the last one, or -1 for the end.
+   * @return The decoded audio between the samples.
+   * @throws IOException When the audio could not be decoded.
+   */
+  private byte [] decodeFromStart(final long startSample, final long endSample) throws IOException
+  {
+    final byte [] full = FlacDecoderTest.readFully(this.decoder.openStream(0, -1));
+    final int frameSize = this.decoder.getAudioFormat().getFrameSize();
+    return Arrays.copyOfRange
+      (full, (int) startSample * frameSize, endSample < 0 ? full.length : (int) endSample * frameSize);
+  }
+  
+  /**
+   * Test that decoding the encoded audio gives back the original samples.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    Assert.assertEquals(FlacEncoderTest.SAMPLE_RATE, this.decoder.getSampleRate());
+    Assert.assertEquals(2, this.decoder.getChannels());
+    Assert.assertEquals(16, this.decoder.getBitsPerSample());
+    Assert.assertTrue(Arrays.equals(this.pcm, FlacDecoderTest.readFully(this.decoder.openStream(0, -1))));
+  }
+  
+  /**
+   * Test that the decoder reports the total number of samples and the MD5 signature of the original audio.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testStreamInfo() throws Exception
+  {
+    Assert.assertEquals(FlacEncoderTest.TOTAL_SAMPLES, this.decoder.getTotalSamples());
+    final byte [] expectedMd5 = MessageDigest.getInstance("MD5").digest(this.pcm);
+    Assert.assertTrue(Arrays.equals(expectedMd5, this.decoder.getMd5Signature()));
+  }
+  
+  /**
+   * Test that starting in the middle of the stream gives the same samples as decoding from the start, both for
+   * samples just past a seek point and for samples inside a block.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testSeek() throws Exception
+  {
+    final long second = FlacEncoderTest.SAMPLE_RATE;
+    final long [][] ranges =
+      { {second * 10, -1}
+      , {second * 10 + 7, second * 12 + 999}
+      , {second * 20 + 4095, second * 20 + 4097}
+      , {FlacEncoder.DEFAULT_BLOCK_SIZE, 2 * FlacEncoder.DEFAULT_BLOCK_SIZE}
+      , {FlacEncoderTest.TOTAL_SAMPLES - 5, -1}
+      };
+    for (final long [] range : ranges)
+    {
+      final byte [] expected = this.decodeFromStart(range[0], range[1]);
+      final byte [] seeked = FlacDecoderTest.readFully(this.decoder.openStream(range[0], range[1]));
+      Assert.assertTrue(Arrays.equals(expected, seeked));
+      final int startByte = (int) range[0] * 4;
+      Assert.assertTrue(Arrays.equals(expected, Arrays.copyOfRange(this.pcm, startByte, startByte + expected.length)));
+    }
+  }
+  
+  /**
+   * Test that an AudioInputStream for part of the audio declares its length and holds the same samples as decoding
+   * from the start.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testAudioInputStream() throws Exception
+  {
+    final long startSample = FlacEncoderTest.SAMPLE_RATE * 15 + 3;
+    final long endSample = FlacEncoderTest.SAMPLE_RATE * 21;
+    final AudioInputStream audioInputStream = this.decoder.getAudioInputStream(startSample, endSample);
+    Assert.assertEquals(endSample - startSample, audioInputStream.getFrameLength());
+    Assert.assertEquals(this.decoder.getAudioFormat(), audioInputStream.getFormat());
+    Assert.assertTrue(Arrays.equals(this.decodeFromStart(startSample, endSample)
+      , FlacDecoderTest.readFully(audioInputStream)));
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.flac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.flac.FlacEncoder}.
+ * @author jwbroek
+ */
+public class FlacEncoderTest
+{
+  /**
+   * Sample rate of the test audio. Low, so that the audio spans several seek points without taking much space.
+   */
+  static final int SAMPLE_RATE = 8000;
+  /**
+   * Number of samples per channel in the test audio. Not a multiple of the block size, so the last block is short.
+   */
+  static final int TOTAL_SAMPLES = FlacEncoderTest.SAMPLE_RATE * 25 + 123;
+  /**
+   * Metadata block type of STREAMINFO.
+   */
+  private static final int BLOCK_STREAMINFO = 0;
+  /**
+   * Metadata block type of SEEKTABLE.
+   */
+  private static final int BLOCK_SEEKTABLE = 3;
+  
+  /**
+   * The test audio: 16 bit signed little endian stereo PCM.
+   */
+  private byte [] pcm;
+  /**
+   * The encoded test audio.
+   */
+  private File flacFile;
+  
+  /**
+   * Create the test audio and encode it.
+   * @throws IOException
+   */
+  @Before
+  public void setUp() throws IOException
+  {
+    this.pcm = FlacEncoderTest.createPcm(FlacEncoderTest.TOTAL_SAMPLES);
+    this.flacFile = File.createTempFile("FlacEncoderTest", ".flac");
+    new FlacEncoder().encode(FlacEncoderTest.createAudioInputStream(this.pcm), this.flacFile, null);
+  }
+  
+  /**
+   * Remove the encoded test audio.
+   */
+  @After
+  public void tearDown()
+  {
+    this.flacFile.delete();
+  }
+  
+  /**
+   * Create 16 bit stereo PCM: a sine on each channel with some noise, and a stretch of silence in the middle.
+   * @param sampleCount The number of samples per channel.
+   * @return The PCM, signed and little endian.
+   */
+  static byte [] createPcm(final int sampleCount)
+  {
+    final Random random = new Random(1);
+    final byte [] result = new byte[sampleCount * 4];
+    int position = 0;
+    for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++)
+    {
+      for (int channel = 0; channel < 2; channel++)
+      {
+        double value = Math.sin(sampleIndex * 0.01 * (channel + 1)) * 0.6 + random.nextGaussian() * 0.05;
+        if (sampleIndex > 3 * FlacEncoderTest.SAMPLE_RATE && sampleIndex < 5 * FlacEncoderTest.SAMPLE_RATE)
+        {
+          value = 0;
+        }
+        final int sample = (int) (value * Short.MAX_VALUE);
+        result[position++] = (byte) sample;
+        result[position++] = (byte) (sample >> 8);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Wrap PCM created by {@link #createPcm(int)} in an AudioInputStream of known length.
+   * @param pcm The PCM.
+   * @return An AudioInputStream of the PCM.
+   */
+  static AudioInputStream createAudioInputStream(final byte [] pcm)
+  {
+    final AudioFormat format = new AudioFormat(FlacEncoderTest.SAMPLE_RATE, 16, 2, true, false);
+    return new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / format.getFrameSize());
+  }
+  
+  /**
+   * Find a metadata block in FLAC data.
+   * @param flac The FLAC data, starting with the "fLaC" marker.
+   * @param blockType The type of block to find.
+   * @return The offset of the contents of the block, or -1 if there is no such block.
+   */
+  private static int findBlock(final byte [] flac, final int blockType)
+  {
+    int position = 4;
+    boolean lastBlock = false;
+    while (!lastBlock)
+    {
+      lastBlock = (flac[position] & 0x80) != 0;
+      final int blockLength = FlacEncoderTest.readBits(flac, position + 1, 24);
+      if ((flac[position] & 0x7F) == blockType)
+      {
+        return position + 4;
+      }
+      position += 4 + blockLength;
+    }
+    return -1;
+  }
+  
+  /**
+   * Get the offset of the first frame in FLAC data.
+   * @param flac The FLAC data, starting with the "fLaC" marker.
+   * @return The offset of the first frame.
+   */
+  private static int getAudioOffset(final byte [] flac)
+  {
+    int position = 4;
+    boolean lastBlock = false;
+    while (!lastBlock)
+    {
+      lastBlock = (flac[position] & 0x80) != 0;
+      position += 4 + FlacEncoderTest.readBits(flac, position + 1, 24);
+    }
+    return position;
+  }
+  
+  /**
+   * Read a big endian value of up to 64 bits, starting at a byte boundary.
+   * @param data The data to read from.
+   * @param offset The offset of the first byte.
+   * @param bitCount The number of bits to read.
+   * @return The value.
+   */
+  private static long readLong(final byte [] data, final int offset, final int bitCount)
+  {
+    long result = 0;
+    for (int index = 0; index < (bitCount + 7) / 8; index++)
+    {
+      result = (result << 8) | (data[offset + index] & 0xFF);
+    }
+    return result;
+  }
+  
+  /**
+   * Read a big endian value of up to 31 bits, starting at a byte boundary.
+   * @param data The data to read from.
+   * @param offset The offset of the first byte.
+   * @param bitCount The number of bits to read.
+   * @return The value.
+   */
+  private static int readBits(final byte [] data, final int offset, final int bitCount)
+  {
+    return (int) FlacEncoderTest.readLong(data, offset, bitCount);
+  }
+  
+  /**
+   * Read the whole encoded file.
+   * @return The contents of the encoded file.
+   * @throws IOException When the file could not be read.
+   */
+  private byte [] readFlacFile() throws IOException
+  {
+    final RandomAccessFile file = new RandomAccessFile(this.flacFile, "r");
+    try
+    {
+      final byte [] result = new byte[(int) file.length()];
+      file.readFully(result);
+      return result;
+    }
+    finally
+    {
+      file.close();
+    }
+  }
+  
+  /**
+   * Test that the STREAMINFO block describes the input, including its total number of samples and MD5 signature.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testStreamInfo() throws Exception
+  {
+    final byte [] flac = this.readFlacFile();
+    Assert.assertEquals("fLaC", new String(flac, 0, 4, "US-ASCII"));
+    final int streamInfo = FlacEncoderTest.findBlock(flac, FlacEncoderTest.BLOCK_STREAMINFO);
+    Assert.assertEquals(8, streamInfo);
+    Assert.assertEquals(FlacEncoder.DEFAULT_BLOCK_SIZE, FlacEncoderTest.readBits(flac, streamInfo, 16));
+    Assert.assertEquals(FlacEncoder.DEFAULT_BLOCK_SIZE, FlacEncoderTest.readBits(flac, streamInfo + 2, 16));
+    // Sample rate (20 bits), channels - 1 (3 bits), bits per sample - 1 (5 bits) and total samples (36 bits).
+    final long packed = FlacEncoderTest.readLong(flac, streamInfo + 10, 64);
+    Assert.assertEquals(FlacEncoderTest.SAMPLE_RATE, (int) (packed >>> 44));
+    Assert.assertEquals(1, (int) (packed >>> 41) & 0x7);
+    Assert.assertEquals(15, (int) (packed >>> 36) & 0x1F);
+    Assert.assertEquals(FlacEncoderTest.TOTAL_SAMPLES, packed & 0xFFFFFFFFFL);
+    // For signed little endian PCM, the samples as FLAC hashes them are exactly the input bytes.
+    final byte [] expectedMd5 = MessageDigest.getInstance("MD5").digest(this.pcm);
+    Assert.assertTrue(Arrays.equals(expectedMd5, Arrays.copyOfRange(flac, streamInfo + 18, streamInfo + 34)));
+  }
+  
+  /**
+   * Test that the file has a SEEKTABLE with a seek point for every ten seconds of audio, each pointing at the start
+   * of a frame.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testSeekTable() throws Exception
+  {
+    final byte [] flac = this.readFlacFile();
+    final int seekTable = FlacEncoderTest.findBlock(flac, FlacEncoderTest.BLOCK_SEEKTABLE);
+    Assert.assertTrue(seekTable > 0);
+    final int audioOffset = FlacEncoderTest.getAudioOffset(flac);
+    final int seekPointCount = FlacEncoderTest.readBits(flac, seekTable - 3, 24) / 18;
+    Assert.assertEquals(3, seekPointCount);
+    for (int index = 0; index < seekPointCount; index++)
+    {
+      final int seekPoint = seekTable + index * 18;
+      final long sample = FlacEncoderTest.readLong(flac, seekPoint, 64);
+      final long offset = FlacEncoderTest.readLong(flac, seekPoint + 8, 64);
+      // The first frame that starts at or after the ten second mark.
+      final long interval = index * 10L * FlacEncoderTest.SAMPLE_RATE;
+      Assert.assertEquals(0, sample % FlacEncoder.DEFAULT_BLOCK_SIZE);
+      Assert.assertTrue(sample >= interval && sample < interval + FlacEncoder.DEFAULT_BLOCK_SIZE);
+      Assert.assertEquals(FlacEncoder.DEFAULT_BLOCK_SIZE, FlacEncoderTest.readBits(flac, seekPoint + 16, 16));
+      // Frame sync code with fixed block size.
+      Assert.assertEquals(0xFFF8, FlacEncoderTest.readBits(flac, audioOffset + (int) offset, 16));
+    }
+  }
+  
+  /**
+   * Test that encoding to a stream leaves the totals unknown and writes no SEEKTABLE, but writes the same frames.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testEncodeToStream() throws Exception
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final long bytesWritten = new FlacEncoder().encode(FlacEncoderTest.createAudioInputStream(this.pcm), out, null);
+    final byte [] streamed = out.toByteArray();
+    Assert.assertEquals(streamed.length, bytesWritten);
+    Assert.assertEquals(-1, FlacEncoderTest.findBlock(streamed, FlacEncoderTest.BLOCK_SEEKTABLE));
+    final int streamInfo = FlacEncoderTest.findBlock(streamed, FlacEncoderTest.BLOCK_STREAMINFO);
+    Assert.assertEquals(0, FlacEncoderTest.readLong(streamed, streamInfo + 10, 64) & 0xFFFFFFFFFL);
+    Assert.assertTrue(Arrays.equals(new byte[16], Arrays.copyOfRange(streamed, streamInfo + 18, streamInfo + 34)));
+    
+    final byte [] flac = this.readFlacFile();
+    final int audioOffset = FlacEncoderTest.getAudioOffset(flac);
+    final int streamedAudioOffset = FlacEncoderTest.getAudioOffset(streamed);
+    Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(flac, audioOffset, flac.length)
+      , Arrays.copyOfRange(streamed, streamedAudioOffset, streamed.length)));
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jwbroek.id3.v2.MalformedFrameException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.id3.FrameList}.
+ * @author jwbroek
+ */
+public class FrameListTest
+{
+  /**
+   * Test that a lazily decoded frame is decoded once, and seen by all threads that access it at the same time.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testConcurrentDecode() throws Exception
+  {
+    final int threadCount = 8;
+    final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try
+    {
+      for (int round = 0; round < 100; round++)
+      {
+        final AtomicInteger decodeCount = new AtomicInteger();
+        final FrameList frames = new FrameList();
+        frames.addUndecoded
+          ( CanonicalFrameType.TITLE
+          , new FrameList.FrameDecoder()
+            {
+              public ID3Frame decode()
+              {
+                decodeCount.incrementAndGet();
+                return new TextFrame(CanonicalFrameType.TITLE, "Title");
+              }
+            }
+          );
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<ID3Frame>> results = new ArrayList<Future<ID3Frame>>();
+        for (int thread = 0; thread < threadCount; thread++)
+        {
+          results.add
+            ( executor.submit
+                ( new Callable<ID3Frame>()
+                  {
+                    public ID3Frame call() throws Exception
+                    {
+                      start.await();
+                      return frames.get(0);
+                    }
+                  }
+                )
+            );
+        }
+        start.countDown();
+        final ID3Frame first = results.get(0).get();
+        Assert.assertNotNull(first);
+        for (final Future<ID3Frame> result : results)
+        {
+          Assert.assertSame(first, result.get());
+        }
+        Assert.assertEquals(1, decodeCount.get());
+        Assert.assertTrue(frames.isDecoded(0));
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+  
+  /**
+   * Test that a frame that cannot be decoded is reported as a FrameDecodingException, and stays undecoded.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testDecodeFailure() throws Exception
+  {
+    final FrameList frames = new FrameList();
+    frames.addUndecoded
+      ( CanonicalFrameType.COMMENT
+      , new FrameList.FrameDecoder()
+        {
+          public ID3Frame decode() throws MalformedFrameException
+          {
+            throw new MalformedFrameException("Broken.");
+          }
+        }
+      );
+    Assert.assertEquals(CanonicalFrameType.COMMENT, frames.getCanonicalFrameType(0));
+    for (int attempt = 0; attempt < 2; attempt++)
+    {
+      try
+      {
+        frames.get(0);
+        Assert.fail("Expected a FrameDecodingException.");
+      }
+      catch (FrameDecodingException e)
+      {
+        Assert.assertTrue(e.getCause() instanceof MalformedFrameException);
+      }
+    }
+    Assert.assertFalse(frames.isDecoded(0));
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.id3.ID3LibraryScanner}.
+ * @author jwbroek
+ */
+public class ID3LibraryScannerTest
+{
+  /**
+   * Accepts mp3 files only.
+   */
+  private static final FileFilter mp3Filter = new FileFilter()
+  {
+    public boolean accept(final File file)
+    {
+      return file.getName().endsWith(".mp3");
+    }
+  };
+  
+  /**
+   * Directory holding the library.
+   */
+  private Path root;
+  /**
+   * The mp3 files in the library.
+   */
+  private Set<Path> mp3Files;
+  
+  /**
+   * Create a small library of files without tags, spread over nested directories.
+   * @throws IOException
+   */
+  @Before
+  public void setUp() throws IOException
+  {
+    this.root = Files.createTempDirectory("ID3LibraryScannerTest");
+    this.mp3Files = new HashSet<Path>();
+    for (final String name : new String [] {"z.mp3", "a/x1.mp3", "a/x2.mp3", "a/x3.mp3", "b/c/y1.mp3", "b/c/y2.mp3"})
+    {
+      this.mp3Files.add(this.createFile(name));
+    }
+    this.createFile("b/notes.txt");
+  }
+  
+  /**
+   * Remove the library.
+   * @throws IOException
+   */
+  @After
+  public void tearDown() throws IOException
+  {
+    final Stream<Path> paths = Files.walk(this.root);
+    try
+    {
+      final List<Path> sortedPaths = new ArrayList<Path>();
+      final Iterator<Path> pathIterator = paths.iterator();
+      while (pathIterator.hasNext())
+      {
+        sortedPaths.add(pathIterator.next());
+      }
+      // Children before their parents.
+      Collections.sort(sortedPaths, Collections.<Path>reverseOrder());
+      for (final Path path : sortedPaths)
+      {
+        Files.delete(path);
+      }
+    }
+    finally
+    {
+      paths.close();
+    }
+  }
+  
+  /**
+   * Test that all files below the roots that pass the filter are read, and handled on the calling thread.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testScanRoots() throws IOException
+  {
+    final List<ID3LibraryScanner.Result> results = new ArrayList<ID3LibraryScanner.Result>();
+    final Thread callingThread = Thread.currentThread();
+    new ID3LibraryScanner(new ID3ReaderFactory(), null, 2).scanRoots
+      ( Arrays.asList(this.root.resolve("a"), this.root.resolve("b"), this.root.resolve("z.mp3"))
+      , ID3LibraryScannerTest.mp3Filter
+      , new ID3LibraryScanner.ResultHandler()
+        {
+          public void handle(final ID3LibraryScanner.Result result)
+          {
+            Assert.assertSame(callingThread, Thread.currentThread());
+            results.add(result);
+          }
+        }
+      );
+    final Set<Path> paths = new HashSet<Path>();
+    for (final ID3LibraryScanner.Result result : results)
+    {
+      Assert.assertEquals(Collections.emptyList(), result.getErrors());
+      Assert.assertTrue(result.getTags().isEmpty());
+      paths.add(result.getPath());
+    }
+    Assert.assertEquals(this.mp3Files.size(), results.size());
+    Assert.assertEquals(this.mp3Files, paths);
+  }
+  
+  /**
+   * Test that files and roots that cannot be read are reported as results with an error, without stopping the scan.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testErrorResults() throws IOException
+  {
+    final ID3LibraryScanner scanner = new ID3LibraryScanner(new ID3ReaderFactory(), null, 2);
+    final List<ID3LibraryScanner.Result> results = new ArrayList<ID3LibraryScanner.Result>();
+    final ID3LibraryScanner.ResultHandler handler = new ID3LibraryScanner.ResultHandler()
+    {
+      public void handle(final ID3LibraryScanner.Result result)
+      {
+        results.add(result);
+      }
+    };
+    
+    final Path missingFile = this.root.resolve("missing.mp3");
+    scanner.scan(Arrays.asList(missingFile, this.root.resolve("z.mp3")).iterator(), handler);
+    Assert.assertEquals(2, results.size());
+    for (final ID3LibraryScanner.Result result : results)
+    {
+      if (result.getPath().equals(missingFile))
+      {
+        Assert.assertEquals(1, result.getErrors().size());
+        Assert.assertTrue(result.getErrors().get(0) instanceof IOException);
+        Assert.assertTrue(result.getTags().isEmpty());
+      }
+      else
+      {
+        Assert.assertTrue(result.getErrors().isEmpty());
+      }
+    }
+    
+    results.clear();
+    final Path missingRoot = this.root.resolve("missing");
+    scanner.scanRoots(Arrays.asList(missingRoot, this.root.resolve("a")), null, handler);
+    Assert.assertEquals(4, results.size());
+    int errorCount = 0;
+    for (final ID3LibraryScanner.Result result : results)
+    {
+      if (!result.getErrors().isEmpty())
+      {
+        Assert.assertEquals(missingRoot, result.getPath());
+        errorCount++;
+      }
+    }
+    Assert.assertEquals(1, errorCount);
+  }
+  
+  /**
+   * Test that a walk that fails with a runtime exception, here from the filter, is reported as a result with an error
+   * for the directory, and that the scan still ends. A walk that fails with an Error stops the scan.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testFailingFilter() throws IOException
+  {
+    final ID3LibraryScanner scanner = new ID3LibraryScanner(new ID3ReaderFactory(), null, 2);
+    final IllegalStateException filterException = new IllegalStateException("Filter failed.");
+    final List<ID3LibraryScanner.Result> results = new ArrayList<ID3LibraryScanner.Result>();
+    scanner.scanRoots
+      ( Arrays.asList(this.root.resolve("a"), this.root.resolve("b"))
+      , new FileFilter()
+        {
+          public boolean accept(final File file)
+          {
+            if (file.getName().equals("y1.mp3"))
+            {
+              throw filterException;
+            }
+            return ID3LibraryScannerTest.mp3Filter.accept(file);
+          }
+        }
+      , new ID3LibraryScanner.ResultHandler()
+        {
+          public void handle(final ID3LibraryScanner.Result result)
+          {
+            results.add(result);
+          }
+        }
+      );
+    final Set<Path> paths = new HashSet<Path>();
+    int errorCount = 0;
+    for (final ID3LibraryScanner.Result result : results)
+    {
+      if (result.getErrors().isEmpty())
+      {
+        paths.add(result.getPath());
+      }
+      else
+      {
+        Assert.assertEquals(this.root.resolve("b").resolve("c"), result.getPath());
+        Assert.assertEquals(Collections.singletonList(filterException), result.getErrors());
+        errorCount++;
+      }
+    }
+    Assert.assertEquals(1, errorCount);
+    Assert.assertTrue(paths.containsAll(Arrays.asList
+      (this.root.resolve("a/x1.mp3"), this.root.resolve("a/x2.mp3"), this.root.resolve("a/x3.mp3"))));
+    
+    final Error filterError = new AssertionError("Filter failed.");
+    try
+    {
+      scanner.scanRoots
+        ( Arrays.asList(this.root.resolve("a"))
+        , new FileFilter()
+          {
+            public boolean accept(final File file)
+            {
+              throw filterError;
+            }
+          }
+        , new ID3LibraryScanner.ResultHandler()
+          {
+            public void handle(final ID3LibraryScanner.Result result)
+            {
+            }
+          }
+        );
+      Assert.fail("Expected an IOException.");
+    }
+    catch (IOException e)
+    {
+      Assert.assertSame(filterError, e.getCause());
+    }
+  }
+  
+  /**
+   * Test that no more reads are in progress or waiting to be handled than the concurrency allows, even when the
+   * executor has more threads and the handler is slow.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testConcurrencyBound() throws Exception
+  {
+    final int concurrency = 3;
+    final AtomicInteger outstanding = new AtomicInteger();
+    final AtomicInteger maxOutstanding = new AtomicInteger();
+    final ExecutorService pool = Executors.newFixedThreadPool(concurrency * 3);
+    final Executor executor = new Executor()
+    {
+      public void execute(final Runnable command)
+      {
+        final int current = outstanding.incrementAndGet();
+        int max = maxOutstanding.get();
+        while (current > max && !maxOutstanding.compareAndSet(max, current))
+        {
+          max = maxOutstanding.get();
+        }
+        pool.execute(command);
+      }
+    };
+    final List<Path> paths = new ArrayList<Path>();
+    for (int index = 0; index < 40; index++)
+    {
+      paths.addAll(this.mp3Files);
+    }
+    final AtomicInteger handled = new AtomicInteger();
+    try
+    {
+      new ID3LibraryScanner(new ID3ReaderFactory(), executor, concurrency).scan
+        ( paths.stream()
+        , new ID3LibraryScanner.ResultHandler()
+          {
+            public void handle(final ID3LibraryScanner.Result result)
+            {
+              outstanding.decrementAndGet();
+              handled.incrementAndGet();
+              try
+              {
+                Thread.sleep(1);
+              }
+              catch (InterruptedException e)
+              {
+                Thread.currentThread().interrupt();
+              }
+            }
+          }
+        );
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    Assert.assertEquals(paths.size(), handled.get());
+    Assert.assertTrue
+      ("At most " + concurrency + " pending, but was " + maxOutstanding, maxOutstanding.get() <= concurrency);
+    Assert.assertEquals(0, outstanding.get());
+  }
+  
+  private Path createFile(final String name) throws IOException
+  {
+    final Path file = this.root.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte [] {(byte) 0xFF, (byte) 0xFB, 0, 0});
+    return file;
+  }
+}
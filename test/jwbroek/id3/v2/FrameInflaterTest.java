@@ -0,0 +1,145 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.id3.v2.FrameInflater}.
+ * @author jwbroek
+ */
+public class FrameInflaterTest
+{
+  /**
+   * Test that bodies are decompressed whether the declared size is right, wrong or absent.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testInflate() throws Exception
+  {
+    final byte [] data = new byte[5000];
+    final Random random = new Random(7);
+    for (int index = 0; index < data.length; index++)
+    {
+      data[index] = (byte) random.nextInt(4);
+    }
+    final ByteBuffer body = FrameInflaterTest.compress(data);
+    for (final int declaredSize : new int [] {data.length, -1, 10, Integer.MAX_VALUE})
+    {
+      final ByteBuffer result = FrameInflater.inflate(body, declaredSize);
+      Assert.assertEquals(0, body.position());
+      final byte [] bytes = new byte[result.remaining()];
+      result.get(bytes);
+      Assert.assertArrayEquals(data, bytes);
+    }
+  }
+  
+  /**
+   * Test that more threads than the pool holds can decompress at the same time, and that inflaters returned after a
+   * failure can be reused.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testConcurrent() throws Exception
+  {
+    final byte [] data = "A comment that is long enough to be worth compressing.".getBytes();
+    final ByteBuffer body = FrameInflaterTest.compress(data);
+    final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+    try
+    {
+      final Future<?> [] futures = new Future<?>[200];
+      for (int index = 0; index < futures.length; index++)
+      {
+        final boolean malformed = index % 10 == 0;
+        futures[index] = executor.submit(new Callable<Object>()
+        {
+          public Object call() throws Exception
+          {
+            if (malformed)
+            {
+              FrameInflaterTest.assertMalformed(ByteBuffer.wrap(new byte [] {1, 2, 3, 4, 5}));
+            }
+            else
+            {
+              final ByteBuffer result = FrameInflater.inflate(body, data.length);
+              final byte [] bytes = new byte[result.remaining()];
+              result.get(bytes);
+              Assert.assertArrayEquals(data, bytes);
+            }
+            return null;
+          }
+        });
+      }
+      for (final Future<?> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+  
+  /**
+   * Test that bodies that are cut short or are not zlib data are reported as malformed.
+   */
+  @Test
+  public void testMalformed()
+  {
+    final ByteBuffer body = FrameInflaterTest.compress("Some text for a frame.".getBytes());
+    body.limit(body.limit() - 6);
+    FrameInflaterTest.assertMalformed(body);
+    FrameInflaterTest.assertMalformed(ByteBuffer.wrap(new byte [] {1, 2, 3, 4, 5}));
+  }
+  
+  private static void assertMalformed(final ByteBuffer body)
+  {
+    try
+    {
+      FrameInflater.inflate(body, -1);
+      Assert.fail("Expected MalformedFrameException.");
+    }
+    catch (MalformedFrameException e)
+    {
+      // Expected.
+    }
+  }
+  
+  private static ByteBuffer compress(final byte [] data)
+  {
+    final Deflater deflater = new Deflater();
+    deflater.setInput(data);
+    deflater.finish();
+    final byte [] buffer = new byte[data.length + 64];
+    final int size = deflater.deflate(buffer);
+    deflater.end();
+    return ByteBuffer.wrap(Arrays.copyOf(buffer, size));
+  }
+}
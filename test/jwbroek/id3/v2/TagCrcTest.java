@@ -0,0 +1,186 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import jwbroek.id3.CanonicalFrameType;
+import jwbroek.id3.ID3Tag;
+import jwbroek.id3.TextFrame;
+import jwbroek.id3.v2.r30.ID3v2r30Reader;
+import jwbroek.id3.v2.r40.ID3v2r40Reader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.id3.v2.TagCrc}, as used by the ID3v2.3 and ID3v2.4 readers.
+ * @author jwbroek
+ */
+public class TagCrcTest
+{
+  private static final int PADDING = 20;
+  
+  /**
+   * A TIT2 frame whose text contains a false sync, so that unsync changes it.
+   */
+  private static final byte [] frames =
+    { 'T', 'I', 'T', '2', 0, 0, 0, 5, 0, 0
+    , 0, 'a', (byte) 0xFF, (byte) 0xE0, 'b'
+    };
+  
+  /**
+   * Test that the CRC-32 is formatted as eight hex digits.
+   */
+  @Test
+  public void testToHex()
+  {
+    Assert.assertEquals("00000000", TagCrc.toHex(0));
+    Assert.assertEquals("0a0b0c0d", TagCrc.toHex(0x0A0B0C0DL));
+    Assert.assertEquals("ffffffff", TagCrc.toHex(0xFFFFFFFFL));
+  }
+  
+  /**
+   * Test ID3v2.3 tags, whose CRC-32 covers the frames before unsync and without the padding.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testVersion3() throws Exception
+  {
+    final ID3v2r30Reader reader = new ID3v2r30Reader();
+    reader.setVerifyCrc(true);
+    final long crc = TagCrcTest.crc(TagCrcTest.frames, TagCrcTest.frames.length);
+    
+    ID3Tag tag = reader.read(TagCrcTest.createVersion3Tag(crc, false));
+    Assert.assertEquals(TagCrc.toHex(crc), tag.getFlags().getProperty(ID3Tag.CRC32_HEX));
+    Assert.assertEquals("true", tag.getFlags().getProperty(ID3Tag.CRC32_VALID));
+    TagCrcTest.assertTitle(tag);
+    
+    tag = reader.read(TagCrcTest.createVersion3Tag(crc, true));
+    Assert.assertEquals("true", tag.getFlags().getProperty(ID3Tag.CRC32_VALID));
+    TagCrcTest.assertTitle(tag);
+    
+    tag = reader.read(TagCrcTest.createVersion3Tag(crc ^ 1, false));
+    Assert.assertEquals("false", tag.getFlags().getProperty(ID3Tag.CRC32_VALID));
+    TagCrcTest.assertTitle(tag);
+    
+    // Nothing is checked unless asked for.
+    reader.setVerifyCrc(false);
+    tag = reader.read(TagCrcTest.createVersion3Tag(crc ^ 1, false));
+    Assert.assertNull(tag.getFlags().getProperty(ID3Tag.CRC32_VALID));
+  }
+  
+  /**
+   * Test ID3v2.4 tags, whose CRC-32 covers the frames and the padding as stored.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testVersion4() throws Exception
+  {
+    final ID3v2r40Reader reader = new ID3v2r40Reader();
+    reader.setVerifyCrc(true);
+    final byte [] data = new byte[TagCrcTest.frames.length + TagCrcTest.PADDING];
+    System.arraycopy(TagCrcTest.frames, 0, data, 0, TagCrcTest.frames.length);
+    final long crc = TagCrcTest.crc(data, data.length);
+    
+    ID3Tag tag = reader.read(TagCrcTest.createVersion4Tag(crc));
+    Assert.assertEquals(TagCrc.toHex(crc), tag.getFlags().getProperty(ID3Tag.CRC32_HEX));
+    Assert.assertEquals("true", tag.getFlags().getProperty(ID3Tag.CRC32_VALID));
+    TagCrcTest.assertTitle(tag);
+    
+    tag = reader.read(TagCrcTest.createVersion4Tag(crc ^ 0x80000000L));
+    Assert.assertEquals("false", tag.getFlags().getProperty(ID3Tag.CRC32_VALID));
+  }
+  
+  private static ByteBuffer createVersion3Tag(final long crc, final boolean unsync)
+  {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    TagCrcTest.writeInt(body, 10, 8);   // Extended header size.
+    body.write(0x80);                    // CRC present.
+    body.write(0);
+    TagCrcTest.writeInt(body, TagCrcTest.PADDING, 8);
+    TagCrcTest.writeInt(body, crc, 8);
+    for (final byte value : TagCrcTest.frames)
+    {
+      body.write(value);
+      if (unsync && value == (byte) 0xFF)
+      {
+        body.write(0);
+      }
+    }
+    body.write(new byte[TagCrcTest.PADDING], 0, TagCrcTest.PADDING);
+    return TagCrcTest.createTag(3, 0x40 | (unsync ? 0x80 : 0), body.toByteArray());
+  }
+  
+  private static ByteBuffer createVersion4Tag(final long crc)
+  {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    TagCrcTest.writeInt(body, 12, 7);   // Extended header size.
+    body.write(1);                       // Number of flag bytes.
+    body.write(0x20);                    // CRC present.
+    body.write(5);
+    body.write((int) (crc >> 28));
+    TagCrcTest.writeInt(body, crc, 7);
+    body.write(TagCrcTest.frames, 0, TagCrcTest.frames.length);
+    body.write(new byte[TagCrcTest.PADDING], 0, TagCrcTest.PADDING);
+    return TagCrcTest.createTag(4, 0x40, body.toByteArray());
+  }
+  
+  private static ByteBuffer createTag(final int majorVersion, final int flags, final byte [] body)
+  {
+    final ByteArrayOutputStream tag = new ByteArrayOutputStream();
+    tag.write('I');
+    tag.write('D');
+    tag.write('3');
+    tag.write(majorVersion);
+    tag.write(0);
+    tag.write(flags);
+    TagCrcTest.writeInt(tag, body.length, 7);
+    tag.write(body, 0, body.length);
+    return ByteBuffer.wrap(tag.toByteArray());
+  }
+  
+  /**
+   * Write the lowest four groups of the specified number of bits of the value as four bytes, most significant first.
+   */
+  private static void writeInt(final ByteArrayOutputStream output, final long value, final int bitsPerByte)
+  {
+    for (int index = 3; index >= 0; index--)
+    {
+      output.write((int) (value >> (index * bitsPerByte)) & ((1 << bitsPerByte) - 1));
+    }
+  }
+  
+  private static long crc(final byte [] data, final int length)
+  {
+    final CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+    return crc.getValue();
+  }
+  
+  private static void assertTitle(final ID3Tag tag)
+  {
+    Assert.assertEquals
+      ( "a\u00FF\u00E0b"
+      , ((TextFrame) tag.getFrames(CanonicalFrameType.TITLE).get(0)).getText()
+      );
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import jwbroek.id3.CanonicalFrameType;
+import jwbroek.id3.CommentFrame;
+import jwbroek.id3.ID3Frame;
+import jwbroek.id3.ID3Reader;
+import jwbroek.id3.ID3Tag;
+import jwbroek.id3.ID3Version;
+import jwbroek.id3.PictureFrame;
+import jwbroek.id3.RawFrame;
+import jwbroek.id3.TextFrame;
+import jwbroek.id3.UserDefinedTextFrame;
+import jwbroek.id3.v2.r30.ID3v2r30Reader;
+import jwbroek.id3.v2.r40.ID3v2r40Reader;
+import jwbroek.io.FileWindow;
+import jwbroek.io.TemporaryFileCreator;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.id3.v2.TagWriter}.
+ * @author jwbroek
+ */
+public class TagWriterTest
+{
+  /**
+   * Stand-in for the audio data, which must survive every write.
+   */
+  private static final byte [] audio = new byte[3000];
+  
+  static
+  {
+    for (int index = 0; index < TagWriterTest.audio.length; index++)
+    {
+      TagWriterTest.audio[index] = (byte) (index * 31);
+    }
+  }
+  
+  /**
+   * The file to write to.
+   */
+  private File file;
+  
+  /**
+   * Create a file without a tag.
+   * @throws IOException
+   */
+  @Before
+  public void setUp() throws IOException
+  {
+    this.file = TemporaryFileCreator.createTemporaryFile();
+    final FileOutputStream output = new FileOutputStream(this.file);
+    try
+    {
+      output.write(TagWriterTest.audio);
+    }
+    finally
+    {
+      output.close();
+    }
+  }
+  
+  /**
+   * Remove the file.
+   */
+  @After
+  public void tearDown()
+  {
+    this.file.delete();
+  }
+  
+  /**
+   * Test that a tag is added by rewriting the file, and can be read back.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testRewrite() throws Exception
+  {
+    final TagWriter writer = new TagWriter(ID3Version.ID3v2r3);
+    Assert.assertFalse(writer.write(TagWriterTest.createTag("Title"), this.file));
+    Assert.assertEquals
+      (TagLoader.HEADER_LENGTH + TagWriterTest.getFramesLength(this.file) + TagWriter.DEFAULT_PADDING, getTagLength());
+    assertTag("Title", new ID3v2r30Reader());
+    assertAudio();
+  }
+  
+  /**
+   * Test that a tag that fits in the existing tag is written in place, for both versions.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testInPlace() throws Exception
+  {
+    for (final ID3Version version : new ID3Version [] {ID3Version.ID3v2r3, ID3Version.ID3v2r4})
+    {
+      final TagWriter writer = new TagWriter(version);
+      final ID3Reader reader = version == ID3Version.ID3v2r3 ? new ID3v2r30Reader() : new ID3v2r40Reader();
+      writer.write(TagWriterTest.createTag("First"), this.file);
+      final int tagLength = getTagLength();
+      final long fileLength = this.file.length();
+      
+      Assert.assertTrue(writer.write(TagWriterTest.createTag("A much longer second title"), this.file));
+      Assert.assertEquals(tagLength, getTagLength());
+      Assert.assertEquals(fileLength, this.file.length());
+      assertTag("A much longer second title", reader);
+      
+      // Editing a tag that was read from the file, which refers to the file for its picture.
+      final ID3Tag tag = reader.read(this.file);
+      ((TextFrame) tag.getFrames(CanonicalFrameType.TITLE).get(0)).setText("Third");
+      Assert.assertTrue(writer.write(tag, this.file));
+      assertTag("Third", reader);
+      assertAudio();
+    }
+  }
+  
+  /**
+   * Test that a picture that is mapped from the file keeps its contents when the tag it was read with is written in
+   * place, even though the frames in the file move.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testInPlaceWithMappedPicture() throws Exception
+  {
+    final byte [] image = new byte[FileWindow.MIN_MAPPED_LENGTH * 2];
+    for (int index = 0; index < image.length; index++)
+    {
+      image[index] = (byte) (index * 7);
+    }
+    final ID3Tag originalTag = TagWriterTest.createTag("First");
+    ((PictureFrame) originalTag.getFrames(CanonicalFrameType.PICTURE).get(0)).setImageData(image);
+    final TagWriter writer = new TagWriter(ID3Version.ID3v2r4);
+    writer.write(originalTag, this.file);
+    
+    final ID3Tag tag = new ID3v2r40Reader().read(this.file);
+    final PictureFrame picture = (PictureFrame) tag.getFrames(CanonicalFrameType.PICTURE).get(0);
+    Assert.assertTrue(picture.getImage().isDirect());
+    ((TextFrame) tag.getFrames(CanonicalFrameType.TITLE).get(0)).setText("A much longer second title");
+    Assert.assertTrue(writer.write(tag, this.file));
+    Assert.assertFalse(picture.getImage().isDirect());
+    Assert.assertArrayEquals(image, picture.getImageData());
+    
+    final ID3Tag readTag = new ID3v2r40Reader().read(this.file);
+    Assert.assertArrayEquals
+      (image, ((PictureFrame) readTag.getFrames(CanonicalFrameType.PICTURE).get(0)).getImageData());
+    assertAudio();
+  }
+  
+  /**
+   * Test that a tag that no longer fits causes a rewrite.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testGrowBeyondPadding() throws Exception
+  {
+    final TagWriter writer = new TagWriter(ID3Version.ID3v2r4);
+    writer.setPadding(0);
+    writer.write(TagWriterTest.createTag("Short"), this.file);
+    final int tagLength = getTagLength();
+    
+    writer.setPadding(100);
+    Assert.assertFalse(writer.write(TagWriterTest.createTag("Somewhat longer"), this.file));
+    Assert.assertEquals(tagLength + "Somewhat longer".length() - "Short".length() + 100, getTagLength());
+    assertTag("Somewhat longer", new ID3v2r40Reader());
+    assertAudio();
+  }
+  
+  /**
+   * Test that frames that could not be decoded, such as lyrics and private frames, survive reading and writing the
+   * tag, including the extra bytes that their flags call for.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testRawFramesKept() throws Exception
+  {
+    final byte [] privateData = new byte [] {'o', 'w', 'n', 'e', 'r', 0, 1, 2, 3};
+    // Group identifier 7, followed by a lyrics body in ISO-8859-1.
+    final byte [] lyricsData = new byte [] {7, 0, 'e', 'n', 'g', 0, 'l', 'a', ' ', 'l', 'a'};
+    for (final ID3Version version : new ID3Version [] {ID3Version.ID3v2r3, ID3Version.ID3v2r4})
+    {
+      final TagWriter writer = new TagWriter(version);
+      final ID3Reader reader = version == ID3Version.ID3v2r3 ? new ID3v2r30Reader() : new ID3v2r40Reader();
+      final int groupFlag = version == ID3Version.ID3v2r3 ? 0x0020 : 0x0040;
+      final ID3Tag tag = TagWriterTest.createTag("First");
+      tag.getFrames().add(new RawFrame(version, "PRIV", 0, ByteBuffer.wrap(privateData), 10 + privateData.length));
+      tag.getFrames().add
+        (new RawFrame(version, "USLT", groupFlag, ByteBuffer.wrap(lyricsData), 10 + lyricsData.length));
+      writer.write(tag, this.file);
+      
+      final ID3Tag readTag = reader.read(this.file);
+      ((TextFrame) readTag.getFrames(CanonicalFrameType.TITLE).get(0)).setText("Second");
+      Assert.assertTrue(writer.write(readTag, this.file));
+      
+      final List<ID3Frame> rawFrames = reader.read(this.file).getFrames(CanonicalFrameType.UNRECOGNISED_FRAME);
+      Assert.assertEquals(2, rawFrames.size());
+      final RawFrame privateFrame = (RawFrame) rawFrames.get(0);
+      Assert.assertEquals("PRIV", privateFrame.getFrameName());
+      Assert.assertEquals(0, privateFrame.getFormatFlags());
+      Assert.assertEquals(ByteBuffer.wrap(privateData), privateFrame.getData());
+      final RawFrame lyricsFrame = (RawFrame) rawFrames.get(1);
+      Assert.assertEquals("USLT", lyricsFrame.getFrameName());
+      Assert.assertEquals(groupFlag, lyricsFrame.getFormatFlags());
+      Assert.assertEquals("7", lyricsFrame.getFlags().getProperty(ID3Frame.GROUP_ID));
+      Assert.assertEquals(ByteBuffer.wrap(lyricsData), lyricsFrame.getData());
+      assertTag("Second", 7, reader);
+      assertAudio();
+    }
+  }
+  
+  /**
+   * Test that frames that cannot be written in the version fail the write, instead of being left out.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testUnwritableFrames() throws Exception
+  {
+    final ID3Tag rawTag = TagWriterTest.createTag("Title");
+    rawTag.getFrames().add(new RawFrame(ID3Version.ID3v2r3, "POPM", 0, ByteBuffer.wrap(new byte [] {0, 1}), 12));
+    final ID3Tag yearTag = TagWriterTest.createTag("Title");
+    yearTag.getFrames().add(new TextFrame(CanonicalFrameType.YEAR, "2009"));
+    for (final ID3Tag tag : new ID3Tag [] {rawTag, yearTag})
+    {
+      try
+      {
+        new TagWriter(ID3Version.ID3v2r4).write(tag, this.file);
+        Assert.fail("Expected an IOException.");
+      }
+      catch (IOException e)
+      {
+        // Expected.
+      }
+    }
+    Assert.assertArrayEquals(TagWriterTest.audio, Files.readAllBytes(this.file.toPath()));
+  }
+  
+  /**
+   * Test that a tag that was read with only selected frame types cannot be written, as the other frames would be lost.
+   * @throws Exception Not expected.
+   */
+  @Test
+  public void testSelectedFramesNotWritten() throws Exception
+  {
+    final TagWriter writer = new TagWriter(ID3Version.ID3v2r4);
+    writer.write(TagWriterTest.createTag("Title"), this.file);
+    final ID3Tag tag = new ID3v2r40Reader().read(this.file, EnumSet.of(CanonicalFrameType.TITLE));
+    Assert.assertEquals(1, tag.getFrames().size());
+    try
+    {
+      writer.write(tag, this.file);
+      Assert.fail("Expected an IOException.");
+    }
+    catch (IOException e)
+    {
+      // Expected.
+    }
+    assertTag("Title", new ID3v2r40Reader());
+  }
+  
+  private static ID3Tag createTag(final String title)
+  {
+    final ID3Tag tag = new ID3Tag();
+    tag.getFrames().add(new TextFrame(CanonicalFrameType.TITLE, title));
+    final TextFrame performer = new TextFrame(CanonicalFrameType.PERFORMER, "Pe\u0159former");
+    performer.setCharset(Charset.forName("UTF-16"));
+    tag.getFrames().add(performer);
+    final CommentFrame comment = new CommentFrame();
+    comment.setLanguageCode("eng");
+    comment.setDescription("d");
+    comment.setText("Comment");
+    tag.getFrames().add(comment);
+    final UserDefinedTextFrame custom = new UserDefinedTextFrame();
+    custom.setDescription("key");
+    custom.setText("value");
+    tag.getFrames().add(custom);
+    final PictureFrame picture = new PictureFrame();
+    picture.setImageType("image/png");
+    picture.setPictureNumber(3);
+    picture.setDescription("cover");
+    picture.setImageData(new byte [] {(byte) 0x89, 'P', 'N', 'G', 0, (byte) 0xFF, 1, 2});
+    tag.getFrames().add(picture);
+    return tag;
+  }
+  
+  private void assertTag(final String title, final ID3Reader reader) throws Exception
+  {
+    assertTag(title, 5, reader);
+  }
+  
+  private void assertTag(final String title, final int frameCount, final ID3Reader reader) throws Exception
+  {
+    final ID3Tag tag = reader.read(this.file);
+    Assert.assertEquals(frameCount, tag.getFrames().size());
+    Assert.assertEquals(title, ((TextFrame) tag.getFrames(CanonicalFrameType.TITLE).get(0)).getText());
+    Assert.assertEquals
+      ("Pe\u0159former", ((TextFrame) tag.getFrames(CanonicalFrameType.PERFORMER).get(0)).getText());
+    final CommentFrame comment = (CommentFrame) tag.getFrames(CanonicalFrameType.COMMENT).get(0);
+    Assert.assertEquals("eng", comment.getLanguageCode());
+    Assert.assertEquals("d", comment.getDescription());
+    Assert.assertEquals("Comment", comment.getText());
+    final ID3Frame customFrame = tag.getFrames(CanonicalFrameType.USER_DEFINED_TEXT).get(0);
+    Assert.assertEquals("key", ((UserDefinedTextFrame) customFrame).getDescription());
+    Assert.assertEquals("value", ((UserDefinedTextFrame) customFrame).getText());
+    final PictureFrame picture = (PictureFrame) tag.getFrames(CanonicalFrameType.PICTURE).get(0);
+    Assert.assertEquals("image/png", picture.getImageType());
+    Assert.assertEquals(3, picture.getPictureNumber());
+    Assert.assertEquals("cover", picture.getDescription());
+    Assert.assertArrayEquals(new byte [] {(byte) 0x89, 'P', 'N', 'G', 0, (byte) 0xFF, 1, 2}, picture.getImageData());
+  }
+  
+  private void assertAudio() throws IOException
+  {
+    final byte [] content = Files.readAllBytes(this.file.toPath());
+    Assert.assertArrayEquals
+      (TagWriterTest.audio, Arrays.copyOfRange(content, getTagLength(), content.length));
+  }
+  
+  private int getTagLength() throws IOException
+  {
+    return TagLoader.readTag(this.file).limit();
+  }
+  
+  /**
+   * Get the length of the frames in the tag of the file, which are followed by zero padding.
+   */
+  private static int getFramesLength(final File file) throws IOException
+  {
+    final byte [] tag = TagLoader.readTag(file).array();
+    int end = tag.length;
+    while (end > TagLoader.HEADER_LENGTH && tag[end - 1] == 0)
+    {
+      end--;
+    }
+    return end - TagLoader.HEADER_LENGTH;
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2009 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.id3.v2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.id3.v2.UnsynchedInputStream}.
+ * @author jwbroek
+ */
+public class UnsynchedInputStreamTest
+{
+  /**
+   * Test the basic unsync sequences.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testSequences() throws IOException
+  {
+    assertDecodes(new int [] {0xFF, 0xE0}, new int [] {0xFF, 0x00, 0xE0});
+    assertDecodes(new int [] {0xFF, 0x00}, new int [] {0xFF, 0x00, 0x00});
+    assertDecodes(new int [] {0xFF, 0xFF}, new int [] {0xFF, 0x00, 0xFF, 0x00});
+    assertDecodes(new int [] {0x00, 0xFF, 0x01}, new int [] {0x00, 0xFF, 0x01});
+    assertDecodes(new int [] {0xFF}, new int [] {0xFF});
+    assertDecodes(new int [] {}, new int [] {});
+  }
+  
+  /**
+   * Test that a 0xFF at the end of one read and a 0x00 at the start of the next are handled as a pair.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testBufferBoundary() throws IOException
+  {
+    final byte [] raw = UnsynchedInputStreamTest.toBytes(new int [] {0x01, 0xFF, 0x00, 0x02});
+    InputStream input = new UnsynchedInputStream(new ChunkedInputStream(new ByteArrayInputStream(raw), 2));
+    final byte [] b = new byte[10];
+    Assert.assertEquals(2, input.read(b, 0, 2));
+    Assert.assertEquals(1, input.read(b, 2, 8));
+    Assert.assertEquals(-1, input.read(b, 3, 7));
+    Assert.assertArrayEquals(UnsynchedInputStreamTest.toBytes(new int [] {0x01, 0xFF, 0x02}), Arrays.copyOf(b, 3));
+    
+    // A read that only gets a removed 0x00 must not report the end of the stream.
+    input = new UnsynchedInputStream(new ByteArrayInputStream(UnsynchedInputStreamTest.toBytes(new int [] {0xFF, 0x00, 0x05})));
+    Assert.assertEquals(1, input.read(b, 0, 1));
+    Assert.assertEquals(1, input.read(b, 1, 1));
+    Assert.assertEquals(-1, input.read(b, 2, 1));
+    Assert.assertArrayEquals(UnsynchedInputStreamTest.toBytes(new int [] {0xFF, 0x05}), Arrays.copyOf(b, 2));
+  }
+  
+  /**
+   * Test that the end of the stream after a 0xFF is reported as such.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testEndAfterFF() throws IOException
+  {
+    final InputStream input = new UnsynchedInputStream(new ByteArrayInputStream(new byte [] {(byte) 0xFF}));
+    Assert.assertEquals(0xFF, input.read());
+    Assert.assertEquals(-1, input.read());
+    Assert.assertEquals(-1, input.read());
+  }
+  
+  /**
+   * Compare single byte reads, bulk reads of various sizes, skips and in place decoding with a straightforward
+   * implementation on random input.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testRandomInput() throws IOException
+  {
+    final Random random = new Random(20090101L);
+    final int [] values = {0x00, 0xFF, 0xE0, 0x41};
+    for (int round = 0; round < 200; round++)
+    {
+      final byte [] raw = new byte[random.nextInt(200)];
+      for (int index = 0; index < raw.length; index++)
+      {
+        raw[index] = (byte) values[random.nextInt(values.length)];
+      }
+      final byte [] expected = UnsynchedInputStreamTest.decodeNaively(raw);
+      
+      final byte [] inPlace = raw.clone();
+      final int length = UnsynchedInputStream.decode(inPlace, 0, inPlace.length);
+      Assert.assertArrayEquals(expected, Arrays.copyOf(inPlace, length));
+      
+      final InputStream input = new UnsynchedInputStream
+        (new ChunkedInputStream(new ByteArrayInputStream(raw), 1 + random.nextInt(7)));
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      final byte [] b = new byte[16];
+      int skipped = 0;
+      while (true)
+      {
+        final int choice = random.nextInt(3);
+        if (choice == 0)
+        {
+          final int value = input.read();
+          if (value == -1)
+          {
+            break;
+          }
+          output.write(value);
+        }
+        else if (choice == 1)
+        {
+          final int bytesRead = input.read(b, 0, 1 + random.nextInt(b.length));
+          if (bytesRead == -1)
+          {
+            break;
+          }
+          output.write(b, 0, bytesRead);
+        }
+        else
+        {
+          // Skipped bytes are compared as zeroes.
+          final int bytesSkipped = (int) input.skip(random.nextInt(5));
+          output.write(new byte[bytesSkipped], 0, bytesSkipped);
+          skipped += bytesSkipped;
+        }
+      }
+      
+      final byte [] actual = output.toByteArray();
+      Assert.assertEquals(expected.length, actual.length);
+      if (skipped == 0)
+      {
+        Assert.assertArrayEquals(expected, actual);
+      }
+    }
+  }
+  
+  /**
+   * Assert that the raw bytes decode to the expected bytes, both through the stream and in place.
+   * @param expected The expected decoded bytes.
+   * @param raw The raw bytes.
+   * @throws IOException Not expected.
+   */
+  private static void assertDecodes(final int [] expected, final int [] raw) throws IOException
+  {
+    final byte [] expectedBytes = UnsynchedInputStreamTest.toBytes(expected);
+    final byte [] rawBytes = UnsynchedInputStreamTest.toBytes(raw);
+    
+    final InputStream input = new UnsynchedInputStream(new ByteArrayInputStream(rawBytes));
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int value;
+    while ((value = input.read()) != -1)
+    {
+      output.write(value);
+    }
+    Assert.assertArrayEquals(expectedBytes, output.toByteArray());
+    
+    final int length = UnsynchedInputStream.decode(rawBytes, 0, rawBytes.length);
+    Assert.assertArrayEquals(expectedBytes, Arrays.copyOf(rawBytes, length));
+  }
+  
+  /**
+   * Remove every 0x00 that follows a 0xFF, one byte at a time.
+   * @param raw The raw bytes.
+   * @return The decoded bytes.
+   */
+  private static byte [] decodeNaively(final byte [] raw)
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (int index = 0; index < raw.length; index++)
+    {
+      if (!(raw[index] == 0 && index > 0 && raw[index - 1] == (byte) 0xFF))
+      {
+        output.write(raw[index]);
+      }
+    }
+    return output.toByteArray();
+  }
+  
+  /**
+   * Convert int values to bytes.
+   * @param values The values.
+   * @return The bytes.
+   */
+  private static byte [] toBytes(final int [] values)
+  {
+    final byte [] result = new byte[values.length];
+    for (int index = 0; index < values.length; index++)
+    {
+      result[index] = (byte) values[index];
+    }
+    return result;
+  }
+  
+  /**
+   * An InputStream that returns at most a fixed number of bytes per read, to exercise buffer boundaries.
+   */
+  private static class ChunkedInputStream extends FilterInputStream
+  {
+    /**
+     * The maximum number of bytes per read.
+     */
+    private final int chunkSize;
+    
+    /**
+     * Create a new ChunkedInputStream.
+     * @param in The stream to read from.
+     * @param chunkSize The maximum number of bytes per read.
+     */
+    public ChunkedInputStream(final InputStream in, final int chunkSize)
+    {
+      super(in);
+      this.chunkSize = chunkSize;
+    }
+    
+    @Override
+    public int read(final byte [] b, final int off, final int len) throws IOException
+    {
+      return super.read(b, off, Math.min(len, this.chunkSize));
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Cuelib library for manipulating cue sheets.
+ * Copyright (C) 2007-2008 Jan-Willem van den Broek
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jwbroek.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link jwbroek.util.StringReplacer}.
+ * @author jwbroek
+ */
+public class StringReplacerTest
+{
+  /**
+   * Test the examples from the documentation of {@link StringReplacer}.
+   */
+  @Test
+  public void testDocumentedExamples()
+  {
+    final Map<String, String> replacements = new HashMap<String, String>();
+    replacements.put("schnauzer", "bulldog");
+    replacements.put("dog", "cat");
+    Assert.assertEquals
+      ( "Replacements must be done in a single pass."
+      , "The bulldog chases the other cat."
+      , new StringReplacer(replacements).replace("The schnauzer chases the other dog.")
+      );
+    
+    replacements.clear();
+    replacements.put("bull", "1");
+    replacements.put("bulldog", "2");
+    replacements.put("dogs rule", "3");
+    Assert.assertEquals
+      ( "The leftmost match must win, and then the longest."
+      , "2s rule"
+      , new StringReplacer(replacements).replace("bulldogs rule")
+      );
+  }
+  
+  /**
+   * Test that a longer match that starts earlier wins over a match that was found first.
+   */
+  @Test
+  public void testLaterFoundLeftmostMatch()
+  {
+    final Map<String, String> replacements = new HashMap<String, String>();
+    replacements.put("c", "C");
+    replacements.put("abcde", "X");
+    replacements.put("bcd", "Y");
+    final StringReplacer replacer = new StringReplacer(replacements);
+    Assert.assertEquals("X", replacer.replace("abcde"));
+    Assert.assertEquals("aYf", replacer.replace("abcdf"));
+    Assert.assertEquals("abCCaY", replacer.replace("abccabcd"));
+  }
+  
+  /**
+   * Test that the input instance is returned if nothing is replaced.
+   */
+  @Test
+  public void testNoMatch()
+  {
+    final Map<String, String> replacements = new HashMap<String, String>();
+    replacements.put("<title>", "x");
+    final StringReplacer replacer = new StringReplacer(replacements);
+    final String input = "<titl> <tit";
+    Assert.assertSame("Input without matches must not be copied.", input, replacer.replace(input));
+    Assert.assertEquals("", replacer.replace(""));
+    Assert.assertEquals("abc", new StringReplacer(new HashMap<String, String>()).replace("abc"));
+  }
+  
+  /**
+   * Test replacement into an Appendable, and of non-ASCII text.
+   * @throws IOException Not expected.
+   */
+  @Test
+  public void testAppendable() throws IOException
+  {
+    final Map<String, String> replacements = new HashMap<String, String>();
+    replacements.put("\u00e9t\u00e9", "summer");
+    replacements.put("$1", "\\");
+    final StringReplacer replacer = new StringReplacer(replacements);
+    Assert.assertEquals
+      ( "prefix: summer \\ \u00e9 t"
+      , replacer.replace("\u00e9t\u00e9 $1 \u00e9 t", new StringBuilder("prefix: ")).toString()
+      );
+    Assert.assertEquals("\u00e9t", replacer.replace("\u00e9t", new StringWriter()).toString());
+  }
+  
+  /**
+   * Test that empty search strings are rejected.
+   */
+  @Test
+  public void testEmptySearchString()
+  {
+    final Map<String, String> replacements = new HashMap<String, String>();
+    replacements.put("", "x");
+    try
+    {
+      new StringReplacer(replacements);
+      Assert.fail("Empty search string must be rejected.");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+  
+  /**
+   * Compare the result with a straightforward leftmost-longest search on random input.
+   */
+  @Test
+  public void testRandomInput()
+  {
+    final Random random = new Random(20080101L);
+    for (int round = 0; round < 200; round++)
+    {
+      final Map<String, String> replacements = new HashMap<String, String>();
+      final int keyCount = 1 + random.nextInt(8);
+      for (int index = 0; index < keyCount; index++)
+      {
+        replacements.put(StringReplacerTest.randomString(random, 1 + random.nextInt(4)), "[" + index + "]");
+      }
+      final String input = StringReplacerTest.randomString(random, random.nextInt(60));
+      Assert.assertEquals
+        ( "Input \"" + input + "\" with " + replacements + "."
+        , StringReplacerTest.replaceNaively(input, replacements)
+        , new StringReplacer(replacements).replace(input)
+        );
+    }
+  }
+  
+  /**
+   * Create a random string over a small alphabet, so that matches are frequent.
+   * @param random The source of randomness.
+   * @param length The length of the string.
+   * @return A random string.
+   */
+  private static String randomString(final Random random, final int length)
+  {
+    final StringBuilder builder = new StringBuilder(length);
+    for (int index = 0; index < length; index++)
+    {
+      builder.append("ab\u00e9".charAt(random.nextInt(3)));
+    }
+    return builder.toString();
+  }
+  
+  /**
+   * Perform leftmost-longest replacement by trying every search string at every position.
+   * @param input The input.
+   * @param replacements The replacements.
+   * @return The result of the replacements.
+   */
+  private static String replaceNaively(final String input, final Map<String, String> replacements)
+  {
+    final StringBuilder builder = new StringBuilder();
+    int index = 0;
+    while (index < input.length())
+    {
+      String longestKey = null;
+      for (String key : replacements.keySet())
+      {
+        if (input.startsWith(key, index) && (longestKey == null || key.length() > longestKey.length()))
+        {
+          longestKey = key;
+        }
+      }
+      if (longestKey == null)
+      {
+        builder.append(input.charAt(index));
+        index++;
+      }
+      else
+      {
+        builder.append(replacements.get(longestKey));
+        index += longestKey.length();
+      }
+    }
+    return builder.toString();
+  }
+}